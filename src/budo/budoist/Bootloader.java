@@ -66,7 +66,7 @@ public class Bootloader extends Activity {
         
         // Initialize the sync service in case it wasn't started in boot (i.e. when application is
         // first installed, and before first boot)
-        OnBootReceiver.startRepeatingService(this);
+        OnBootReceiver.scheduleService(this);
    
     	if ((mClient.hasNeverLoggedIn()) || (mClient.hasNeverSynced())) {
     		// Never logged in before - Show a login/register screen
@@ -75,21 +75,9 @@ public class Bootloader extends Activity {
 	        
     	} else {
     		
-    		if ((mStorage.getSyncOnStartup()) && (!mClient.isCurrentlySyncing())) {
-    			// Sync on startup (using another thread)
-    			(new Thread(new Runnable() {
-					@Override
-					public void run() {
-		         		try {
-							mClient.login();
-			        		mClient.syncAll(null);
-						} catch (Exception e) {
-							// Login/sync failed
-							e.printStackTrace();
-						}
- 					}
-				})).start();
-    		}
+    		// Sync on startup (if enabled) - once the initial view is drawn, and only if the last
+    		// sync isn't recent enough
+    		mClient.getSyncCoordinator().requestStartupSync();
     		
     		// Show the initial view, according to the preferences set by the user
     		
@@ -1,8 +1,15 @@
 package budo.budoist;
 
 import pl.polidea.treeview.TreeStateManager;
+import budo.budoist.models.Item;
+import budo.budoist.models.Label;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.Project;
+import budo.budoist.models.Query;
+import budo.budoist.models.SynchronizedModel;
+import budo.budoist.receivers.SyncScheduler;
 import budo.budoist.services.TodoistClient;
+import budo.budoist.services.TodoistOfflineStorage;
 import android.app.Application;
 
 /**
@@ -22,6 +29,30 @@ public class TodoistApplication extends Application {
 		super.onCreate();
 		
 		mClient = new TodoistClient(getBaseContext());
+		
+		// Sync local changes soon after they're made (instead of on the next periodic wake up)
+		(new SyncScheduler.LocalChangesWatcher(getBaseContext(), mClient)).start();
+		
+		// Models passed between screens which are no longer kept by the registry (e.g. after the
+		// process was restarted) are loaded from the local storage
+		ModelRegistry.setResolver(new ModelRegistry.Resolver() {
+			@Override
+			public SynchronizedModel resolve(Class<?> type, int id) {
+				TodoistOfflineStorage storage = mClient.getStorage();
+				
+				if (type == Item.class) {
+					return storage.getItem(id);
+				} else if (type == Project.class) {
+					return storage.getProject(id);
+				} else if (type == Label.class) {
+					return storage.getLabel(id);
+				} else if (type == Query.class) {
+					return storage.getQuery(id);
+				} else {
+					return null;
+				}
+			}
+		});
 	}
 	
 	/**
@@ -0,0 +1,142 @@
+package budo.budoist.debug;
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.util.Log;
+import budo.budoist.services.DBConsts;
+import budo.budoist.services.TodoistOfflineStorage;
+
+/**
+ * Base class of the benchmarks which run against a synthetic account, in a sandboxed storage - sets
+ * up the account before measuring (see openAccount) and clears it once done (see closeAccount), while
+ * the measured samples are collected and summarized by Samples. Subclasses only implement their
+ * measured operations.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public abstract class AccountBenchmark {
+
+	private final static String TAG = "AccountBenchmark";
+
+	/**
+	 * The samples (e.g. durations, in nanoseconds) of a single measured operation
+	 */
+	public static class Samples {
+		private long[] mSamples;
+		private int mCount = 0;
+		private boolean mIsSorted = true;
+
+		/**
+		 * @param capacity the expected number of samples (more may be added)
+		 */
+		public Samples(int capacity) {
+			mSamples = new long[Math.max(capacity, 1)];
+		}
+
+		public void add(long sample) {
+			if (mCount == mSamples.length) {
+				long[] samples = new long[mCount * 2];
+				System.arraycopy(mSamples, 0, samples, 0, mCount);
+				mSamples = samples;
+			}
+
+			mSamples[mCount++] = sample;
+			mIsSorted = false;
+		}
+
+		/**
+		 * Adds the time passed since a measurement started
+		 * @param startNs as returned by System.nanoTime when the measurement started
+		 */
+		public void addSince(long startNs) {
+			add(System.nanoTime() - startNs);
+		}
+
+		public int size() {
+			return mCount;
+		}
+
+		/**
+		 * Returns the nearest-rank percentile of the samples
+		 * @param percentile between 0 and 1
+		 * @return 0 if there are no samples
+		 */
+		public long percentile(double percentile) {
+			if (mCount == 0) return 0;
+
+			if (!mIsSorted) {
+				Arrays.sort(mSamples, 0, mCount);
+				mIsSorted = true;
+			}
+
+			int rank = (int)Math.ceil(percentile * mCount);
+			return mSamples[Math.max(rank - 1, 0)];
+		}
+
+		/**
+		 * Returns a percentile of duration samples, in milliseconds
+		 */
+		public double percentileMs(double percentile) {
+			return percentile(percentile) / 1000000.0;
+		}
+
+		public double maxMs() {
+			return percentileMs(1.0);
+		}
+	}
+
+	protected Context mContext;
+	protected SyntheticAccountGenerator mGenerator;
+	private String mSandboxPrefix;
+
+	protected SandboxContext mSandbox;
+	protected TodoistOfflineStorage mStorage;
+
+
+	/**
+	 * @param context
+	 * @param generator generates the account
+	 * @param sandboxPrefix prefix of the sandboxed storage files (should be unique per benchmark)
+	 */
+	protected AccountBenchmark(Context context, SyntheticAccountGenerator generator, String sandboxPrefix) {
+		mContext = context;
+		mGenerator = generator;
+		mSandboxPrefix = sandboxPrefix;
+	}
+
+
+	/**
+	 * Creates the sandboxed storage and populates it with the synthetic account
+	 * @param countQueries whether or not to count the storage queries (see SandboxContext.getQueryCount)
+	 */
+	protected void openAccount(boolean countQueries) {
+		mSandbox = new SandboxContext(mContext, mSandboxPrefix);
+
+		CursorFactory factory = (countQueries ? mSandbox.getCountingCursorFactory(null) : null);
+		mStorage = new TodoistOfflineStorage(mSandbox, factory);
+		mStorage.clearTodoistData();
+
+		long startTime = System.currentTimeMillis();
+		mStorage.getTotalChanges(); // Makes sure the database is opened
+		mGenerator.populate(mStorage, getDatabase());
+		Log.i(TAG, String.format("Generated account for %s in %d ms", mSandboxPrefix, System.currentTimeMillis() - startTime));
+	}
+
+	/**
+	 * Clears the account (should be called once done measuring, even if measuring failed)
+	 */
+	protected void closeAccount() {
+		mStorage.clearTodoistData();
+	}
+
+	/**
+	 * Returns the (writer) database connection of the sandboxed storage
+	 */
+	protected SQLiteDatabase getDatabase() {
+		return mSandbox.getOpenedDatabase(DBConsts.DATABASE_NAME);
+	}
+}
@@ -0,0 +1,37 @@
+package budo.budoist.debug;
+
+/**
+ * A single micro-benchmark, run by BenchmarkRunner.
+ *
+ * Benchmarks should prepare their inputs in setUp (so it won't be measured), and return the
+ * result of each measured invocation from run (so the runner can consume it, and the measured
+ * code won't be optimized away).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public abstract class Benchmark {
+
+	private String mName;
+
+	public Benchmark(String name) {
+		mName = name;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Prepares the benchmark inputs (called once, before warmup)
+	 */
+	public void setUp() {
+	}
+
+	/**
+	 * Runs a single measured operation
+	 * @param invocation a running counter - can be used for cycling between several inputs
+	 * @return the result of the operation (consumed by the runner)
+	 */
+	public abstract Object run(int invocation);
+}
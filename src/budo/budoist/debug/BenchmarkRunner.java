@@ -0,0 +1,230 @@
+package budo.budoist.debug;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import android.util.Log;
+
+/**
+ * Runs micro-benchmarks (warmup iterations followed by measurement iterations, each running
+ * the benchmark repeatedly for a fixed amount of time), and reports the average time per
+ * operation - optionally compared against a previously saved baseline.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class BenchmarkRunner {
+
+	private final static String TAG = "BenchmarkRunner";
+
+	public final static int DEFAULT_WARMUP_ITERATIONS = 3;
+	public final static int DEFAULT_MEASUREMENT_ITERATIONS = 5;
+	public final static long DEFAULT_ITERATION_TIME_MS = 500;
+
+	// Batches are sized so that reading the clock won't affect the measurement of fast operations
+	private final static long MIN_BATCH_TIME_NS = 1000000;
+
+	/**
+	 * The results of running a single benchmark
+	 */
+	public static class Result {
+		public String name;
+		public double nsPerOp;
+		public double error; // Standard deviation between measurement iterations
+		public long operations;
+		public double baselineNsPerOp = -1; // -1 if there's no baseline
+
+		public String toString() {
+			String baseline = "";
+
+			if (baselineNsPerOp > 0) {
+				baseline = String.format("; baseline: %.1f ns/op (%+.1f%%)", baselineNsPerOp,
+						(nsPerOp - baselineNsPerOp) * 100 / baselineNsPerOp);
+			}
+
+			return String.format("<Benchmark: %s; %.1f +/- %.1f ns/op; %d ops%s>",
+					name, nsPerOp, error, operations, baseline);
+		}
+	}
+
+	private int mWarmupIterations = DEFAULT_WARMUP_ITERATIONS;
+	private int mMeasurementIterations = DEFAULT_MEASUREMENT_ITERATIONS;
+	private long mIterationTimeMs = DEFAULT_ITERATION_TIME_MS;
+
+	// Results of all operations are folded into this field, so they won't be optimized away
+	private volatile int mSink;
+
+
+	public void setIterations(int warmupIterations, int measurementIterations, long iterationTimeMs) {
+		mWarmupIterations = warmupIterations;
+		mMeasurementIterations = measurementIterations;
+		mIterationTimeMs = iterationTimeMs;
+	}
+
+
+	/**
+	 * Runs all benchmarks (in order)
+	 * @param benchmarks
+	 * @param baseline previous results (benchmark name to ns/op); may be null
+	 * @return
+	 */
+	public ArrayList<Result> runAll(ArrayList<Benchmark> benchmarks, Properties baseline) {
+		ArrayList<Result> results = new ArrayList<Result>();
+
+		for (int i = 0; i < benchmarks.size(); i++) {
+			Result result = run(benchmarks.get(i));
+
+			if ((baseline != null) && (baseline.containsKey(result.name))) {
+				try {
+					result.baselineNsPerOp = Double.parseDouble(baseline.getProperty(result.name));
+				} catch (NumberFormatException exc) {
+					Log.e(TAG, String.format("Invalid baseline value for %s", result.name));
+				}
+			}
+
+			Log.i(TAG, result.toString());
+			results.add(result);
+		}
+
+		return results;
+	}
+
+
+	/**
+	 * Runs a single benchmark
+	 * @param benchmark
+	 * @return
+	 */
+	public Result run(Benchmark benchmark) {
+		Result result = new Result();
+		int batchSize = 1;
+		int invocation = 0;
+
+		result.name = benchmark.getName();
+
+		benchmark.setUp();
+
+		// Warmup (while calibrating the batch size)
+		for (int i = 0; i < mWarmupIterations; i++) {
+			long end = System.nanoTime() + mIterationTimeMs * 1000000;
+
+			while (System.nanoTime() < end) {
+				long start = System.nanoTime();
+				invocation = runBatch(benchmark, invocation, batchSize);
+
+				if ((System.nanoTime() - start < MIN_BATCH_TIME_NS) && (batchSize < (1 << 20))) {
+					batchSize *= 2;
+				}
+			}
+		}
+
+		// Measurement
+		double[] nsPerOp = new double[mMeasurementIterations];
+
+		for (int i = 0; i < mMeasurementIterations; i++) {
+			long operations = 0;
+			long start = System.nanoTime();
+			long end = start + mIterationTimeMs * 1000000;
+			long now = start;
+
+			while (now < end) {
+				invocation = runBatch(benchmark, invocation, batchSize);
+				operations += batchSize;
+				now = System.nanoTime();
+			}
+
+			nsPerOp[i] = (double)(now - start) / operations;
+			result.operations += operations;
+		}
+
+		double sum = 0, squaresSum = 0;
+
+		for (int i = 0; i < nsPerOp.length; i++) {
+			sum += nsPerOp[i];
+		}
+
+		result.nsPerOp = sum / nsPerOp.length;
+
+		for (int i = 0; i < nsPerOp.length; i++) {
+			squaresSum += (nsPerOp[i] - result.nsPerOp) * (nsPerOp[i] - result.nsPerOp);
+		}
+
+		result.error = Math.sqrt(squaresSum / nsPerOp.length);
+
+		return result;
+	}
+
+	private int runBatch(Benchmark benchmark, int invocation, int batchSize) {
+		int sink = 0;
+
+		for (int i = 0; i < batchSize; i++) {
+			Object value = benchmark.run(invocation++);
+			if (value != null) sink ^= System.identityHashCode(value);
+		}
+
+		mSink ^= sink;
+
+		return invocation;
+	}
+
+
+	/*
+	 * Baselines
+	 */
+
+
+	/**
+	 * Loads previously saved results
+	 * @param file
+	 * @return null if there's no saved baseline
+	 */
+	public static Properties loadBaseline(File file) {
+		if (!file.exists()) return null;
+
+		Properties baseline = new Properties();
+		FileInputStream input = null;
+
+		try {
+			input = new FileInputStream(file);
+			baseline.load(input);
+		} catch (IOException e) {
+			Log.e(TAG, String.format("Error while loading baseline from %s", file.getPath()), e);
+			return null;
+		} finally {
+			try {
+				if (input != null) input.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		return baseline;
+	}
+
+	/**
+	 * Saves results (so later runs can be compared against them)
+	 * @param file
+	 * @param results
+	 * @throws IOException
+	 */
+	public static void saveBaseline(File file, ArrayList<Result> results) throws IOException {
+		Properties baseline = new Properties();
+
+		for (int i = 0; i < results.size(); i++) {
+			baseline.setProperty(results.get(i).name, String.valueOf(results.get(i).nsPerOp));
+		}
+
+		file.getParentFile().mkdirs();
+		FileOutputStream output = new FileOutputStream(file);
+
+		try {
+			baseline.store(output, "Benchmark baseline (ns/op)");
+		} finally {
+			output.close();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package budo.budoist.debug;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.util.Log;
+import budo.budoist.models.Item;
+import budo.budoist.services.TodoistOfflineStorage.ItemSortMode;
+
+/**
+ * Measures how long storage readers (e.g. the UI) wait while a writer (e.g. the sync process)
+ * is busy updating items - once using the single (writer) connection for reads ("before") and
+ * once using the read-only connections ("after"; only effective in write-ahead logging mode).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class ContentionBenchmark extends AccountBenchmark {
+
+	private final static String TAG = "ContentionBenchmark";
+
+	private final static String SANDBOX_PREFIX = "contention_benchmark";
+
+	public final static int DEFAULT_DURATION_MS = 5000;
+
+	/**
+	 * Reader latencies of a single run
+	 */
+	public static class Result {
+		public String name;
+		public int samples;
+		public int writes;
+		public double p50Ms;
+		public double p99Ms;
+		public double maxMs;
+
+		public String toString() {
+			return String.format("<ContentionBenchmark: %s; p50: %.2f ms; p99: %.2f ms; max: %.2f ms; reads: %d; writes: %d>",
+					name, p50Ms, p99Ms, maxMs, samples, writes);
+		}
+	}
+
+	private int mDurationMs = DEFAULT_DURATION_MS;
+
+	private volatile boolean mIsWriting;
+	private int mWriteCount;
+
+
+	public ContentionBenchmark(Context context, SyntheticAccountGenerator generator) {
+		super(context, generator, SANDBOX_PREFIX);
+	}
+
+	public void setDuration(int durationMs) {
+		mDurationMs = durationMs;
+	}
+
+
+	/**
+	 * Generates the account and measures reader latencies - idle and while writing, using the
+	 * writer connection and using the read-only connections
+	 * @return
+	 */
+	public ArrayList<Result> run() {
+		ArrayList<Result> results = new ArrayList<Result>();
+
+		openAccount(false);
+
+		mStorage.setUseReadConnections(true);
+		Log.i(TAG, String.format("Read-only connections available: %b", mStorage.isUsingReadConnections()));
+
+		try {
+			for (int i = 0; i < 2; i++) {
+				boolean useReadConnections = (i == 1);
+				String connections = (useReadConnections ? "read connections" : "single connection");
+
+				mStorage.setUseReadConnections(useReadConnections);
+
+				results.add(measure(String.format("idle, %s", connections), false));
+				results.add(measure(String.format("while writing, %s", connections), true));
+			}
+
+		} finally {
+			mStorage.setUseReadConnections(true);
+			closeAccount();
+		}
+
+		return results;
+	}
+
+
+	private Result measure(String name, boolean withWriter) {
+		final ArrayList<Integer> projectIds = mGenerator.getProjectIds();
+		final ArrayList<Integer> itemIds = mGenerator.getItemIds();
+		Thread writer = null;
+
+		mWriteCount = 0;
+
+		if (withWriter) {
+			mIsWriting = true;
+
+			// Keeps re-writing items, one by one (similar to how syncing updates the local storage)
+			writer = new Thread(new Runnable() {
+				public void run() {
+					int index = 0;
+
+					while (mIsWriting) {
+						Item item = mStorage.getItem(itemIds.get(index % itemIds.size()));
+						index++;
+
+						if (item == null) continue;
+
+						Item oldItem = (Item)item.clone();
+						item.rawContent = item.rawContent + " ";
+						mStorage.addOrUpdateItem(item, oldItem);
+						mWriteCount++;
+					}
+				}
+			});
+
+			writer.start();
+		}
+
+		Samples samples = new Samples(1024);
+		long endTime = System.currentTimeMillis() + mDurationMs;
+
+		while (System.currentTimeMillis() < endTime) {
+			long start = System.nanoTime();
+			mStorage.getItemsByProject(projectIds.get(samples.size() % projectIds.size()), ItemSortMode.ORIGINAL_ORDER, false);
+			samples.addSince(start);
+		}
+
+		if (writer != null) {
+			mIsWriting = false;
+
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Log.e(TAG, "Interrupted while waiting for the writer", e);
+			}
+		}
+
+		Result result = new Result();
+		result.name = name;
+		result.samples = samples.size();
+		result.writes = mWriteCount;
+		result.p50Ms = samples.percentileMs(0.50);
+		result.p99Ms = samples.percentileMs(0.99);
+		result.maxMs = samples.maxMs();
+
+		Log.i(TAG, result.toString());
+
+		return result;
+	}
+}
@@ -0,0 +1,238 @@
+package budo.budoist.debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.util.Log;
+import budo.budoist.services.TodoistServerException;
+
+/**
+ * Runs developer diagnostics (only in debuggable builds). The service isn't exported, so it's started
+ * by explicit intents - from adb, this requires a root shell (adb root). For example:
+ *
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.SYNC_REPLAY --ei items 10000 --ei projects 500
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.BENCHMARK_MODELS --ez save_baseline true
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.BENCHMARK_STORAGE --ei items 10000
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.BENCHMARK_CONTENTION --ei duration 5000
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.BENCHMARK_SNAPSHOT --ei items 50000 --ei samples 3
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.BENCHMARK_ROW_MAPPERS --ei items 50000 --ei samples 5
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.BENCHMARK_ITEM_HEAP --ei items 10000
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.CHECK_SYNC_HASH --ei pairs 20000 --ei seed 1
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.TRACE_START --ei capacity 16384
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.TRACE_DUMP
+ * 		adb shell am startservice -n budo.budoist/.debug.DebugService -a budo.budoist.debug.action.IO_DETECTOR_START
+ *
+ * Results are written to the log (trace dumps are written to the app's files/traces directory,
+ * unless a filename is given).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class DebugService extends IntentService {
+
+	private final static String TAG = "DebugService";
+
+	public static final String SYNC_REPLAY_ACTION = "budo.budoist.debug.action.SYNC_REPLAY";
+	public static final String BENCHMARK_MODELS_ACTION = "budo.budoist.debug.action.BENCHMARK_MODELS";
+	public static final String BENCHMARK_STORAGE_ACTION = "budo.budoist.debug.action.BENCHMARK_STORAGE";
+	public static final String BENCHMARK_CONTENTION_ACTION = "budo.budoist.debug.action.BENCHMARK_CONTENTION";
+	public static final String BENCHMARK_SNAPSHOT_ACTION = "budo.budoist.debug.action.BENCHMARK_SNAPSHOT";
+	public static final String BENCHMARK_ROW_MAPPERS_ACTION = "budo.budoist.debug.action.BENCHMARK_ROW_MAPPERS";
+	public static final String BENCHMARK_ITEM_HEAP_ACTION = "budo.budoist.debug.action.BENCHMARK_ITEM_HEAP";
+	public static final String CHECK_SYNC_HASH_ACTION = "budo.budoist.debug.action.CHECK_SYNC_HASH";
+	public static final String TRACE_START_ACTION = "budo.budoist.debug.action.TRACE_START";
+	public static final String TRACE_STOP_ACTION = "budo.budoist.debug.action.TRACE_STOP";
+	public static final String TRACE_DUMP_ACTION = "budo.budoist.debug.action.TRACE_DUMP";
+	public static final String IO_DETECTOR_START_ACTION = "budo.budoist.debug.action.IO_DETECTOR_START";
+	public static final String IO_DETECTOR_STOP_ACTION = "budo.budoist.debug.action.IO_DETECTOR_STOP";
+
+	public static final String KEY__PROJECTS = "projects";
+	public static final String KEY__ITEMS = "items";
+	public static final String KEY__LABELS = "labels";
+	public static final String KEY__MIN_LATENCY = "min_latency";
+	public static final String KEY__MAX_LATENCY = "max_latency";
+	public static final String KEY__LABELS_PER_ITEM = "labels_per_item";
+	public static final String KEY__NOTES_RATIO = "notes_ratio";
+	public static final String KEY__DUE_DATE_RATIO = "due_date_ratio";
+	public static final String KEY__SEED = "seed";
+	public static final String KEY__SAVE_BASELINE = "save_baseline";
+	public static final String KEY__CAPACITY = "capacity";
+	public static final String KEY__FILENAME = "filename";
+	public static final String KEY__DURATION = "duration";
+	public static final String KEY__SAMPLES = "samples";
+	public static final String KEY__PAIRS = "pairs";
+	public static final String KEY__STORED = "stored";
+
+	private static final String BENCHMARKS_DIRECTORY = "benchmarks";
+	private static final String TRACES_DIRECTORY = "traces";
+
+	public DebugService() {
+		super("DebugService");
+	}
+
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+			Log.e(TAG, "Diagnostics are only available in debuggable builds");
+			return;
+		}
+
+		String action = intent.getAction();
+
+		if (SYNC_REPLAY_ACTION.equals(action)) {
+			runSyncReplay(intent);
+		} else if (BENCHMARK_MODELS_ACTION.equals(action)) {
+			runBenchmarks("models", ModelBenchmarks.getBenchmarks(this, intent.getIntExtra(KEY__SEED, 1)), intent);
+		} else if (BENCHMARK_STORAGE_ACTION.equals(action)) {
+			runStorageBenchmarks(intent);
+		} else if (BENCHMARK_CONTENTION_ACTION.equals(action)) {
+			runContentionBenchmark(intent);
+		} else if (BENCHMARK_SNAPSHOT_ACTION.equals(action)) {
+			runSnapshotBenchmark(intent);
+		} else if (BENCHMARK_ROW_MAPPERS_ACTION.equals(action)) {
+			runRowMapperBenchmark(intent);
+		} else if (BENCHMARK_ITEM_HEAP_ACTION.equals(action)) {
+			runItemHeapBenchmark(intent);
+		} else if (CHECK_SYNC_HASH_ACTION.equals(action)) {
+			runSyncHashCheck(intent);
+		} else if (TRACE_START_ACTION.equals(action)) {
+			Trace.start(intent.getIntExtra(KEY__CAPACITY, Trace.DEFAULT_CAPACITY));
+		} else if (TRACE_STOP_ACTION.equals(action)) {
+			Trace.stop();
+		} else if (TRACE_DUMP_ACTION.equals(action)) {
+			dumpTrace(intent);
+		} else if (IO_DETECTOR_START_ACTION.equals(action)) {
+			MainThreadIoDetector.start();
+		} else if (IO_DETECTOR_STOP_ACTION.equals(action)) {
+			MainThreadIoDetector.stop();
+		} else {
+			Log.e(TAG, String.format("Unknown action: %s", action));
+		}
+	}
+
+	private void runSyncReplay(Intent intent) {
+		SyncReplayHarness harness = new SyncReplayHarness(this);
+
+		harness.setDatasetSize(
+				intent.getIntExtra(KEY__PROJECTS, SyncReplayHarness.DEFAULT_PROJECT_COUNT),
+				intent.getIntExtra(KEY__ITEMS, SyncReplayHarness.DEFAULT_ITEM_COUNT),
+				intent.getIntExtra(KEY__LABELS, SyncReplayHarness.DEFAULT_LABEL_COUNT));
+		harness.setLatency(intent.getIntExtra(KEY__MIN_LATENCY, 0), intent.getIntExtra(KEY__MAX_LATENCY, 0));
+		harness.setSeed(intent.getIntExtra(KEY__SEED, 1));
+
+		try {
+			ArrayList<SyncReplayHarness.SyncReport> reports = harness.run();
+
+			for (int i = 0; i < reports.size(); i++) {
+				Log.i(TAG, reports.get(i).toString());
+			}
+
+		} catch (TodoistServerException e) {
+			Log.e(TAG, String.format("Sync replay failed: %s", e.getErrorCode().toString()), e);
+		}
+	}
+
+	/**
+	 * Runs a benchmark suite, comparing its results against the suite's saved baseline (if any)
+	 * @param suiteName
+	 * @param benchmarks
+	 * @param intent
+	 */
+	private void runBenchmarks(String suiteName, ArrayList<Benchmark> benchmarks, Intent intent) {
+		File baselineFile = new File(new File(getFilesDir(), BENCHMARKS_DIRECTORY), suiteName + ".properties");
+		Properties baseline = BenchmarkRunner.loadBaseline(baselineFile);
+		BenchmarkRunner runner = new BenchmarkRunner();
+
+		ArrayList<BenchmarkRunner.Result> results = runner.runAll(benchmarks, baseline);
+
+		if (intent.getBooleanExtra(KEY__SAVE_BASELINE, false)) {
+			try {
+				BenchmarkRunner.saveBaseline(baselineFile, results);
+				Log.i(TAG, String.format("Saved baseline to %s", baselineFile.getPath()));
+			} catch (IOException e) {
+				Log.e(TAG, String.format("Error while saving baseline to %s", baselineFile.getPath()), e);
+			}
+		}
+	}
+
+	private SyntheticAccountGenerator createGenerator(Intent intent) {
+		return createGenerator(intent, SyntheticAccountGenerator.DEFAULT_ITEM_COUNT);
+	}
+
+	private SyntheticAccountGenerator createGenerator(Intent intent, int defaultItemCount) {
+		SyntheticAccountGenerator generator = new SyntheticAccountGenerator();
+
+		generator.setDatasetSize(
+				intent.getIntExtra(KEY__PROJECTS, SyntheticAccountGenerator.DEFAULT_PROJECT_COUNT),
+				intent.getIntExtra(KEY__ITEMS, defaultItemCount),
+				intent.getIntExtra(KEY__LABELS, SyntheticAccountGenerator.DEFAULT_LABEL_COUNT));
+		generator.setLabelsPerItem(intent.getIntExtra(KEY__LABELS_PER_ITEM, 3));
+		generator.setNotes(intent.getFloatExtra(KEY__NOTES_RATIO, 0.05f), 3);
+		generator.setDueDates(intent.getFloatExtra(KEY__DUE_DATE_RATIO, 0.4f), 10, 30);
+		generator.setSeed(intent.getIntExtra(KEY__SEED, 1));
+
+		return generator;
+	}
+
+	private void runStorageBenchmarks(Intent intent) {
+		new StorageBenchmarks(this, createGenerator(intent)).run();
+	}
+
+	private void runContentionBenchmark(Intent intent) {
+		ContentionBenchmark benchmark = new ContentionBenchmark(this, createGenerator(intent));
+
+		benchmark.setDuration(intent.getIntExtra(KEY__DURATION, ContentionBenchmark.DEFAULT_DURATION_MS));
+		benchmark.run();
+	}
+
+	private void runSnapshotBenchmark(Intent intent) {
+		SnapshotBenchmark benchmark = new SnapshotBenchmark(this, createGenerator(intent, SnapshotBenchmark.DEFAULT_ITEM_COUNT));
+
+		benchmark.setSampleCount(intent.getIntExtra(KEY__SAMPLES, SnapshotBenchmark.DEFAULT_SAMPLE_COUNT));
+		benchmark.run();
+	}
+
+	private void runRowMapperBenchmark(Intent intent) {
+		RowMapperBenchmark benchmark = new RowMapperBenchmark(this, createGenerator(intent, RowMapperBenchmark.DEFAULT_ITEM_COUNT));
+
+		benchmark.setSampleCount(intent.getIntExtra(KEY__SAMPLES, RowMapperBenchmark.DEFAULT_SAMPLE_COUNT));
+		benchmark.run();
+	}
+
+	private void runItemHeapBenchmark(Intent intent) {
+		ItemHeapBenchmark benchmark = new ItemHeapBenchmark(this, createGenerator(intent, ItemHeapBenchmark.DEFAULT_ITEM_COUNT));
+
+		benchmark.setSampleCount(intent.getIntExtra(KEY__SAMPLES, ItemHeapBenchmark.DEFAULT_SAMPLE_COUNT));
+		benchmark.run();
+	}
+
+	private void runSyncHashCheck(Intent intent) {
+		SyncHashEquivalenceCheck check = new SyncHashEquivalenceCheck(this);
+
+		check.setSeed(intent.getIntExtra(KEY__SEED, 1));
+		check.setCounts(
+				intent.getIntExtra(KEY__PAIRS, SyncHashEquivalenceCheck.DEFAULT_PAIR_COUNT),
+				intent.getIntExtra(KEY__STORED, SyncHashEquivalenceCheck.DEFAULT_STORED_COUNT));
+		check.run();
+	}
+
+	private void dumpTrace(Intent intent) {
+		String filename = intent.getStringExtra(KEY__FILENAME);
+
+		if (filename == null) {
+			filename = new File(new File(getFilesDir(), TRACES_DIRECTORY),
+					String.format("trace_%d.json", System.currentTimeMillis())).getPath();
+		}
+
+		try {
+			Trace.dump(filename);
+		} catch (IOException e) {
+			Log.e(TAG, String.format("Error while dumping trace to %s", filename), e);
+		}
+	}
+}
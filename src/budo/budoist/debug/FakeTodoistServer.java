@@ -0,0 +1,796 @@
+package budo.budoist.debug;
+
+import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.Gson;
+
+import android.util.Log;
+import budo.budoist.models.Project;
+import budo.budoist.services.JsonServer;
+import budo.budoist.services.TodoistServer.ErrorCode;
+
+/**
+ * An in-process stand-in for the Todoist server - implements the API commands used by
+ * TodoistServer on top of a scriptable dataset, with injectable latency and failures.
+ *
+ * Usage: populate the dataset (addProject/addLabel/addItem/addNote) and pass it to a server
+ * instance - new TodoistServer(server); all calls made through that server (e.g. by a client
+ * created with it) are answered by this instance.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class FakeTodoistServer implements JsonServer.IRequestHandler {
+
+	private final static String TAG = "FakeTodoistServer";
+
+	private final static String DATE_FORMAT = "EEE dd MMM yyyy HH:mm:ss";
+	private final static String LABEL_REG_EX = "(^| )\\@([a-zA-Z0-9_-]+)";
+	private final static Pattern LABEL_PATTERN = Pattern.compile(LABEL_REG_EX, Pattern.CASE_INSENSITIVE);
+
+	private final static String RESULT_OK = "\"ok\"";
+
+	public final static String USER_EMAIL = "replay@budoist.local";
+	public final static String USER_PASSWORD = "replay";
+	private final static String USER_API_TOKEN = "0123456789abcdef0123456789abcdef01234567";
+	private final static int USER_ID = 1;
+
+	// Server IDs are positive (temp IDs the client gives to locally added items are negative)
+	private final static int FIRST_GENERATED_ID = 1000;
+
+	private Hashtable<Integer, Hashtable<String, Object>> mProjects = new Hashtable<Integer, Hashtable<String, Object>>();
+	private Hashtable<Integer, Hashtable<String, Object>> mItems = new Hashtable<Integer, Hashtable<String, Object>>();
+	private Hashtable<Integer, Hashtable<String, Object>> mLabels = new Hashtable<Integer, Hashtable<String, Object>>();
+	private Hashtable<Integer, Hashtable<String, Object>> mNotes = new Hashtable<Integer, Hashtable<String, Object>>();
+
+	// Indexes (project ID -> item IDs; item ID -> note IDs)
+	private Hashtable<Integer, ArrayList<Integer>> mProjectItems = new Hashtable<Integer, ArrayList<Integer>>();
+	private Hashtable<Integer, ArrayList<Integer>> mItemNotes = new Hashtable<Integer, ArrayList<Integer>>();
+
+	private int mNextId = FIRST_GENERATED_ID;
+	private boolean mIsPremium = true;
+
+	// Latency/failure injection
+	private long mMinLatencyMs = 0;
+	private long mMaxLatencyMs = 0;
+	private double mFailureRate = 0;
+	private Hashtable<String, Integer> mFailNextRequests = new Hashtable<String, Integer>();
+	private Hashtable<String, ErrorCode> mErrorCodes = new Hashtable<String, ErrorCode>();
+	private Random mRandom;
+
+	// Statistics
+	private int mRoundTrips = 0;
+	private int mFailedRequests = 0;
+	private long mBytesSent = 0;
+	private long mBytesReceived = 0;
+	private Hashtable<String, Integer> mCallsPerCommand = new Hashtable<String, Integer>();
+
+	private Gson mGson = new Gson();
+
+
+	public FakeTodoistServer(long seed) {
+		mRandom = new Random(seed);
+	}
+
+
+	/*
+	 * Latency/failure injection
+	 */
+
+
+	/**
+	 * Sets the latency (randomly chosen between min and max) of each request
+	 * @param minMs
+	 * @param maxMs
+	 */
+	public synchronized void setLatency(long minMs, long maxMs) {
+		mMinLatencyMs = minMs;
+		mMaxLatencyMs = Math.max(minMs, maxMs);
+	}
+
+	/**
+	 * Sets the probability (0..1) of a request failing with a connection error
+	 * @param rate
+	 */
+	public synchronized void setFailureRate(double rate) {
+		mFailureRate = rate;
+	}
+
+	/**
+	 * Makes the next requests of a specific command fail with a connection error
+	 * @param subUrl the command (e.g. getProjects), or null for any command
+	 * @param count
+	 */
+	public synchronized void failNextRequests(String subUrl, int count) {
+		mFailNextRequests.put((subUrl == null ? "" : subUrl), count);
+	}
+
+	/**
+	 * Makes a specific command return an error code (instead of its normal result)
+	 * @param subUrl the command (e.g. addItem)
+	 * @param errorCode the error code to return, or null to return normal results again
+	 */
+	public synchronized void setErrorCode(String subUrl, ErrorCode errorCode) {
+		if (errorCode == null)
+			mErrorCodes.remove(subUrl);
+		else
+			mErrorCodes.put(subUrl, errorCode);
+	}
+
+	public synchronized void setPremium(boolean isPremium) {
+		mIsPremium = isPremium;
+	}
+
+
+	/*
+	 * Statistics
+	 */
+
+
+	public synchronized int getRoundTrips() {
+		return mRoundTrips;
+	}
+
+	public synchronized int getFailedRequests() {
+		return mFailedRequests;
+	}
+
+	public synchronized long getBytesSent() {
+		return mBytesSent;
+	}
+
+	public synchronized long getBytesReceived() {
+		return mBytesReceived;
+	}
+
+	/**
+	 * Returns the number of requests made per command (e.g. getProjects -> 1)
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized Hashtable<String, Integer> getCallsPerCommand() {
+		return (Hashtable<String, Integer>)mCallsPerCommand.clone();
+	}
+
+	public synchronized void resetStatistics() {
+		mRoundTrips = 0;
+		mFailedRequests = 0;
+		mBytesSent = 0;
+		mBytesReceived = 0;
+		mCallsPerCommand.clear();
+	}
+
+
+	/*
+	 * Dataset scripting
+	 */
+
+
+	/**
+	 * Adds a project to the dataset
+	 * @param name
+	 * @param indent
+	 * @param colorIndex
+	 * @return new project ID
+	 */
+	public synchronized int addProject(String name, int indent, int colorIndex) {
+		Hashtable<String, Object> project = new Hashtable<String, Object>();
+		int id = mNextId++;
+
+		project.put("id", id);
+		project.put("user_id", USER_ID);
+		project.put("name", name);
+		project.put("indent", indent);
+		project.put("color", colorToString(colorIndex));
+		project.put("item_order", mProjects.size() + 1);
+		project.put("cache_count", 0);
+
+		mProjects.put(id, project);
+		mProjectItems.put(id, new ArrayList<Integer>());
+
+		return id;
+	}
+
+	/**
+	 * Adds a label to the dataset
+	 * @param name
+	 * @param colorIndex
+	 * @return new label ID
+	 */
+	public synchronized int addLabel(String name, int colorIndex) {
+		Hashtable<String, Object> label = new Hashtable<String, Object>();
+		int id = mNextId++;
+
+		label.put("id", id);
+		label.put("uid", USER_ID);
+		label.put("name", name.toLowerCase());
+		label.put("color", colorIndex);
+		label.put("count", 0);
+
+		mLabels.put(id, label);
+
+		return id;
+	}
+
+	/**
+	 * Adds an item to the dataset
+	 * @param projectId
+	 * @param content item content (without any @labels)
+	 * @param labelIds
+	 * @param dueDate optional due date (null for none)
+	 * @param dateString
+	 * @param priority
+	 * @param indent
+	 * @param completed
+	 * @return new item ID
+	 */
+	public synchronized int addItem(int projectId, String content, ArrayList<Integer> labelIds,
+			Date dueDate, String dateString, int priority, int indent, boolean completed) {
+		Hashtable<String, Object> item = new Hashtable<String, Object>();
+		int id = mNextId++;
+
+		item.put("id", id);
+		item.put("user_id", USER_ID);
+		item.put("project_id", projectId);
+		item.put("content", content);
+		item.put("labels", (labelIds == null ? new ArrayList<Integer>() : new ArrayList<Integer>(labelIds)));
+		if (dueDate != null)
+			item.put("due_date", (new SimpleDateFormat(DATE_FORMAT)).format(dueDate));
+		if (dateString != null)
+			item.put("date_string", dateString);
+		item.put("priority", priority);
+		item.put("indent", indent);
+		item.put("item_order", mProjectItems.get(projectId).size() + 1);
+		item.put("note_count", 0);
+		item.put("checked", (completed ? 1 : 0));
+
+		mItems.put(id, item);
+		mProjectItems.get(projectId).add(id);
+
+		return id;
+	}
+
+	/**
+	 * Adds a note to the dataset
+	 * @param itemId
+	 * @param content
+	 * @return new note ID
+	 */
+	public synchronized int addNote(int itemId, String content) {
+		Hashtable<String, Object> note = new Hashtable<String, Object>();
+		int id = mNextId++;
+
+		note.put("id", id);
+		note.put("item_id", itemId);
+		note.put("content", content);
+		note.put("posted", (new SimpleDateFormat(DATE_FORMAT)).format(new Date()));
+
+		mNotes.put(id, note);
+
+		if (!mItemNotes.containsKey(itemId))
+			mItemNotes.put(itemId, new ArrayList<Integer>());
+		mItemNotes.get(itemId).add(id);
+
+		updateNoteCount(itemId);
+
+		return id;
+	}
+
+	/**
+	 * Returns the raw record of an item (can be modified in-place in order to simulate
+	 * a remote modification)
+	 * @param itemId
+	 * @return
+	 */
+	public synchronized Hashtable<String, Object> getItemRecord(int itemId) {
+		return mItems.get(itemId);
+	}
+
+	public synchronized Hashtable<String, Object> getProjectRecord(int projectId) {
+		return mProjects.get(projectId);
+	}
+
+	public synchronized ArrayList<Integer> getItemIds() {
+		return new ArrayList<Integer>(mItems.keySet());
+	}
+
+	public synchronized ArrayList<Integer> getProjectIds() {
+		return new ArrayList<Integer>(mProjects.keySet());
+	}
+
+	public synchronized ArrayList<Integer> getLabelIds() {
+		return new ArrayList<Integer>(mLabels.keySet());
+	}
+
+	/**
+	 * Removes an item remotely (simulates a deletion made from another client)
+	 * @param itemId
+	 */
+	public synchronized void removeItem(int itemId) {
+		Hashtable<String, Object> item = mItems.remove(itemId);
+		if (item == null) return;
+
+		ArrayList<Integer> projectItems = mProjectItems.get(getInt(item, "project_id", 0));
+		if (projectItems != null) projectItems.remove(new Integer(itemId));
+
+		ArrayList<Integer> noteIds = mItemNotes.remove(itemId);
+		if (noteIds != null) {
+			for (int i = 0; i < noteIds.size(); i++) {
+				mNotes.remove(noteIds.get(i));
+			}
+		}
+	}
+
+
+	/*
+	 * Request handling
+	 */
+
+
+	@Override
+	public String handleRequest(String url, String subUrl, Hashtable<String, Object> parameters) {
+		long latency = 0;
+		boolean fail = false;
+
+		synchronized (this) {
+			mRoundTrips++;
+			mBytesSent += url.length();
+
+			Integer calls = mCallsPerCommand.get(subUrl);
+			mCallsPerCommand.put(subUrl, (calls == null ? 1 : calls + 1));
+
+			if (mMaxLatencyMs > 0) {
+				latency = mMinLatencyMs + (long)(mRandom.nextDouble() * (mMaxLatencyMs - mMinLatencyMs));
+			}
+
+			fail = shouldFail(subUrl);
+			if (fail) mFailedRequests++;
+		}
+
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		if (fail) {
+			// Simulated connection error
+			Log.d(TAG, String.format("Simulating connection error for %s", subUrl));
+			return null;
+		}
+
+		String response;
+
+		synchronized (this) {
+			if (mErrorCodes.containsKey(subUrl)) {
+				response = encodeError(mErrorCodes.get(subUrl));
+			} else {
+				response = executeCommand(subUrl, parameters);
+			}
+
+			try {
+				mBytesReceived += response.getBytes("UTF-8").length;
+			} catch (UnsupportedEncodingException e) {
+				mBytesReceived += response.length();
+			}
+		}
+
+		return response;
+	}
+
+
+	private boolean shouldFail(String subUrl) {
+		String[] keys = { subUrl, "" };
+
+		for (int i = 0; i < keys.length; i++) {
+			Integer count = mFailNextRequests.get(keys[i]);
+
+			if ((count != null) && (count > 0)) {
+				mFailNextRequests.put(keys[i], count - 1);
+				return true;
+			}
+		}
+
+		return ((mFailureRate > 0) && (mRandom.nextDouble() < mFailureRate));
+	}
+
+
+	private String executeCommand(String subUrl, Hashtable<String, Object> params) {
+		if (subUrl.equals("login") || subUrl.equals("loginWithGoogle") || subUrl.equals("updateUser")) {
+			return encode(getUser());
+
+		} else if (subUrl.equals("getProjects")) {
+			return encode(sortByOrder(mProjects.values()));
+
+		} else if (subUrl.equals("getProject")) {
+			Hashtable<String, Object> project = mProjects.get(getInt(params, "project_id", 0));
+			return (project == null ? encodeError(ErrorCode.ERROR_PROJECT_NOT_FOUND) : encode(project));
+
+		} else if (subUrl.equals("addProject")) {
+			int id = addProject((String)params.get("name"), getInt(params, "indent", 1), getInt(params, "color", 0));
+			Hashtable<String, Object> project = mProjects.get(id);
+			if (params.containsKey("order")) project.put("item_order", getInt(params, "order", 0));
+			return encode(project);
+
+		} else if (subUrl.equals("updateProject")) {
+			Hashtable<String, Object> project = mProjects.get(getInt(params, "project_id", 0));
+			if (project == null) return encodeError(ErrorCode.ERROR_PROJECT_NOT_FOUND);
+
+			if (params.containsKey("name")) project.put("name", params.get("name"));
+			if (params.containsKey("indent")) project.put("indent", getInt(params, "indent", 1));
+			if (params.containsKey("color")) project.put("color", colorToString(getInt(params, "color", 0)));
+			if (params.containsKey("order")) project.put("item_order", getInt(params, "order", 0));
+			return encode(project);
+
+		} else if (subUrl.equals("updateProjectOrders")) {
+			ArrayList<Integer> ids = getIntList(params.get("item_id_list"));
+			for (int i = 0; i < ids.size(); i++) {
+				Hashtable<String, Object> project = mProjects.get(ids.get(i));
+				if (project != null) project.put("item_order", i + 1);
+			}
+			return RESULT_OK;
+
+		} else if (subUrl.equals("deleteProject")) {
+			int projectId = getInt(params, "project_id", 0);
+			ArrayList<Integer> itemIds = mProjectItems.get(projectId);
+
+			if (itemIds != null) {
+				itemIds = new ArrayList<Integer>(itemIds);
+				for (int i = 0; i < itemIds.size(); i++) {
+					removeItem(itemIds.get(i));
+				}
+			}
+
+			mProjects.remove(projectId);
+			mProjectItems.remove(projectId);
+			return RESULT_OK;
+
+		} else if (subUrl.equals("getLabels")) {
+			Hashtable<String, Object> labels = new Hashtable<String, Object>();
+			for (Hashtable<String, Object> label : mLabels.values()) {
+				labels.put((String)label.get("name"), label);
+			}
+			return encode(labels);
+
+		} else if (subUrl.equals("addLabel")) {
+			Hashtable<String, Object> label = getLabelByName((String)params.get("name"));
+			if (label == null) {
+				label = mLabels.get(addLabel((String)params.get("name"), getInt(params, "color", 0)));
+			}
+			return encode(label);
+
+		} else if (subUrl.equals("updateLabel")) {
+			Hashtable<String, Object> label = getLabelByName((String)params.get("old_name"));
+			if (label != null) label.put("name", ((String)params.get("new_name")).toLowerCase());
+			return encode(label == null ? new Hashtable<String, Object>() : label);
+
+		} else if (subUrl.equals("updateLabelColor")) {
+			Hashtable<String, Object> label = getLabelByName((String)params.get("name"));
+			if (label != null) label.put("color", getInt(params, "color", 0));
+			return encode(label == null ? new Hashtable<String, Object>() : label);
+
+		} else if (subUrl.equals("deleteLabel")) {
+			Hashtable<String, Object> label = getLabelByName((String)params.get("name"));
+			if (label != null) {
+				Integer labelId = (Integer)label.get("id");
+				mLabels.remove(labelId);
+				for (Hashtable<String, Object> item : mItems.values()) {
+					getIntList(item.get("labels")).remove(labelId);
+				}
+			}
+			return RESULT_OK;
+
+		} else if (subUrl.equals("getUncompletedItems") || subUrl.equals("getCompletedItems")) {
+			int checked = (subUrl.equals("getCompletedItems") ? 1 : 0);
+			ArrayList<Integer> itemIds = mProjectItems.get(getInt(params, "project_id", 0));
+			if (itemIds == null) return encodeError(ErrorCode.ERROR_PROJECT_NOT_FOUND);
+
+			ArrayList<Hashtable<String, Object>> items = new ArrayList<Hashtable<String, Object>>();
+			for (int i = 0; i < itemIds.size(); i++) {
+				Hashtable<String, Object> item = mItems.get(itemIds.get(i));
+				if (getInt(item, "checked", 0) == checked) items.add(item);
+			}
+			return encode(sortByOrder(items));
+
+		} else if (subUrl.equals("getItemsById")) {
+			ArrayList<Hashtable<String, Object>> items = new ArrayList<Hashtable<String, Object>>();
+			ArrayList<Integer> ids = getIntList(params.get("ids"));
+			for (int i = 0; i < ids.size(); i++) {
+				if (mItems.containsKey(ids.get(i))) items.add(mItems.get(ids.get(i)));
+			}
+			return encode(items);
+
+		} else if (subUrl.equals("addItem")) {
+			int projectId = getInt(params, "project_id", 0);
+			if (!mProjects.containsKey(projectId)) return encodeError(ErrorCode.ERROR_PROJECT_NOT_FOUND);
+
+			int id = addItem(projectId, (String)params.get("content"), null, null,
+					(String)params.get("date_string"), getInt(params, "priority", 1), getInt(params, "indent", 1), false);
+			Hashtable<String, Object> item = mItems.get(id);
+			if (params.containsKey("item_order")) item.put("item_order", getInt(params, "item_order", 0));
+			item.put("labels", parseLabels((String)params.get("content")));
+			return encode(item);
+
+		} else if (subUrl.equals("updateItem")) {
+			Hashtable<String, Object> item = mItems.get(getInt(params, "id", 0));
+			if (item == null) return encodeError(ErrorCode.ERROR_ITEM_NOT_FOUND);
+
+			if (params.containsKey("content")) {
+				item.put("content", params.get("content"));
+				item.put("labels", parseLabels((String)params.get("content")));
+			}
+			if (params.containsKey("date_string")) item.put("date_string", params.get("date_string"));
+			if (params.containsKey("priority")) item.put("priority", getInt(params, "priority", 1));
+			if (params.containsKey("indent")) item.put("indent", getInt(params, "indent", 1));
+			if (params.containsKey("item_order")) item.put("item_order", getInt(params, "item_order", 0));
+			return encode(item);
+
+		} else if (subUrl.equals("updateOrders")) {
+			ArrayList<Integer> ids = getIntList(params.get("item_id_list"));
+			for (int i = 0; i < ids.size(); i++) {
+				Hashtable<String, Object> item = mItems.get(ids.get(i));
+				if (item != null) item.put("item_order", i + 1);
+			}
+			return RESULT_OK;
+
+		} else if (subUrl.equals("moveItems")) {
+			int toProject = getInt(params, "to_project", 0);
+			if (!mProjects.containsKey(toProject)) return encodeError(ErrorCode.ERROR_PROJECT_NOT_FOUND);
+
+			Hashtable<?, ?> projectItems = (Hashtable<?, ?>)params.get("project_items");
+			Hashtable<String, Object> counts = new Hashtable<String, Object>();
+
+			for (Object fromProject : projectItems.keySet()) {
+				ArrayList<Integer> ids = getIntList(projectItems.get(fromProject));
+				for (int i = 0; i < ids.size(); i++) {
+					Hashtable<String, Object> item = mItems.get(ids.get(i));
+					if (item == null) continue;
+
+					mProjectItems.get(getInt(item, "project_id", 0)).remove(ids.get(i));
+					mProjectItems.get(toProject).add(ids.get(i));
+					item.put("project_id", toProject);
+				}
+				counts.put(fromProject.toString(), ids.size());
+			}
+
+			return encode(counts);
+
+		} else if (subUrl.equals("deleteItems")) {
+			ArrayList<Integer> ids = getIntList(params.get("ids"));
+			for (int i = 0; i < ids.size(); i++) {
+				removeItem(ids.get(i));
+			}
+			return RESULT_OK;
+
+		} else if (subUrl.equals("completeItems") || subUrl.equals("uncompleteItems")) {
+			int checked = (subUrl.equals("completeItems") ? 1 : 0);
+			ArrayList<Integer> ids = getIntList(params.get("ids"));
+			for (int i = 0; i < ids.size(); i++) {
+				Hashtable<String, Object> item = mItems.get(ids.get(i));
+				if (item != null) item.put("checked", checked);
+			}
+			return RESULT_OK;
+
+		} else if (subUrl.equals("updateRecurringDate")) {
+			ArrayList<Hashtable<String, Object>> items = new ArrayList<Hashtable<String, Object>>();
+			ArrayList<Integer> ids = getIntList(params.get("ids"));
+			for (int i = 0; i < ids.size(); i++) {
+				Hashtable<String, Object> item = mItems.get(ids.get(i));
+				if (item == null) continue;
+
+				// Simply advance the due date by one day
+				item.put("due_date", (new SimpleDateFormat(DATE_FORMAT)).format(
+						new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000)));
+				items.add(item);
+			}
+			return encode(items);
+
+		} else if (subUrl.equals("getNotes")) {
+			if (!mIsPremium) return encodeError(ErrorCode.UNKNOWN_ERROR);
+
+			ArrayList<Hashtable<String, Object>> notes = new ArrayList<Hashtable<String, Object>>();
+			ArrayList<Integer> noteIds = mItemNotes.get(getInt(params, "item_id", 0));
+			if (noteIds != null) {
+				for (int i = 0; i < noteIds.size(); i++) {
+					notes.add(mNotes.get(noteIds.get(i)));
+				}
+			}
+			return encode(notes);
+
+		} else if (subUrl.equals("addNote")) {
+			int itemId = getInt(params, "item_id", 0);
+			if (!mItems.containsKey(itemId)) return encodeError(ErrorCode.ERROR_ITEM_NOT_FOUND);
+			return encode(mNotes.get(addNote(itemId, (String)params.get("content"))));
+
+		} else if (subUrl.equals("updateNote")) {
+			Hashtable<String, Object> note = mNotes.get(getInt(params, "note_id", 0));
+			if (note != null) note.put("content", params.get("content"));
+			return RESULT_OK;
+
+		} else if (subUrl.equals("deleteNote")) {
+			int itemId = getInt(params, "item_id", 0);
+			Integer noteId = getInt(params, "note_id", 0);
+
+			mNotes.remove(noteId);
+			if (mItemNotes.containsKey(itemId)) mItemNotes.get(itemId).remove(noteId);
+			updateNoteCount(itemId);
+			return RESULT_OK;
+
+		} else if (subUrl.equals("query")) {
+			// Queries are evaluated locally by the client - return an empty result
+			ArrayList<Hashtable<String, Object>> ret = new ArrayList<Hashtable<String, Object>>();
+			Hashtable<String, Object> result = new Hashtable<String, Object>();
+			result.put("data", new ArrayList<Object>());
+			ret.add(result);
+			return encode(ret);
+		}
+
+		Log.e(TAG, String.format("Unsupported command: %s", subUrl));
+		return encodeError(ErrorCode.UNKNOWN_ERROR);
+	}
+
+
+	/*
+	 * Utility methods
+	 */
+
+
+	private Hashtable<String, Object> getUser() {
+		Hashtable<String, Object> user = new Hashtable<String, Object>();
+		ArrayList<Object> tzOffset = new ArrayList<Object>();
+
+		tzOffset.add("+00:00"); tzOffset.add(0); tzOffset.add(0); tzOffset.add(0);
+
+		user.put("id", USER_ID);
+		user.put("email", USER_EMAIL);
+		user.put("api_token", USER_API_TOKEN);
+		user.put("full_name", "Sync Replay");
+		user.put("timezone", "UTC");
+		user.put("tz_offset", tzOffset);
+		user.put("time_format", 0);
+		user.put("date_format", 0);
+
+		if (mIsPremium) {
+			user.put("premium_until", (new SimpleDateFormat(DATE_FORMAT)).format(
+					new Date(System.currentTimeMillis() + 365L * 24 * 60 * 60 * 1000)));
+		}
+
+		return user;
+	}
+
+	private Hashtable<String, Object> getLabelByName(String name) {
+		if (name == null) return null;
+
+		for (Hashtable<String, Object> label : mLabels.values()) {
+			if (name.equalsIgnoreCase((String)label.get("name"))) return label;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Converts the @labels of an item's content into label IDs (adding any missing labels)
+	 */
+	private ArrayList<Integer> parseLabels(String content) {
+		ArrayList<Integer> labelIds = new ArrayList<Integer>();
+		if (content == null) return labelIds;
+
+		Matcher matcher = LABEL_PATTERN.matcher(content);
+
+		while (matcher.find()) {
+			Hashtable<String, Object> label = getLabelByName(matcher.group(2));
+			int labelId = (label == null ? addLabel(matcher.group(2), 0) : (Integer)label.get("id"));
+
+			if (!labelIds.contains(labelId)) labelIds.add(labelId);
+		}
+
+		return labelIds;
+	}
+
+	private void updateNoteCount(int itemId) {
+		Hashtable<String, Object> item = mItems.get(itemId);
+		ArrayList<Integer> noteIds = mItemNotes.get(itemId);
+
+		if (item != null) item.put("note_count", (noteIds == null ? 0 : noteIds.size()));
+	}
+
+	private ArrayList<Hashtable<String, Object>> sortByOrder(Collection<Hashtable<String, Object>> records) {
+		ArrayList<Hashtable<String, Object>> ret = new ArrayList<Hashtable<String, Object>>(records);
+
+		Collections.sort(ret, new Comparator<Hashtable<String, Object>>() {
+			@Override
+			public int compare(Hashtable<String, Object> record1, Hashtable<String, Object> record2) {
+				return getInt(record1, "item_order", 0) - getInt(record2, "item_order", 0);
+			}
+		});
+
+		return ret;
+	}
+
+	private String colorToString(int colorIndex) {
+		if ((colorIndex < 0) || (colorIndex >= Project.SUPPORTED_COLORS.length)) colorIndex = 0;
+		return String.format("#%06x", Project.SUPPORTED_COLORS[colorIndex]);
+	}
+
+	private static int getInt(Hashtable<String, Object> params, String key, int defaultValue) {
+		Object value = params.get(key);
+
+		if (value instanceof Integer) {
+			return ((Integer)value).intValue();
+		} else if (value != null) {
+			try {
+				return Integer.parseInt(value.toString());
+			} catch (NumberFormatException exc) {
+				return defaultValue;
+			}
+		}
+
+		return defaultValue;
+	}
+
+	/**
+	 * Converts a list parameter (either a list of integers/strings, or a string such as "[1, 2]")
+	 * into a list of integers
+	 */
+	@SuppressWarnings("unchecked")
+	private static ArrayList<Integer> getIntList(Object value) {
+		ArrayList<Integer> ret = new ArrayList<Integer>();
+
+		if (value instanceof ArrayList<?>) {
+			if ((((ArrayList<?>)value).size() > 0) && (((ArrayList<?>)value).get(0) instanceof Integer)) {
+				// Return the list itself (so callers can modify it in-place)
+				return (ArrayList<Integer>)value;
+			}
+
+			for (Object element : (ArrayList<?>)value) {
+				ret.add(Integer.parseInt(element.toString()));
+			}
+
+		} else if (value instanceof String) {
+			String[] elements = ((String)value).replace("[", "").replace("]", "").split(",");
+
+			for (int i = 0; i < elements.length; i++) {
+				if (elements[i].trim().length() > 0) ret.add(Integer.parseInt(elements[i].trim()));
+			}
+		}
+
+		return ret;
+	}
+
+	private String encode(Object value) {
+		return mGson.toJson(value);
+	}
+
+	private String encodeError(ErrorCode errorCode) {
+		return "\"" + errorCode.toString() + "\"";
+	}
+
+
+	/**
+	 * Returns a short textual summary of the dataset (used in reports)
+	 * @return
+	 */
+	public synchronized String describeDataset() {
+		int completed = 0;
+
+		for (Enumeration<Hashtable<String, Object>> e = mItems.elements(); e.hasMoreElements();) {
+			if (getInt(e.nextElement(), "checked", 0) == 1) completed++;
+		}
+
+		return String.format("%d projects, %d items (%d completed), %d labels, %d notes",
+				mProjects.size(), mItems.size(), completed, mLabels.size(), mNotes.size());
+	}
+}
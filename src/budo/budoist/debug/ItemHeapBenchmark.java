@@ -0,0 +1,110 @@
+package budo.budoist.debug;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.util.Log;
+import budo.budoist.models.Item;
+import budo.budoist.services.TodoistOfflineStorage.ItemSortMode;
+
+/**
+ * Measures the heap retained by items loaded from the storage (the way the sync loads the offline
+ * items list), and checks it against the heap budget per 10k items.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class ItemHeapBenchmark extends AccountBenchmark {
+
+	private final static String TAG = "ItemHeapBenchmark";
+
+	private final static String SANDBOX_PREFIX = "item_heap_benchmark";
+
+	public final static int DEFAULT_ITEM_COUNT = 10000;
+	public final static int DEFAULT_SAMPLE_COUNT = 3;
+
+	// The heap budget of 10k loaded items (including their contents, date strings and label IDs)
+	public final static long BUDGET_PER_10K_ITEMS = 3 * 1024 * 1024;
+
+	/**
+	 * The retained heap of the loaded items
+	 */
+	public static class Result {
+		public int items;
+		public int samples;
+		public long retainedBytes; // Median
+		public long bytesPer10kItems;
+		public boolean isWithinBudget;
+
+		public String toString() {
+			return String.format("<ItemHeapBenchmark: items: %d; retained: %d KB; per 10k items: %d KB (budget: %d KB; %s); samples: %d>",
+					items, retainedBytes / 1024, bytesPer10kItems / 1024, BUDGET_PER_10K_ITEMS / 1024,
+					(isWithinBudget ? "OK" : "OVER BUDGET"), samples);
+		}
+	}
+
+	private int mSampleCount = DEFAULT_SAMPLE_COUNT;
+
+
+	public ItemHeapBenchmark(Context context, SyntheticAccountGenerator generator) {
+		super(context, generator, SANDBOX_PREFIX);
+	}
+
+	public void setSampleCount(int sampleCount) {
+		mSampleCount = sampleCount;
+	}
+
+
+	/**
+	 * Generates the account and measures the retained heap of its items
+	 * @return
+	 */
+	public Result run() {
+		openAccount(false);
+
+		Result result = new Result();
+		Samples samples = new Samples(mSampleCount);
+
+		result.samples = mSampleCount;
+
+		try {
+			for (int i = 0; i < mSampleCount; i++) {
+				long before = getUsedHeap();
+				ArrayList<Item> items = mStorage.getAllItems(true, true, ItemSortMode.ORIGINAL_ORDER);
+				samples.add(getUsedHeap() - before);
+
+				result.items = items.size();
+				items = null;
+			}
+
+		} finally {
+			closeAccount();
+		}
+
+		result.retainedBytes = samples.percentile(0.50);
+		result.bytesPer10kItems = (result.items > 0 ? result.retainedBytes * 10000 / result.items : 0);
+		result.isWithinBudget = (result.bytesPer10kItems <= BUDGET_PER_10K_ITEMS);
+
+		if (result.isWithinBudget) {
+			Log.i(TAG, result.toString());
+		} else {
+			Log.w(TAG, result.toString());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the used heap, after collecting all garbage (so only reachable objects are counted)
+	 */
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			System.runFinalization();
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
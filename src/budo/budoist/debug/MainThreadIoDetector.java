@@ -0,0 +1,144 @@
+package budo.budoist.debug;
+
+import java.util.ArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Detects storage calls made on the main (UI) thread - each one is logged along with its stack
+ * trace and duration. Usage:
+ *
+ * 		adb shell am startservice -a budo.budoist.debug.action.IO_DETECTOR_START
+ * 		adb logcat -s MainThreadIoDetector
+ *
+ * The storage reports every database access (see onStorageAccess). Since a storage call may access
+ * the database more than once, and there's no hook for when it returns, the duration of a storage
+ * call is measured up to the next storage call or the end of the main thread message it was made
+ * in (whichever comes first) - i.e. it's an upper bound.
+ *
+ * When the detector is stopped (the default), onStorageAccess costs a single volatile read.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class MainThreadIoDetector {
+
+	private final static String TAG = "MainThreadIoDetector";
+
+	/**
+	 * A storage call made on the main thread
+	 */
+	private static class Access {
+		public String operation;
+		public long startTime;
+		public int count; // Database accesses made by the storage call
+		public Throwable stackTrace;
+	}
+
+	private static volatile boolean mIsEnabled = false;
+
+	// Storage calls made during the current main thread message (only accessed by the main thread)
+	private static ArrayList<Access> mAccesses = new ArrayList<Access>();
+	private static Handler mHandler = null;
+
+	private static Runnable mReportRunnable = new Runnable() {
+		public void run() {
+			report();
+		}
+	};
+
+
+	/**
+	 * Starts detecting main thread storage calls
+	 */
+	public static void start() {
+		mIsEnabled = true;
+		Log.i(TAG, "Main thread I/O detection started");
+	}
+
+	/**
+	 * Stops detecting main thread storage calls
+	 */
+	public static void stop() {
+		mIsEnabled = false;
+		Log.i(TAG, "Main thread I/O detection stopped");
+	}
+
+	public static boolean isEnabled() {
+		return mIsEnabled;
+	}
+
+	/**
+	 * Called by the storage whenever it accesses the database
+	 * @param type "read" or "write"
+	 */
+	public static void onStorageAccess(String type) {
+		if (!mIsEnabled) return;
+
+		Looper mainLooper = Looper.getMainLooper();
+		if (Looper.myLooper() != mainLooper) return;
+
+		long now = System.nanoTime();
+		Throwable stackTrace = new Throwable("Storage call on the main thread");
+		String operation = getStorageCall(stackTrace.getStackTrace()) + " (" + type + ")";
+
+		if (mAccesses.isEmpty()) {
+			// Report once the current message is done (before any other message is handled)
+			if (mHandler == null) mHandler = new Handler(mainLooper);
+			mHandler.postAtFrontOfQueue(mReportRunnable);
+
+		} else {
+			Access last = mAccesses.get(mAccesses.size() - 1);
+
+			if (last.operation.equals(operation)) {
+				// Another database access made by the same storage call
+				last.count++;
+				return;
+			}
+		}
+
+		Access access = new Access();
+		access.operation = operation;
+		access.startTime = now;
+		access.count = 1;
+		access.stackTrace = stackTrace;
+
+		mAccesses.add(access);
+	}
+
+	/**
+	 * Returns the name of the storage call which accessed the database - the outermost storage frame
+	 * (e.g. getProjects, rather than a private helper it called)
+	 */
+	private static String getStorageCall(StackTraceElement[] stack) {
+		// stack[0] is onStorageAccess, stack[1] is the storage method which accessed the database
+		if (stack.length < 2) return "unknown";
+
+		String storageClass = stack[1].getClassName();
+		int i = 1;
+
+		while ((i + 1 < stack.length) && (stack[i + 1].getClassName().equals(storageClass))) {
+			i++;
+		}
+
+		String className = storageClass.substring(storageClass.lastIndexOf('.') + 1);
+
+		return className + "." + stack[i].getMethodName();
+	}
+
+	private static void report() {
+		long endTime = System.nanoTime();
+
+		for (int i = 0; i < mAccesses.size(); i++) {
+			Access access = mAccesses.get(i);
+			long nextTime = (i + 1 < mAccesses.size() ? mAccesses.get(i + 1).startTime : endTime);
+
+			Log.w(TAG, String.format("%s on the main thread: up to %.1f ms (%d database accesses)",
+					access.operation, (nextTime - access.startTime) / 1000000.0, access.count), access.stackTrace);
+		}
+
+		mAccesses.clear();
+	}
+}
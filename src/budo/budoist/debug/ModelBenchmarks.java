@@ -0,0 +1,292 @@
+package budo.budoist.debug;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Random;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Parcel;
+import budo.budoist.models.Item;
+import budo.budoist.models.ModelRegistry;
+import budo.budoist.models.TodoistTextFormatter;
+import budo.budoist.models.User.DateFormat;
+import budo.budoist.services.JsonServer;
+import budo.budoist.services.TodoistOfflineStorage;
+
+/**
+ * Micro-benchmarks of the model and parsing code paths that run per-item (during sync and
+ * when displaying item lists)
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class ModelBenchmarks {
+
+	private final static int ITEM_COUNT = 500;
+	private final static int LABEL_COUNT = 30;
+
+	private final static String[] DATE_STRINGS = {
+		"today", "tom", "next friday", "sat", "23/10", "10/5/2013", "sep 23", "oct 1 2013 at 14:00",
+		"+3", "tomorrow @ 8pm", "every day", "every mon, wed, fri", "ev 3 days", "every 15", "every 1/12 at 9:30"
+	};
+
+	private final static String[] QUERY_DATES = {
+		"today", "tomorrow", "next friday", "mon", "23", "10/5", "sep 23", "23 sep 2013"
+	};
+
+	private final static String[] CONTENTS = {
+		"Buy milk",
+		"Buy milk @shopping @errands",
+		"*Groceries",
+		"Call %(b)mom% about the %(hl)weekend% @phone",
+		"%(i)Read% chapter 3 of %(ui)the book% and write a %(u)short% summary @reading @school @homework",
+		"Pay bills @home"
+	};
+
+
+	/**
+	 * Returns all model benchmarks
+	 * @param context used for storage access (query date parsing)
+	 * @param seed
+	 * @return
+	 */
+	public static ArrayList<Benchmark> getBenchmarks(Context context, long seed) {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		Random random = new Random(seed);
+
+		// Generate realistic item records (as returned from the server)
+		String itemsJson = generateItemsJson(random);
+		ArrayList<Hashtable<String, Object>> records = decodeRecords(itemsJson);
+		final ArrayList<Item> items = new ArrayList<Item>();
+
+		for (int i = 0; i < records.size(); i++) {
+			items.add(new Item(records.get(i)));
+		}
+
+		benchmarks.add(getCalculateFirstDueDateBenchmark());
+		benchmarks.add(getContentBenchmark(items));
+		benchmarks.add(getLabelsBenchmark(items));
+		benchmarks.add(getItemDecodingBenchmark(records));
+		benchmarks.add(getItemCompareBenchmark(items));
+		benchmarks.add(getCompareArraysBenchmark(items));
+		benchmarks.add(getTextFormatterBenchmark());
+		benchmarks.add(getJsonDecodeBenchmark(itemsJson, ITEM_COUNT));
+		benchmarks.add(getSerializableExtraBenchmark(items));
+		benchmarks.add(getModelRegistryExtraBenchmark(items));
+		benchmarks.add(getQueryDateBenchmark(new TodoistOfflineStorage(new SandboxContext(context, "benchmarks"))));
+
+		return benchmarks;
+	}
+
+
+	private static String generateItemsJson(Random random) {
+		FakeTodoistServer server = new FakeTodoistServer(random.nextLong());
+		ArrayList<Integer> labelIds = new ArrayList<Integer>();
+		Calendar calendar = Calendar.getInstance();
+
+		int projectId = server.addProject("Benchmarks", 1, 0);
+
+		for (int i = 0; i < LABEL_COUNT; i++) {
+			labelIds.add(server.addLabel(String.format("label%d", i + 1), i % 13));
+		}
+
+		for (int i = 0; i < ITEM_COUNT; i++) {
+			ArrayList<Integer> itemLabels = new ArrayList<Integer>();
+			int labelCount = random.nextInt(4);
+
+			for (int j = 0; j < labelCount; j++) {
+				Integer labelId = labelIds.get(random.nextInt(labelIds.size()));
+				if (!itemLabels.contains(labelId)) itemLabels.add(labelId);
+			}
+
+			Date dueDate = null;
+			String dateString = null;
+
+			if (random.nextDouble() < 0.4) {
+				calendar.setTime(new Date());
+				calendar.add(Calendar.DAY_OF_YEAR, random.nextInt(40) - 10);
+				dueDate = calendar.getTime();
+				dateString = DATE_STRINGS[random.nextInt(DATE_STRINGS.length)];
+			}
+
+			server.addItem(projectId, CONTENTS[random.nextInt(CONTENTS.length)], itemLabels, dueDate, dateString,
+					random.nextInt(4) + 1, random.nextInt(3) + 1, false);
+		}
+
+		Hashtable<String, Object> params = new Hashtable<String, Object>();
+		params.put("project_id", projectId);
+
+		return server.handleRequest("", "getUncompletedItems", params);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ArrayList<Hashtable<String, Object>> decodeRecords(String json) {
+		ArrayList<Object> list = (ArrayList<Object>)JsonServer.jsonDecodeString(json);
+		ArrayList<Hashtable<String, Object>> records = new ArrayList<Hashtable<String, Object>>();
+
+		for (int i = 0; i < list.size(); i++) {
+			records.add((Hashtable<String, Object>)list.get(i));
+		}
+
+		return records;
+	}
+
+
+	private static Benchmark getCalculateFirstDueDateBenchmark() {
+		return new Benchmark("Item.calculateFirstDueDate") {
+			private Item[] mItems = new Item[DATE_STRINGS.length];
+
+			public void setUp() {
+				for (int i = 0; i < mItems.length; i++) {
+					mItems[i] = new Item();
+					mItems[i].dateString = DATE_STRINGS[i];
+				}
+			}
+
+			public Object run(int invocation) {
+				Item item = mItems[invocation % mItems.length];
+				item.calculateFirstDueDate(DateFormat.DD_MM_YYYY, 120);
+				return item.dueTime;
+			}
+		};
+	}
+
+	private static Benchmark getContentBenchmark(final ArrayList<Item> items) {
+		return new Benchmark("Item.getContent") {
+			public Object run(int invocation) {
+				return items.get(invocation % items.size()).getContent();
+			}
+		};
+	}
+
+	private static Benchmark getLabelsBenchmark(final ArrayList<Item> items) {
+		return new Benchmark("Item.getLabels") {
+			public Object run(int invocation) {
+				return items.get(invocation % items.size()).getLabels();
+			}
+		};
+	}
+
+	private static Benchmark getItemDecodingBenchmark(final ArrayList<Hashtable<String, Object>> records) {
+		return new Benchmark("Item(Hashtable)") {
+			public Object run(int invocation) {
+				return new Item(records.get(invocation % records.size()));
+			}
+		};
+	}
+
+	private static Benchmark getItemCompareBenchmark(final ArrayList<Item> items) {
+		return new Benchmark("Item.compareTo") {
+			private ArrayList<Item> mCopies = new ArrayList<Item>();
+
+			public void setUp() {
+				// Compare against identical copies - the worst case (all fields are compared)
+				for (int i = 0; i < items.size(); i++) {
+					mCopies.add((Item)items.get(i).clone());
+				}
+			}
+
+			public Object run(int invocation) {
+				int index = invocation % items.size();
+				return items.get(index).compareTo(mCopies.get(index));
+			}
+		};
+	}
+
+	private static Benchmark getCompareArraysBenchmark(final ArrayList<Item> items) {
+		return new Benchmark("SynchronizedModel.compareArrays") {
+			private ArrayList<Item> mCopies = new ArrayList<Item>();
+
+			public void setUp() {
+				// Same label IDs in a different order
+				for (int i = 0; i < items.size(); i++) {
+					Item copy = (Item)items.get(i).clone();
+
+					if (copy.labelIds != null) {
+						int[] labelIds = new int[copy.labelIds.length];
+
+						for (int j = 0; j < labelIds.length; j++) {
+							labelIds[j] = copy.labelIds[labelIds.length - 1 - j];
+						}
+
+						copy.labelIds = labelIds;
+					}
+
+					mCopies.add(copy);
+				}
+			}
+
+			public Object run(int invocation) {
+				int index = invocation % items.size();
+				return items.get(index).compareLabelIds(mCopies.get(index));
+			}
+		};
+	}
+
+	private static Benchmark getTextFormatterBenchmark() {
+		return new Benchmark("TodoistTextFormatter.formatText") {
+			public Object run(int invocation) {
+				return TodoistTextFormatter.formatText(CONTENTS[invocation % CONTENTS.length]);
+			}
+		};
+	}
+
+	private static Benchmark getJsonDecodeBenchmark(final String json, int itemCount) {
+		return new Benchmark(String.format("JsonServer.jsonDecodeString (%d items)", itemCount)) {
+			public Object run(int invocation) {
+				return JsonServer.jsonDecodeString(json);
+			}
+		};
+	}
+
+	private static Benchmark getQueryDateBenchmark(final TodoistOfflineStorage storage) {
+		return new Benchmark("TodoistOfflineStorage.parseQueryDate") {
+			public Object run(int invocation) {
+				return storage.parseQueryDate(QUERY_DATES[invocation % QUERY_DATES.length], DateFormat.DD_MM_YYYY);
+			}
+		};
+	}
+
+	private static Benchmark getSerializableExtraBenchmark(final ArrayList<Item> items) {
+		return new Benchmark("Item intent extra (Serializable)") {
+			public Object run(int invocation) {
+				Bundle extras = new Bundle();
+				extras.putSerializable("item", items.get(invocation % items.size()));
+
+				Bundle received = parcelRoundTrip(extras);
+				received.setClassLoader(Item.class.getClassLoader());
+				return received.getSerializable("item");
+			}
+		};
+	}
+
+	private static Benchmark getModelRegistryExtraBenchmark(final ArrayList<Item> items) {
+		return new Benchmark("Item intent extra (ModelRegistry handle)") {
+			public Object run(int invocation) {
+				Bundle extras = new Bundle();
+				extras.putParcelable("item", ModelRegistry.put(items.get(invocation % items.size())));
+
+				return ModelRegistry.getExtra(parcelRoundTrip(extras), "item");
+			}
+		};
+	}
+
+	/**
+	 * Passes the extras through a parcel - the way they're passed (to the activity manager and back)
+	 * on a screen transition
+	 */
+	private static Bundle parcelRoundTrip(Bundle extras) {
+		Parcel parcel = Parcel.obtain();
+
+		try {
+			parcel.writeBundle(extras);
+			parcel.setDataPosition(0);
+			return parcel.readBundle();
+		} finally {
+			parcel.recycle();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package budo.budoist.debug;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import budo.budoist.models.Item;
+import budo.budoist.models.SynchronizedModel.DirtyState;
+import budo.budoist.services.DBConsts;
+import budo.budoist.services.RowMappers;
+
+/**
+ * Compares mapping item rows into models - looking up columns by name for every row (with dirty
+ * states saved by name) against the row mappers (with ordinals resolved once per cursor) - on a large
+ * synthetic account.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class RowMapperBenchmark extends AccountBenchmark {
+
+	private final static String TAG = "RowMapperBenchmark";
+
+	private final static String SANDBOX_PREFIX = "row_mapper_benchmark";
+
+	public final static int DEFAULT_ITEM_COUNT = 50000;
+	public final static int DEFAULT_SAMPLE_COUNT = 5;
+	private final static int WARMUP_COUNT = 1;
+
+	/**
+	 * The mapping time of a single mapping method
+	 */
+	public static class Result {
+		public String name;
+		public int samples;
+		public int rows;
+		public double mapMs; // Median, for all rows
+		public double nsPerRow;
+
+		public String toString() {
+			return String.format("<RowMapperBenchmark: %s; map: %.1f ms; per row: %.0f ns; rows: %d; samples: %d>",
+					name, mapMs, nsPerRow, rows, samples);
+		}
+	}
+
+	/**
+	 * Maps all rows of a cursor
+	 */
+	private interface Mapping {
+		public int map(Cursor c);
+	}
+
+	private int mSampleCount = DEFAULT_SAMPLE_COUNT;
+
+	private SQLiteDatabase mDb;
+
+
+	public RowMapperBenchmark(Context context, SyntheticAccountGenerator generator) {
+		super(context, generator, SANDBOX_PREFIX);
+	}
+
+	public void setSampleCount(int sampleCount) {
+		mSampleCount = sampleCount;
+	}
+
+
+	/**
+	 * Generates the account and measures all mapping methods
+	 * @return a result per mapping method
+	 */
+	public ArrayList<Result> run() {
+		ArrayList<Result> results = new ArrayList<Result>();
+
+		openAccount(false);
+		mDb = getDatabase();
+
+		try {
+			// Dirty states are read by name, as they were saved before they were saved by code
+			results.add(measure("getColumnIndex per row", getLegacyItemsQuery(), new Mapping() {
+				public int map(Cursor c) {
+					ArrayList<Item> items = new ArrayList<Item>();
+
+					for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+						items.add(getLegacyItemFromCursor(c));
+					}
+
+					return items.size();
+				}
+			}));
+
+			String itemsQuery = "SELECT * FROM " + DBConsts.ITEMS_TABLE_NAME;
+
+			results.add(measure("RowMappers (new instances)", itemsQuery, new Mapping() {
+				public int map(Cursor c) {
+					return new RowMappers.ItemMapper(c).mapAll().size();
+				}
+			}));
+
+			results.add(measure("RowMappers (reused instance)", itemsQuery, new Mapping() {
+				public int map(Cursor c) {
+					RowMappers.ItemMapper mapper = new RowMappers.ItemMapper(c);
+					Item item = new Item();
+					int count = 0;
+
+					for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+						mapper.map(item);
+						count++;
+					}
+
+					return count;
+				}
+			}));
+
+		} finally {
+			closeAccount();
+		}
+
+		return results;
+	}
+
+
+	private Result measure(String name, String query, Mapping mapping) {
+		Result result = new Result();
+		Samples samples = new Samples(mSampleCount);
+
+		result.name = name;
+		result.samples = mSampleCount;
+
+		for (int i = 0; i < WARMUP_COUNT + mSampleCount; i++) {
+			Cursor c = mDb.rawQuery(query, null);
+			c.getCount(); // Runs the query (and fills the first cursor window) before measuring
+
+			long start = System.nanoTime();
+			result.rows = mapping.map(c);
+			long duration = System.nanoTime() - start;
+
+			c.close();
+
+			if (i >= WARMUP_COUNT) samples.add(duration);
+		}
+
+		long median = samples.percentile(0.50);
+		result.mapMs = median / 1000000.0;
+		result.nsPerRow = (result.rows > 0 ? (double)median / result.rows : 0);
+
+		Log.i(TAG, result.toString());
+
+		return result;
+	}
+
+	/**
+	 * Returns a query of all items, with their dirty states converted back into names
+	 */
+	private String getLegacyItemsQuery() {
+		StringBuilder dirtyState = new StringBuilder("CASE " + DBConsts.ITEMS_DIRTY_STATE);
+
+		for (DirtyState state : DirtyState.values()) {
+			dirtyState.append(String.format(" WHEN %d THEN '%s'", state.getCode(), state.toString()));
+		}
+
+		dirtyState.append(" END");
+
+		String[] columns = { DBConsts.ITEMS_ID, DBConsts.ITEMS_PROJECT_ID, DBConsts.ITEMS_CONTENT, DBConsts.ITEMS_DATE_STRING,
+				DBConsts.ITEMS_DUE_DATE, DBConsts.ITEMS_INDENT, DBConsts.ITEMS_NOTE_COUNT, DBConsts.ITEMS_ORDER,
+				DBConsts.ITEMS_PRIORITY, DBConsts.ITEMS_COMPLETED };
+		StringBuilder query = new StringBuilder("SELECT ");
+
+		for (int i = 0; i < columns.length; i++) {
+			query.append(columns[i]).append(", ");
+		}
+
+		query.append(dirtyState).append(" AS ").append(DBConsts.ITEMS_DIRTY_STATE);
+		query.append(" FROM ").append(DBConsts.ITEMS_TABLE_NAME);
+
+		return query.toString();
+	}
+
+	/**
+	 * Maps an item the way the storage did before the row mappers
+	 */
+	private static Item getLegacyItemFromCursor(Cursor c) {
+		Item item = new Item();
+
+		item.id = c.getInt(c.getColumnIndex(DBConsts.ITEMS_ID));
+		item.projectId = c.getInt(c.getColumnIndex(DBConsts.ITEMS_PROJECT_ID));
+		item.rawContent = c.getString(c.getColumnIndex(DBConsts.ITEMS_CONTENT));
+		item.dateString = c.getString(c.getColumnIndex(DBConsts.ITEMS_DATE_STRING));
+
+		long dateNum = c.getLong(c.getColumnIndex(DBConsts.ITEMS_DUE_DATE));
+		item.setDueDate(new Date(((dateNum == Long.MAX_VALUE) || (dateNum < 0) ? 0 : dateNum)));
+
+		item.indentLevel = c.getInt(c.getColumnIndex(DBConsts.ITEMS_INDENT));
+		item.noteCount = c.getInt(c.getColumnIndex(DBConsts.ITEMS_NOTE_COUNT));
+		item.itemOrder = c.getInt(c.getColumnIndex(DBConsts.ITEMS_ORDER));
+		item.priority = c.getInt(c.getColumnIndex(DBConsts.ITEMS_PRIORITY));
+		item.completed = (c.getInt(c.getColumnIndex(DBConsts.ITEMS_COMPLETED)) == 0 ? false : true);
+		item.dirtyState = DirtyState.valueOf(c.getString(c.getColumnIndex(DBConsts.ITEMS_DIRTY_STATE)));
+
+		return item;
+	}
+}
@@ -0,0 +1,120 @@
+package budo.budoist.debug;
+
+import java.io.File;
+import java.util.Hashtable;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+
+/**
+ * A context which prefixes all database and shared preferences names - so that a TodoistClient
+ * created with it won't touch the real (user's) storage.
+ *
+ * Also counts all queries (cursors) opened on its databases (as well as on connections opened
+ * with its counting cursor factory - e.g. the storage's read-only connections).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SandboxContext extends ContextWrapper {
+
+	private String mPrefix;
+	private int mQueryCount = 0;
+	private Hashtable<String, SQLiteDatabase> mDatabases = new Hashtable<String, SQLiteDatabase>();
+
+	public SandboxContext(Context base, String prefix) {
+		super(base);
+
+		mPrefix = prefix + ".";
+	}
+
+	/**
+	 * Returns a cursor factory which counts queries (wrapping the given factory, if any)
+	 * @param factory
+	 * @return
+	 */
+	public CursorFactory getCountingCursorFactory(final CursorFactory factory) {
+		if (factory instanceof CountingCursorFactory) {
+			// Already counted
+			return factory;
+		}
+
+		return new CountingCursorFactory(factory);
+	}
+
+	private class CountingCursorFactory implements CursorFactory {
+		private CursorFactory mFactory;
+
+		public CountingCursorFactory(CursorFactory factory) {
+			mFactory = factory;
+		}
+
+		@Override
+		public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+			synchronized (SandboxContext.this) {
+				mQueryCount++;
+			}
+
+			if (mFactory != null) {
+				return mFactory.newCursor(db, masterQuery, editTable, query);
+			} else {
+				return new SQLiteCursor(db, masterQuery, editTable, query);
+			}
+		}
+	}
+
+	@Override
+	public SQLiteDatabase openOrCreateDatabase(String name, int mode, CursorFactory factory) {
+		SQLiteDatabase db = super.openOrCreateDatabase(mPrefix + name, mode, getCountingCursorFactory(factory));
+		mDatabases.put(name, db);
+
+		return db;
+	}
+
+	@Override
+	public boolean deleteDatabase(String name) {
+		mDatabases.remove(name);
+		return super.deleteDatabase(mPrefix + name);
+	}
+
+	@Override
+	public File getDatabasePath(String name) {
+		return super.getDatabasePath(mPrefix + name);
+	}
+
+	@Override
+	public SharedPreferences getSharedPreferences(String name, int mode) {
+		return super.getSharedPreferences(mPrefix + name, mode);
+	}
+
+	@Override
+	public Context getApplicationContext() {
+		// Don't let callers escape the sandbox by using the application context
+		return this;
+	}
+
+	/**
+	 * Returns the number of queries executed so far on databases opened by this context
+	 * @return
+	 */
+	public synchronized int getQueryCount() {
+		return mQueryCount;
+	}
+
+	/**
+	 * Returns a database previously opened by this context (e.g. for wrapping bulk operations
+	 * in a single transaction)
+	 * @param name the (unprefixed) database name
+	 * @return null if the database hasn't been opened yet
+	 */
+	public SQLiteDatabase getOpenedDatabase(String name) {
+		return mDatabases.get(name);
+	}
+}
@@ -0,0 +1,136 @@
+package budo.budoist.debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Compares the zipped CSV backup format against the binary snapshot format - write time, restore
+ * time and file size - on a large synthetic account.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SnapshotBenchmark extends AccountBenchmark {
+
+	private final static String TAG = "SnapshotBenchmark";
+
+	private final static String SANDBOX_PREFIX = "snapshot_benchmark";
+	private final static String CSV_FILENAME = "snapshot_benchmark_backup.zip";
+	private final static String SNAPSHOT_FILENAME = "snapshot_benchmark_snapshot.bin";
+
+	public final static int DEFAULT_ITEM_COUNT = 50000;
+	public final static int DEFAULT_SAMPLE_COUNT = 3;
+
+	/**
+	 * Write/restore times of a single format
+	 */
+	public static class Result {
+		public String name;
+		public int samples;
+		public long fileSize;
+		public double writeMs; // Median
+		public double restoreMs; // Median
+
+		public String toString() {
+			return String.format("<SnapshotBenchmark: %s; write: %.1f ms; restore: %.1f ms; size: %d bytes; samples: %d>",
+					name, writeMs, restoreMs, fileSize, samples);
+		}
+	}
+
+	/**
+	 * Writes/restores a single format
+	 */
+	private interface Format {
+		public void write(String filename) throws IOException;
+		public void restore(String filename) throws IOException;
+	}
+
+	private int mSampleCount = DEFAULT_SAMPLE_COUNT;
+
+
+	public SnapshotBenchmark(Context context, SyntheticAccountGenerator generator) {
+		super(context, generator, SANDBOX_PREFIX);
+	}
+
+	public void setSampleCount(int sampleCount) {
+		mSampleCount = sampleCount;
+	}
+
+
+	/**
+	 * Generates the account and measures both formats
+	 * @return a result per format
+	 */
+	public ArrayList<Result> run() {
+		ArrayList<Result> results = new ArrayList<Result>();
+
+		openAccount(false);
+
+		File csvFile = new File(mContext.getCacheDir(), CSV_FILENAME);
+		File snapshotFile = new File(mContext.getCacheDir(), SNAPSHOT_FILENAME);
+
+		try {
+			results.add(measure("csv", csvFile, new Format() {
+				public void write(String filename) throws IOException {
+					mStorage.backupTodoistData(filename);
+				}
+				public void restore(String filename) throws IOException {
+					mStorage.restoreTodoistData(filename);
+				}
+			}));
+
+			results.add(measure("snapshot", snapshotFile, new Format() {
+				public void write(String filename) throws IOException {
+					mStorage.snapshotTodoistData(filename);
+				}
+				public void restore(String filename) throws IOException {
+					mStorage.restoreTodoistSnapshot(filename);
+				}
+			}));
+
+		} catch (IOException e) {
+			Log.e(TAG, "Error while running snapshot benchmark", e);
+
+		} finally {
+			csvFile.delete();
+			snapshotFile.delete();
+			closeAccount();
+		}
+
+		return results;
+	}
+
+
+	private Result measure(String name, File file, Format format) throws IOException {
+		Result result = new Result();
+		Samples writeSamples = new Samples(mSampleCount);
+		Samples restoreSamples = new Samples(mSampleCount);
+
+		result.name = name;
+		result.samples = mSampleCount;
+
+		// Each restore rewrites the same data, so the next write measures the same amount of rows
+		for (int i = 0; i < mSampleCount; i++) {
+			long start = System.nanoTime();
+			format.write(file.getPath());
+			writeSamples.addSince(start);
+
+			start = System.nanoTime();
+			format.restore(file.getPath());
+			restoreSamples.addSince(start);
+		}
+
+		result.fileSize = file.length();
+
+		result.writeMs = writeSamples.percentileMs(0.50);
+		result.restoreMs = restoreSamples.percentileMs(0.50);
+
+		Log.i(TAG, result.toString());
+
+		return result;
+	}
+}
@@ -0,0 +1,171 @@
+package budo.budoist.debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.util.Log;
+import budo.budoist.models.Query;
+import budo.budoist.services.TodoistOfflineStorage.ItemSortMode;
+
+/**
+ * Measures the main TodoistOfflineStorage paths against an (on-disk) synthetic account,
+ * reporting latency percentiles and number of queries/writes per operation.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class StorageBenchmarks extends AccountBenchmark {
+
+	private final static String TAG = "StorageBenchmarks";
+
+	private final static String SANDBOX_PREFIX = "storage_benchmarks";
+	private final static String BACKUP_FILENAME = "storage_benchmarks_backup.zip";
+
+	public final static int DEFAULT_SAMPLE_COUNT = 50;
+	public final static int DEFAULT_SLOW_SAMPLE_COUNT = 5; // For backup/restore
+	private final static int WARMUP_COUNT = 3;
+
+	/**
+	 * The results of measuring a single storage operation
+	 */
+	public static class Result {
+		public String name;
+		public int samples;
+		public double p50Ms;
+		public double p99Ms;
+		public double maxMs;
+		public double queriesPerOp;
+		public double writesPerOp;
+
+		public String toString() {
+			return String.format("<StorageBenchmark: %s; p50: %.2f ms; p99: %.2f ms; max: %.2f ms; queries/op: %.1f; writes/op: %.1f; samples: %d>",
+					name, p50Ms, p99Ms, maxMs, queriesPerOp, writesPerOp, samples);
+		}
+	}
+
+	/**
+	 * A single measured storage operation
+	 */
+	private interface Operation {
+		public void run(int invocation) throws IOException;
+	}
+
+	private int mSampleCount = DEFAULT_SAMPLE_COUNT;
+	private int mSlowSampleCount = DEFAULT_SLOW_SAMPLE_COUNT;
+
+
+	public StorageBenchmarks(Context context, SyntheticAccountGenerator generator) {
+		super(context, generator, SANDBOX_PREFIX);
+	}
+
+	public void setSampleCount(int sampleCount, int slowSampleCount) {
+		mSampleCount = sampleCount;
+		mSlowSampleCount = slowSampleCount;
+	}
+
+
+	/**
+	 * Generates the account and runs all storage benchmarks
+	 * @return a result per operation
+	 */
+	public ArrayList<Result> run() {
+		ArrayList<Result> results = new ArrayList<Result>();
+
+		openAccount(true); // Count reads from all connections
+
+		final ArrayList<Integer> projectIds = mGenerator.getProjectIds();
+		final ArrayList<Integer> labelIds = mGenerator.getLabelIds();
+		final File backupFile = new File(mContext.getCacheDir(), BACKUP_FILENAME);
+
+		try {
+			results.add(measure("getItemsByProject", mSampleCount, new Operation() {
+				public void run(int invocation) {
+					mStorage.getItemsByProject(projectIds.get(invocation % projectIds.size()), ItemSortMode.ORIGINAL_ORDER, false);
+				}
+			}));
+
+			results.add(measure("getItemsByLabel", mSampleCount, new Operation() {
+				public void run(int invocation) {
+					mStorage.getItemsByLabel(labelIds.get(invocation % labelIds.size()), ItemSortMode.SORT_BY_DUE_DATE, false);
+				}
+			}));
+
+			// The built-in queries (created along with the database)
+			ArrayList<Query> queries = mStorage.getQueries();
+
+			for (int i = 0; i < queries.size(); i++) {
+				final String query = queries.get(i).query;
+
+				results.add(measure(String.format("getItemsByQuery(\"%s\")", query), mSampleCount, new Operation() {
+					public void run(int invocation) {
+						mStorage.getItemsByQuery(query, false);
+					}
+				}));
+			}
+
+			results.add(measure("updateLabelsItemCount", mSampleCount, new Operation() {
+				public void run(int invocation) {
+					mStorage.updateLabelsItemCount();
+				}
+			}));
+
+			results.add(measure("backupTodoistData", mSlowSampleCount, new Operation() {
+				public void run(int invocation) throws IOException {
+					mStorage.backupTodoistData(backupFile.getPath());
+				}
+			}));
+
+			results.add(measure("restoreTodoistData", mSlowSampleCount, new Operation() {
+				public void run(int invocation) throws IOException {
+					mStorage.restoreTodoistData(backupFile.getPath());
+				}
+			}));
+
+		} catch (IOException e) {
+			Log.e(TAG, "Error while running storage benchmarks", e);
+
+		} finally {
+			backupFile.delete();
+			closeAccount();
+		}
+
+		return results;
+	}
+
+
+	private Result measure(String name, int sampleCount, Operation operation) throws IOException {
+		Result result = new Result();
+		Samples samples = new Samples(sampleCount);
+		int invocation = 0;
+
+		result.name = name;
+		result.samples = sampleCount;
+
+		for (int i = 0; i < Math.min(WARMUP_COUNT, sampleCount); i++) {
+			operation.run(invocation++);
+		}
+
+		int queriesBefore = mSandbox.getQueryCount();
+		int writesBefore = mStorage.getTotalChanges();
+
+		for (int i = 0; i < sampleCount; i++) {
+			long start = System.nanoTime();
+			operation.run(invocation++);
+			samples.addSince(start);
+		}
+
+		// Don't count the query made by getTotalChanges itself
+		result.queriesPerOp = (double)(mSandbox.getQueryCount() - queriesBefore - 1) / sampleCount;
+		result.writesPerOp = (double)(mStorage.getTotalChanges() - writesBefore) / sampleCount;
+
+		result.p50Ms = samples.percentileMs(0.50);
+		result.p99Ms = samples.percentileMs(0.99);
+		result.maxMs = samples.maxMs();
+
+		Log.i(TAG, result.toString());
+
+		return result;
+	}
+}
@@ -0,0 +1,424 @@
+package budo.budoist.debug;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Random;
+
+import android.content.Context;
+import android.util.Log;
+import budo.budoist.models.Item;
+import budo.budoist.models.Label;
+import budo.budoist.models.Note;
+import budo.budoist.models.Project;
+import budo.budoist.models.SynchronizedModel;
+import budo.budoist.services.TodoistOfflineStorage;
+
+/**
+ * Checks that comparing synced models by their sync hash makes the same sync decisions as comparing
+ * them field by field (using compareTo). For each model type:
+ *
+ * 		- Random pairs of (unmodified) local and remote models are generated - the remote model being a
+ * 		  copy of the local one, with a random field changed (or none at all). The local model is given
+ * 		  its hash (or an unknown one), the way it's saved in the local storage, and both decisions
+ * 		  (DO_NOTHING or UPDATE_REMOTE_TO_LOCAL) are compared.
+ * 		- Random (remote) models are saved into a sandbox storage the way the sync saves them (the row,
+ * 		  and then the remote copy's hash) and read back - the model read back should match the remote
+ * 		  model by its hash. The model is then written again (as when it's edited locally), which should
+ * 		  leave its saved hash as is.
+ *
+ * (The other sync decisions only depend on the dirty states, and are made before the models are compared)
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SyncHashEquivalenceCheck {
+
+	private final static String TAG = "SyncHashEquivalenceCheck";
+
+	private final static String SANDBOX_PREFIX = "sync_hash_check";
+
+	public final static int DEFAULT_PAIR_COUNT = 20000;
+	public final static int DEFAULT_STORED_COUNT = 500;
+
+	// Few distinct values - so random fields are often equal
+	private final static String[] WORDS = { "buy", "Buy", "milk", "call", "mom", "", "@home", "@work", "*" };
+
+	/**
+	 * The check results of a single model type
+	 */
+	public static class Result {
+		public String type;
+		public int pairs;
+		public int equalPairs; // Pairs found equal by compareTo
+		public int hashMatches; // Pairs found equal by their hash (without compareTo)
+		public int mismatches; // Pairs whose decision differs (should be 0)
+		public int stored;
+		public int storedMismatches; // Stored models whose saved hash wasn't read back as expected (should be 0)
+
+		public boolean isPassed() {
+			return ((mismatches == 0) && (storedMismatches == 0));
+		}
+
+		public String toString() {
+			return String.format("<SyncHashEquivalenceCheck: %s; %s; pairs: %d (equal: %d; by hash: %d; mismatches: %d); stored: %d (mismatches: %d)>",
+					type, (isPassed() ? "PASSED" : "FAILED"), pairs, equalPairs, hashMatches, mismatches, stored, storedMismatches);
+		}
+	}
+
+	/**
+	 * Generates, mutates and stores models of a single type
+	 */
+	private static abstract class ModelCase {
+		public abstract String getType();
+
+		/**
+		 * Returns a new random model (with non-null text fields, so it could be stored)
+		 */
+		public abstract SynchronizedModel create(Random random, int id);
+
+		/**
+		 * Changes a random field of the model (or none at all)
+		 */
+		public abstract void mutate(Random random, SynchronizedModel model);
+
+		/**
+		 * Writes the model into the storage
+		 */
+		public abstract void write(TodoistOfflineStorage storage, SynchronizedModel model);
+
+		/**
+		 * Reads a model back from the storage (by ID)
+		 */
+		public abstract SynchronizedModel read(TodoistOfflineStorage storage, int id);
+	}
+
+	private Context mContext;
+	private int mSeed = 1;
+	private int mPairCount = DEFAULT_PAIR_COUNT;
+	private int mStoredCount = DEFAULT_STORED_COUNT;
+
+
+	public SyncHashEquivalenceCheck(Context context) {
+		mContext = context;
+	}
+
+	public void setSeed(int seed) {
+		mSeed = seed;
+	}
+
+	public void setCounts(int pairCount, int storedCount) {
+		mPairCount = pairCount;
+		mStoredCount = storedCount;
+	}
+
+
+	/**
+	 * Runs the check for all model types
+	 * @return a result per model type
+	 */
+	public ArrayList<Result> run() {
+		ModelCase[] cases = { new ItemCase(), new ProjectCase(), new LabelCase(), new NoteCase() };
+		ArrayList<Result> results = new ArrayList<Result>();
+
+		SandboxContext sandbox = new SandboxContext(mContext, SANDBOX_PREFIX);
+		TodoistOfflineStorage storage = new TodoistOfflineStorage(sandbox);
+		storage.clearTodoistData();
+
+		try {
+			for (int i = 0; i < cases.length; i++) {
+				Result result = new Result();
+				result.type = cases[i].getType();
+
+				checkPairs(cases[i], new Random(mSeed + i), result);
+				checkStored(cases[i], storage, new Random(mSeed + i), result);
+
+				if (result.isPassed()) {
+					Log.i(TAG, result.toString());
+				} else {
+					Log.e(TAG, result.toString());
+				}
+
+				results.add(result);
+			}
+
+		} finally {
+			storage.clearTodoistData();
+		}
+
+		return results;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private void checkPairs(ModelCase modelCase, Random random, Result result) {
+		for (int i = 0; i < mPairCount; i++) {
+			SynchronizedModel local = modelCase.create(random, 1 + random.nextInt(3));
+			SynchronizedModel remote = copy(local);
+			modelCase.mutate(random, remote);
+
+			// As saved in the local storage by the last sync - the hash of the (then equal) remote copy
+			// (the hash is sometimes unknown - e.g. for rows saved before hashes were saved)
+			local.syncHash = (random.nextInt(4) > 0 ? local.computeSyncHash() : 0);
+
+			boolean areEqual = (((Comparable)local).compareTo(remote) == 0);
+			boolean matchesHash = local.matchesSyncHash(remote);
+
+			result.pairs++;
+			if (areEqual) result.equalPairs++;
+			if (matchesHash) result.hashMatches++;
+
+			// By hash, the models are equal if their hash matches - otherwise, they're compared by compareTo
+			// (so the decisions only differ if the hash matches models which aren't equal)
+			if (matchesHash && !areEqual) {
+				result.mismatches++;
+				Log.e(TAG, String.format("Decision mismatch: local: %s; remote: %s", local.toString(), remote.toString()));
+			}
+		}
+	}
+
+	private void checkStored(ModelCase modelCase, TodoistOfflineStorage storage, Random random, Result result) {
+		for (int i = 0; i < mStoredCount; i++) {
+			SynchronizedModel remote = modelCase.create(random, i + 1);
+			long remoteHash = remote.computeSyncHash();
+
+			// Saved the way the sync saves a remote model
+			modelCase.write(storage, remote);
+			storage.setSyncHash(remote, remoteHash);
+
+			SynchronizedModel stored = modelCase.read(storage, remote.id);
+
+			result.stored++;
+
+			if ((stored == null) || (!stored.matchesSyncHash(remote))) {
+				result.storedMismatches++;
+				Log.e(TAG, String.format("Stored hash mismatch: %s", remote.toString()));
+				continue;
+			}
+
+			// Edited locally - the saved hash is left as is
+			modelCase.mutate(random, stored);
+			modelCase.write(storage, stored);
+
+			SynchronizedModel edited = modelCase.read(storage, remote.id);
+
+			if ((edited == null) || (edited.syncHash != remoteHash)) {
+				result.storedMismatches++;
+				Log.e(TAG, String.format("Edited hash mismatch: %s", stored.toString()));
+			}
+		}
+	}
+
+
+	private static SynchronizedModel copy(SynchronizedModel model) {
+		if (model instanceof Item) return (SynchronizedModel)((Item)model).clone();
+		if (model instanceof Project) return (SynchronizedModel)((Project)model).clone();
+		if (model instanceof Label) return (SynchronizedModel)((Label)model).clone();
+		return (SynchronizedModel)((Note)model).clone();
+	}
+
+	private static String randomText(Random random) {
+		int count = 1 + random.nextInt(3);
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < count; i++) {
+			if (i > 0) text.append(' ');
+			text.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+
+		return text.toString();
+	}
+
+	private static int[] randomLabelIds(Random random) {
+		int[] labelIds = new int[random.nextInt(4)];
+
+		for (int i = 0; i < labelIds.length; i++) {
+			labelIds[i] = 1 + random.nextInt(5);
+		}
+
+		return labelIds;
+	}
+
+
+	private static class ItemCase extends ModelCase {
+		public String getType() {
+			return "Item";
+		}
+
+		public SynchronizedModel create(Random random, int id) {
+			Item item = new Item();
+
+			item.id = id;
+			item.projectId = 1 + random.nextInt(3);
+			item.rawContent = randomText(random);
+			item.dateString = (random.nextBoolean() ? "every day" : null);
+			item.dueTime = (item.dateString != null ? 1000L * random.nextInt(3) : 0);
+			item.indentLevel = 1 + random.nextInt(4);
+			item.itemOrder = random.nextInt(3);
+			item.priority = 1 + random.nextInt(4);
+			item.completed = random.nextBoolean();
+			item.noteCount = random.nextInt(2);
+			item.labelIds = randomLabelIds(random);
+
+			return item;
+		}
+
+		public void mutate(Random random, SynchronizedModel model) {
+			Item item = (Item)model;
+
+			switch (random.nextInt(16)) {
+			case 0: item.id++; break;
+			case 1: item.projectId = 1 + random.nextInt(3); break;
+			case 2: item.dueTime = 1000L * random.nextInt(3); break;
+			case 3: item.dateString = (random.nextBoolean() ? "every day" : (random.nextBoolean() ? "" : null)); break;
+			case 4: item.indentLevel = 1 + random.nextInt(4); break;
+			case 5: item.itemOrder = random.nextInt(3); break;
+			case 6: item.priority = 1 + random.nextInt(4); break;
+			case 7: item.completed = !item.completed; break;
+			case 8: item.noteCount = random.nextInt(2); break;
+			case 9: item.rawContent = randomText(random); break;
+			case 10: item.rawContent = item.rawContent + " @label"; break; // Same (formatted) content
+			case 11: item.labelIds = randomLabelIds(random); break;
+			case 12: item.labelIds = (item.labelIds.length > 0 ? reverse(item.labelIds) : null); break; // Same IDs, other order
+			case 13: item.userId++; break; // Not synced
+			default: break; // No change
+			}
+		}
+
+		public void write(TodoistOfflineStorage storage, SynchronizedModel model) {
+			storage.addOrUpdateItem((Item)model, null);
+		}
+
+		public SynchronizedModel read(TodoistOfflineStorage storage, int id) {
+			return storage.getItem(id);
+		}
+
+		private static int[] reverse(int[] values) {
+			int[] reversed = new int[values.length];
+
+			for (int i = 0; i < values.length; i++) {
+				reversed[i] = values[values.length - 1 - i];
+			}
+
+			return reversed;
+		}
+	}
+
+
+	private static class ProjectCase extends ModelCase {
+		public String getType() {
+			return "Project";
+		}
+
+		public SynchronizedModel create(Random random, int id) {
+			Project project = new Project();
+
+			project.id = id;
+			project.rawName = randomText(random);
+			project.colorIndex = random.nextInt(3);
+			project.indentLevel = 1 + random.nextInt(4);
+			project.itemOrder = random.nextInt(3);
+			project.itemCount = random.nextInt(10);
+
+			return project;
+		}
+
+		public void mutate(Random random, SynchronizedModel model) {
+			Project project = (Project)model;
+
+			switch (random.nextInt(8)) {
+			case 0: project.id++; break;
+			case 1: project.rawName = (random.nextBoolean() ? randomText(random) : null); break;
+			case 2: project.colorIndex = random.nextInt(3); break;
+			case 3: project.indentLevel = 1 + random.nextInt(4); break;
+			case 4: project.itemOrder = random.nextInt(3); break;
+			case 5: project.itemCount++; break; // Not synced
+			default: break; // No change
+			}
+		}
+
+		public void write(TodoistOfflineStorage storage, SynchronizedModel model) {
+			storage.addOrUpdateProject((Project)model, null);
+		}
+
+		public SynchronizedModel read(TodoistOfflineStorage storage, int id) {
+			return storage.getProject(id);
+		}
+	}
+
+
+	private static class LabelCase extends ModelCase {
+		public String getType() {
+			return "Label";
+		}
+
+		public SynchronizedModel create(Random random, int id) {
+			Label label = new Label();
+
+			label.id = id;
+			label.name = randomText(random); // May have upper-case letters (saved in lower-case)
+			label.colorIndex = random.nextInt(3);
+			label.count = random.nextInt(10);
+
+			return label;
+		}
+
+		public void mutate(Random random, SynchronizedModel model) {
+			Label label = (Label)model;
+
+			switch (random.nextInt(7)) {
+			case 0: label.id++; break;
+			case 1: label.name = randomText(random); break;
+			case 2: label.name = label.name.toUpperCase(); break;
+			case 3: label.colorIndex = random.nextInt(3); break;
+			case 4: label.count++; break; // Not synced
+			default: break; // No change
+			}
+		}
+
+		public void write(TodoistOfflineStorage storage, SynchronizedModel model) {
+			storage.addOrUpdateLabel((Label)model, null);
+		}
+
+		public SynchronizedModel read(TodoistOfflineStorage storage, int id) {
+			return storage.getLabel(id);
+		}
+	}
+
+
+	private static class NoteCase extends ModelCase {
+		public String getType() {
+			return "Note";
+		}
+
+		public SynchronizedModel create(Random random, int id) {
+			Note note = new Note();
+
+			note.id = id;
+			note.itemId = 1 + random.nextInt(3);
+			note.content = randomText(random);
+			note.postDate = new Date(1000L * random.nextInt(3));
+
+			return note;
+		}
+
+		public void mutate(Random random, SynchronizedModel model) {
+			Note note = (Note)model;
+
+			switch (random.nextInt(6)) {
+			case 0: note.id++; break;
+			case 1: note.itemId = 1 + random.nextInt(3); break;
+			case 2: note.content = (random.nextBoolean() ? randomText(random) : null); break;
+			case 3: note.postDate = new Date(note.postDate.getTime() + 1000); break; // Not synced
+			default: break; // No change
+			}
+		}
+
+		public void write(TodoistOfflineStorage storage, SynchronizedModel model) {
+			storage.addOrUpdateNote((Note)model, null);
+		}
+
+		public SynchronizedModel read(TodoistOfflineStorage storage, int id) {
+			return storage.getNote(id);
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package budo.budoist.debug;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Random;
+
+import android.content.Context;
+import android.util.Log;
+import budo.budoist.models.Item;
+import budo.budoist.models.SynchronizedModel.DirtyState;
+import budo.budoist.services.InvalidDateStringException;
+import budo.budoist.services.TodoistClient;
+import budo.budoist.services.TodoistOfflineStorage;
+import budo.budoist.services.TodoistServer;
+import budo.budoist.services.TodoistServerException;
+import budo.budoist.services.TodoistOfflineStorage.ItemSortMode;
+
+/**
+ * Replays sync scenarios against a FakeTodoistServer (using a sandboxed storage, so the real
+ * user data is never touched), and reports round trips, bytes, wall time and database writes
+ * per sync.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SyncReplayHarness {
+
+	private final static String TAG = "SyncReplayHarness";
+
+	private final static String SANDBOX_PREFIX = "sync_replay";
+
+	public final static int DEFAULT_PROJECT_COUNT = 500;
+	public final static int DEFAULT_ITEM_COUNT = 10000;
+	public final static int DEFAULT_LABEL_COUNT = 30;
+
+	// Percentage of items modified in each of the "changes" scenarios
+	private final static double CHANGED_ITEMS_RATIO = 0.02;
+	private final static double FLAKY_NETWORK_FAILURE_RATE = 0.02;
+
+	public enum Scenario {
+		INITIAL_SYNC, // Empty local storage, full remote account
+		NO_CHANGES, // Nothing changed since last sync
+		REMOTE_CHANGES, // Items were added/modified/completed/deleted by another client
+		LOCAL_CHANGES, // Items were modified/deleted locally
+		FLAKY_NETWORK // No changes, but some requests fail with connection errors
+	}
+
+	/**
+	 * The results of replaying a single sync scenario
+	 */
+	public static class SyncReport {
+		public Scenario scenario;
+		public int roundTrips;
+		public int failedRequests;
+		public long bytesSent;
+		public long bytesReceived;
+		public long wallTimeMs;
+		public int dbWrites;
+		public Hashtable<String, Integer> callsPerCommand;
+		public String error; // null if the sync was successful
+
+		public String toString() {
+			return String.format("<SyncReport: %s; %s; round trips: %d (failed: %d); bytes sent: %d; bytes received: %d; wall time: %d ms; db writes: %d; calls: %s>",
+					scenario.toString(), (error == null ? "OK" : "FAILED (" + error + ")"), roundTrips, failedRequests,
+					bytesSent, bytesReceived, wallTimeMs, dbWrites, callsPerCommand.toString());
+		}
+	}
+
+	private Context mContext;
+	private int mProjectCount = DEFAULT_PROJECT_COUNT;
+	private int mItemCount = DEFAULT_ITEM_COUNT;
+	private int mLabelCount = DEFAULT_LABEL_COUNT;
+	private long mMinLatencyMs = 0;
+	private long mMaxLatencyMs = 0;
+	private long mSeed = 1;
+
+	private FakeTodoistServer mServer;
+	private TodoistClient mClient;
+	private Random mRandom;
+
+
+	public SyncReplayHarness(Context context) {
+		mContext = context;
+	}
+
+	public void setDatasetSize(int projectCount, int itemCount, int labelCount) {
+		mProjectCount = projectCount;
+		mItemCount = itemCount;
+		mLabelCount = labelCount;
+	}
+
+	public void setLatency(long minMs, long maxMs) {
+		mMinLatencyMs = minMs;
+		mMaxLatencyMs = maxMs;
+	}
+
+	public void setSeed(long seed) {
+		mSeed = seed;
+	}
+
+
+	/**
+	 * Replays all scenarios (in order - each scenario starts from the state the previous one
+	 * left behind)
+	 *
+	 * Only the sandboxed client's server calls are answered by the fake server (other clients, such
+	 * as the application's, keep syncing with the online server).
+	 *
+	 * @return a report per scenario
+	 * @throws TodoistServerException in case the initial login failed
+	 */
+	public ArrayList<SyncReport> run() throws TodoistServerException {
+		ArrayList<SyncReport> reports = new ArrayList<SyncReport>();
+
+		mRandom = new Random(mSeed);
+		mServer = generateDataset();
+		mServer.setLatency(mMinLatencyMs, mMaxLatencyMs);
+
+		Log.i(TAG, String.format("Generated dataset: %s", mServer.describeDataset()));
+
+		mClient = new TodoistClient(new SandboxContext(mContext, SANDBOX_PREFIX), new TodoistServer(mServer));
+		mClient.clearCache();
+
+		try {
+			mClient.login(FakeTodoistServer.USER_EMAIL, FakeTodoistServer.USER_PASSWORD, false);
+
+			Scenario[] scenarios = Scenario.values();
+
+			for (int i = 0; i < scenarios.length; i++) {
+				SyncReport report = replay(scenarios[i]);
+				Log.i(TAG, report.toString());
+				reports.add(report);
+			}
+
+		} finally {
+			mClient.clearCache();
+		}
+
+		return reports;
+	}
+
+
+	/**
+	 * Prepares a scenario, and measures a single syncAll
+	 * @param scenario
+	 * @return
+	 */
+	private SyncReport replay(Scenario scenario) {
+		SyncReport report = new SyncReport();
+		TodoistOfflineStorage storage = mClient.getStorage();
+
+		report.scenario = scenario;
+
+		if (scenario == Scenario.REMOTE_CHANGES) {
+			applyRemoteChanges();
+		} else if (scenario == Scenario.LOCAL_CHANGES) {
+			applyLocalChanges();
+		}
+
+		mServer.setFailureRate(scenario == Scenario.FLAKY_NETWORK ? FLAKY_NETWORK_FAILURE_RATE : 0);
+		mServer.resetStatistics();
+
+		int writesBefore = storage.getTotalChanges();
+		long startTime = System.currentTimeMillis();
+
+		try {
+			mClient.syncAll(null);
+		} catch (TodoistServerException exc) {
+			report.error = exc.getErrorCode().toString();
+		} catch (InvalidDateStringException exc) {
+			report.error = "Invalid date string: " + exc.getItem().toString();
+		}
+
+		report.wallTimeMs = System.currentTimeMillis() - startTime;
+		report.dbWrites = storage.getTotalChanges() - writesBefore;
+		report.roundTrips = mServer.getRoundTrips();
+		report.failedRequests = mServer.getFailedRequests();
+		report.bytesSent = mServer.getBytesSent();
+		report.bytesReceived = mServer.getBytesReceived();
+		report.callsPerCommand = mServer.getCallsPerCommand();
+
+		mServer.setFailureRate(0);
+
+		return report;
+	}
+
+
+	/**
+	 * Generates a deterministic (according to seed) account
+	 * @return
+	 */
+	private FakeTodoistServer generateDataset() {
+		FakeTodoistServer server = new FakeTodoistServer(mSeed);
+		ArrayList<Integer> projectIds = new ArrayList<Integer>();
+		ArrayList<Integer> labelIds = new ArrayList<Integer>();
+
+		for (int i = 0; i < mProjectCount; i++) {
+			// Every tenth project is a top-level one, the rest are indented under it
+			projectIds.add(server.addProject(String.format("Project %d", i + 1), (i % 10 == 0 ? 1 : 2), i % 12));
+		}
+
+		for (int i = 0; i < mLabelCount; i++) {
+			labelIds.add(server.addLabel(String.format("label%d", i + 1), i % 13));
+		}
+
+		Calendar calendar = Calendar.getInstance();
+
+		for (int i = 0; i < mItemCount; i++) {
+			int projectId = projectIds.get(mRandom.nextInt(projectIds.size()));
+			ArrayList<Integer> itemLabels = new ArrayList<Integer>();
+			Date dueDate = null;
+			String dateString = null;
+
+			// 0-3 labels per item
+			int labelCount = mRandom.nextInt(4);
+			for (int j = 0; (j < labelCount) && (labelIds.size() > 0); j++) {
+				Integer labelId = labelIds.get(mRandom.nextInt(labelIds.size()));
+				if (!itemLabels.contains(labelId)) itemLabels.add(labelId);
+			}
+
+			// 40% of items have a due date (between 10 days ago and 30 days from now)
+			if (mRandom.nextDouble() < 0.4) {
+				calendar.setTime(new Date());
+				calendar.add(Calendar.DAY_OF_YEAR, mRandom.nextInt(40) - 10);
+				dueDate = calendar.getTime();
+				dateString = String.format("%d/%d/%d", calendar.get(Calendar.DAY_OF_MONTH),
+						calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.YEAR));
+			}
+
+			int itemId = server.addItem(projectId, String.format("Item number %d", i + 1), itemLabels,
+					dueDate, dateString, mRandom.nextInt(4) + 1, mRandom.nextInt(2) + 1,
+					(mRandom.nextDouble() < 0.1));
+
+			// 5% of items have notes
+			if (mRandom.nextDouble() < 0.05) {
+				int noteCount = mRandom.nextInt(3) + 1;
+				for (int j = 0; j < noteCount; j++) {
+					server.addNote(itemId, String.format("Note %d of item %d", j + 1, i + 1));
+				}
+			}
+		}
+
+		return server;
+	}
+
+
+	/**
+	 * Simulates changes made by another client (modify, complete, delete and add items)
+	 */
+	private void applyRemoteChanges() {
+		ArrayList<Integer> itemIds = mServer.getItemIds();
+		ArrayList<Integer> projectIds = mServer.getProjectIds();
+		int count = (int)(itemIds.size() * CHANGED_ITEMS_RATIO);
+
+		Collections.sort(itemIds);
+		Collections.shuffle(itemIds, mRandom);
+
+		for (int i = 0; i < count; i++) {
+			Hashtable<String, Object> item = mServer.getItemRecord(itemIds.get(i));
+
+			switch (i % 4) {
+			case 0:
+				item.put("content", item.get("content") + " (modified remotely)");
+				break;
+			case 1:
+				item.put("checked", 1);
+				break;
+			case 2:
+				mServer.removeItem(itemIds.get(i));
+				break;
+			case 3:
+				mServer.addItem(projectIds.get(mRandom.nextInt(projectIds.size())), "Added remotely",
+						null, null, null, 1, 1, false);
+				break;
+			}
+		}
+	}
+
+
+	/**
+	 * Simulates changes made locally (modify and delete items)
+	 */
+	private void applyLocalChanges() {
+		TodoistOfflineStorage storage = mClient.getStorage();
+		ArrayList<Item> items = storage.getAllItems(false, false, ItemSortMode.ORIGINAL_ORDER);
+		int count = (int)(items.size() * CHANGED_ITEMS_RATIO);
+
+		Collections.shuffle(items, mRandom);
+
+		for (int i = 0; i < count; i++) {
+			Item item = items.get(i);
+
+			if (i % 2 == 0) {
+				item.priority = (item.priority % 4) + 1;
+				item.dirtyState = DirtyState.MODIFIED;
+			} else {
+				item.dirtyState = DirtyState.DELETED;
+			}
+
+			storage.addOrUpdateItem(item, item);
+		}
+	}
+}
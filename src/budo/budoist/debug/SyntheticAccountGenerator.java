@@ -0,0 +1,194 @@
+package budo.budoist.debug;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+
+import android.database.sqlite.SQLiteDatabase;
+import budo.budoist.models.Item;
+import budo.budoist.models.Label;
+import budo.budoist.models.Note;
+import budo.budoist.models.Project;
+import budo.budoist.models.SynchronizedModel.DirtyState;
+import budo.budoist.services.TodoistOfflineStorage;
+
+/**
+ * Generates a deterministic (according to seed) synthetic account directly into local storage
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SyntheticAccountGenerator {
+
+	public final static int DEFAULT_PROJECT_COUNT = 500;
+	public final static int DEFAULT_ITEM_COUNT = 10000;
+	public final static int DEFAULT_LABEL_COUNT = 30;
+
+	private int mProjectCount = DEFAULT_PROJECT_COUNT;
+	private int mItemCount = DEFAULT_ITEM_COUNT;
+	private int mLabelCount = DEFAULT_LABEL_COUNT;
+	private int mMaxLabelsPerItem = 3;
+	private double mNotesRatio = 0.05; // Ratio of items with notes
+	private int mMaxNotesPerItem = 3;
+	private double mDueDateRatio = 0.4; // Ratio of items with a due date
+	private int mDueDateDaysBefore = 10; // Due dates are spread between X days ago...
+	private int mDueDateDaysAfter = 30; // ... and Y days from now
+	private double mCompletedRatio = 0.1;
+	private long mSeed = 1;
+
+	private ArrayList<Integer> mProjectIds = new ArrayList<Integer>();
+	private ArrayList<Integer> mLabelIds = new ArrayList<Integer>();
+	private ArrayList<Integer> mItemIds = new ArrayList<Integer>();
+
+
+	public void setDatasetSize(int projectCount, int itemCount, int labelCount) {
+		mProjectCount = projectCount;
+		mItemCount = itemCount;
+		mLabelCount = labelCount;
+	}
+
+	public void setLabelsPerItem(int maxLabelsPerItem) {
+		mMaxLabelsPerItem = maxLabelsPerItem;
+	}
+
+	public void setNotes(double notesRatio, int maxNotesPerItem) {
+		mNotesRatio = notesRatio;
+		mMaxNotesPerItem = maxNotesPerItem;
+	}
+
+	public void setDueDates(double dueDateRatio, int daysBefore, int daysAfter) {
+		mDueDateRatio = dueDateRatio;
+		mDueDateDaysBefore = daysBefore;
+		mDueDateDaysAfter = daysAfter;
+	}
+
+	public void setCompletedRatio(double completedRatio) {
+		mCompletedRatio = completedRatio;
+	}
+
+	public void setSeed(long seed) {
+		mSeed = seed;
+	}
+
+	public ArrayList<Integer> getProjectIds() {
+		return mProjectIds;
+	}
+
+	public ArrayList<Integer> getLabelIds() {
+		return mLabelIds;
+	}
+
+	public ArrayList<Integer> getItemIds() {
+		return mItemIds;
+	}
+
+
+	/**
+	 * Fills the storage with a synthetic account (storage should be empty beforehand)
+	 * @param storage
+	 * @param db the storage's database - if not null, all writes are done in a single transaction
+	 */
+	public void populate(TodoistOfflineStorage storage, SQLiteDatabase db) {
+		if (db != null) db.beginTransaction();
+
+		try {
+			generate(storage);
+			if (db != null) db.setTransactionSuccessful();
+		} finally {
+			if (db != null) db.endTransaction();
+		}
+	}
+
+	private void generate(TodoistOfflineStorage storage) {
+		Random random = new Random(mSeed);
+		Calendar calendar = Calendar.getInstance();
+		int nextId = 1;
+
+		mProjectIds.clear();
+		mLabelIds.clear();
+		mItemIds.clear();
+
+		for (int i = 0; i < mProjectCount; i++) {
+			Project project = new Project();
+			project.id = nextId++;
+			project.rawName = String.format("Project %d", i + 1);
+			project.colorIndex = i % 12;
+			project.indentLevel = (i % 10 == 0 ? 1 : 2); // Every tenth project is a top-level one
+			project.itemOrder = i + 1;
+			project.dirtyState = DirtyState.UNMODIFIED;
+
+			storage.addOrUpdateProject(project, null);
+			mProjectIds.add(project.id);
+		}
+
+		for (int i = 0; i < mLabelCount; i++) {
+			Label label = new Label();
+			label.id = nextId++;
+			label.name = String.format("label%d", i + 1);
+			label.colorIndex = i % 13;
+			label.dirtyState = DirtyState.UNMODIFIED;
+
+			storage.addOrUpdateLabel(label, null);
+			mLabelIds.add(label.id);
+		}
+
+		for (int i = 0; i < mItemCount; i++) {
+			Item item = new Item();
+			item.id = nextId++;
+			item.projectId = mProjectIds.get(random.nextInt(mProjectIds.size()));
+			item.itemOrder = i + 1;
+			item.indentLevel = random.nextInt(2) + 1;
+			item.priority = random.nextInt(4) + 1;
+			item.completed = (random.nextDouble() < mCompletedRatio);
+			item.dirtyState = DirtyState.UNMODIFIED;
+
+			StringBuilder content = new StringBuilder(String.format("Item number %d", i + 1));
+			int labelCount = (mMaxLabelsPerItem > 0 ? random.nextInt(mMaxLabelsPerItem + 1) : 0);
+			ArrayList<Integer> labelIds = new ArrayList<Integer>();
+
+			for (int j = 0; (j < labelCount) && (mLabelIds.size() > 0); j++) {
+				int labelIndex = random.nextInt(mLabelIds.size());
+
+				if (!labelIds.contains(mLabelIds.get(labelIndex))) {
+					labelIds.add(mLabelIds.get(labelIndex));
+					content.append(String.format(" @label%d", labelIndex + 1));
+				}
+			}
+
+			item.labelIds = Item.toLabelIds(labelIds);
+
+			item.rawContent = content.toString();
+
+			if (random.nextDouble() < mDueDateRatio) {
+				calendar.setTime(new Date());
+				calendar.add(Calendar.DAY_OF_YEAR, random.nextInt(mDueDateDaysBefore + mDueDateDaysAfter + 1) - mDueDateDaysBefore);
+				item.dueTime = calendar.getTimeInMillis();
+				item.dateString = String.format("%d/%d/%d", calendar.get(Calendar.DAY_OF_MONTH),
+						calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.YEAR));
+			}
+
+			if (random.nextDouble() < mNotesRatio) {
+				item.noteCount = random.nextInt(mMaxNotesPerItem) + 1;
+
+				for (int j = 0; j < item.noteCount; j++) {
+					Note note = new Note();
+					note.id = nextId++;
+					note.itemId = item.id;
+					note.content = String.format("Note %d of item %d", j + 1, i + 1);
+					note.postDate = new Date();
+					note.dirtyState = DirtyState.UNMODIFIED;
+
+					storage.addOrUpdateNote(note, null);
+				}
+			}
+
+			storage.addOrUpdateItem(item, null);
+			storage.updateItemLabels(item);
+			mItemIds.add(item.id);
+		}
+
+		storage.updateAllProjectsItemCount();
+		storage.updateLabelsItemCount();
+	}
+}
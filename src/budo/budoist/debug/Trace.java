@@ -0,0 +1,187 @@
+package budo.budoist.debug;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Lightweight tracing of hot paths (list building, adapter binds, storage reads, etc). Usage:
+ *
+ * 		long span = Trace.begin();
+ * 		...
+ * 		Trace.end("TodoistOfflineStorage.getItemsByQuery", span);
+ *
+ * Finished spans are recorded into a fixed-size ring buffer (older spans are overwritten), which
+ * can be dumped into a Chrome trace format JSON file (viewable in chrome://tracing).
+ *
+ * When tracing is stopped (the default), begin/end cost a single volatile read.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class Trace {
+
+	private final static String TAG = "Trace";
+
+	public final static int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * A fixed-size ring buffer of finished spans. Writers never block - each one claims a slot
+	 * using an atomic counter, and marks the slot with its sequence number once the span is written
+	 * (so a reader could skip slots which are in the middle of being overwritten).
+	 */
+	private static class RingBuffer {
+		private int mMask;
+		private AtomicLong mNextIndex = new AtomicLong(0);
+		private AtomicLongArray mSequences;
+		private String[] mNames;
+		private long[] mStartTimes;
+		private long[] mDurations;
+		private int[] mThreadIds;
+
+		public RingBuffer(int capacity) {
+			// Round capacity up to a power of 2 (so the slot could be calculated using a mask)
+			int size = 1;
+			while (size < capacity) size <<= 1;
+
+			mMask = size - 1;
+			mSequences = new AtomicLongArray(size);
+			mNames = new String[size];
+			mStartTimes = new long[size];
+			mDurations = new long[size];
+			mThreadIds = new int[size];
+
+			for (int i = 0; i < size; i++) {
+				mSequences.set(i, -1);
+			}
+		}
+
+		public void record(String name, long startTime, long duration, int threadId) {
+			long index = mNextIndex.getAndIncrement();
+			int slot = (int)(index & mMask);
+
+			mSequences.set(slot, -1); // Slot is being written
+			mNames[slot] = name;
+			mStartTimes[slot] = startTime;
+			mDurations[slot] = duration;
+			mThreadIds[slot] = threadId;
+			mSequences.set(slot, index);
+		}
+
+		/**
+		 * Writes all (consistent) spans currently in the buffer as Chrome trace events, oldest first
+		 * @return number of spans written
+		 */
+		public int writeEvents(StringBuilder json, int pid) {
+			long lastIndex = mNextIndex.get();
+			long firstIndex = Math.max(0, lastIndex - (mMask + 1));
+			int count = 0;
+
+			for (long index = firstIndex; index < lastIndex; index++) {
+				int slot = (int)(index & mMask);
+
+				if (mSequences.get(slot) != index) continue; // Still being written or already overwritten
+
+				String name = mNames[slot];
+				long startTime = mStartTimes[slot];
+				long duration = mDurations[slot];
+				int threadId = mThreadIds[slot];
+
+				if (mSequences.get(slot) != index) continue; // Overwritten while we were reading it
+
+				if (count > 0) json.append(",\n");
+				json.append(String.format(Locale.US, "{\"name\":%s,\"cat\":\"budoist\",\"ph\":\"X\",\"ts\":%.3f,\"dur\":%.3f,\"pid\":%d,\"tid\":%d}",
+						JSONObject.quote(name), startTime / 1000.0, duration / 1000.0, pid, threadId));
+				count++;
+			}
+
+			return count;
+		}
+	}
+
+	private static volatile RingBuffer mBuffer = null;
+
+
+	/**
+	 * Starts recording spans (discarding any previously recorded spans)
+	 * @param capacity maximal number of spans kept (rounded up to a power of 2)
+	 */
+	public static void start(int capacity) {
+		mBuffer = new RingBuffer(capacity);
+		Log.i(TAG, String.format("Tracing started (capacity: %d)", capacity));
+	}
+
+	/**
+	 * Stops recording spans
+	 */
+	public static void stop() {
+		mBuffer = null;
+		Log.i(TAG, "Tracing stopped");
+	}
+
+	public static boolean isEnabled() {
+		return (mBuffer != null);
+	}
+
+	/**
+	 * Begins a span
+	 * @return the span start time (to be passed to end) - or 0 if tracing is disabled
+	 */
+	public static long begin() {
+		return (mBuffer != null ? System.nanoTime() : 0);
+	}
+
+	/**
+	 * Ends a span
+	 * @param name span name (should be a constant string, so no allocation is made)
+	 * @param startTime as returned by begin
+	 */
+	public static void end(String name, long startTime) {
+		if (startTime == 0) return;
+
+		RingBuffer buffer = mBuffer;
+		if (buffer == null) return; // Tracing was stopped in the middle of the span
+
+		buffer.record(name, startTime, System.nanoTime() - startTime, android.os.Process.myTid());
+	}
+
+	/**
+	 * Dumps all recorded spans into a Chrome trace format JSON file
+	 * @param filename
+	 * @return number of spans written
+	 * @throws IOException
+	 */
+	public static int dump(String filename) throws IOException {
+		RingBuffer buffer = mBuffer;
+		StringBuilder json = new StringBuilder("{\"traceEvents\":[\n");
+		int count = 0;
+
+		if (buffer != null) {
+			count = buffer.writeEvents(json, android.os.Process.myPid());
+		}
+
+		json.append("\n],\"displayTimeUnit\":\"ms\"}\n");
+
+		File file = new File(filename);
+		if (file.getParentFile() != null) file.getParentFile().mkdirs();
+
+		FileOutputStream out = new FileOutputStream(file);
+
+		try {
+			out.write(json.toString().getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+
+		Log.i(TAG, String.format("Dumped %d spans to %s", count, filename));
+
+		return count;
+	}
+}
@@ -4,7 +4,9 @@ import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Hashtable;
 import java.util.Locale;
@@ -19,23 +21,35 @@ import android.util.Log;
 
 /**
  * Represents a Todoist Item (see {@link https://todoist.com/API/help#items})
+ * 
+ * Since all of a user's items may be held in memory at once (e.g. while syncing), the item is kept
+ * compact: the due date is a primitive time, label IDs are a primitive array, and derived values
+ * (the formatted content) are calculated lazily and cached - instead of being recreated on each access.
+ * 
  * @author Yaron Budowski
  *
  */
 public class Item extends OrderedModel implements Comparable<Item>, Serializable, Cloneable {
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
+	
+	// Shared by all items without labels
+	public static final int[] NO_LABELS = new int[0];
 	
 	public int userId;
 	public int projectId;
-	public Date dueDate;
+	public long dueTime; // Milliseconds since epoch (GMT); 0 = no due date
 	public String dateString;
 	public int indentLevel; // 1-5
 	public int priority; // 1-4 (1 = very urgent; 4 = natural)
 	public String rawContent;
-	public ArrayList<Integer> labelIds; // List of label IDs (as received from server)
+	public int[] labelIds; // Label IDs (as received from server)
 	public int noteCount;
 	public boolean completed; // Completed/Uncompleted
 	
+	// Formatted content, cached for the rawContent it was calculated from
+	private transient String mContentSource;
+	private transient String mContent;
+	
 	private final static String TAG = "Item";
 	
 	
@@ -55,6 +69,7 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 	private static final String DUE_DATE_FORMAT = "EEE dd MMM yyyy HH:mm:ss";
 	
 	private final static String LABEL_REG_EX = "(^| )\\@[a-zA-Z0-9_-]+";
+	private final static Pattern LABEL_PATTERN = Pattern.compile(LABEL_REG_EX, Pattern.CASE_INSENSITIVE);
 	
 	private final static String NO_DUE_DATE = "no due date";
 	
@@ -81,6 +96,64 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 	}
 
 	
+	/**
+	 * Returns whether or not the item has a due date
+	 * @return
+	 */
+	public boolean hasDueDate() {
+		return (dueTime != 0);
+	}
+	
+	/**
+	 * Returns the item's due date (null if it has no due date)
+	 * @return
+	 */
+	public Date getDueDate() {
+		return (dueTime == 0 ? null : new Date(dueTime));
+	}
+	
+	/**
+	 * Sets the item's due date
+	 * @param dueDate null for no due date
+	 */
+	public void setDueDate(Date dueDate) {
+		dueTime = (dueDate == null ? 0 : dueDate.getTime());
+	}
+	
+	/**
+	 * Returns whether or not the item has a specific label
+	 * @param labelId
+	 * @return
+	 */
+	public boolean hasLabel(int labelId) {
+		if (labelIds == null) return false;
+		
+		for (int i = 0; i < labelIds.length; i++) {
+			if (labelIds[i] == labelId) return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns a primitive label IDs array of a label IDs collection
+	 * @param ids
+	 * @return
+	 */
+	public static int[] toLabelIds(Collection<Integer> ids) {
+		if (ids.size() == 0) return NO_LABELS;
+		
+		int[] labelIds = new int[ids.size()];
+		int i = 0;
+		
+		for (Integer id : ids) {
+			labelIds[i++] = id.intValue();
+		}
+		
+		return labelIds;
+	}
+	
+	
 	/**
 	 * Compares the label IDs of two items
 	 * @param other
@@ -96,7 +169,7 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 		if (
 				(this.id == otherItem.id) &&
 				(this.projectId == otherItem.projectId) &&
-				(compareObjects(this.dueDate, otherItem.dueDate)) &&
+				(this.dueTime == otherItem.dueTime) &&
 				(compareObjects(this.dateString, otherItem.dateString)) &&
 				(this.indentLevel == otherItem.indentLevel) &&
 				(this.itemOrder == otherItem.itemOrder) &&
@@ -112,10 +185,36 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 			}
 	}
 	
+	/**
+	 * Hashes all fields compared by compareTo, except for the label IDs (which are saved separately in
+	 * the local storage - see matchesSyncHash). The raw content is hashed instead of the formatted one.
+	 */
+	public long computeSyncHash() {
+		long hash = HASH_SEED;
+		
+		hash = hash(hash, id);
+		hash = hash(hash, projectId);
+		hash = hash(hash, dueTime);
+		hash = hash(hash, dateString);
+		hash = hash(hash, indentLevel);
+		hash = hash(hash, itemOrder);
+		hash = hash(hash, priority);
+		hash = hash(hash, completed);
+		hash = hash(hash, noteCount);
+		hash = hash(hash, rawContent);
+		
+		return finishHash(hash);
+	}
+	
+	public boolean matchesSyncHash(SynchronizedModel other) {
+		// Label IDs aren't part of the hash
+		return (super.matchesSyncHash(other) && compareLabelIds((Item)other));
+	}
+	
 	public Hashtable<String, Object> toKeyValue() {
 		Hashtable<String, Object> ret = new Hashtable<String, Object>();
 	
-		if (id != 0)
+		if (id > 0) // Temp IDs (of locally added items) aren't sent
 			ret.put(KEY__ID, id);
 		if (projectId != 0)
 			ret.put(KEY__PROJECT_ID, projectId);
@@ -137,8 +236,8 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 	
 	public String toString() {
 		return String.format("<Item: %d (owner user: %d; project: %d); content: '%s'; completed: %b; indent: %d; itemOrder: %d; priority: %d; label ids: %s; due date: %s (%d); date string: %s; note count: %d; dirtyState: %s>",
-				id, userId, projectId, rawContent, completed, indentLevel, itemOrder, priority, (labelIds != null ? labelIds.toString(): "[]"), (dueDate == null ? "<null>" : dueDate.toString()),
-				(dueDate == null ? 0 : dueDate.getTime()),
+				id, userId, projectId, rawContent, completed, indentLevel, itemOrder, priority, (labelIds != null ? Arrays.toString(labelIds) : "[]"),
+				(dueTime == 0 ? "<null>" : (new Date(dueTime)).toString()), dueTime,
 				dateString, noteCount, dirtyState.toString());
 	}
 	
@@ -258,7 +357,7 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 		
 	/**
 	 * Calculates the next due date according to the dateString.
-	 * Updates dueDate field accordingly
+	 * Updates dueTime field accordingly
 	 * 
 	 * NOTE: This calculates only the FIRST occurrence of the due date (used when modifying a date string)
 	 * 
@@ -279,7 +378,7 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 		
 		if (date.length() == 0) {
 		    // No due date - clear the due date
-		    this.dueDate = null;
+		    this.dueTime = 0;
 		}
 		
 		matcher = patternContextualDate.matcher(date);
@@ -300,13 +399,13 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 		
 		// In case the calculated due date has a specific time of date set,
 		// we need to convert it from the local time zone to GMT (since the getDueDateDescription
-		// method assume this.dueDate is in GMT, not local time zone).
+		// method assume this.dueTime is in GMT, not local time zone).
 		
-		if (this.dueDate != null) {
-			Calendar dueDateCalendar = Calendar.getInstance(); dueDateCalendar.setTime(this.dueDate);
+		if (this.dueTime != 0) {
+			Calendar dueDateCalendar = Calendar.getInstance(); dueDateCalendar.setTimeInMillis(this.dueTime);
 			if ((dueDateCalendar.get(Calendar.HOUR_OF_DAY) != 23) || (dueDateCalendar.get(Calendar.MINUTE) != 59)) {
 				// It's a due date with a specific time of day - convert it from user's local time zone to GMT
-				this.dueDate = new Date(this.dueDate.getTime() - (timeZoneOffsetMinutes * 60 * 1000));
+				this.dueTime -= (timeZoneOffsetMinutes * 60 * 1000);
 			} else {
 				// It's a due date marked for a single day (no specific time of day) - no need to convert
 				// it to GMT (do nothing).
@@ -565,7 +664,7 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 		c.set(Calendar.MILLISECOND, 0);
 		c.set(Calendar.SECOND, timeInDay);
 
-		dueDate = c.getTime();
+		dueTime = c.getTimeInMillis();
 	}
 	
 	
@@ -693,7 +792,7 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 			c.add(Calendar.DAY_OF_MONTH, Integer.valueOf(matcher.group(9)));
 		}
 		
-		dueDate = c.getTime();
+		dueTime = c.getTimeInMillis();
 	}
 	
 	
@@ -733,7 +832,7 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 				
 		}
 		
-		dueDate = c.getTime();
+		dueTime = c.getTimeInMillis();
 	}
 	
 	/**
@@ -763,20 +862,20 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 	 * @return
 	 */
 	public String getDueDateDescription(TimeFormat timeFormat, int timeZoneOffsetMinutes) {
-		if ((dueDate == null) || (dueDate.getTime() == 0)) {
+		if (dueTime == 0) {
 			return null;
 		}
 		
 		// Convert to user's time zone
 		Date localDate;
-		Calendar dueDateCalendar = Calendar.getInstance(); dueDateCalendar.setTime(this.dueDate);
+		Calendar dueDateCalendar = Calendar.getInstance(); dueDateCalendar.setTimeInMillis(this.dueTime);
 		if ((dueDateCalendar.get(Calendar.HOUR_OF_DAY) != 23) || (dueDateCalendar.get(Calendar.MINUTE) != 59)) {
 			// It's a due date with a specific time of day - convert it to user's local time zone for display
-			localDate = new Date(this.dueDate.getTime() + (timeZoneOffsetMinutes * 60 * 1000));
+			localDate = new Date(this.dueTime + (timeZoneOffsetMinutes * 60 * 1000));
 		} else {
 			// It's a due date marked for a single day (no specific time of day) - no need to convert
 			// it to local time zone
-			localDate = this.dueDate;
+			localDate = new Date(this.dueTime);
 		}
 		
 		String date;
@@ -841,12 +940,12 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 	 */
 	public int getDueDateColor() {
 		if ((dateString == null) || (dateString.compareToIgnoreCase(NO_DUE_DATE) == 0) ||
-				(dueDate == null) || (dueDate.getTime() == 0)) {
+				(this.dueTime == 0)) {
 			return 0xFFFFFF; // White
 		}
 	
 		Calendar currentTime = Calendar.getInstance(); currentTime.setTime(new Date());
-		Calendar dueTime = Calendar.getInstance(); dueTime.setTime(this.dueDate);
+		Calendar dueTime = Calendar.getInstance(); dueTime.setTimeInMillis(this.dueTime);
 		Calendar tomorrow = Calendar.getInstance();
 		tomorrow.add(Calendar.DAY_OF_MONTH, 1);
 		Calendar oneWeekAhead = Calendar.getInstance();
@@ -891,17 +990,21 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 	 * @return
 	 */
 	public String getContent() {
-		// Remove all label references
-		if (rawContent != null) {
-			String content = rawContent.replaceAll(LABEL_REG_EX, "");
-			if (content.startsWith("*"))
-				return content.substring(1);
-			else
-				return content;
-		} else {
+		String source = rawContent;
+		
+		if (source == null) {
 			return null;
 		}
 		
+		if (source != mContentSource) {
+			// Remove all label references
+			String content = LABEL_PATTERN.matcher(source).replaceAll("");
+			
+			mContent = (content.startsWith("*") ? content.substring(1) : content);
+			mContentSource = source;
+		}
+		
+		return mContent;
 	}
 	
 	/**
@@ -909,8 +1012,7 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 	 * @return
 	 */
 	public ArrayList<String> getLabels() {
-		Pattern pattern = Pattern.compile(LABEL_REG_EX, Pattern.CASE_INSENSITIVE);
-		Matcher matcher = pattern.matcher(rawContent);
+		Matcher matcher = LABEL_PATTERN.matcher(rawContent);
 		ArrayList<String> labels = new ArrayList<String>();
 		
 		while (matcher.find()) {
@@ -964,12 +1066,10 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 		if (params.containsKey(KEY__DUE_DATE)) {
 			SimpleDateFormat formatter = new SimpleDateFormat(DUE_DATE_FORMAT);
 			try {
-				dueDate = formatter.parse((String)params.get(KEY__DUE_DATE));
+				dueTime = formatter.parse((String)params.get(KEY__DUE_DATE)).getTime();
 			} catch (ParseException e) {
 				Log.e(TAG, String.format("Error while parsing due_date field of user: %s", (String)params.get(KEY__DUE_DATE)), e);
 			}
-		} else {
-			dueDate = new Date(0);
 		}
 		
 		dateString = (String)params.get(KEY__DATE_STRING);
@@ -982,7 +1082,7 @@ public class Item extends OrderedModel implements Comparable<Item>, Serializable
 			indentLevel = ((Integer)params.get(KEY__INDENT)).intValue();
 		
 		if (params.containsKey(KEY__LABELS)) {
-			labelIds = (ArrayList<Integer>) ((ArrayList<Integer>)params.get(KEY__LABELS)).clone();
+			labelIds = toLabelIds((ArrayList<Integer>)params.get(KEY__LABELS));
 		}
 		
 		if (params.containsKey(KEY__NOTE_COUNT))
@@ -68,6 +68,16 @@ public class Label extends SynchronizedModel implements Comparable<Label>, Seria
 			}
 	}
 	
+	public long computeSyncHash() {
+		long hash = HASH_SEED;
+		
+		hash = hash(hash, id);
+		hash = hash(hash, name);
+		hash = hash(hash, colorIndex);
+		
+		return finishHash(hash);
+	}
+	
 	/**
 	 * Converts the label's colorIndex into a real color
 	 * 
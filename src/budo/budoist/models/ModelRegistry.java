@@ -0,0 +1,192 @@
+package budo.budoist.models;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * An in-process registry of the models passed between screens (as intent extras). Instead of
+ * serializing the whole model into the intent, a copy of it is kept in the registry, and only a
+ * compact parcelable handle is put in the intent. Usage:
+ *
+ * 		ModelRegistry.putExtra(intent, EditItemView.KEY__ITEM, item);
+ * 		...
+ * 		mItem = (Item)ModelRegistry.getExtra(extras, KEY__ITEM);
+ *
+ * Both putting and getting a model return a copy of it (the same way serializing it did) - so the
+ * receiving screen may freely modify it, without affecting the sending screen's instance.
+ *
+ * Only the most recently put models are kept. A handle whose model is no longer kept (e.g. since the
+ * process was restarted while the screen was in the background) is resolved by its model ID, using
+ * the resolver (which loads the model from the local storage) - so new (unsaved) models can only be
+ * resolved while they're kept.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class ModelRegistry {
+
+	// How many models are kept (a screen transition only needs the last few)
+	private final static int MAX_MODELS = 32;
+
+	// The model types a handle can refer to (a handle saves the index of its model type)
+	private final static Class<?>[] MODEL_TYPES = { Item.class, Project.class, Label.class, Query.class, Note.class };
+
+	/**
+	 * Resolves a model by its ID - used for handles whose model is no longer kept
+	 */
+	public interface Resolver {
+		/**
+		 * @param type the model type
+		 * @param id the model ID
+		 * @return the model, or null if it doesn't exist
+		 */
+		public SynchronizedModel resolve(Class<?> type, int id);
+	}
+
+	/**
+	 * A compact reference to a registered model - which can be put in an intent/bundle
+	 */
+	public static class Handle implements Parcelable {
+		private long mKey;
+		private int mType;
+		private int mId;
+
+		private Handle(long key, int type, int id) {
+			mKey = key;
+			mType = type;
+			mId = id;
+		}
+
+		public int describeContents() {
+			return 0;
+		}
+
+		public void writeToParcel(Parcel dest, int flags) {
+			dest.writeLong(mKey);
+			dest.writeInt(mType);
+			dest.writeInt(mId);
+		}
+
+		public static final Parcelable.Creator<Handle> CREATOR = new Parcelable.Creator<Handle>() {
+			public Handle createFromParcel(Parcel source) {
+				return new Handle(source.readLong(), source.readInt(), source.readInt());
+			}
+
+			public Handle[] newArray(int size) {
+				return new Handle[size];
+			}
+		};
+
+		public String toString() {
+			return String.format("<Handle: %d; type: %s; id: %d>", mKey, MODEL_TYPES[mType].getSimpleName(), mId);
+		}
+	}
+
+	// Keys start from the process start time, so a handle from a previous process won't be mistaken
+	// for a model registered by the current process
+	private static long mNextKey = System.currentTimeMillis() << 16;
+
+	private static Resolver mResolver = null;
+
+	private static LinkedHashMap<Long, SynchronizedModel> mModels = new LinkedHashMap<Long, SynchronizedModel>(MAX_MODELS, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, SynchronizedModel> eldest) {
+			return (size() > MAX_MODELS);
+		}
+	};
+
+
+	/**
+	 * Sets the resolver used for handles whose model is no longer kept
+	 * @param resolver
+	 */
+	public static synchronized void setResolver(Resolver resolver) {
+		mResolver = resolver;
+	}
+
+	/**
+	 * Registers a copy of the model
+	 * @param model
+	 * @return the model's handle (or null for a null model)
+	 */
+	public static synchronized Handle put(SynchronizedModel model) {
+		if (model == null) return null;
+
+		int type = getType(model);
+		long key = mNextKey++;
+
+		mModels.put(key, copy(model));
+
+		return new Handle(key, type, model.id);
+	}
+
+	/**
+	 * Returns a copy of the model referred to by the handle
+	 * @param handle
+	 * @return the model (or null for a null handle, or if the model couldn't be resolved)
+	 */
+	public static synchronized SynchronizedModel get(Handle handle) {
+		if (handle == null) return null;
+
+		SynchronizedModel model = mModels.get(handle.mKey);
+
+		if (model != null) {
+			return copy(model);
+		}
+
+		// The model is no longer kept - load it by its ID
+		if ((handle.mId == 0) || (mResolver == null)) return null;
+
+		return mResolver.resolve(MODEL_TYPES[handle.mType], handle.mId);
+	}
+
+	/**
+	 * Registers a copy of the model, and puts its handle in the intent (a null model is put as a
+	 * null handle)
+	 * @param intent
+	 * @param key
+	 * @param model
+	 */
+	public static void putExtra(Intent intent, String key, SynchronizedModel model) {
+		intent.putExtra(key, put(model));
+	}
+
+	/**
+	 * Returns a copy of the model whose handle was put in the extras
+	 * @param extras
+	 * @param key
+	 * @return
+	 */
+	public static SynchronizedModel getExtra(Bundle extras, String key) {
+		if (extras == null) return null;
+
+		extras.setClassLoader(Handle.class.getClassLoader());
+		Handle handle = extras.getParcelable(key);
+
+		return get(handle);
+	}
+
+
+	private static int getType(SynchronizedModel model) {
+		for (int i = 0; i < MODEL_TYPES.length; i++) {
+			if (MODEL_TYPES[i] == model.getClass()) return i;
+		}
+
+		throw new IllegalArgumentException("Unsupported model type: " + model.getClass().getName());
+	}
+
+	private static SynchronizedModel copy(SynchronizedModel model) {
+		try {
+			return (SynchronizedModel)model.clone();
+		} catch (CloneNotSupportedException e) {
+			// Shouldn't happen (all models are cloneable)
+			throw new IllegalStateException(e.toString());
+		}
+	}
+}
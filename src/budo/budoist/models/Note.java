@@ -87,13 +87,23 @@ public class Note  extends SynchronizedModel implements Comparable<Note>, Serial
 				return 1;
 			}
 	}
+	
+	public long computeSyncHash() {
+		long hash = HASH_SEED;
+		
+		hash = hash(hash, id);
+		hash = hash(hash, itemId);
+		hash = hash(hash, content);
+		
+		return finishHash(hash);
+	}
 
 	public Hashtable<String, Object> toKeyValue() {
 		Hashtable<String, Object> ret = new Hashtable<String, Object>();
 	
 		if (itemId != 0)
 			ret.put(KEY__ITEM_ID, itemId);
-		if (id != 0)
+		if (id > 0) // Temp IDs (of locally added notes) aren't sent
 			ret.put(KEY__NOTE_ID, id);
 		
 		ret.put(KEY__CONTENT, content);
@@ -65,10 +65,22 @@ public class Project extends OrderedModel implements Comparable<Project>, Serial
 			}
 	}
 	
+	public long computeSyncHash() {
+		long hash = HASH_SEED;
+		
+		hash = hash(hash, id);
+		hash = hash(hash, rawName);
+		hash = hash(hash, indentLevel);
+		hash = hash(hash, itemOrder);
+		hash = hash(hash, colorIndex);
+		
+		return finishHash(hash);
+	}
+	
 	public Hashtable<String, Object> toKeyValue() {
 		Hashtable<String, Object> ret = new Hashtable<String, Object>();
 	
-		if (id != 0)
+		if (id > 0) // Temp IDs (of locally added projects) aren't sent
 			ret.put(KEY__PROJECT_ID, id);
 		if (rawName != null)
 			ret.put(KEY__NAME, rawName);
@@ -16,21 +16,128 @@ public abstract class SynchronizedModel implements Serializable, Cloneable {
 	
 	// Saves the state of the object
 	public enum DirtyState {
-		UNMODIFIED, // Nothing changed
-		MODIFIED, // Local copy has been modified
-		DELETED, // Local copy has been deleted
-		ADDED // Local copy has been added
+		UNMODIFIED(0), // Nothing changed
+		MODIFIED(1), // Local copy has been modified
+		DELETED(2), // Local copy has been deleted
+		ADDED(3); // Local copy has been added
+		
+		private static final DirtyState[] BY_CODE = { UNMODIFIED, MODIFIED, DELETED, ADDED };
+		
+		private final int mCode;
+		
+		private DirtyState(int code) {
+			mCode = code;
+		}
+		
+		/**
+		 * Returns the compact code the state is stored as (in the local storage)
+		 * @return
+		 */
+		public int getCode() {
+			return mCode;
+		}
+		
+		/**
+		 * Returns the state stored as the given code (UNMODIFIED for unknown codes)
+		 * @param code
+		 * @return
+		 */
+		public static DirtyState fromCode(int code) {
+			return ((code >= 0) && (code < BY_CODE.length) ? BY_CODE[code] : UNMODIFIED);
+		}
 	}
 	
 	// Holds the local copy dirty state (in case it hasn't been sync'd yet with the remote copy)
 	// - see DirtyState enum
 	public DirtyState dirtyState = DirtyState.UNMODIFIED;
 	
+	// The hash of the synced fields of the model's remote copy, as of the last sync - saved in the local
+	// storage by the sync, and left as is when the model is edited locally (0 = unknown) - see computeSyncHash
+	public transient long syncHash = 0;
+	
+	// FNV-1a (64-bit) parameters
+	protected final static long HASH_SEED = 0xcbf29ce484222325L;
+	private final static long HASH_PRIME = 0x100000001b3L;
+	
 	
 	protected Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
 	
+	/**
+	 * Returns a hash of the model's synced fields (the ones compared by compareTo) - used for quickly
+	 * telling whether a model has changed since it was last synced, without comparing it field by field.
+	 * Two models with the same hash are equal (barring a 64-bit hash collision), while two models with
+	 * different hashes may still be equal (so compareTo should be used in that case).
+	 * 
+	 * Never returns 0 (which stands for an unknown hash) - except for models which aren't synced.
+	 * @return
+	 */
+	public long computeSyncHash() {
+		return 0;
+	}
+	
+	/**
+	 * Returns whether or not the other (remote) model is equal to this model's remote copy, as of the
+	 * last sync - according to its saved sync hash (always false if the hash is unknown)
+	 * @param other
+	 * @return
+	 */
+	public boolean matchesSyncHash(SynchronizedModel other) {
+		return ((syncHash != 0) && (syncHash == other.computeSyncHash()));
+	}
+	
+	
+	/*
+	 * Utility methods for hashing (see computeSyncHash)
+	 */
+	
+	
+	protected static long hash(long hash, long value) {
+		for (int i = 0; i < 8; i++) {
+			hash ^= (value & 0xff);
+			hash *= HASH_PRIME;
+			value >>>= 8;
+		}
+		
+		return hash;
+	}
+	
+	protected static long hash(long hash, boolean value) {
+		return hash(hash, (value ? 1 : 0));
+	}
+	
+	/**
+	 * Hashes a string along with its length (so adjacent strings can't be mistaken for one another);
+	 * a null string is hashed differently than any other string (including an empty one)
+	 */
+	protected static long hash(long hash, String value) {
+		if (value == null) {
+			return hash(hash, -1);
+		}
+		
+		hash = hash(hash, value.length());
+		
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			
+			hash ^= (c & 0xff);
+			hash *= HASH_PRIME;
+			hash ^= (c >>> 8);
+			hash *= HASH_PRIME;
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * Makes sure a computed hash isn't 0 (which stands for an unknown hash)
+	 */
+	protected static long finishHash(long hash) {
+		return (hash != 0 ? hash : 1);
+	}
+	
+	
 	/*
 	 * Utility methods for comparison
 	 */
@@ -75,4 +182,38 @@ public abstract class SynchronizedModel implements Serializable, Cloneable {
 		
 		return true;
 	}
+	
+	/**
+	 * Compares two arrays of primitive integers (don't have to contains items in the same order)
+	 * @param arr1
+	 * @param arr2
+	 * @return
+	 */
+	protected boolean compareArrays(int[] arr1, int[] arr2) {
+		if ((arr1 == null) && (arr2 == null)) {
+			return true;
+		} else if (
+				((arr1 == null) && (arr2 != null)) ||
+				((arr2 == null) && (arr1 != null)) ||
+				(arr1.length != arr2.length)
+			) {
+			return false;
+		}
+		
+		for (int i = 0; i < arr1.length; i++) {
+			boolean found = false;
+			
+			for (int j = 0; j < arr2.length; j++) {
+				if (arr1[i] == arr2[j]) {
+					found = true;
+					break;
+				}
+			}
+			
+			if (!found)
+				return false;
+		}
+		
+		return true;
+	}
 }
@@ -9,6 +9,7 @@ import android.text.style.BackgroundColorSpan;
 import android.text.style.CharacterStyle;
 import android.text.style.StyleSpan;
 import android.text.style.UnderlineSpan;
+import budo.budoist.debug.Trace;
 
 /**
  * Used for formatting text of items/projects (e.g. %(b)my bold text%)
@@ -31,6 +32,8 @@ public class TodoistTextFormatter {
 			return "";
 		}
 		
+		long span = Trace.begin();
+		
 		Pattern pattern = Pattern.compile(REGEX_FORMAT, Pattern.CASE_INSENSITIVE);
 		
 		Matcher matcher = pattern.matcher(text);
@@ -78,6 +81,7 @@ public class TodoistTextFormatter {
 		
 		builder.append(text.subSequence(previousStart, text.length()));
 		
+		Trace.end("TodoistTextFormatter.formatText", span);
 		return builder;
 	}
 
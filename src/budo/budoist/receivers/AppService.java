@@ -16,12 +16,13 @@ import java.util.List;
 import com.bugsense.trace.BugSenseHandler;
 
 public class AppService extends WakefulIntentService {
-    public static final String SYNC_COMPLETED_ACTION = "budo.budoist.action.SYNC_COMPLETED";
-    
 	private TodoistApplication mApplication;
     private TodoistClient mClient;
     private TodoistOfflineStorage mStorage;
     
+    // A sync made less than this long ago (e.g. by the user) counts as the periodic sync
+    private final static long MIN_SYNC_FRESHNESS_MS = 60 * 1000;
+    
 	public AppService() {
 	    super("AppService");
 	}
@@ -32,51 +33,47 @@ public class AppService extends WakefulIntentService {
         mClient = mApplication.getClient();
         mStorage = mClient.getStorage();
         
-        if (!mClient.isCurrentlyBackingUp()) {
-        	// Not currently backing up - see if we need to backup
-         	int backupFrequencyMins = mStorage.getBackupFrequency();
-        	long currentTimeMs = (new Date()).getTime();
-        	long lastBackupTimeMs = mStorage.getLastBackupTime().getTime();
-        	long timeDiffMins = (currentTimeMs - lastBackupTimeMs) / (1000 * 60);
+        SyncScheduler scheduler = new SyncScheduler(this, mStorage);
+        boolean isLoggedIn = !mClient.hasNeverLoggedIn();
+        
+        try {
+	        // Run anything which is due within the coalesce window - so the sync and the backup share
+	        // this wake up (instead of each waking up the device separately)
+	        long windowEndMs = (new Date()).getTime() + SyncScheduler.COALESCE_WINDOW_MS;
+        
+	        if (isLoggedIn) {
+	        	int dirtyRowCount = mStorage.getDirtyRowCount();
         	
-        	if ((backupFrequencyMins > 0) && (timeDiffMins >= backupFrequencyMins)) {
-        		// Time to backup
-         		try {
-	        		mClient.backupData(this); // if successful, backupData will update last backup time
+	        	if (scheduler.getNextSyncTime(dirtyRowCount) <= windowEndMs) {
+	        		// Time to sync - the coordinator skips the sync if another one (e.g. the startup
+	        		// sync) is currently running or has just finished
+		    		try {
+		        		if (mClient.getSyncCoordinator().sync(MIN_SYNC_FRESHNESS_MS, "periodic")) {
+		        			// (Active views are notified of any changes made by the sync via the storage change feed)
+		        			scheduler.onSyncFinished(true, dirtyRowCount, mClient.getLastSyncMetrics());
+		        		}
+	
+					} catch (Exception e) {
+						// Login/sync failed - will try again later (backing off)
+						e.printStackTrace();
+						scheduler.onSyncFinished(false, dirtyRowCount, null);
+					}
+	        	}
+	        }
+        
+	        // Backup after syncing, so the backup contains the latest data
+	        if ((!mClient.isCurrentlyBackingUp()) && (scheduler.getNextBackupTime() <= windowEndMs)) {
+	    		try {
+	        		mClient.backupData(this, true); // if successful, backupData will update last backup time
 				} catch (IOException e) {
 					// Backup failed - will try again next time
 					e.printStackTrace();
 				}
-        		
-        	}
+	        }
         	
+        } finally {
+        	// Always schedule the next wake up - even if the sync or the backup has failed unexpectedly
+        	scheduler.scheduleNextWakeup(isLoggedIn);
         }
-        
-      
-        if ((!mClient.isCurrentlySyncing()) && (!mClient.hasNeverLoggedIn())) {
-        	// Not currently syncing - see if we need to sync
-        	
-        	int syncFrequencyMins = mStorage.getSyncFrequency();
-        	long currentTimeMs = (new Date()).getTime();
-        	long lastSyncTimeMs = mStorage.getLastSyncTime().getTime();
-        	long timeDiffMins = (currentTimeMs - lastSyncTimeMs) / (1000 * 60);
-        	
-        	if (timeDiffMins >= syncFrequencyMins) {
-        		// Time to sync
-        		try {
-					mClient.login();
-	        		mClient.syncAll(null); // if successful, syncAll will update last sync time
-	        		
-	        		// Tell any active views to refresh their project/label/note/item list
-	        		Intent syncCompleteIntent = new Intent(SYNC_COMPLETED_ACTION);
-	        		sendBroadcast(syncCompleteIntent);
-
-				} catch (Exception e) {
-					// Login/sync failed - will try again next time
-					e.printStackTrace();
-				}
-        	}
-        }
-        
 	}
 }
@@ -0,0 +1,234 @@
+package budo.budoist.receivers;
+
+import java.util.Date;
+
+import android.app.Activity;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.os.SystemClock;
+import android.util.Log;
+import budo.budoist.services.DBConsts;
+import budo.budoist.services.StorageChangeFeed.ChangeSet;
+import budo.budoist.services.StorageChangeFeed.OnStorageChangedListener;
+import budo.budoist.services.SyncMetrics;
+import budo.budoist.services.TodoistClient;
+import budo.budoist.services.TodoistOfflineStorage;
+
+/**
+ * Decides when the AppService should wake up next (instead of waking up every few minutes just to
+ * check whether it's time to sync/backup), adapting the sync interval to the observed change rate:
+ *
+ * 	- The user's sync frequency is the base interval.
+ * 	- While there are local changes which weren't sync'd yet, syncs are made sooner (the wake up is
+ * 	  rescheduled as soon as the first local change is made - see LocalChangesWatcher).
+ * 	- After syncs which found nothing to do (no local or remote changes), the interval is gradually
+ * 	  increased (up to MAX_IDLE_STEPS doublings); it goes back to the base interval once changes show up.
+ * 	- After failed syncs, retries back off exponentially.
+ *
+ * The sync and the backup share a single wake up whenever they're due within COALESCE_WINDOW_MS of
+ * each other.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SyncScheduler {
+
+	private final static String TAG = "SyncScheduler";
+
+	private final static String PREFERENCES_SCHEDULER = "sync_scheduler";
+	private final static String PREFERENCES_IDLE_STREAK = "sync_scheduler.idle_streak";
+	private final static String PREFERENCES_FAILURE_COUNT = "sync_scheduler.failure_count";
+	private final static String PREFERENCES_LAST_ATTEMPT_TIME = "sync_scheduler.last_attempt_time";
+
+	private final static long MINUTE_MS = 60 * 1000;
+
+	private final static long MIN_WAKEUP_DELAY_MS = MINUTE_MS; // E.g. the initial run after boot
+	private final static long LOCAL_CHANGES_INTERVAL_MS = 30 * MINUTE_MS;
+	private final static long FAILURE_RETRY_MS = 5 * MINUTE_MS; // First retry after a failed sync
+	private final static int MAX_IDLE_STEPS = 2; // Idle syncs stretch the interval up to 4x
+	private final static int MAX_FAILURE_STEPS = 6;
+
+	public final static long COALESCE_WINDOW_MS = 15 * MINUTE_MS;
+
+	private Context mContext;
+	private TodoistOfflineStorage mStorage;
+
+
+	public SyncScheduler(Context context, TodoistOfflineStorage storage) {
+		mContext = context;
+		mStorage = storage;
+	}
+
+
+	/**
+	 * Returns when the next sync should be made (wall clock time)
+	 * @param dirtyRowCount number of local changes which weren't sync'd yet
+	 * @return
+	 */
+	public long getNextSyncTime(int dirtyRowCount) {
+		SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_SCHEDULER, Activity.MODE_PRIVATE);
+		long baseIntervalMs = (long)mStorage.getSyncFrequency() * MINUTE_MS;
+		long intervalMs;
+
+		if (dirtyRowCount > 0) {
+			// Send local changes soon
+			intervalMs = Math.min(baseIntervalMs, LOCAL_CHANGES_INTERVAL_MS);
+		} else {
+			int idleStreak = Math.min(preferences.getInt(PREFERENCES_IDLE_STREAK, 0), MAX_IDLE_STEPS);
+			intervalMs = baseIntervalMs << idleStreak;
+		}
+
+		long nextSyncTime = mStorage.getLastSyncTime().getTime() + intervalMs;
+
+		int failureCount = preferences.getInt(PREFERENCES_FAILURE_COUNT, 0);
+
+		if (failureCount > 0) {
+			// Back off from the last (failed) attempt
+			long retryMs = Math.min(FAILURE_RETRY_MS << Math.min(failureCount - 1, MAX_FAILURE_STEPS), baseIntervalMs << MAX_IDLE_STEPS);
+			nextSyncTime = Math.max(nextSyncTime, preferences.getLong(PREFERENCES_LAST_ATTEMPT_TIME, 0) + retryMs);
+		}
+
+		return nextSyncTime;
+	}
+
+	/**
+	 * Returns when the next backup should be made (wall clock time)
+	 * @return Long.MAX_VALUE if periodic backups are disabled
+	 */
+	public long getNextBackupTime() {
+		int backupFrequencyMins = mStorage.getBackupFrequency();
+
+		if (backupFrequencyMins <= 0) return Long.MAX_VALUE;
+
+		return mStorage.getLastBackupTime().getTime() + (long)backupFrequencyMins * MINUTE_MS;
+	}
+
+	/**
+	 * Records the outcome of a periodic sync (so the next sync time will be adapted accordingly)
+	 * @param success
+	 * @param dirtyRowCount number of local changes before syncing
+	 * @param metrics the sync metrics (null if not available)
+	 */
+	public void onSyncFinished(boolean success, int dirtyRowCount, SyncMetrics metrics) {
+		SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_SCHEDULER, Activity.MODE_PRIVATE);
+		Editor editor = preferences.edit();
+
+		editor.putLong(PREFERENCES_LAST_ATTEMPT_TIME, (new Date()).getTime());
+
+		if (success) {
+			editor.putInt(PREFERENCES_FAILURE_COUNT, 0);
+
+			int remoteChanges = (metrics != null ? metrics.getRemoteChangeCount() : 0);
+
+			if ((dirtyRowCount == 0) && (remoteChanges == 0)) {
+				// Nothing changed since last sync
+				editor.putInt(PREFERENCES_IDLE_STREAK, Math.min(preferences.getInt(PREFERENCES_IDLE_STREAK, 0) + 1, MAX_IDLE_STEPS));
+			} else {
+				editor.putInt(PREFERENCES_IDLE_STREAK, 0);
+			}
+
+			Log.d(TAG, String.format("Sync finished: local changes: %d; remote changes: %d", dirtyRowCount, remoteChanges));
+
+		} else {
+			editor.putInt(PREFERENCES_FAILURE_COUNT, preferences.getInt(PREFERENCES_FAILURE_COUNT, 0) + 1);
+		}
+
+		editor.commit();
+	}
+
+	/**
+	 * Records that local changes were made since the last sync (so the interval goes back to the base
+	 * interval once they're sync'd)
+	 */
+	public void onLocalChanges() {
+		SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_SCHEDULER, Activity.MODE_PRIVATE);
+		Editor editor = preferences.edit();
+		editor.putInt(PREFERENCES_IDLE_STREAK, 0);
+		editor.commit();
+	}
+
+	/**
+	 * Sets the alarm which wakes up the AppService, for the next time a sync or a backup is due
+	 * (replacing any previously set alarm)
+	 * @param isLoggedIn false if we never logged in (so there's nothing to sync)
+	 */
+	public void scheduleNextWakeup(boolean isLoggedIn) {
+		long now = (new Date()).getTime();
+		long nextSyncTime = (isLoggedIn ? getNextSyncTime(mStorage.getDirtyRowCount()) : Long.MAX_VALUE);
+		long nextBackupTime = getNextBackupTime();
+		long nextWakeupTime = Math.min(nextSyncTime, nextBackupTime);
+
+		if (nextWakeupTime == Long.MAX_VALUE) {
+			// Nothing to do until the user changes the settings (which reschedules)
+			nextWakeupTime = now + ((long)mStorage.getSyncFrequency() * MINUTE_MS);
+		}
+
+		long delayMs = Math.max(nextWakeupTime - now, MIN_WAKEUP_DELAY_MS);
+
+		AlarmManager mgr = (AlarmManager)mContext.getSystemService(Context.ALARM_SERVICE);
+		Intent i = new Intent(mContext, OnAlarmReceiver.class);
+		PendingIntent pi = PendingIntent.getBroadcast(mContext, 0, i, 0);
+
+		// Replaces any previously set alarm (since it's the same pending intent)
+		mgr.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + delayMs, pi);
+
+		Log.d(TAG, String.format("Next wake up in %d seconds", delayMs / 1000));
+	}
+
+
+	/**
+	 * Reschedules the next wake up once local changes show up (i.e. the number of local changes
+	 * which weren't sync'd yet goes up from zero) - otherwise they'd only be noticed on the next
+	 * wake up, which might be up to 4x the base interval away. Watches the storage change feed for
+	 * as long as the application runs. Usage:
+	 *
+	 * 		(new SyncScheduler.LocalChangesWatcher(context, client)).start();
+	 */
+	public static class LocalChangesWatcher implements OnStorageChangedListener {
+		private final static String[] TABLES = {
+			DBConsts.PROJECTS_TABLE_NAME, DBConsts.LABELS_TABLE_NAME, DBConsts.ITEMS_TABLE_NAME, DBConsts.NOTES_TABLE_NAME
+		};
+
+		private Context mContext;
+		private TodoistClient mClient;
+		private boolean mHasLocalChanges = false;
+
+		public LocalChangesWatcher(Context context, TodoistClient client) {
+			mContext = context;
+			mClient = client;
+		}
+
+		public void start() {
+			for (int i = 0; i < TABLES.length; i++) {
+				mClient.getChangeFeed().subscribe(this, TABLES[i], null);
+			}
+		}
+
+		public void onStorageChanged(ChangeSet changes) {
+			// Called on the main thread - count the local changes in the background
+			(new Thread(new Runnable() {
+				public void run() {
+					checkLocalChanges();
+				}
+			})).start();
+		}
+
+		private synchronized void checkLocalChanges() {
+			TodoistOfflineStorage storage = mClient.getStorage();
+			boolean hadLocalChanges = mHasLocalChanges;
+			mHasLocalChanges = (storage.getDirtyRowCount() > 0);
+
+			if ((mHasLocalChanges) && (!hadLocalChanges) && (!mClient.hasNeverLoggedIn())) {
+				Log.d(TAG, "Local changes were made - rescheduling");
+
+				SyncScheduler scheduler = new SyncScheduler(mContext, storage);
+				scheduler.onLocalChanges();
+				scheduler.scheduleNextWakeup(true);
+			}
+		}
+	}
+}
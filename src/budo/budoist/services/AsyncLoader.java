@@ -0,0 +1,123 @@
+package budo.budoist.services;
+
+import java.util.Hashtable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Loads view data (projects, items, labels, etc) from the storage in the background, and delivers it
+ * back on the main thread - so views never query the storage from the main thread. Usage (from the
+ * main thread):
+ *
+ * 		mLoader.load("projects", new AsyncLoader.Task<ArrayList<Project>>() {
+ * 			protected ArrayList<Project> load() {
+ * 				return mClient.getProjects(); // Background thread
+ * 			}
+ * 			protected void onLoaded(ArrayList<Project> projects) {
+ * 				buildProjectList(projects); // Main thread
+ * 			}
+ * 		});
+ *
+ * Starting a load cancels any previous load with the same key which hasn't been delivered yet (so a
+ * view refreshed several times in a row only displays the latest data), and a view should call
+ * cancelAll when it's destroyed (so results are never delivered to a destroyed view).
+ *
+ * All loads (of all views) run on a single background thread, one after the other - so they won't
+ * compete with each other (or with the main thread) for the database and CPU.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class AsyncLoader {
+
+	private static ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+	private static Handler mHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * A single load
+	 * @param <T> the loaded data type
+	 */
+	public static abstract class Task<T> implements Runnable {
+		private volatile boolean mIsCancelled = false;
+		private volatile Future<?> mFuture;
+
+		/**
+		 * Loads the data - called on the background thread
+		 */
+		protected abstract T load();
+
+		/**
+		 * Called on the main thread once the data was loaded (unless the task was cancelled)
+		 * @param result
+		 */
+		protected abstract void onLoaded(T result);
+
+		public void cancel() {
+			mIsCancelled = true;
+
+			if (mFuture != null) {
+				// Remove it from the queue (if it hasn't started running yet)
+				mFuture.cancel(false);
+			}
+		}
+
+		public boolean isCancelled() {
+			return mIsCancelled;
+		}
+
+		public final void run() {
+			if (mIsCancelled) return;
+
+			final T result = load();
+
+			if (mIsCancelled) return;
+
+			mHandler.post(new Runnable() {
+				public void run() {
+					// Might have been cancelled while waiting to be delivered
+					if (!mIsCancelled) onLoaded(result);
+				}
+			});
+		}
+	}
+
+	private Hashtable<String, Task<?>> mTasks = new Hashtable<String, Task<?>>();
+
+
+	/**
+	 * Starts loading in the background (should be called from the main thread)
+	 * @param key identifies the load - any previous load with the same key is cancelled
+	 * @param task
+	 */
+	public void load(String key, Task<?> task) {
+		cancel(key);
+
+		mTasks.put(key, task);
+		task.mFuture = mExecutor.submit(task);
+	}
+
+	/**
+	 * Cancels a load (if it's still running or wasn't delivered yet)
+	 * @param key
+	 */
+	public void cancel(String key) {
+		Task<?> task = mTasks.remove(key);
+
+		if (task != null) task.cancel();
+	}
+
+	/**
+	 * Cancels all loads (should be called when the view is destroyed)
+	 */
+	public void cancelAll() {
+		for (Task<?> task : mTasks.values()) {
+			task.cancel();
+		}
+
+		mTasks.clear();
+	}
+}
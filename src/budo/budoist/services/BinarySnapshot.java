@@ -0,0 +1,309 @@
+package budo.budoist.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import android.database.Cursor;
+
+/**
+ * A compact, versioned binary snapshot of the offline storage tables - much faster to write and to
+ * load back than the zipped CSV backups (no text encoding/parsing of every value).
+ *
+ * File layout (all numbers are big-endian):
+ *
+ * 	magic (int), version (int), creation time (long), table count (int)
+ * 	Per table:
+ * 		name (string), row count (int), column count (int)
+ * 		Per column: name (string), type (byte)
+ * 		Per column: section length (int), section CRC32 (long), section data - the column's values
+ * 			for all rows (columnar, so each section holds values of a single type)
+ *
+ * Strings are written as a length (int) followed by UTF-8 bytes. Each value in a column section is
+ * a tag byte (null/value) followed by the value (a long or a string).
+ *
+ * Snapshots are read through a memory-mapped file, and all checksums are verified before any of the
+ * data is returned (so a corrupt snapshot is never partially restored).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class BinarySnapshot {
+
+	private final static int MAGIC = 0x42445350; // "BDSP"
+	public final static int VERSION = 1;
+
+	public final static byte TYPE_LONG = 0;
+	public final static byte TYPE_STRING = 1;
+
+	private final static byte TAG_NULL = 0;
+	private final static byte TAG_VALUE = 1;
+
+	/**
+	 * The contents of a single table
+	 */
+	public static class Table {
+		public String name;
+		public String[] columns;
+		public byte[] columnTypes;
+		public int rowCount;
+		// Column values (per column, then per row) - Long, String or null
+		public Object[][] values;
+
+		public Object getValue(int row, int column) {
+			return values[column][row];
+		}
+
+		public String toString() {
+			return String.format("<Table: %s; columns: %d; rows: %d>", name, columns.length, rowCount);
+		}
+	}
+
+
+	/**
+	 * Writes a snapshot, table by table
+	 */
+	public static class Writer {
+		private DataOutputStream mOutput;
+
+		/**
+		 * @param output
+		 * @param tableCount the number of tables which will be written
+		 * @throws IOException
+		 */
+		public Writer(OutputStream output, int tableCount) throws IOException {
+			mOutput = new DataOutputStream(output);
+
+			mOutput.writeInt(MAGIC);
+			mOutput.writeInt(VERSION);
+			mOutput.writeLong(System.currentTimeMillis());
+			mOutput.writeInt(tableCount);
+		}
+
+		/**
+		 * Writes all rows of a cursor as a table
+		 * @param name
+		 * @param columns the cursor columns to write
+		 * @param columnTypes TYPE_LONG or TYPE_STRING, per column
+		 * @param c
+		 * @throws IOException
+		 */
+		public void writeTable(String name, String[] columns, byte[] columnTypes, Cursor c) throws IOException {
+			ByteArrayOutputStream[] sections = new ByteArrayOutputStream[columns.length];
+			DataOutputStream[] sectionOutputs = new DataOutputStream[columns.length];
+			int[] columnIndexes = new int[columns.length];
+			int rowCount = 0;
+
+			for (int i = 0; i < columns.length; i++) {
+				sections[i] = new ByteArrayOutputStream();
+				sectionOutputs[i] = new DataOutputStream(sections[i]);
+				columnIndexes[i] = c.getColumnIndex(columns[i]);
+			}
+
+			// Split the rows into column sections
+
+			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+				for (int i = 0; i < columns.length; i++) {
+					DataOutputStream section = sectionOutputs[i];
+
+					if (c.isNull(columnIndexes[i])) {
+						section.writeByte(TAG_NULL);
+					} else if (columnTypes[i] == TYPE_LONG) {
+						section.writeByte(TAG_VALUE);
+						section.writeLong(c.getLong(columnIndexes[i]));
+					} else {
+						section.writeByte(TAG_VALUE);
+						writeString(section, c.getString(columnIndexes[i]));
+					}
+				}
+
+				rowCount++;
+			}
+
+			// Table header
+
+			writeString(mOutput, name);
+			mOutput.writeInt(rowCount);
+			mOutput.writeInt(columns.length);
+
+			for (int i = 0; i < columns.length; i++) {
+				writeString(mOutput, columns[i]);
+				mOutput.writeByte(columnTypes[i]);
+			}
+
+			// Column sections
+
+			CRC32 crc = new CRC32();
+
+			for (int i = 0; i < columns.length; i++) {
+				byte[] data = sections[i].toByteArray();
+
+				crc.reset();
+				crc.update(data);
+
+				mOutput.writeInt(data.length);
+				mOutput.writeLong(crc.getValue());
+				mOutput.write(data);
+			}
+		}
+
+		public void flush() throws IOException {
+			mOutput.flush();
+		}
+
+		private static void writeString(DataOutputStream output, String value) throws IOException {
+			byte[] bytes = value.getBytes("UTF-8");
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+
+
+	/**
+	 * Returns whether or not a file is a binary snapshot (i.e. starts with the snapshot magic)
+	 * @param file
+	 * @return
+	 */
+	public static boolean isSnapshot(File file) {
+		if ((!file.isFile()) || (file.length() < 4)) return false;
+
+		FileInputStream input = null;
+
+		try {
+			input = new FileInputStream(file);
+			int magic = (input.read() << 24) | (input.read() << 16) | (input.read() << 8) | input.read();
+			return (magic == MAGIC);
+
+		} catch (IOException e) {
+			return false;
+
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads (and verifies) an entire snapshot
+	 * @param file
+	 * @return the snapshot tables
+	 * @throws IOException if the snapshot is invalid, corrupt or of an unsupported version
+	 */
+	public static ArrayList<Table> read(File file) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+
+		try {
+			FileChannel channel = input.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			return read(buffer);
+
+		} catch (BufferUnderflowException e) {
+			throw new IOException(String.format("Snapshot %s is truncated", file.getPath()));
+
+		} finally {
+			input.close();
+		}
+	}
+
+	private static ArrayList<Table> read(ByteBuffer buffer) throws IOException {
+		ArrayList<Table> tables = new ArrayList<Table>();
+
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException("Not a snapshot file");
+		}
+
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException(String.format("Unsupported snapshot version: %d", version));
+		}
+
+		buffer.getLong(); // Creation time
+		int tableCount = buffer.getInt();
+		CRC32 crc = new CRC32();
+
+		for (int t = 0; t < tableCount; t++) {
+			Table table = new Table();
+
+			table.name = readString(buffer);
+			table.rowCount = checkLength(buffer, buffer.getInt()); // Each row takes at least a byte per column
+			int columnCount = checkLength(buffer, buffer.getInt());
+
+			table.columns = new String[columnCount];
+			table.columnTypes = new byte[columnCount];
+			table.values = new Object[columnCount][];
+
+			for (int i = 0; i < columnCount; i++) {
+				table.columns[i] = readString(buffer);
+				table.columnTypes[i] = buffer.get();
+			}
+
+			for (int i = 0; i < columnCount; i++) {
+				int length = checkLength(buffer, buffer.getInt());
+				long checksum = buffer.getLong();
+				byte[] data = new byte[length];
+				buffer.get(data);
+
+				crc.reset();
+				crc.update(data);
+
+				if (crc.getValue() != checksum) {
+					throw new IOException(String.format("Snapshot checksum mismatch (table %s, column %s)",
+							table.name, table.columns[i]));
+				}
+
+				table.values[i] = readColumn(ByteBuffer.wrap(data), table.columnTypes[i], table.rowCount);
+			}
+
+			tables.add(table);
+		}
+
+		return tables;
+	}
+
+	private static Object[] readColumn(ByteBuffer section, byte type, int rowCount) throws IOException {
+		Object[] values = new Object[rowCount];
+
+		for (int row = 0; row < rowCount; row++) {
+			if (section.get() == TAG_NULL) {
+				values[row] = null;
+			} else if (type == TYPE_LONG) {
+				values[row] = Long.valueOf(section.getLong());
+			} else {
+				values[row] = readString(section);
+			}
+		}
+
+		return values;
+	}
+
+	private static String readString(ByteBuffer buffer) throws IOException {
+		byte[] bytes = new byte[checkLength(buffer, buffer.getInt())];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Makes sure a length read from the snapshot is valid (the headers aren't checksummed)
+	 */
+	private static int checkLength(ByteBuffer buffer, int length) throws IOException {
+		if ((length < 0) || (length > buffer.remaining())) {
+			throw new IOException(String.format("Invalid snapshot length: %d", length));
+		}
+
+		return length;
+	}
+}
@@ -0,0 +1,226 @@
+package budo.budoist.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import android.content.Context;
+import android.util.Log;
+import budo.budoist.models.Item;
+import budo.budoist.models.Label;
+
+/**
+ * Keeps the last rendered state of item list views (their first visible items, along with the labels
+ * needed for displaying them) in small local files - so when the application is launched, the first
+ * frame of the initial view could be drawn right away, without waiting for the (potentially large)
+ * storage to be queried. The view is then reconciled with fresh storage data in the background.
+ *
+ * A snapshot is kept per view (project/label/query and sort mode), and only the most recently saved
+ * snapshots are kept.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class ColdStartSnapshot {
+
+	private final static String TAG = "ColdStartSnapshot";
+
+	private final static String DIRECTORY = "cold_start";
+	private final static String FILENAME_SUFFIX = ".snapshot";
+	private final static int VERSION = 2; // Bumped whenever the saved models change
+
+	private final static int MAX_SNAPSHOTS = 5;
+	public final static int MAX_ITEMS = 100; // More than enough for the first screen
+
+	/**
+	 * The saved state of a single view
+	 */
+	public static class Contents implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public int version;
+		public String viewKey;
+		public ArrayList<Item> items;
+		public ArrayList<Label> labels;
+	}
+
+
+	/**
+	 * Returns the snapshot file name for a view key (which may contain any characters)
+	 */
+	private static File getSnapshotFile(Context context, String viewKey) {
+		StringBuilder name = new StringBuilder();
+
+		for (int i = 0; i < viewKey.length(); i++) {
+			char c = viewKey.charAt(i);
+			name.append(Character.isLetterOrDigit(c) ? c : '_');
+		}
+
+		return new File(new File(context.getFilesDir(), DIRECTORY), name.toString() + FILENAME_SUFFIX);
+	}
+
+	/**
+	 * Loads the snapshot of a view
+	 * @param context
+	 * @param viewKey
+	 * @return null if there's no (valid) snapshot for the view
+	 */
+	public static Contents load(Context context, String viewKey) {
+		File file = getSnapshotFile(context, viewKey);
+
+		if (!file.exists()) return null;
+
+		ObjectInputStream input = null;
+
+		try {
+			input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			Contents contents = (Contents)input.readObject();
+
+			if ((contents.version != VERSION) || (!viewKey.equals(contents.viewKey))) {
+				return null;
+			}
+
+			return contents;
+
+		} catch (Exception e) {
+			// Corrupt or incompatible snapshot (e.g. saved by an older version of the models)
+			Log.e(TAG, String.format("Error while loading snapshot %s", file.getPath()), e);
+			file.delete();
+			return null;
+
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the snapshot of a view (if it has changed since it was last saved). Should not be called
+	 * from the main thread.
+	 *
+	 * @param context
+	 * @param viewKey
+	 * @param items the displayed items (only the first MAX_ITEMS are saved)
+	 * @param labels
+	 */
+	public static void save(Context context, String viewKey, List<Item> items, List<Label> labels) {
+		Contents contents = new Contents();
+		contents.version = VERSION;
+		contents.viewKey = viewKey;
+		contents.items = new ArrayList<Item>(items.subList(0, Math.min(items.size(), MAX_ITEMS)));
+		contents.labels = new ArrayList<Label>(labels);
+
+		File file = getSnapshotFile(context, viewKey);
+		File tempFile = new File(file.getPath() + ".tmp");
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream output = new ObjectOutputStream(bytes);
+
+			output.writeObject(contents);
+			output.close();
+
+			byte[] data = bytes.toByteArray();
+
+			if ((file.exists()) && (file.length() == data.length) && (Arrays.equals(data, readFile(file)))) {
+				// View hasn't changed since it was last saved (keep it from being removed as an old snapshot)
+				file.setLastModified(System.currentTimeMillis());
+				return;
+			}
+
+			file.getParentFile().mkdirs();
+
+			BufferedOutputStream fileOutput = new BufferedOutputStream(new FileOutputStream(tempFile, false));
+			try {
+				fileOutput.write(data);
+			} finally {
+				fileOutput.close();
+			}
+
+			file.delete();
+
+			if (!tempFile.renameTo(file)) {
+				Log.e(TAG, String.format("Couldn't rename %s to %s", tempFile.getPath(), file.getPath()));
+				return;
+			}
+
+			Log.d(TAG, String.format("Saved snapshot of %s (%d items; %d bytes)", viewKey, contents.items.size(), data.length));
+
+			removeOldSnapshots(file.getParentFile());
+
+		} catch (IOException e) {
+			Log.e(TAG, String.format("Error while saving snapshot %s", file.getPath()), e);
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Deletes all snapshots (e.g. when the user logs out)
+	 * @param context
+	 */
+	public static void clear(Context context) {
+		File[] files = new File(context.getFilesDir(), DIRECTORY).listFiles();
+
+		if (files == null) return;
+
+		for (int i = 0; i < files.length; i++) {
+			files[i].delete();
+		}
+	}
+
+
+	/**
+	 * Keeps only the most recently saved snapshots
+	 */
+	private static void removeOldSnapshots(File directory) {
+		File[] files = directory.listFiles();
+
+		if ((files == null) || (files.length <= MAX_SNAPSHOTS)) return;
+
+		// Newest files first
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long diff = b.lastModified() - a.lastModified();
+				return (diff > 0 ? 1 : (diff < 0 ? -1 : 0));
+			}
+		});
+
+		for (int i = MAX_SNAPSHOTS; i < files.length; i++) {
+			files[i].delete();
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		FileInputStream input = new FileInputStream(file);
+
+		try {
+			int offset = 0;
+			int size;
+
+			while ((offset < data.length) && ((size = input.read(data, offset, data.length - offset)) != -1)) {
+				offset += size;
+			}
+
+		} finally {
+			input.close();
+		}
+
+		return data;
+	}
+}
@@ -0,0 +1,165 @@
+package budo.budoist.services;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Reads CSV rows one by one from a character stream (so large backup files don't have to be
+ * loaded into memory). Understands the format written when backing up:
+ *
+ * 	- String values are surrounded with quotes, with quotes and newlines escaped (\" and \n).
+ * 	  Quoted values may also contain raw newlines (spanning multiple lines) and doubled quotes ("").
+ * 	- Other values are numbers (or the literal null).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class CsvReader {
+
+	private final static int BUFFER_SIZE = 8192;
+	private final static char BOM = '\uFEFF';
+
+	private Reader mReader;
+	private char[] mBuffer = new char[BUFFER_SIZE];
+	private int mPosition = 0;
+	private int mLength = 0;
+	private boolean mIsFirstChar = true;
+
+	private StringBuilder mValue = new StringBuilder();
+
+
+	public CsvReader(Reader reader) {
+		mReader = reader;
+	}
+
+	/**
+	 * Returns the next character (or -1 at end of stream)
+	 */
+	private int read() throws IOException {
+		if (mPosition == mLength) {
+			mLength = mReader.read(mBuffer, 0, mBuffer.length);
+			mPosition = 0;
+
+			if (mLength <= 0) {
+				mLength = 0;
+				return -1;
+			}
+		}
+
+		char ch = mBuffer[mPosition++];
+
+		if (mIsFirstChar) {
+			mIsFirstChar = false;
+			if (ch == BOM) return read(); // Skip the UTF-8 byte order mark
+		}
+
+		return ch;
+	}
+
+	/**
+	 * Returns the next character without consuming it (or -1 at end of stream)
+	 */
+	private int peek() throws IOException {
+		int ch = read();
+		if (ch != -1) mPosition--;
+		return ch;
+	}
+
+	/**
+	 * Reads the next row
+	 * @return the row values (a String for quoted values, a Long for numbers, or null) - or null
+	 * 		when there are no more rows
+	 * @throws IOException
+	 */
+	public ArrayList<Object> readRow() throws IOException {
+		ArrayList<Object> values = new ArrayList<Object>();
+		int ch;
+
+		// Skip empty lines
+		do {
+			ch = read();
+		} while ((ch == '\n') || (ch == '\r'));
+
+		if (ch == -1) return null;
+
+		while (true) {
+			// Skip whitespace before the value
+			while ((ch == ' ') || (ch == '\t')) ch = read();
+
+			if (ch == '"') {
+				ch = readQuotedValue();
+				values.add(mValue.toString());
+
+				// Skip anything between the closing quote and the next separator
+				while ((ch != ',') && (ch != '\n') && (ch != '\r') && (ch != -1)) ch = read();
+
+			} else {
+				mValue.setLength(0);
+
+				while ((ch != ',') && (ch != '\n') && (ch != '\r') && (ch != -1)) {
+					mValue.append((char)ch);
+					ch = read();
+				}
+
+				values.add(parseNumber(mValue.toString().trim()));
+			}
+
+			if (ch != ',') break; // End of row
+
+			ch = read();
+		}
+
+		return values;
+	}
+
+	/**
+	 * Reads a quoted value (after its opening quote) into mValue, un-escaping it
+	 * @return the character following the closing quote
+	 */
+	private int readQuotedValue() throws IOException {
+		int ch;
+
+		mValue.setLength(0);
+
+		while ((ch = read()) != -1) {
+			if (ch == '\\') {
+				int next = peek();
+
+				if (next == 'n') {
+					read();
+					mValue.append('\n');
+				} else if (next == '"') {
+					read();
+					mValue.append('"');
+				} else {
+					mValue.append('\\');
+				}
+
+			} else if (ch == '"') {
+				if (peek() == '"') {
+					// Doubled quote - an escaped quote
+					read();
+					mValue.append('"');
+				} else {
+					// Closing quote
+					return read();
+				}
+
+			} else {
+				// Note that raw newlines are kept as part of the value
+				mValue.append((char)ch);
+			}
+		}
+
+		return -1; // Unterminated value
+	}
+
+	private Object parseNumber(String value) {
+		if ((value.length() == 0) || (value.equals("null"))) {
+			return null;
+		}
+
+		return Long.valueOf(value);
+	}
+}
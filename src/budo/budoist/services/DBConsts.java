@@ -3,7 +3,7 @@ package budo.budoist.services;
 public class DBConsts {
 	
 	public static final String DATABASE_NAME = "todoist_storage";
-	public static final int DATABASE_VERSION = 1;
+	public static final int DATABASE_VERSION = 5;
 	
 	
 	/*
@@ -19,6 +19,7 @@ public class DBConsts {
 	public static final String PROJECTS_INDENT = "indent";
 	public static final String PROJECTS_ORDER = "project_order";
 	public static final String PROJECTS_DIRTY_STATE = "dirty_state";
+	public static final String PROJECTS_SYNC_HASH = "sync_hash";
 	
 	public static final String ITEMS_TABLE_NAME = "items";
 	public static final String ITEMS_ID = "id";
@@ -31,6 +32,7 @@ public class DBConsts {
 	public static final String ITEMS_PRIORITY = "priority";
 	public static final String ITEMS_NOTE_COUNT = "note_count";
 	public static final String ITEMS_DIRTY_STATE = "dirty_state";
+	public static final String ITEMS_SYNC_HASH = "sync_hash";
 	public static final String ITEMS_COMPLETED = "completed";
 	
 	public static final String NOTES_TABLE_NAME = "notes";
@@ -39,6 +41,7 @@ public class DBConsts {
 	public static final String NOTES_CONTENT = "content";
 	public static final String NOTES_POST_DATE = "post_date";
 	public static final String NOTES_DIRTY_STATE = "dirty_state";
+	public static final String NOTES_SYNC_HASH = "sync_hash";
 	
 	public static final String LABELS_TABLE_NAME = "labels";
 	public static final String LABELS_ID = "id";
@@ -46,6 +49,7 @@ public class DBConsts {
 	public static final String LABELS_COLOR = "color";
 	public static final String LABELS_COUNT = "item_count";
 	public static final String LABELS_DIRTY_STATE = "dirty_state";
+	public static final String LABELS_SYNC_HASH = "sync_hash";
 	
 	public static final String ITEMS_TO_LABELS_TABLE_NAME = "items_to_labels";
 	public static final String ITEMS_TO_LABELS_ITEM_ID = "item_id";
@@ -55,5 +59,17 @@ public class DBConsts {
 	public static final String QUERIES_ID = "id";
 	public static final String QUERIES_NAME = "name";
 	public static final String QUERIES_QUERY = "query";
+	
+	public static final String SYNC_HISTORY_TABLE_NAME = "sync_history";
+	public static final String SYNC_HISTORY_ID = "id";
+	public static final String SYNC_HISTORY_START_TIME = "start_time";
+	public static final String SYNC_HISTORY_DURATION = "duration";
+	public static final String SYNC_HISTORY_RESULT = "result";
+	public static final String SYNC_HISTORY_METRICS = "metrics";
+	
+	// Rows changed since the last backup (filled by triggers, used for incremental backups)
+	public static final String BACKUP_CHANGES_TABLE_NAME = "backup_changes";
+	public static final String BACKUP_CHANGES_TABLE = "table_name";
+	public static final String BACKUP_CHANGES_KEY = "row_key";
 
 }
@@ -1,6 +1,7 @@
 package budo.budoist.services;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -48,10 +49,39 @@ public class JsonServer {
 	// Max number of times we should retry calling an online server method
 	private static final int MAX_ONLINE_RETRY_COUNT = 3;
 	
+	/**
+	 * Handles requests in-process instead of sending them over HTTP (used for running the
+	 * sync engine against a local stand-in of the Todoist server)
+	 */
+	public interface IRequestHandler {
+		/**
+		 * @param url the full url (including parameters) that would have been requested
+		 * @param subUrl the command name (e.g. getProjects)
+		 * @param parameters key/value of the parameters
+		 * @return the raw JSON response, or null in case of a connection error
+		 */
+		public String handleRequest(String url, String subUrl, Hashtable<String, Object> parameters);
+	}
+	
+	private IRequestHandler mRequestHandler = null;
+	
+	// The metrics of the sync currently running through this instance (null if none)
+	private volatile SyncMetrics mMetrics = null;
+	
 
 	public JsonServer(String baseUrl) {
+		this(baseUrl, null);
+	}
+	
+	/**
+	 * @param baseUrl
+	 * @param handler handles all requests of this instance, instead of the online server (null - send
+	 * requests over HTTP)
+	 */
+	public JsonServer(String baseUrl, IRequestHandler handler) {
 		
 		mBaseUrl = baseUrl;
+		mRequestHandler = handler;
 		
 		// Remove any existing protocols
 		if (mBaseUrl.startsWith("http://"))
@@ -63,6 +93,14 @@ public class JsonServer {
 			mBaseUrl = mBaseUrl + "/";
 	}
 	
+	/**
+	 * Sets the metrics which requests made through this instance are recorded into
+	 * @param metrics null - don't record
+	 */
+	public void setMetrics(SyncMetrics metrics) {
+		mMetrics = metrics;
+	}
+	
 	/**
 	 * Sends out a command, with given parameters, and returns key-value
 	 * results. If the command fails in case of a connection/socket error, it retries several
@@ -89,6 +127,9 @@ public class JsonServer {
 			// A socket/connection exception was raised
 			retryCount++;
 			
+			SyncMetrics metrics = mMetrics;
+			if ((metrics != null) && (retryCount < MAX_ONLINE_RETRY_COUNT)) metrics.recordRetry(subUrl);
+			
 			// Wait a little before retrying
 			try {
 				Thread.sleep(RETRY_ONLINE_WAIT_TIME * retryCount);
@@ -125,6 +166,9 @@ public class JsonServer {
 		InputStream streamContent;
 		String resultData;
 		
+		SyncMetrics metrics = mMetrics;
+		long requestStartTime = System.currentTimeMillis();
+		
 		// Next, send a HTTP Request to the server
 		
 		try {
@@ -160,6 +204,20 @@ public class JsonServer {
 	        	urlWithParams = fullUrl;
 	        
 	        Log.d(TAG, String.format("Executing GET request url = %s ", urlWithParams));
+	        
+	        IRequestHandler handler = mRequestHandler;
+	        if (handler != null) {
+	        	// Request is handled locally - a null response is treated as a connection error
+	        	resultData = handler.handleRequest(urlWithParams, subUrl, parameters);
+	        	Object result = (resultData != null ? decodeResponse(subUrl, resultData, metrics) : null);
+	        	
+	        	if (metrics != null) {
+	        		metrics.recordRequest(subUrl, urlWithParams.length(), (resultData != null ? resultData.length() : 0),
+	        				System.currentTimeMillis() - requestStartTime, (result != null));
+	        	}
+	        	
+	        	return result;
+	        }
 
 			HttpGet httpGet = new HttpGet(urlWithParams);
 			
@@ -171,7 +229,8 @@ public class JsonServer {
 			HttpClient client = new DefaultHttpClient(params);
 			
 			HttpResponse response = client.execute(httpGet);
-			streamContent = response.getEntity().getContent();
+			CountingInputStream countingStream = new CountingInputStream(response.getEntity().getContent());
+			streamContent = countingStream;
 			
 			resultData = readToEnd(streamContent);
 			
@@ -180,11 +239,24 @@ public class JsonServer {
 			int status = response.getStatusLine().getStatusCode();
 			if (status != 200) {
 				Log.e(TAG, String.format("Expected 200 http status code. %d received - returning null", status));
+				
+				if (metrics != null) {
+					metrics.recordRequest(subUrl, urlWithParams.length(), countingStream.getCount(),
+							System.currentTimeMillis() - requestStartTime, false);
+				}
+				
 				return null;
 			}
 
 			  // Parse results (returned as JSON string)
-			  return jsonDecodeString(resultData);
+			  Object result = decodeResponse(subUrl, resultData, metrics);
+			  
+			  if (metrics != null) {
+				  metrics.recordRequest(subUrl, urlWithParams.length(), countingStream.getCount(),
+						  System.currentTimeMillis() - requestStartTime, (result != null));
+			  }
+			  
+			  return result;
 		  
 		  } catch (SSLException e) {
 			  // SSL Certificate problems - try without encryption (could happen since Todoist's
@@ -194,6 +266,11 @@ public class JsonServer {
 		  } catch (Exception e) {
 			  // In case of error - we'll simply return null
 			  Log.e(TAG, "Error while executing GET", e);
+			  
+			  if (metrics != null) {
+				  metrics.recordRequest(subUrl, 0, 0, System.currentTimeMillis() - requestStartTime, false);
+			  }
+			  
 			  return null;
 		  }
 		  
@@ -201,6 +278,20 @@ public class JsonServer {
 	
 	
 
+	/**
+	 * Decodes a response (recording the decoding time in the sync metrics, if any)
+	 */
+	private Object decodeResponse(String subUrl, String resultData, SyncMetrics metrics) {
+		long decodeStartTime = System.currentTimeMillis();
+		Object result = jsonDecodeString(resultData);
+		
+		if (metrics != null) {
+			metrics.recordDecode(subUrl, System.currentTimeMillis() - decodeStartTime);
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Decodes a JSON string into a hashtable that contains either string
 	 * values, ArrayList or inner Hash tables
@@ -209,7 +300,7 @@ public class JsonServer {
 	 *            the JSON string to decode
 	 * @return
 	 */
-	private Object jsonDecodeString(String input) {
+	public static Object jsonDecodeString(String input) {
 		try {
 			Object main = (new JSONTokener(input)).nextValue();
 			
@@ -236,7 +327,7 @@ public class JsonServer {
 	 * @return
 	 */
 	@SuppressWarnings("unchecked")
-	private Object jsonDecodeObject(Object input) {
+	private static Object jsonDecodeObject(Object input) {
 		if (input instanceof JSONArray) {
 			// JSON array - convert to ArrayList
 			List<Object> arr = new ArrayList<Object>();
@@ -315,4 +406,41 @@ public class JsonServer {
 
 		return sb.toString();
 	}
+	
+	
+	/**
+	 * Counts the number of bytes read from an input stream
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long mCount = 0;
+		
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value != -1) mCount++;
+			return value;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			int size = super.read(buffer, offset, count);
+			if (size > 0) mCount += size;
+			return size;
+		}
+		
+		@Override
+		public long skip(long count) throws IOException {
+			long skipped = super.skip(count);
+			mCount += skipped;
+			return skipped;
+		}
+		
+		public long getCount() {
+			return mCount;
+		}
+	}
 }
@@ -0,0 +1,283 @@
+package budo.budoist.services;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import budo.budoist.models.Label;
+import budo.budoist.models.SynchronizedModel.DirtyState;
+
+/**
+ * An in-memory index of the labels - a case-insensitive prefix trie over the label names, along with
+ * a mapping of label IDs. Several labels may share a trie node (names differing only by case, or a
+ * DELETED label along with a new label of the same name) - each of them stays indexed. Serves the
+ * label lookups which are made repeatedly (label suggestions by name prefix, label names of query
+ * filters and label names of items), without querying the storage.
+ * Usage:
+ *
+ * 		LabelIndex index = new LabelIndex(storage.getLabels());
+ * 		ArrayList<Label> labels = index.getByPrefix("wo", false); // e.g. @work, @workout
+ *
+ * The index is kept by the storage, which updates it whenever a label is written (see
+ * TodoistOfflineStorage.getLabelIndex). All returned labels are copies (so they may be freely modified
+ * by the caller). Thread-safe.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class LabelIndex {
+
+	private final static char[] NO_KEYS = new char[0];
+	private final static Node[] NO_CHILDREN = new Node[0];
+
+	/**
+	 * A single trie node - its children are sorted by their characters (so traversing the trie returns
+	 * the labels sorted by name)
+	 */
+	private static class Node {
+		public char[] keys = NO_KEYS;
+		public Node[] children = NO_CHILDREN;
+		public ArrayList<Label> labels = null; // The labels whose names end at this node (null - none)
+
+		public Node getChild(char key) {
+			int index = findKey(key);
+			return (index >= 0 ? children[index] : null);
+		}
+
+		public Node getOrAddChild(char key) {
+			int index = findKey(key);
+			if (index >= 0) return children[index];
+
+			// Insert the new child in place (keeping the children sorted)
+			index = -(index + 1);
+
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+			System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+
+			newKeys[index] = key;
+			newChildren[index] = new Node();
+
+			keys = newKeys;
+			children = newChildren;
+
+			return newChildren[index];
+		}
+
+		public void removeChild(char key) {
+			int index = findKey(key);
+			if (index < 0) return;
+
+			char[] newKeys = new char[keys.length - 1];
+			Node[] newChildren = new Node[children.length - 1];
+
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+			System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+
+			keys = newKeys;
+			children = newChildren;
+		}
+
+		public boolean isEmpty() {
+			return ((labels == null) && (keys.length == 0));
+		}
+
+		/**
+		 * Binary search for a child's character
+		 * @return the child's index, or (-(insertion point) - 1) if there's no such child
+		 */
+		private int findKey(char key) {
+			int low = 0, high = keys.length - 1;
+
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+
+				if (keys[middle] < key) {
+					low = middle + 1;
+				} else if (keys[middle] > key) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+
+			return -(low + 1);
+		}
+	}
+
+	private Node mRoot = new Node();
+	private Hashtable<Integer, Label> mLabelsById = new Hashtable<Integer, Label>();
+
+
+	/**
+	 * @param labels the labels to index (including DELETED ones)
+	 */
+	public LabelIndex(List<Label> labels) {
+		for (int i = 0; i < labels.size(); i++) {
+			put(labels.get(i));
+		}
+	}
+
+	/**
+	 * Adds or updates a label (by its ID)
+	 * @param label
+	 */
+	public synchronized void put(Label label) {
+		remove(label.id); // In case it was renamed
+
+		Label copy = (Label)label.clone();
+		Node node = mRoot;
+		String key = getKey(copy.name);
+
+		for (int i = 0; i < key.length(); i++) {
+			node = node.getOrAddChild(key.charAt(i));
+		}
+
+		if (node.labels == null) node.labels = new ArrayList<Label>(1);
+
+		node.labels.add(copy);
+		mLabelsById.put(copy.id, copy);
+	}
+
+	/**
+	 * Removes a label (by its ID)
+	 * @param labelId
+	 */
+	public synchronized void remove(int labelId) {
+		Label label = mLabelsById.remove(labelId);
+		if (label == null) return;
+
+		removeNode(mRoot, getKey(label.name), 0, label);
+	}
+
+	/**
+	 * Removes the label ending at the key, along with any nodes left empty
+	 * @return whether or not the node is empty now
+	 */
+	private boolean removeNode(Node node, String key, int depth, Label label) {
+		if (depth == key.length()) {
+			if (node.labels != null) {
+				node.labels.remove(label);
+				if (node.labels.isEmpty()) node.labels = null;
+			}
+		} else {
+			char c = key.charAt(depth);
+			Node child = node.getChild(c);
+
+			if ((child != null) && (removeNode(child, key, depth + 1, label))) {
+				node.removeChild(c);
+			}
+		}
+
+		return node.isEmpty();
+	}
+
+
+	/**
+	 * Returns a label by ID
+	 * @param labelId
+	 * @return null if no such label exists
+	 */
+	public synchronized Label getById(int labelId) {
+		Label label = mLabelsById.get(labelId);
+		return (label != null ? (Label)label.clone() : null);
+	}
+
+	/**
+	 * Returns a label by its exact name - a non-DELETED label is preferred over a DELETED one
+	 * @param name
+	 * @return null if no such label exists
+	 */
+	public synchronized Label getByName(String name) {
+		Node node = findNode(getKey(name));
+		if ((node == null) || (node.labels == null)) return null;
+
+		Label deletedLabel = null;
+
+		for (int i = 0; i < node.labels.size(); i++) {
+			Label label = node.labels.get(i);
+			if (!label.name.equals(name)) continue;
+
+			if (label.dirtyState != DirtyState.DELETED) {
+				return (Label)label.clone();
+			} else if (deletedLabel == null) {
+				deletedLabel = label;
+			}
+		}
+
+		return (deletedLabel != null ? (Label)deletedLabel.clone() : null);
+	}
+
+	/**
+	 * Returns the names of labels (by their IDs)
+	 * @param labelIds
+	 * @return the names of the existing labels (in the same order)
+	 */
+	public synchronized ArrayList<String> getNames(int[] labelIds) {
+		ArrayList<String> names = new ArrayList<String>(labelIds.length);
+
+		for (int i = 0; i < labelIds.length; i++) {
+			Label label = mLabelsById.get(labelIds[i]);
+			if (label != null) names.add(label.name);
+		}
+
+		return names;
+	}
+
+	/**
+	 * Returns all labels whose names start with a prefix (case-insensitive), sorted by name
+	 * @param prefix an empty prefix returns all labels
+	 * @param getDeleted whether or not to return DELETED labels
+	 * @return
+	 */
+	public synchronized ArrayList<Label> getByPrefix(String prefix, boolean getDeleted) {
+		ArrayList<Label> labels = new ArrayList<Label>();
+		Node node = findNode(getKey(prefix));
+
+		if (node != null) {
+			collectLabels(node, getDeleted, labels);
+		}
+
+		return labels;
+	}
+
+	private void collectLabels(Node node, boolean getDeleted, ArrayList<Label> labels) {
+		if (node.labels != null) {
+			for (int i = 0; i < node.labels.size(); i++) {
+				Label label = node.labels.get(i);
+
+				if ((getDeleted) || (label.dirtyState != DirtyState.DELETED)) {
+					labels.add((Label)label.clone());
+				}
+			}
+		}
+
+		for (int i = 0; i < node.children.length; i++) {
+			collectLabels(node.children[i], getDeleted, labels);
+		}
+	}
+
+	private Node findNode(String key) {
+		Node node = mRoot;
+
+		for (int i = 0; (i < key.length()) && (node != null); i++) {
+			node = node.getChild(key.charAt(i));
+		}
+
+		return node;
+	}
+
+	private static String getKey(String name) {
+		return (name == null ? "" : name.toLowerCase());
+	}
+
+	public synchronized int size() {
+		return mLabelsById.size();
+	}
+}
@@ -0,0 +1,255 @@
+package budo.budoist.services;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import android.database.Cursor;
+import budo.budoist.models.Item;
+import budo.budoist.models.Label;
+import budo.budoist.models.Note;
+import budo.budoist.models.Project;
+import budo.budoist.models.Query;
+import budo.budoist.models.SynchronizedModel.DirtyState;
+
+/**
+ * Maps storage rows into models. Each mapper resolves the column ordinals of its cursor once (when
+ * it's created) - instead of looking up every column by name, for every row. Usage:
+ *
+ * 		RowMappers.ItemMapper mapper = new RowMappers.ItemMapper(c);
+ * 		ArrayList<Item> items = mapper.mapAll(); // or mapper.map() for the current row
+ *
+ * A mapper is bound to a single cursor (and isn't thread-safe) - so a new one should be created per
+ * cursor (which is cheap).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class RowMappers {
+
+	/**
+	 * Maps the rows of a single cursor into models
+	 * @param <T> the model type
+	 */
+	public static abstract class RowMapper<T> {
+		protected Cursor mCursor;
+
+		protected RowMapper(Cursor c) {
+			mCursor = c;
+		}
+
+		/**
+		 * Returns a new (empty) model instance
+		 */
+		protected abstract T newModel();
+
+		/**
+		 * Fills a model with the cursor's current row - every mapped field is overwritten, so the same
+		 * instance can be reused for several rows
+		 * @param model
+		 * @return the model
+		 */
+		public abstract T map(T model);
+
+		/**
+		 * Maps the cursor's current row into a new model instance
+		 * @return
+		 */
+		public T map() {
+			return map(newModel());
+		}
+
+		/**
+		 * Maps all rows of the cursor (from the first one) into a pre-sized list
+		 * @return
+		 */
+		public ArrayList<T> mapAll() {
+			ArrayList<T> models = new ArrayList<T>(mCursor.getCount());
+
+			for (mCursor.moveToFirst(); !mCursor.isAfterLast(); mCursor.moveToNext()) {
+				models.add(map());
+			}
+
+			return models;
+		}
+	}
+
+
+	public static class ItemMapper extends RowMapper<Item> {
+		private int mId, mProjectId, mContent, mDateString, mDueDate, mIndent, mNoteCount, mOrder, mPriority, mCompleted, mDirtyState, mSyncHash;
+
+		public ItemMapper(Cursor c) {
+			super(c);
+
+			mId = c.getColumnIndex(DBConsts.ITEMS_ID);
+			mProjectId = c.getColumnIndex(DBConsts.ITEMS_PROJECT_ID);
+			mContent = c.getColumnIndex(DBConsts.ITEMS_CONTENT);
+			mDateString = c.getColumnIndex(DBConsts.ITEMS_DATE_STRING);
+			mDueDate = c.getColumnIndex(DBConsts.ITEMS_DUE_DATE);
+			mIndent = c.getColumnIndex(DBConsts.ITEMS_INDENT);
+			mNoteCount = c.getColumnIndex(DBConsts.ITEMS_NOTE_COUNT);
+			mOrder = c.getColumnIndex(DBConsts.ITEMS_ORDER);
+			mPriority = c.getColumnIndex(DBConsts.ITEMS_PRIORITY);
+			mCompleted = c.getColumnIndex(DBConsts.ITEMS_COMPLETED);
+			mDirtyState = c.getColumnIndex(DBConsts.ITEMS_DIRTY_STATE);
+			mSyncHash = c.getColumnIndex(DBConsts.ITEMS_SYNC_HASH);
+		}
+
+		protected Item newModel() {
+			return new Item();
+		}
+
+		public Item map(Item item) {
+			Cursor c = mCursor;
+
+			item.id = c.getInt(mId);
+			item.projectId = c.getInt(mProjectId);
+			item.rawContent = c.getString(mContent);
+			item.dateString = c.getString(mDateString);
+
+			// In case the item has no due date, it is saved in the DB as a MAX_LONG value (used when
+			// sorting by due date, in order for it to appear last)
+			long dateNum = c.getLong(mDueDate);
+			item.dueTime = ((dateNum == Long.MAX_VALUE) || (dateNum < 0) ? 0 : dateNum);
+
+			item.indentLevel = c.getInt(mIndent);
+			item.noteCount = c.getInt(mNoteCount);
+			item.itemOrder = c.getInt(mOrder);
+			item.priority = c.getInt(mPriority);
+			item.completed = (c.getInt(mCompleted) != 0);
+			item.dirtyState = DirtyState.fromCode(c.getInt(mDirtyState));
+			item.syncHash = c.getLong(mSyncHash);
+
+			return item;
+		}
+	}
+
+
+	public static class LabelMapper extends RowMapper<Label> {
+		private int mId, mName, mColor, mCount, mDirtyState, mSyncHash;
+
+		public LabelMapper(Cursor c) {
+			super(c);
+
+			mId = c.getColumnIndex(DBConsts.LABELS_ID);
+			mName = c.getColumnIndex(DBConsts.LABELS_NAME);
+			mColor = c.getColumnIndex(DBConsts.LABELS_COLOR);
+			mCount = c.getColumnIndex(DBConsts.LABELS_COUNT);
+			mDirtyState = c.getColumnIndex(DBConsts.LABELS_DIRTY_STATE);
+			mSyncHash = c.getColumnIndex(DBConsts.LABELS_SYNC_HASH);
+		}
+
+		protected Label newModel() {
+			return new Label();
+		}
+
+		public Label map(Label label) {
+			Cursor c = mCursor;
+
+			label.id = c.getInt(mId);
+			label.name = c.getString(mName);
+			label.colorIndex = c.getInt(mColor);
+			label.count = c.getInt(mCount);
+			label.dirtyState = DirtyState.fromCode(c.getInt(mDirtyState));
+			label.syncHash = c.getLong(mSyncHash);
+
+			return label;
+		}
+	}
+
+
+	public static class ProjectMapper extends RowMapper<Project> {
+		private int mId, mName, mColor, mIndent, mItemCount, mOrder, mDirtyState, mSyncHash;
+
+		public ProjectMapper(Cursor c) {
+			super(c);
+
+			mId = c.getColumnIndex(DBConsts.PROJECTS_ID);
+			mName = c.getColumnIndex(DBConsts.PROJECTS_NAME);
+			mColor = c.getColumnIndex(DBConsts.PROJECTS_COLOR);
+			mIndent = c.getColumnIndex(DBConsts.PROJECTS_INDENT);
+			mItemCount = c.getColumnIndex(DBConsts.PROJECTS_ITEM_COUNT);
+			mOrder = c.getColumnIndex(DBConsts.PROJECTS_ORDER);
+			mDirtyState = c.getColumnIndex(DBConsts.PROJECTS_DIRTY_STATE);
+			mSyncHash = c.getColumnIndex(DBConsts.PROJECTS_SYNC_HASH);
+		}
+
+		protected Project newModel() {
+			return new Project();
+		}
+
+		public Project map(Project project) {
+			Cursor c = mCursor;
+
+			project.id = c.getInt(mId);
+			project.rawName = c.getString(mName);
+			project.colorIndex = c.getInt(mColor);
+			project.indentLevel = c.getInt(mIndent);
+			project.itemCount = c.getInt(mItemCount);
+			project.itemOrder = c.getInt(mOrder);
+			project.dirtyState = DirtyState.fromCode(c.getInt(mDirtyState));
+			project.syncHash = c.getLong(mSyncHash);
+
+			return project;
+		}
+	}
+
+
+	public static class NoteMapper extends RowMapper<Note> {
+		private int mId, mContent, mItemId, mPostDate, mDirtyState, mSyncHash;
+
+		public NoteMapper(Cursor c) {
+			super(c);
+
+			mId = c.getColumnIndex(DBConsts.NOTES_ID);
+			mContent = c.getColumnIndex(DBConsts.NOTES_CONTENT);
+			mItemId = c.getColumnIndex(DBConsts.NOTES_ITEM_ID);
+			mPostDate = c.getColumnIndex(DBConsts.NOTES_POST_DATE);
+			mDirtyState = c.getColumnIndex(DBConsts.NOTES_DIRTY_STATE);
+			mSyncHash = c.getColumnIndex(DBConsts.NOTES_SYNC_HASH);
+		}
+
+		protected Note newModel() {
+			return new Note();
+		}
+
+		public Note map(Note note) {
+			Cursor c = mCursor;
+
+			note.id = c.getInt(mId);
+			note.content = c.getString(mContent);
+			note.itemId = c.getInt(mItemId);
+			note.postDate = new Date(c.getLong(mPostDate));
+			note.dirtyState = DirtyState.fromCode(c.getInt(mDirtyState));
+			note.syncHash = c.getLong(mSyncHash);
+
+			return note;
+		}
+	}
+
+
+	public static class QueryMapper extends RowMapper<Query> {
+		private int mId, mName, mQuery;
+
+		public QueryMapper(Cursor c) {
+			super(c);
+
+			mId = c.getColumnIndex(DBConsts.QUERIES_ID);
+			mName = c.getColumnIndex(DBConsts.QUERIES_NAME);
+			mQuery = c.getColumnIndex(DBConsts.QUERIES_QUERY);
+		}
+
+		protected Query newModel() {
+			return new Query();
+		}
+
+		public Query map(Query query) {
+			Cursor c = mCursor;
+
+			query.id = c.getInt(mId);
+			query.name = c.getString(mName);
+			query.query = c.getString(mQuery);
+
+			return query;
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package budo.budoist.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Publishes fine-grained changes made to the offline storage (per table and per ID - which rows
+ * were inserted, updated or deleted), so views could refresh only when the entities they display
+ * have changed (instead of reloading everything after each sync).
+ *
+ * Only committed changes are published - changes recorded by a thread while it has an open
+ * transaction (see beginTransaction) are kept aside, and are published once the transaction commits
+ * (or dropped if it's rolled back). Bursts of changes (e.g. while syncing) are debounced - changes are
+ * merged and published only once no new changes were recorded for a while (or once changes have been
+ * pending for too long). Listeners are always called on the main (UI) thread.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class StorageChangeFeed {
+
+	private final static int DEBOUNCE_MS = 300;
+	private final static int MAX_DELAY_MS = 2000;
+
+	public enum ChangeType {
+		INSERTED,
+		UPDATED,
+		DELETED
+	}
+
+	/**
+	 * The changes made to a single table
+	 */
+	public static class TableChanges {
+		public HashSet<Integer> inserted = new HashSet<Integer>();
+		public HashSet<Integer> updated = new HashSet<Integer>();
+		public HashSet<Integer> deleted = new HashSet<Integer>();
+		// True if the table was changed as a whole (e.g. cleared or restored) - in this case
+		// the changed IDs are unknown
+		public boolean isWholeTable = false;
+
+		/**
+		 * Merges changes which were made after this table's changes
+		 */
+		private void addAll(TableChanges changes) {
+			if (changes.isWholeTable) isWholeTable = true;
+
+			for (Integer id : changes.deleted) add(ChangeType.DELETED, id);
+			for (Integer id : changes.inserted) add(ChangeType.INSERTED, id);
+			for (Integer id : changes.updated) add(ChangeType.UPDATED, id);
+		}
+
+		private void add(ChangeType type, int id) {
+			switch (type) {
+			case INSERTED:
+				if (deleted.remove(id)) {
+					// Row was deleted and then re-inserted (e.g. replaced)
+					updated.add(id);
+				} else {
+					inserted.add(id);
+				}
+				break;
+			case UPDATED:
+				if (!inserted.contains(id)) updated.add(id);
+				break;
+			case DELETED:
+				updated.remove(id);
+				if (!inserted.remove(id)) {
+					// Only report the deletion if the row existed before these changes
+					deleted.add(id);
+				}
+				break;
+			}
+		}
+
+		/**
+		 * Returns whether or not any of the given row IDs was changed
+		 * @param ids null means any row
+		 * @return
+		 */
+		public boolean affects(Set<Integer> ids) {
+			if ((isWholeTable) || (ids == null) || (inserted.size() > 0)) {
+				// New rows might be relevant to anyone (e.g. a new item under a displayed project)
+				return true;
+			}
+
+			for (Integer id : updated) {
+				if (ids.contains(id)) return true;
+			}
+			for (Integer id : deleted) {
+				if (ids.contains(id)) return true;
+			}
+
+			return false;
+		}
+
+		public String toString() {
+			return String.format("<TableChanges: inserted: %s; updated: %s; deleted: %s; whole table: %b>",
+					inserted.toString(), updated.toString(), deleted.toString(), isWholeTable);
+		}
+	}
+
+	/**
+	 * A set of (merged) changes, per table
+	 */
+	public static class ChangeSet {
+		private Hashtable<String, TableChanges> mTables = new Hashtable<String, TableChanges>();
+
+		/**
+		 * Returns the changes made to a table
+		 * @param table
+		 * @return null if the table wasn't changed
+		 */
+		public TableChanges getTableChanges(String table) {
+			return mTables.get(table);
+		}
+
+		public Set<String> getTables() {
+			return mTables.keySet();
+		}
+
+		public boolean isEmpty() {
+			return mTables.isEmpty();
+		}
+
+		private TableChanges getOrCreate(String table) {
+			TableChanges changes = mTables.get(table);
+
+			if (changes == null) {
+				changes = new TableChanges();
+				mTables.put(table, changes);
+			}
+
+			return changes;
+		}
+
+		public String toString() {
+			return String.format("<ChangeSet: %s>", mTables.toString());
+		}
+	}
+
+	public interface OnStorageChangedListener {
+		/**
+		 * Called (on the main thread) when any of the listener's subscribed entities was changed
+		 * @param changes all changes made since the last notification
+		 */
+		public void onStorageChanged(ChangeSet changes);
+	}
+
+
+	// Listener to its subscriptions (table name to subscribed row IDs; ALL_ROWS means any row)
+	private Hashtable<OnStorageChangedListener, Hashtable<String, Set<Integer>>> mSubscriptions =
+		new Hashtable<OnStorageChangedListener, Hashtable<String, Set<Integer>>>();
+	private static final Set<Integer> ALL_ROWS = new HashSet<Integer>();
+
+	/**
+	 * The changes recorded by a thread during its open (possibly nested) transaction
+	 */
+	private static class Transaction {
+		public ChangeSet changes = new ChangeSet();
+		public int depth = 0;
+		public boolean isSuccessful = false; // Whether or not the innermost level was marked as successful
+		public boolean isRolledBack = false; // Whether or not any level has ended unsuccessfully
+	}
+
+	private ThreadLocal<Transaction> mTransaction = new ThreadLocal<Transaction>();
+
+	private ChangeSet mPendingChanges = new ChangeSet();
+	private long mFirstPendingTime = 0;
+	private long mLastChangeTime = 0;
+	private boolean mIsPublishScheduled = false;
+
+	private Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private Runnable mPublishRunnable = new Runnable() {
+		public void run() {
+			publishIfQuiet();
+		}
+	};
+
+
+	/**
+	 * Subscribes a listener to changes of a table (replacing any previous subscription of the
+	 * listener to that table)
+	 * @param listener
+	 * @param table
+	 * @param ids the row IDs the listener displays (changes to other rows will be ignored, except for
+	 * 		newly inserted rows); null means any row
+	 */
+	public synchronized void subscribe(OnStorageChangedListener listener, String table, Collection<Integer> ids) {
+		Hashtable<String, Set<Integer>> tables = mSubscriptions.get(listener);
+
+		if (tables == null) {
+			tables = new Hashtable<String, Set<Integer>>();
+			mSubscriptions.put(listener, tables);
+		}
+
+		tables.put(table, (ids != null ? new HashSet<Integer>(ids) : ALL_ROWS));
+	}
+
+	/**
+	 * Removes all subscriptions of a listener
+	 * @param listener
+	 */
+	public synchronized void unsubscribe(OnStorageChangedListener listener) {
+		mSubscriptions.remove(listener);
+	}
+
+
+	/**
+	 * Records a change of a single row (kept aside until the current thread's transaction commits,
+	 * if there's one)
+	 * @param table
+	 * @param type
+	 * @param id
+	 */
+	public void recordChange(String table, ChangeType type, int id) {
+		Transaction transaction = mTransaction.get();
+
+		if (transaction != null) {
+			transaction.changes.getOrCreate(table).add(type, id);
+			return;
+		}
+
+		synchronized (this) {
+			mPendingChanges.getOrCreate(table).add(type, id);
+			schedulePublish();
+		}
+	}
+
+	/**
+	 * Records a change of an entire table (e.g. when clearing or restoring it) - kept aside until the
+	 * current thread's transaction commits, if there's one
+	 * @param table
+	 */
+	public void recordTableChange(String table) {
+		Transaction transaction = mTransaction.get();
+
+		if (transaction != null) {
+			transaction.changes.getOrCreate(table).isWholeTable = true;
+			return;
+		}
+
+		synchronized (this) {
+			mPendingChanges.getOrCreate(table).isWholeTable = true;
+			schedulePublish();
+		}
+	}
+
+
+	/**
+	 * Called by the storage when it begins a (possibly nested) transaction on the current thread -
+	 * changes recorded by the thread are kept aside until the outermost transaction ends
+	 */
+	public void beginTransaction() {
+		Transaction transaction = mTransaction.get();
+
+		if (transaction == null) {
+			transaction = new Transaction();
+			mTransaction.set(transaction);
+		}
+
+		transaction.depth++;
+		transaction.isSuccessful = false;
+	}
+
+	/**
+	 * Called by the storage when it marks the current thread's (innermost) transaction as successful
+	 */
+	public void setTransactionSuccessful() {
+		Transaction transaction = mTransaction.get();
+		if (transaction != null) transaction.isSuccessful = true;
+	}
+
+	/**
+	 * Called by the storage when it ends the current thread's (innermost) transaction. Once the
+	 * outermost transaction ends, its changes are published if it was committed - or dropped if it
+	 * was rolled back (i.e. any of its levels wasn't marked as successful).
+	 * @param isEnded false if ending the transaction has failed (in which case it was rolled back)
+	 */
+	public void endTransaction(boolean isEnded) {
+		Transaction transaction = mTransaction.get();
+		if (transaction == null) return;
+
+		if ((!isEnded) || (!transaction.isSuccessful)) transaction.isRolledBack = true;
+		transaction.isSuccessful = false;
+
+		if (--transaction.depth > 0) return;
+
+		mTransaction.remove();
+
+		if ((transaction.isRolledBack) || (transaction.changes.isEmpty())) return;
+
+		synchronized (this) {
+			for (String table : transaction.changes.getTables()) {
+				mPendingChanges.getOrCreate(table).addAll(transaction.changes.getTableChanges(table));
+			}
+
+			schedulePublish();
+		}
+	}
+
+
+	private void schedulePublish() {
+		long now = SystemClock.uptimeMillis();
+
+		if (mFirstPendingTime == 0) mFirstPendingTime = now;
+		mLastChangeTime = now;
+
+		if (!mIsPublishScheduled) {
+			// Rescheduling on every change would be too costly during a burst - instead, once the
+			// delay passes, we check whether any changes were made in the meantime
+			mIsPublishScheduled = true;
+			mHandler.postDelayed(mPublishRunnable, DEBOUNCE_MS);
+		}
+	}
+
+	/**
+	 * Called on the main thread - publishes the pending changes, unless more changes are still
+	 * coming in
+	 */
+	private void publishIfQuiet() {
+		ChangeSet changes;
+		ArrayList<OnStorageChangedListener> listeners = new ArrayList<OnStorageChangedListener>();
+
+		synchronized (this) {
+			long now = SystemClock.uptimeMillis();
+			long quietTime = now - mLastChangeTime;
+
+			if ((quietTime < DEBOUNCE_MS) && (now - mFirstPendingTime < MAX_DELAY_MS)) {
+				// Still in the middle of a burst - check again later
+				mHandler.postDelayed(mPublishRunnable, DEBOUNCE_MS - quietTime);
+				return;
+			}
+
+			mIsPublishScheduled = false;
+			mFirstPendingTime = 0;
+
+			changes = mPendingChanges;
+			mPendingChanges = new ChangeSet();
+
+			// Find out which listeners are affected by the changes
+			for (Enumeration<OnStorageChangedListener> e = mSubscriptions.keys(); e.hasMoreElements();) {
+				OnStorageChangedListener listener = e.nextElement();
+				Hashtable<String, Set<Integer>> tables = mSubscriptions.get(listener);
+
+				for (Enumeration<String> t = tables.keys(); t.hasMoreElements();) {
+					String table = t.nextElement();
+					TableChanges tableChanges = changes.getTableChanges(table);
+					Set<Integer> ids = tables.get(table);
+
+					if ((tableChanges != null) && (tableChanges.affects(ids == ALL_ROWS ? null : ids))) {
+						listeners.add(listener);
+						break;
+					}
+				}
+			}
+		}
+
+		// Call the listeners outside the lock (they'll probably query the storage)
+		for (int i = 0; i < listeners.size(); i++) {
+			OnStorageChangedListener listener = listeners.get(i);
+			// Make sure the listener hasn't unsubscribed in the meantime (e.g. by a previous listener)
+			if (mSubscriptions.containsKey(listener)) listener.onStorageChanged(changes);
+		}
+	}
+}
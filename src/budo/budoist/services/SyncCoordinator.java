@@ -0,0 +1,151 @@
+package budo.budoist.services;
+
+import java.util.Date;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Coordinates the syncs which aren't explicitly requested by the user - the startup sync (when the
+ * application is launched) and the periodic sync (made by the AppService):
+ *
+ * 	- The startup sync is deferred until the first frame of the initial view was drawn, so it won't
+ * 	  compete with loading the initial view for the database and CPU.
+ * 	- The startup sync is skipped if the last sync is recent enough (according to the startup sync
+ * 	  freshness set by the user).
+ * 	- Only a single coordinated sync runs at a time - a sync requested while another one is running is
+ * 	  skipped (e.g. the periodic sync firing while the startup sync is in progress), and a sync which
+ * 	  finds the data fresh (since the other sync has just finished) is skipped as well.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SyncCoordinator {
+
+	private final static String TAG = "SyncCoordinator";
+
+	// In case no view reports its first frame (e.g. the initial view failed to load)
+	private final static int FIRST_FRAME_TIMEOUT_MS = 5000;
+
+	private TodoistClient mClient;
+	private TodoistOfflineStorage mStorage;
+
+	private boolean mIsSyncRunning = false;
+	private boolean mIsStartupSyncPending = false;
+
+	private Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private Runnable mStartupSyncRunnable = new Runnable() {
+		public void run() {
+			startStartupSync();
+		}
+	};
+
+
+	public SyncCoordinator(TodoistClient client, TodoistOfflineStorage storage) {
+		mClient = client;
+		mStorage = storage;
+	}
+
+
+	/**
+	 * Called when the application is launched - schedules a startup sync (if enabled), to run once the
+	 * first frame of the initial view was drawn (see onFirstFrameDrawn)
+	 */
+	public synchronized void requestStartupSync() {
+		if ((!mStorage.getSyncOnStartup()) || (mIsStartupSyncPending)) return;
+
+		if (isFresh(getStartupFreshnessMs())) {
+			Log.d(TAG, "Skipping startup sync - last sync is recent enough");
+			return;
+		}
+
+		mIsStartupSyncPending = true;
+		mHandler.postDelayed(mStartupSyncRunnable, FIRST_FRAME_TIMEOUT_MS);
+	}
+
+	/**
+	 * Called (on the main thread) by the initial view, once its first frame was drawn
+	 */
+	public void onFirstFrameDrawn() {
+		synchronized (this) {
+			if (!mIsStartupSyncPending) return;
+		}
+
+		mHandler.removeCallbacks(mStartupSyncRunnable);
+		startStartupSync();
+	}
+
+	private void startStartupSync() {
+		synchronized (this) {
+			if (!mIsStartupSyncPending) return;
+			mIsStartupSyncPending = false;
+		}
+
+		// Sync using another thread
+		(new Thread(new Runnable() {
+			public void run() {
+				try {
+					sync(getStartupFreshnessMs(), "startup");
+				} catch (Exception e) {
+					// Login/sync failed
+					e.printStackTrace();
+				}
+			}
+		})).start();
+	}
+
+	private long getStartupFreshnessMs() {
+		return (long)mStorage.getStartupSyncFreshness() * 60 * 1000;
+	}
+
+
+	/**
+	 * Logs in and syncs everything - unless another sync is currently running, or the last sync was
+	 * made less than freshnessMs ago. Blocks until the sync is done.
+	 *
+	 * @param freshnessMs
+	 * @param reason for logging purposes
+	 * @return true if the sync was made, false if it was skipped
+	 * @throws TodoistServerException
+	 * @throws InvalidDateStringException
+	 */
+	public boolean sync(long freshnessMs, String reason) throws TodoistServerException, InvalidDateStringException {
+		synchronized (this) {
+			if ((mIsSyncRunning) || (mClient.isCurrentlySyncing())) {
+				Log.d(TAG, String.format("Skipping %s sync - another sync is running", reason));
+				return false;
+			}
+
+			if (isFresh(freshnessMs)) {
+				Log.d(TAG, String.format("Skipping %s sync - last sync is recent enough", reason));
+				return false;
+			}
+
+			mIsSyncRunning = true;
+		}
+
+		try {
+			Log.d(TAG, String.format("Starting %s sync", reason));
+
+			mClient.login();
+			mClient.syncAll(null); // if successful, syncAll will update last sync time
+
+			return true;
+
+		} finally {
+			synchronized (this) {
+				mIsSyncRunning = false;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether or not the last sync was made less than freshnessMs ago
+	 */
+	private boolean isFresh(long freshnessMs) {
+		long lastSyncTimeMs = mStorage.getLastSyncTime().getTime();
+		return ((new Date()).getTime() - lastSyncTimeMs < freshnessMs);
+	}
+}
@@ -0,0 +1,277 @@
+package budo.budoist.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+/**
+ * Records metrics of a single sync run (phase durations, server calls per endpoint, retries,
+ * decoding time, rows written and sync results), so we could later see where a slow sync
+ * spent its time.
+ *
+ * While a sync is running, its metrics are set on the client's TodoistServer (see setMetrics) - so
+ * the TodoistServer and JsonServer instances used by that sync could record into them as well.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SyncMetrics {
+
+	public final static String PHASE_PROJECTS = "projects";
+	public final static String PHASE_LABELS = "labels";
+	public final static String PHASE_ITEMS = "items";
+	public final static String PHASE_NOTES = "notes";
+	// Phases which only fetch from the server (run concurrently with other phases)
+	public final static String PHASE_PROJECTS_FETCH = "projects.fetch";
+	public final static String PHASE_LABELS_FETCH = "labels.fetch";
+	public final static String PHASE_NOTES_FETCH = "notes.fetch";
+
+	public final static String RESULT_OK = "OK";
+
+	/**
+	 * Server calls statistics of a single endpoint (e.g. getUncompletedItems)
+	 */
+	public static class EndpointStats {
+		public int calls;
+		public int retries;
+		public int failures; // Connection errors/invalid responses
+		public long bytesSent;
+		public long bytesReceived;
+		public long requestTimeMs; // Including decoding time
+		public long decodeTimeMs;
+	}
+
+	public long startTime;
+	public long durationMs;
+	public String result = RESULT_OK; // Either RESULT_OK or the error which stopped the sync
+
+	// Phase name to duration
+	public LinkedHashMap<String, Long> phaseDurationsMs = new LinkedHashMap<String, Long>();
+	// Rows inserted/updated/deleted during each phase (each phase writes mostly to its own table)
+	public LinkedHashMap<String, Integer> rowsWritten = new LinkedHashMap<String, Integer>();
+	// Endpoint name to its stats
+	public Hashtable<String, EndpointStats> endpoints = new Hashtable<String, EndpointStats>();
+	// Model type and SyncResult (e.g. "Item.UPDATE_REMOTE_TO_LOCAL") to count
+	public Hashtable<String, Integer> syncResults = new Hashtable<String, Integer>();
+	// Error codes returned by the server to count
+	public Hashtable<String, Integer> serverErrors = new Hashtable<String, Integer>();
+	// The longest chain of dependent phases (by their durations) - i.e. the shortest the sync could
+	// take, since some phases run concurrently
+	public long criticalPathMs;
+	public ArrayList<String> criticalPath = new ArrayList<String>();
+
+	private transient String mCurrentPhase;
+	private transient long mPhaseStartTime;
+	private transient int mPhaseStartRows;
+
+
+	public SyncMetrics() {
+		startTime = System.currentTimeMillis();
+	}
+
+
+	/**
+	 * Starts timing a sync phase
+	 * @param phase
+	 * @param rowsWritten current number of rows written (see TodoistOfflineStorage.getRowsWritten)
+	 */
+	public synchronized void beginPhase(String phase, int rowsWritten) {
+		mCurrentPhase = phase;
+		mPhaseStartTime = System.currentTimeMillis();
+		mPhaseStartRows = rowsWritten;
+	}
+
+	/**
+	 * Ends timing the current sync phase
+	 * @param rowsWritten current number of rows written
+	 */
+	public synchronized void endPhase(int rowsWritten) {
+		if (mCurrentPhase == null) return;
+
+		phaseDurationsMs.put(mCurrentPhase, System.currentTimeMillis() - mPhaseStartTime);
+		this.rowsWritten.put(mCurrentPhase, rowsWritten - mPhaseStartRows);
+		mCurrentPhase = null;
+	}
+
+	/**
+	 * Records the duration of a phase which ran concurrently with other phases (and wrote nothing
+	 * into the database)
+	 * @param phase
+	 * @param durationMs
+	 */
+	public synchronized void recordPhase(String phase, long durationMs) {
+		phaseDurationsMs.put(phase, durationMs);
+	}
+
+	public synchronized void setCriticalPath(ArrayList<String> phases, long durationMs) {
+		criticalPath = phases;
+		criticalPathMs = durationMs;
+	}
+
+	/**
+	 * Marks the end of the sync run
+	 * @param result RESULT_OK or an error description
+	 */
+	public synchronized void finish(String result) {
+		this.result = result;
+		durationMs = System.currentTimeMillis() - startTime;
+	}
+
+	public synchronized void recordRequest(String endpoint, long bytesSent, long bytesReceived, long requestTimeMs, boolean success) {
+		EndpointStats stats = getEndpointStats(endpoint);
+
+		stats.calls++;
+		stats.bytesSent += bytesSent;
+		stats.bytesReceived += bytesReceived;
+		stats.requestTimeMs += requestTimeMs;
+		if (!success) stats.failures++;
+	}
+
+	public synchronized void recordDecode(String endpoint, long decodeTimeMs) {
+		getEndpointStats(endpoint).decodeTimeMs += decodeTimeMs;
+	}
+
+	public synchronized void recordRetry(String endpoint) {
+		getEndpointStats(endpoint).retries++;
+	}
+
+	public synchronized void recordSyncResult(String modelType, String syncResult) {
+		increment(syncResults, modelType + "." + syncResult);
+	}
+
+	public synchronized void recordServerError(String errorCode) {
+		increment(serverErrors, errorCode);
+	}
+
+	private EndpointStats getEndpointStats(String endpoint) {
+		EndpointStats stats = endpoints.get(endpoint);
+
+		if (stats == null) {
+			stats = new EndpointStats();
+			endpoints.put(endpoint, stats);
+		}
+
+		return stats;
+	}
+
+	private void increment(Hashtable<String, Integer> counters, String key) {
+		Integer count = counters.get(key);
+		counters.put(key, (count == null ? 1 : count + 1));
+	}
+
+
+	/*
+	 * Summaries
+	 */
+
+
+	public synchronized int getTotalCalls() {
+		int calls = 0;
+		for (Enumeration<EndpointStats> e = endpoints.elements(); e.hasMoreElements();) {
+			calls += e.nextElement().calls;
+		}
+		return calls;
+	}
+
+	/**
+	 * Returns the number of remote changes applied locally (remote models added/updated/deleted)
+	 */
+	public synchronized int getRemoteChangeCount() {
+		int count = 0;
+
+		for (Enumeration<String> e = syncResults.keys(); e.hasMoreElements();) {
+			String key = e.nextElement();
+
+			if ((key.endsWith(".ADD_REMOTE_TO_LOCAL")) || (key.endsWith(".UPDATE_REMOTE_TO_LOCAL")) ||
+					(key.endsWith(".DELETE_LOCAL"))) {
+				count += syncResults.get(key);
+			}
+		}
+
+		return count;
+	}
+
+	public synchronized int getTotalRetries() {
+		int retries = 0;
+		for (Enumeration<EndpointStats> e = endpoints.elements(); e.hasMoreElements();) {
+			retries += e.nextElement().retries;
+		}
+		return retries;
+	}
+
+	public synchronized long getTotalBytesReceived() {
+		long bytes = 0;
+		for (Enumeration<EndpointStats> e = endpoints.elements(); e.hasMoreElements();) {
+			bytes += e.nextElement().bytesReceived;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the endpoints sorted by total request time (slowest first)
+	 * @return
+	 */
+	public synchronized ArrayList<String> getSlowestEndpoints() {
+		ArrayList<String> names = new ArrayList<String>(endpoints.keySet());
+
+		Collections.sort(names, new Comparator<String>() {
+			@Override
+			public int compare(String name1, String name2) {
+				long diff = endpoints.get(name2).requestTimeMs - endpoints.get(name1).requestTimeMs;
+				return (diff > 0 ? 1 : (diff < 0 ? -1 : 0));
+			}
+		});
+
+		return names;
+	}
+
+	/**
+	 * Returns a short human-readable summary of the sync run
+	 * @return
+	 */
+	public synchronized String getSummary() {
+		StringBuilder summary = new StringBuilder();
+
+		summary.append(String.format("%s; %d ms; %d calls (%d retries); %d KB received",
+				result, durationMs, getTotalCalls(), getTotalRetries(), getTotalBytesReceived() / 1024));
+
+		for (Map.Entry<String, Long> phase : phaseDurationsMs.entrySet()) {
+			Integer rows = rowsWritten.get(phase.getKey());
+			summary.append(String.format("\n  %s: %d ms, %d rows written", phase.getKey(), phase.getValue(), (rows != null ? rows : 0)));
+		}
+
+		if ((criticalPath != null) && (criticalPath.size() > 0)) {
+			summary.append(String.format("\n  critical path: %d ms (", criticalPathMs));
+
+			for (int i = 0; i < criticalPath.size(); i++) {
+				summary.append(i > 0 ? " -> " : "").append(criticalPath.get(i));
+			}
+
+			summary.append(")");
+		}
+
+		ArrayList<String> slowest = getSlowestEndpoints();
+
+		for (int i = 0; i < Math.min(3, slowest.size()); i++) {
+			EndpointStats stats = endpoints.get(slowest.get(i));
+			summary.append(String.format("\n  %s: %d calls, %d ms (decoding: %d ms)",
+					slowest.get(i), stats.calls, stats.requestTimeMs, stats.decodeTimeMs));
+		}
+
+		return summary.toString();
+	}
+
+	public synchronized String toJson() {
+		return (new Gson()).toJson(this);
+	}
+
+	public static SyncMetrics fromJson(String json) {
+		return (new Gson()).fromJson(json, SyncMetrics.class);
+	}
+}
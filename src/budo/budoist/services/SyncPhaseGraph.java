@@ -0,0 +1,295 @@
+package budo.budoist.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import budo.budoist.services.TodoistServer.ErrorCode;
+
+/**
+ * Runs the phases of a sync as a dependency graph - each phase starts once all of the phases it
+ * depends on are done. Usage:
+ *
+ * 		SyncPhaseGraph graph = new SyncPhaseGraph(storage, metrics, 3);
+ * 		graph.addBackgroundPhase("projects.fetch", new String[] { }, fetchProjects);
+ * 		graph.addPhase("projects", new String[] { "projects.fetch" }, syncProjects);
+ * 		graph.run();
+ *
+ * Background phases (which only talk to the server, e.g. fetching the online models) run
+ * concurrently, on a bounded number of threads. All other phases (which write into the local
+ * storage) run one at a time, on the calling thread, in the order they were added - so the storage
+ * writes are always made in the same order, no matter how long the background phases take.
+ *
+ * The first phase to fail stops the sync - its error is thrown by run, and the background phases
+ * still running are interrupted. Once all phases are done, the critical path (the longest chain of
+ * dependent phases, by their durations) is recorded into the metrics.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SyncPhaseGraph {
+
+	/**
+	 * A single sync phase
+	 */
+	public interface Phase {
+		public void run() throws TodoistServerException, InvalidDateStringException;
+	}
+
+	private static class Node {
+		public String name;
+		public Node[] dependencies;
+		public Phase phase;
+		public boolean isBackground;
+
+		public boolean isStarted = false;
+		public boolean isDone = false;
+		public long startTime;
+		public long endTime;
+	}
+
+	private TodoistOfflineStorage mStorage;
+	private SyncMetrics mMetrics;
+	private int mMaxThreads;
+
+	// In the order they were added (dependencies are always added before their dependent phases)
+	private ArrayList<Node> mNodes = new ArrayList<Node>();
+	private Hashtable<String, Node> mNodesByName = new Hashtable<String, Node>();
+
+
+	/**
+	 * @param storage used for counting the rows written by each phase
+	 * @param metrics the metrics to record the phases into
+	 * @param maxThreads maximal number of background phases running at the same time
+	 */
+	public SyncPhaseGraph(TodoistOfflineStorage storage, SyncMetrics metrics, int maxThreads) {
+		mStorage = storage;
+		mMetrics = metrics;
+		mMaxThreads = maxThreads;
+	}
+
+	/**
+	 * Adds a phase which writes into the local storage (runs on the calling thread, after all
+	 * previously added phases of its kind)
+	 * @param name
+	 * @param dependencies names of the (previously added) phases it depends on
+	 * @param phase
+	 */
+	public void addPhase(String name, String[] dependencies, Phase phase) {
+		addNode(name, dependencies, phase, false);
+	}
+
+	/**
+	 * Adds a phase which doesn't write into the local storage (may run concurrently with other phases)
+	 * @param name
+	 * @param dependencies names of the (previously added) phases it depends on
+	 * @param phase
+	 */
+	public void addBackgroundPhase(String name, String[] dependencies, Phase phase) {
+		addNode(name, dependencies, phase, true);
+	}
+
+	private void addNode(String name, String[] dependencies, Phase phase, boolean isBackground) {
+		Node node = new Node();
+
+		node.name = name;
+		node.phase = phase;
+		node.isBackground = isBackground;
+		node.dependencies = new Node[dependencies.length];
+
+		for (int i = 0; i < dependencies.length; i++) {
+			node.dependencies[i] = mNodesByName.get(dependencies[i]);
+
+			if (node.dependencies[i] == null) {
+				throw new IllegalArgumentException(String.format("Phase %s depends on an unknown phase: %s", name, dependencies[i]));
+			}
+		}
+
+		mNodes.add(node);
+		mNodesByName.put(name, node);
+	}
+
+
+	/**
+	 * Runs all phases (returns once they're all done)
+	 * @throws TodoistServerException the error of the first failed phase
+	 * @throws InvalidDateStringException the error of the first failed phase
+	 */
+	public void run() throws TodoistServerException, InvalidDateStringException {
+		ExecutorService executor = Executors.newFixedThreadPool(mMaxThreads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				return new Thread(runnable, "SyncPhase");
+			}
+		});
+		CompletionService<Node> completion = new ExecutorCompletionService<Node>(executor);
+		int runningCount = 0;
+		int doneCount = 0;
+
+		try {
+			while (doneCount < mNodes.size()) {
+				// Start all background phases whose dependencies are done
+				for (int i = 0; i < mNodes.size(); i++) {
+					Node node = mNodes.get(i);
+
+					if ((node.isBackground) && (!node.isStarted) && (isReady(node))) {
+						node.isStarted = true;
+						completion.submit(createTask(node));
+						runningCount++;
+					}
+				}
+
+				// Run the next storage phase, in case its dependencies are done
+				Node next = getNextPhase();
+
+				if ((next != null) && (isReady(next))) {
+					next.isStarted = true;
+					runPhase(next);
+					next.isDone = true;
+					doneCount++;
+					continue;
+				}
+
+				if (runningCount == 0) {
+					// Nothing is running, and the next phase can't run (shouldn't happen, since dependencies
+					// are always added before their dependent phases)
+					throw new IllegalStateException("Sync phases can't be run in order");
+				}
+
+				// Wait for the next background phase to finish
+				Node done = waitForPhase(completion);
+				runningCount--;
+
+				done.isDone = true;
+				doneCount++;
+				mMetrics.recordPhase(done.name, done.endTime - done.startTime);
+			}
+
+		} finally {
+			// In case we've stopped in the middle (interrupts the background phases still running)
+			executor.shutdownNow();
+		}
+
+		recordCriticalPath();
+	}
+
+	private boolean isReady(Node node) {
+		for (int i = 0; i < node.dependencies.length; i++) {
+			if (!node.dependencies[i].isDone) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the first storage phase which hasn't started yet (null if there are none)
+	 */
+	private Node getNextPhase() {
+		for (int i = 0; i < mNodes.size(); i++) {
+			Node node = mNodes.get(i);
+			if ((!node.isBackground) && (!node.isStarted)) return node;
+		}
+
+		return null;
+	}
+
+	private void runPhase(Node node) throws TodoistServerException, InvalidDateStringException {
+		mMetrics.beginPhase(node.name, mStorage.getRowsWritten());
+		node.startTime = System.currentTimeMillis();
+
+		node.phase.run();
+
+		node.endTime = System.currentTimeMillis();
+		mMetrics.endPhase(mStorage.getRowsWritten());
+	}
+
+	private Callable<Node> createTask(final Node node) {
+		return new Callable<Node>() {
+			public Node call() throws Exception {
+				node.startTime = System.currentTimeMillis();
+				node.phase.run();
+				node.endTime = System.currentTimeMillis();
+
+				return node;
+			}
+		};
+	}
+
+	/**
+	 * Waits for the next background phase to finish, and throws its error (in case it failed)
+	 */
+	private Node waitForPhase(CompletionService<Node> completion) throws TodoistServerException, InvalidDateStringException {
+		try {
+			return completion.take().get();
+
+		} catch (InterruptedException e) {
+			throw new TodoistServerException(ErrorCode.UNKNOWN_ERROR);
+
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof TodoistServerException) {
+				throw (TodoistServerException)cause;
+			} else if (cause instanceof InvalidDateStringException) {
+				throw (InvalidDateStringException)cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+
+	/**
+	 * Finds the longest chain of dependent phases (by their durations), and records it into the metrics
+	 */
+	private void recordCriticalPath() {
+		// Since dependencies are added before their dependent phases, each phase's dependencies are
+		// already calculated by the time it's reached
+		Hashtable<Node, Long> pathDurations = new Hashtable<Node, Long>();
+		Hashtable<Node, Node> pathPrevious = new Hashtable<Node, Node>();
+		Node last = null;
+
+		for (int i = 0; i < mNodes.size(); i++) {
+			Node node = mNodes.get(i);
+			Node previous = null;
+			long duration = 0;
+
+			for (int j = 0; j < node.dependencies.length; j++) {
+				long dependencyDuration = pathDurations.get(node.dependencies[j]);
+
+				if ((previous == null) || (dependencyDuration > duration)) {
+					previous = node.dependencies[j];
+					duration = dependencyDuration;
+				}
+			}
+
+			pathDurations.put(node, duration + (node.endTime - node.startTime));
+			if (previous != null) pathPrevious.put(node, previous);
+
+			if ((last == null) || (pathDurations.get(node) > pathDurations.get(last))) {
+				last = node;
+			}
+		}
+
+		if (last == null) return; // No phases
+
+		ArrayList<String> path = new ArrayList<String>();
+
+		for (Node node = last; node != null; node = pathPrevious.get(node)) {
+			path.add(node.name);
+		}
+
+		Collections.reverse(path);
+
+		mMetrics.setCriticalPath(path, pathDurations.get(last));
+	}
+}
@@ -0,0 +1,219 @@
+package budo.budoist.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+
+import budo.budoist.debug.Trace;
+import budo.budoist.models.Item;
+import budo.budoist.models.Label;
+import budo.budoist.models.Note;
+import budo.budoist.models.Project;
+import budo.budoist.models.SynchronizedModel.DirtyState;
+import budo.budoist.services.TodoistOfflineStorage.ItemSortMode;
+
+/**
+ * A read-only snapshot of the local tables (projects, labels, items and notes), used by all phases
+ * of a single sync - instead of each phase (and each sync operation) querying the storage for the
+ * same data again. Each table is loaded in bulk (a single query, plus a single query for all item
+ * label IDs), when it's first used, and is indexed by ID.
+ *
+ * The sync phases write into the storage as they go (through the storage's regular methods) - so
+ * refresh should be called between phases: each loaded table whose rows were written since it was
+ * loaded (see TodoistOfflineStorage.getTableVersion) is dropped, and will be re-loaded when next used.
+ * A phase therefore always sees the local state as it was when the phase started (the same way it did
+ * when it queried the storage by itself), while tables which weren't written (e.g. the labels, during
+ * a sync which only changed items) are loaded only once.
+ *
+ * The returned lists can't be modified (though the models in them are the sync's working copies).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SyncSnapshot {
+
+	private TodoistOfflineStorage mStorage;
+
+	private List<Project> mProjects = null;
+	private List<Label> mLabels = null;
+	private List<Item> mItems = null;
+	private List<Note> mNotes = null;
+	private Hashtable<Integer, ArrayList<Note>> mNotesByItem = null; // Non-deleted notes, sorted by post date
+
+	// The table versions the loaded tables were loaded at (see TodoistOfflineStorage.getTableVersion)
+	private int mProjectsVersion;
+	private int mLabelsVersion;
+	private int mItemsVersion;
+	private int mItemLabelsVersion;
+	private int mNotesVersion;
+
+
+	public SyncSnapshot(TodoistOfflineStorage storage) {
+		mStorage = storage;
+	}
+
+	/**
+	 * Drops the loaded tables which were written into since they were loaded (should be called
+	 * between sync phases)
+	 */
+	public synchronized void refresh() {
+		if ((mProjects != null) && (mProjectsVersion != getVersion(DBConsts.PROJECTS_TABLE_NAME))) {
+			mProjects = null;
+		}
+
+		if ((mLabels != null) && (mLabelsVersion != getVersion(DBConsts.LABELS_TABLE_NAME))) {
+			mLabels = null;
+		}
+
+		// Items are loaded along with their label IDs
+		if ((mItems != null) && ((mItemsVersion != getVersion(DBConsts.ITEMS_TABLE_NAME)) ||
+				(mItemLabelsVersion != getVersion(DBConsts.ITEMS_TO_LABELS_TABLE_NAME)))) {
+			mItems = null;
+		}
+
+		if ((mNotes != null) && (mNotesVersion != getVersion(DBConsts.NOTES_TABLE_NAME))) {
+			mNotes = null;
+			mNotesByItem = null;
+		}
+	}
+
+	private int getVersion(String table) {
+		return mStorage.getTableVersion(table);
+	}
+
+
+	/**
+	 * Returns all local projects (including DELETED ones)
+	 * @return
+	 */
+	public synchronized List<Project> getProjects() {
+		if (mProjects == null) {
+			long span = Trace.begin();
+			mProjectsVersion = getVersion(DBConsts.PROJECTS_TABLE_NAME); // (Before loading - so a concurrent write would be caught)
+			mProjects = Collections.unmodifiableList(mStorage.getProjects());
+			Trace.end("SyncSnapshot.loadProjects", span);
+		}
+
+		return mProjects;
+	}
+
+	/**
+	 * Returns all local projects which are not DELETED
+	 * @return
+	 */
+	public synchronized ArrayList<Project> getNonDeletedProjects() {
+		List<Project> projects = getProjects();
+		ArrayList<Project> nonDeleted = new ArrayList<Project>(projects.size());
+
+		for (int i = 0; i < projects.size(); i++) {
+			Project project = projects.get(i);
+			if (project.dirtyState != DirtyState.DELETED) nonDeleted.add(project);
+		}
+
+		return nonDeleted;
+	}
+
+
+	/**
+	 * Returns all local labels (including DELETED ones)
+	 * @return
+	 */
+	public synchronized List<Label> getLabels() {
+		if (mLabels == null) {
+			long span = Trace.begin();
+			mLabelsVersion = getVersion(DBConsts.LABELS_TABLE_NAME);
+			mLabels = Collections.unmodifiableList(mStorage.getLabels());
+			Trace.end("SyncSnapshot.loadLabels", span);
+		}
+
+		return mLabels;
+	}
+
+	/**
+	 * Returns all local items (including completed and DELETED ones), along with their label IDs,
+	 * in their original order
+	 * @return
+	 */
+	public synchronized List<Item> getItems() {
+		if (mItems == null) {
+			long span = Trace.begin();
+			mItemsVersion = getVersion(DBConsts.ITEMS_TABLE_NAME);
+			mItemLabelsVersion = getVersion(DBConsts.ITEMS_TO_LABELS_TABLE_NAME);
+			mItems = Collections.unmodifiableList(mStorage.getAllItems(true, true, ItemSortMode.ORIGINAL_ORDER));
+			Trace.end("SyncSnapshot.loadItems", span);
+		}
+
+		return mItems;
+	}
+
+	/**
+	 * Returns all local items which are not DELETED
+	 * @return
+	 */
+	public synchronized ArrayList<Item> getNonDeletedItems() {
+		List<Item> items = getItems();
+		ArrayList<Item> nonDeleted = new ArrayList<Item>(items.size());
+
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			if (item.dirtyState != DirtyState.DELETED) nonDeleted.add(item);
+		}
+
+		return nonDeleted;
+	}
+
+
+	/**
+	 * Returns all local notes (including DELETED ones)
+	 * @return
+	 */
+	public synchronized List<Note> getNotes() {
+		if (mNotes == null) {
+			long span = Trace.begin();
+			mNotesVersion = getVersion(DBConsts.NOTES_TABLE_NAME);
+			ArrayList<Note> notes = mStorage.getNotes();
+			ArrayList<Note> sortedNotes = new ArrayList<Note>(notes);
+
+			Collections.sort(sortedNotes, new Comparator<Note>() {
+				public int compare(Note note1, Note note2) {
+					return note1.postDate.compareTo(note2.postDate);
+				}
+			});
+
+			mNotesByItem = new Hashtable<Integer, ArrayList<Note>>();
+
+			for (int i = 0; i < sortedNotes.size(); i++) {
+				Note note = sortedNotes.get(i);
+				if (note.dirtyState == DirtyState.DELETED) continue;
+
+				ArrayList<Note> itemNotes = mNotesByItem.get(note.itemId);
+
+				if (itemNotes == null) {
+					itemNotes = new ArrayList<Note>();
+					mNotesByItem.put(note.itemId, itemNotes);
+				}
+
+				itemNotes.add(note);
+			}
+
+			mNotes = Collections.unmodifiableList(notes);
+			Trace.end("SyncSnapshot.loadNotes", span);
+		}
+
+		return mNotes;
+	}
+
+	/**
+	 * Returns all of an item's notes (excluding any DELETED notes), sorted by post date
+	 * @param itemId
+	 * @return
+	 */
+	public synchronized ArrayList<Note> getNotesByItem(int itemId) {
+		getNotes();
+
+		ArrayList<Note> itemNotes = mNotesByItem.get(itemId);
+		return (itemNotes != null ? new ArrayList<Note>(itemNotes) : new ArrayList<Note>());
+	}
+}
@@ -1,16 +1,19 @@
 package budo.budoist.services;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
-import java.util.Random;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
 import android.util.Log;
@@ -24,7 +27,9 @@ import budo.budoist.models.SynchronizedModel;
 import budo.budoist.models.TodoistTextFormatter;
 import budo.budoist.models.User;
 import budo.budoist.models.SynchronizedModel.DirtyState;
+import budo.budoist.services.TodoistOfflineStorage.IdChanges;
 import budo.budoist.services.TodoistOfflineStorage.ItemSortMode;
+import budo.budoist.services.TodoistOfflineStorage.PagedItemList;
 import budo.budoist.services.TodoistServer.ErrorCode;
 
 /**
@@ -66,17 +71,25 @@ public class TodoistClient {
 	
 	private static final String TAG = "TodoistClient";
 	
+	private static final String SYNC_HISTORY_FILENAME_TEMPLATE = "sync_history";
+	
 	private Context mContext;
 	private TodoistOfflineStorage mStorage;
+	private SyncCoordinator mSyncCoordinator;
 	private User mUser;
+	private TodoistServer mServer;
 	
 	private boolean mIsLoggedIn;
 	
 	private boolean mIsCurrentlySyncing = false;
 	private boolean mIsCurrentlyBackingUp = false;
+	private SyncMetrics mLastSyncMetrics = null;
+	private volatile SyncMetrics mSyncMetrics = null; // Metrics of the currently running sync
+	private SyncSnapshot mSyncSnapshot = null; // Snapshot of the local tables used by the current sync
 
-	private static final int MIN_TEMP_ID = 1000000;
-	private static final int MAX_TEMP_ID = 99999999;
+	// Maximal number of ID changes (of locally added models) written in a single transaction - so if
+	// the sync stops in the middle, most of the models already added online were saved locally as well
+	private static final int MAX_ID_CHANGES_PER_TRANSACTION = 100;
 
 	// Used when syncing
 	private enum SyncResult {
@@ -91,14 +104,32 @@ public class TodoistClient {
 	
 	private static final int MAX_ITEM_NAME_IN_PROGRESS = 30;
 	private static final int MAX_PROJECT_NAME_IN_PROGRESS = 30;
+	
+	// How many projects can have their items fetched ahead of the project currently being synced
+	// (this bounds the number of online items held in memory while syncing items)
+	private static final int MAX_PROJECTS_FETCHED_AHEAD = 2;
+	
+	// How many sync phases can fetch from the server at the same time (see syncAll)
+	private static final int MAX_SYNC_PHASE_THREADS = 3;
 
 	public interface ISyncProgress { public void onSyncProgress(String message, int progress); };
 	
 	
 	public TodoistClient(Context context) {
+		this(context, new TodoistServer());
+	}
+	
+	/**
+	 * @param context
+	 * @param server the server to sync with (e.g. one whose requests are handled by a local stand-in
+	 * of the Todoist server)
+	 */
+	public TodoistClient(Context context, TodoistServer server) {
 		mContext = context;
+		mServer = server;
 		
 		mStorage = new TodoistOfflineStorage(mContext);
+		mSyncCoordinator = new SyncCoordinator(this, mStorage);
 		
 		mIsLoggedIn = false;
 		
@@ -161,7 +192,7 @@ public class TodoistClient {
 		note.dirtyState = DirtyState.ADDED;
 		
 		// Need a temp ID until the note is sync'd online and given a "real" ID by the Todoist server
-		note.id = generateRandomId(note);
+		note.id = mStorage.getNextTempId();
 		
 		mStorage.addOrUpdateNote(note, null);
 		mStorage.updateItemNoteCount(mStorage.getItem(note.itemId));
@@ -269,7 +300,7 @@ public class TodoistClient {
 		label.dirtyState = DirtyState.ADDED;
 		
 		// Need a temp ID until the label is sync'd online and given a "real" ID by the Todoist server
-		label.id = generateRandomId(label);
+		label.id = mStorage.getNextTempId();
 		
 		mStorage.addOrUpdateLabel(label, null);
 	}
@@ -294,25 +325,26 @@ public class TodoistClient {
 	
 
 	/**
-	 * Returns a list of all labels (from cache/storage)
+	 * Returns a list of all labels (from cache/storage), sorted by name
 	 * 
 	 * @return
 	 */
 	public ArrayList<Label> getLabels() {
-		ArrayList<Label> labels = mStorage.getLabels();
-		
 		// Don't return any labels marked as DELETED (since even though they were deleted locally,
 		// they weren't deleted remotely yet)
-		
-		Iterator<Label> itr = labels.iterator();
-		
-		while (itr.hasNext()) {
-			Label label = itr.next();
-			if (label.dirtyState == DirtyState.DELETED) {
-				itr.remove();
-			}
-		}
-		return labels;
+		return mStorage.getLabelsByPrefix("");
+	}
+	
+	/**
+	 * Returns all labels whose names start with a prefix (case-insensitive), sorted by name - used
+	 * for label suggestions
+	 * 
+	 * @param prefix
+	 * @return
+	 */
+	public ArrayList<Label> getLabelsByPrefix(String prefix) {
+		// Don't return any labels marked as DELETED
+		return mStorage.getLabelsByPrefix(prefix);
 	}
 	
 	/**
@@ -326,17 +358,7 @@ public class TodoistClient {
 		// Add all label IDs as "@label" strings into the item's content - this of course will
 		// override any old label settings which we might have had
 		
-		ArrayList<String> labels = new ArrayList<String>();
-
-		if (item.labelIds != null) {
-			for (int i = 0; i < item.labelIds.size(); i++) {
-			    Label currentLabel = mStorage.getLabel(item.labelIds.get(i));
-			    
-			    if (currentLabel != null) {
-    				labels.add(currentLabel.name);
-			    }
-			}
-		}
+		ArrayList<String> labels = (item.labelIds != null ? mStorage.getLabelNames(item.labelIds) : new ArrayList<String>());
 		
 		item.setContent(item.getContent(), labels, item.canBeCompleted());
 	}
@@ -404,7 +426,7 @@ public class TodoistClient {
 		}
 		
 		if ((item.hasDueDateString()) &&
-		        ((item.dueDate == null) || (item.dueDate.getTime() == 0))) {
+		        (!item.hasDueDate())) {
 		    // The date string isn't empty, but the due date is empty -
 		    // Try and recalculate the date
 		    item.calculateFirstDueDate(mUser.dateFormat, mUser.timezoneOffsetMinutes);
@@ -498,10 +520,10 @@ public class TodoistClient {
 		item.dirtyState = DirtyState.ADDED;
 		
 		// Need a temp ID until the item is sync'd online and given a "real" ID by the Todoist server
-		item.id = generateRandomId(item);
+		item.id = mStorage.getNextTempId();
 		
 		if ((item.hasDueDateString()) &&
-		        ((item.dueDate == null) || (item.dueDate.getTime() == 0))) {
+		        (!item.hasDueDate())) {
 		    // The date string isn't empty, but the due date is empty -
 		    // Try and recalculate the date
 		    item.calculateFirstDueDate(mUser.dateFormat, mUser.timezoneOffsetMinutes);
@@ -568,6 +590,16 @@ public class TodoistClient {
 				sortMode);
 	}
 
+	/**
+	 * Returns all items as a paged list (loaded from cache/storage as the list is accessed)
+	 * 
+	 * @param sortMode the order in which to return items
+	 * @return
+	 */
+	public PagedItemList getPagedAllItems(ItemSortMode sortMode) {
+		return mStorage.getPagedAllItems(mStorage.getShowCompletedItems(), sortMode);
+	}
+
 	
 	
 	/*
@@ -613,20 +645,9 @@ public class TodoistClient {
 	 * @param project
 	 */
 	public void deleteProject(Project project) {
-		if (project.dirtyState == DirtyState.ADDED) {
-			// If the project has been added and not yet synchronized online, we can
-			// simply delete immediately (locally) without synchronizing with the online server
-			mStorage.deleteProject(project);
-		} else {
-			project.dirtyState = DirtyState.DELETED;
-			mStorage.addOrUpdateProject(project, null);
-		}
-		
-		// Also mark all items under that project as deleted
-		ArrayList<Item> items = this.getItemsByProject(project, ItemSortMode.ORIGINAL_ORDER);
-		for (int i = 0; i < items.size(); i++) {
-			this.deleteItem(items.get(i), false);
-		}
+		// Marks the project and all items under it as deleted (if the project/items have been added and
+		// not yet synchronized online, they're simply deleted locally), along with their notes and labels
+		mStorage.deleteProjectCascade(project);
 		
 		// In case the deleted project has been deleted from the middle of the
 		// projects lists, we'll need to update the itemOrder of some projects
@@ -667,7 +688,7 @@ public class TodoistClient {
 		project.dirtyState = DirtyState.ADDED;
 		
 		// Need a temp ID until the project is sync'd online and given a "real" ID by the Todoist server
-		project.id = generateRandomId(project);
+		project.id = mStorage.getNextTempId();
 		
 		mStorage.addOrUpdateProject(project, null);
 		
@@ -696,8 +717,8 @@ public class TodoistClient {
 	 * @param query
 	 */
 	public void addQuery(Query query) {
-		// Need a temp ID
-		query.id = generateRandomId(query);
+		// Queries are never sync'd online - so they're given a local ID right away
+		query.id = mStorage.getNextQueryId();
 		
 		mStorage.addOrUpdateQuery(query);
 	}
@@ -731,45 +752,6 @@ public class TodoistClient {
 
 
 	
-	/*
-	 * Utility methods
-	 */
-	
-	
-	/**
-	 * Generates a random (temp) ID for an item (project/item/label/note/query) and makes sure
-	 * no other item with the same ID exists. This is done when the item is added locally,
-	 * but not yet remotely (not sync'd yet) - thus, until it is added remotely and given
-	 * by Todoist server a proper ID, we provide it with a temp ID.
-	 * 
-	 * @param item
-	 * @return
-	 */
-	private int generateRandomId(SynchronizedModel item) {
-		Random rand = new Random(Calendar.getInstance().getTimeInMillis());
-		int id;
-		boolean idAlreadyExists = false;
-		
-		do {
-			id = rand.nextInt(MAX_TEMP_ID - MIN_TEMP_ID + 1) + MIN_TEMP_ID;
-			
-			if (item instanceof Project) {
-				idAlreadyExists = (mStorage.getProject(id) == null ? false : true);
-			} else if (item instanceof Item) {
-				idAlreadyExists = (mStorage.getItem(id) == null ? false : true);
-			} else if (item instanceof Label) {
-				idAlreadyExists = (mStorage.getLabel(id) == null ? false : true);
-			} else if (item instanceof Note) {
-				idAlreadyExists = (mStorage.getNote(id) == null ? false : true);
-			} else if (item instanceof Query) {
-				idAlreadyExists = (mStorage.getQuery(id) == null ? false : true);
-			}
-			
-		} while (idAlreadyExists);
-		
-		return id;
-	}
-	
 	/*
 	 * Backup methods
 	 */
@@ -786,6 +768,19 @@ public class TodoistClient {
 	 * @returns the filename the Todoist data was saved to
 	 */
 	public String backupData(Context context) throws IOException {
+		return backupData(context, false);
+	}
+	
+	/**
+	 * Backups Todoist data - either a full or an incremental backup (containing only the data changed
+	 * since the previous backup; see TodoistOfflineStorage.backupTodoistData).
+	 * 
+	 * @param context
+	 * @param incremental
+	 * @throws IOException 
+	 * @returns the filename the Todoist data was saved to (null if nothing needed to be backed up)
+	 */
+	public String backupData(Context context, boolean incremental) throws IOException {
 		if (mIsCurrentlyBackingUp) {
 			// Already in the process of backing up
 			return null;
@@ -795,9 +790,10 @@ public class TodoistClient {
 		
 		try {
 			mIsCurrentlyBackingUp = true;
-			backupFilename = mStorage.backupTodoistData(context);
+			backupFilename = mStorage.backupTodoistData(context, incremental);
 			
-			// Save last backup time as now (do this only after successfully finishing backing up everything)
+			// Save last backup time as now (do this only after successfully finishing backing up everything;
+			// also when nothing was changed since the previous backup)
 			mStorage.setLastBackupTime(new Date());
 			
 			mIsCurrentlyBackingUp = false;
@@ -838,7 +834,7 @@ public class TodoistClient {
 	 * @throws TodoistServerException
 	 * @throws InvalidDateStringException 
 	 */
-	public void syncAll(ISyncProgress callback) throws TodoistServerException, InvalidDateStringException {
+	public void syncAll(final ISyncProgress callback) throws TodoistServerException, InvalidDateStringException {
 		if (mIsCurrentlySyncing) {
 			// Syncing is already in progress
 			return;
@@ -846,20 +842,82 @@ public class TodoistClient {
 		
 		mIsCurrentlySyncing = true;
 		
+		// Record metrics of this sync run (our TodoistServer/JsonServer record into them as well)
+		SyncMetrics metrics = new SyncMetrics();
+		mSyncMetrics = metrics;
+		mServer.setMetrics(metrics);
+		
 		try {
-			syncProjects(callback);
-			syncLabels(callback);
-			syncItems(callback);
+			// All phases read the local tables from the same snapshot (re-loaded only in case a
+			// previous phase has modified them)
+			mSyncSnapshot = new SyncSnapshot(mStorage);
 			
-			if (isPremium()) {
-				try {
-					syncNotes(callback);
-				} catch (PremiumAccountException e) {
-					// Shouldn't happen - we already checked that user is indeed premium
-					e.printStackTrace();
+			// The sync phases run as a dependency graph: the online projects, labels and notes (of the
+			// already known items) are fetched concurrently - while the fetched models are synced one
+			// phase after the other, in the same order as always (see SyncPhaseGraph).
+			// Labels don't depend on projects - but syncing them waits for the projects to be synced,
+			// so the local storage is always written in the same order.
+			// Background phases only talk to the server - whatever they need from the local storage is
+			// read beforehand (they may outlive a failed sync, and the storage is modified meanwhile)
+			final FetchedModels fetched = new FetchedModels();
+			final ArrayList<Project> reorderedProjects = (mStorage.getProjectsReordered() ? mSyncSnapshot.getNonDeletedProjects() : null);
+			final int[] notesToPrefetch = (isPremium() ? getNotesToPrefetch(mSyncSnapshot) : null);
+			SyncPhaseGraph graph = new SyncPhaseGraph(mStorage, metrics, MAX_SYNC_PHASE_THREADS);
+			
+			graph.addBackgroundPhase(SyncMetrics.PHASE_PROJECTS_FETCH, new String[] { }, new SyncPhaseGraph.Phase() {
+				public void run() throws TodoistServerException {
+					fetched.projects = fetchProjects(reorderedProjects);
+				}
+			});
+			graph.addBackgroundPhase(SyncMetrics.PHASE_LABELS_FETCH, new String[] { }, new SyncPhaseGraph.Phase() {
+				public void run() throws TodoistServerException {
+					fetched.labels = convertListToSyncModel(mServer.getLabels(mUser));
+				}
+			});
+			
+			graph.addPhase(SyncMetrics.PHASE_PROJECTS, new String[] { SyncMetrics.PHASE_PROJECTS_FETCH }, new SyncPhaseGraph.Phase() {
+				public void run() throws TodoistServerException, InvalidDateStringException {
+					// The projects order was uploaded by now (see fetchProjects)
+					if (reorderedProjects != null) mStorage.setProjectsReordered(false);
+					
+					syncProjects(callback, fetched.projects);
+				}
+			});
+			graph.addPhase(SyncMetrics.PHASE_LABELS, new String[] { SyncMetrics.PHASE_LABELS_FETCH, SyncMetrics.PHASE_PROJECTS }, new SyncPhaseGraph.Phase() {
+				public void run() throws TodoistServerException, InvalidDateStringException {
+					mSyncSnapshot.refresh();
+					syncLabels(callback, fetched.labels);
+				}
+			});
+			graph.addPhase(SyncMetrics.PHASE_ITEMS, new String[] { SyncMetrics.PHASE_PROJECTS, SyncMetrics.PHASE_LABELS }, new SyncPhaseGraph.Phase() {
+				public void run() throws TodoistServerException, InvalidDateStringException {
+					mSyncSnapshot.refresh();
+					syncItems(callback);
 				}
+			});
+			
+			if (isPremium()) {
+				// The notes of already known items don't depend on syncing the items
+				graph.addBackgroundPhase(SyncMetrics.PHASE_NOTES_FETCH, new String[] { }, new SyncPhaseGraph.Phase() {
+					public void run() {
+						fetched.notesByItem = prefetchNotes(notesToPrefetch);
+					}
+				});
+				graph.addPhase(SyncMetrics.PHASE_NOTES, new String[] { SyncMetrics.PHASE_ITEMS, SyncMetrics.PHASE_NOTES_FETCH }, new SyncPhaseGraph.Phase() {
+					public void run() throws TodoistServerException, InvalidDateStringException {
+						try {
+							mSyncSnapshot.refresh();
+							syncNotes(callback, fetched.notesByItem);
+						} catch (PremiumAccountException e) {
+							// Shouldn't happen - we already checked that user is indeed premium
+							e.printStackTrace();
+						}
+					}
+				});
 			}
 			
+			graph.run();
+			
 			// Save last sync time as now (do this only after successfully finishing syncing everything)
 			mStorage.setLastSyncTime(new Date());
 			
@@ -867,18 +925,91 @@ public class TodoistClient {
 				callback.onSyncProgress("Syncing complete", 100);
 			}
 			
-			mIsCurrentlySyncing = false;
+			finishSyncMetrics(metrics, SyncMetrics.RESULT_OK);
 			
 		} catch (TodoistServerException exc) {
-			mIsCurrentlySyncing = false;
+			finishSyncMetrics(metrics, exc.getErrorCode().toString());
 			throw exc;
 		} catch (InvalidDateStringException exc) {
-			mIsCurrentlySyncing = false;
+			finishSyncMetrics(metrics, "INVALID_DATE_STRING");
 			throw exc;
+		} finally {
+			// Also in case of an unexpected (runtime) error - otherwise no other sync could ever start
+			stopSyncMetrics();
+			mSyncSnapshot = null;
+			mIsCurrentlySyncing = false;
 		}
 
 	}
 	
+	/**
+	 * Ends recording the metrics of a sync run and saves them into the sync history
+	 * @param metrics
+	 * @param result
+	 */
+	private void finishSyncMetrics(SyncMetrics metrics, String result) {
+		metrics.endPhase(mStorage.getRowsWritten()); // In case we stopped in the middle of a phase
+		metrics.finish(result);
+		stopSyncMetrics();
+		
+		mLastSyncMetrics = metrics;
+		
+		Log.i(TAG, String.format("Sync finished: %s", metrics.getSummary()));
+		
+		mStorage.addSyncHistory(metrics);
+	}
+	
+	/**
+	 * Stops recording into the metrics of the current sync run (requests made afterwards, e.g. by
+	 * background phases which outlive a failed sync, aren't recorded)
+	 */
+	private void stopSyncMetrics() {
+		mSyncMetrics = null;
+		mServer.setMetrics(null);
+	}
+	
+	/**
+	 * Returns the metrics of the last sync run
+	 * @return null if no sync was made since the client was created
+	 */
+	public SyncMetrics getLastSyncMetrics() {
+		return mLastSyncMetrics;
+	}
+	
+	/**
+	 * Returns the recent sync runs (newest first)
+	 * @return
+	 */
+	public ArrayList<SyncMetrics> getSyncHistory() {
+		return mStorage.getSyncHistory();
+	}
+	
+	/**
+	 * Exports the sync history into a JSON file (saved in the backup path)
+	 * 
+	 * @param context
+	 * @throws IOException
+	 * @returns the filename the sync history was saved to
+	 */
+	public String exportSyncHistory(Context context) throws IOException {
+		String exportDir = mStorage.getBackupPath();
+		
+		if (exportDir == null) {
+			// Use default backup path
+			exportDir = mStorage.getDefaultBackupPath(context);
+		}
+		
+		// Create the directory structure is non-existent
+		File dir = new File(exportDir);
+		dir.mkdirs();
+		
+		String filename = String.format("%s/%s_%d.json", exportDir, SYNC_HISTORY_FILENAME_TEMPLATE, System.currentTimeMillis());
+		
+		mStorage.exportSyncHistory(filename);
+		
+		return filename;
+	}
+	
 
 	/**
 	 * Synchronizes notes (offline vs. online).
@@ -887,21 +1018,22 @@ public class TodoistClient {
 	 * relies on the local (cached) list of items for retrieving notes (per item).
 	 * 
 	 * @param callback optional callback called during sync (with progress updates)
+	 * @param prefetchedNotes online notes fetched before the items were synced (optional - see prefetchNotes)
 	 * 
 	 * @throws TodoistServerException, PremiumAccountException, InvalidDateStringException 
 	 */
-	private void syncNotes(ISyncProgress callback) throws TodoistServerException, PremiumAccountException, InvalidDateStringException {
+	private void syncNotes(ISyncProgress callback, Hashtable<Integer, ArrayList<Note>> prefetchedNotes) throws TodoistServerException, PremiumAccountException, InvalidDateStringException {
 		if (!isPremium()) {
 			// Only premium users can use notes
 			throw new PremiumAccountException();
 		}
 		
-		ArrayList<SynchronizedModel> offlineNotes = convertListToSyncModel(mStorage.getNotes());
+		ArrayList<SynchronizedModel> offlineNotes = convertListToSyncModel(mSyncSnapshot.getNotes());
 		ArrayList<SynchronizedModel> onlineNotes = new ArrayList<SynchronizedModel>();
 		
 		// Get a list of all notes in all items (tasks)
 		
-		ArrayList<Item> items = mStorage.getNonDeletedItems();
+		ArrayList<Item> items = mSyncSnapshot.getNonDeletedItems();
 		
 		for (int i = 0; i < items.size(); i++) {
 			Item item = items.get(i);
@@ -923,7 +1055,7 @@ public class TodoistClient {
 				
 			} else if (item.completed) {
 				// Item is already completed
-			    ArrayList<Note> itemNotes = mStorage.getNotesByItem(item);
+			    ArrayList<Note> itemNotes = mSyncSnapshot.getNotesByItem(item.id);
 			    
 			    if (itemNotes.size() == item.noteCount) {
 			        // No need to sync its notes (simply add the local notes
@@ -931,11 +1063,11 @@ public class TodoistClient {
 			        onlineNotes.addAll(convertListToSyncModel(itemNotes));
 			    } else {
 			        // The noteCount received from the server is not the same as we have
-			        onlineNotes.addAll(convertListToSyncModel(TodoistServer.getNotes(mUser, item)));
+			        onlineNotes.addAll(convertListToSyncModel(getOnlineNotes(item, prefetchedNotes)));
 			    }
 				
 			} else {
-				onlineNotes.addAll(convertListToSyncModel(TodoistServer.getNotes(mUser, item)));
+				onlineNotes.addAll(convertListToSyncModel(getOnlineNotes(item, prefetchedNotes)));
 			}
 		}
 		
@@ -947,21 +1079,99 @@ public class TodoistClient {
 		}
 	}
 	
+	/**
+	 * Returns an item's online notes - either the prefetched ones (if any), or fetched now
+	 * 
+	 * @throws TodoistServerException 
+	 */
+	private ArrayList<Note> getOnlineNotes(Item item, Hashtable<Integer, ArrayList<Note>> prefetchedNotes) throws TodoistServerException {
+		ArrayList<Note> notes = (prefetchedNotes != null ? prefetchedNotes.remove(item.id) : null);
+		
+		return (notes != null ? notes : mServer.getNotes(mUser, item));
+	}
+	
+	/**
+	 * Returns the already known items whose notes will (most likely) be fetched by syncNotes, once
+	 * the items were synced: items which were already synced online, aren't completed, and have notes.
+	 * 
+	 * @param snapshot the current sync's snapshot
+	 * @return the item IDs
+	 */
+	private int[] getNotesToPrefetch(SyncSnapshot snapshot) {
+		ArrayList<Item> items = snapshot.getNonDeletedItems();
+		int[] itemIds = new int[items.size()];
+		int count = 0;
+		
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			
+			if ((item.dirtyState != DirtyState.ADDED) && (!item.completed) && (item.noteCount > 0)) {
+				itemIds[count++] = item.id;
+			}
+		}
+		
+		int[] ret = new int[count];
+		System.arraycopy(itemIds, 0, ret, 0, count);
+		
+		return ret;
+	}
+	
+	/**
+	 * Fetches the online notes of the given items (see getNotesToPrefetch).
+	 * 
+	 * Called while the other phases are running (see syncAll) - in case of an error, stops and
+	 * returns the notes fetched so far (the rest will be fetched by syncNotes).
+	 * 
+	 * @param itemIds
+	 * @return item ID to its online notes
+	 */
+	private Hashtable<Integer, ArrayList<Note>> prefetchNotes(int[] itemIds) {
+		Hashtable<Integer, ArrayList<Note>> notesByItem = new Hashtable<Integer, ArrayList<Note>>();
+		Item item = new Item(); // Only the item's ID is sent
+		
+		for (int i = 0; i < itemIds.length; i++) {
+			if (Thread.currentThread().isInterrupted()) {
+				// The sync has stopped
+				break;
+			}
+			
+			item.id = itemIds[i];
+			
+			try {
+				notesByItem.put(item.id, mServer.getNotes(mUser, item));
+			} catch (TodoistServerException exc) {
+				Log.w(TAG, String.format("Prefetching notes stopped: %s", exc.getErrorCode().toString()));
+				break;
+			}
+		}
+		
+		return notesByItem;
+	}
+	
+	/**
+	 * The online models fetched by the sync phases (see syncAll)
+	 */
+	private static class FetchedModels {
+		public ArrayList<SynchronizedModel> projects;
+		public ArrayList<SynchronizedModel> labels;
+		public Hashtable<Integer, ArrayList<Note>> notesByItem;
+	}
+	
 	/**
 	 * Synchronizes labels (offline vs. online)
 	 * 
 	 * @param callback optional callback called during sync (with progress updates)
+	 * @param onlineLabels
 	 * 
 	 * @throws TodoistServerException 
 	 * @throws InvalidDateStringException 
 	 */
-	private void syncLabels(ISyncProgress callback) throws TodoistServerException, InvalidDateStringException {
+	private void syncLabels(ISyncProgress callback, ArrayList<SynchronizedModel> onlineLabels) throws TodoistServerException, InvalidDateStringException {
 		if (callback != null) {
 			callback.onSyncProgress("Syncing labels", 20);
 		}
 
-		ArrayList<SynchronizedModel> offlineLabels = convertListToSyncModel(mStorage.getLabels());
-		ArrayList<SynchronizedModel> onlineLabels = convertListToSyncModel(TodoistServer.getLabels(mUser));
+		ArrayList<SynchronizedModel> offlineLabels = convertListToSyncModel(mSyncSnapshot.getLabels());
 		
 		syncLists(offlineLabels, onlineLabels);
 		
@@ -973,6 +1183,16 @@ public class TodoistClient {
 	/**
 	 * Synchronizes items (offline vs. online)
 	 * 
+	 * Items are fetched and synced per project, as a pipeline: while the items of one project are
+	 * synced (compared and applied locally/remotely), the items of the next projects are fetched
+	 * in the background (see ItemsFetcher) - so the network isn't idle while syncing, and only the
+	 * online items of a few projects are held in memory at any time.
+	 * 
+	 * Online items are matched (by ID) with the local items of all projects - so an item which was
+	 * moved remotely into another project is matched with its local copy. Local items without an
+	 * online copy are handled in a final pass, once the items of all projects were fetched (only then
+	 * do we know they don't exist online in any project).
+	 * 
 	 * NOTE: Best practice is that syncProjects will be called before this method, since it
 	 * relies on the local (cached) list of projects for retrieving items (per project).
 	 * 
@@ -982,15 +1202,14 @@ public class TodoistClient {
 	 * @throws InvalidDateStringException 
 	 */
 	private void syncItems(ISyncProgress callback) throws TodoistServerException, InvalidDateStringException {
-		ArrayList<SynchronizedModel> offlineItems = convertListToSyncModel(mStorage.getAllItems(true, true, ItemSortMode.ORIGINAL_ORDER));
-		ArrayList<SynchronizedModel> onlineItems = new ArrayList<SynchronizedModel>();
+		ListSync itemsSync = new ListSync(mSyncSnapshot.getItems());
 		
 		if (callback != null) {
 			callback.onSyncProgress("Syncing items", 30);
 		}
 		
 		// Get a list of all items in all projects
-		ArrayList<Project> projects = this.getProjects();
+		ArrayList<Project> projects = mSyncSnapshot.getNonDeletedProjects();
 		
 		
 		// First, see if any items need to be moved to this particular project
@@ -999,68 +1218,175 @@ public class TodoistClient {
 			
 		    ArrayList<Item> itemsToBeMoved = mStorage.getItemsMoved(project.id);
 		    if (itemsToBeMoved.size() > 0) {
-		        TodoistServer.moveItems(mUser, itemsToBeMoved, project);
+		        mServer.moveItems(mUser, itemsToBeMoved, project);
 		        mStorage.deleteItemsMoved(project.id);
 		    }
-		}
-
-		
-		for (int i = 0; i < projects.size(); i++) {
-			Project project = projects.get(i);
-			
-			if (callback != null) {
-				String shortContent = TodoistTextFormatter.formatText(project.getName()).toString();
-	        	if (shortContent.length() > MAX_PROJECT_NAME_IN_PROGRESS) shortContent = shortContent.subSequence(0, MAX_PROJECT_NAME_IN_PROGRESS) + "...";
-	        	
-				callback.onSyncProgress(
-						String.format("Syncing items for project '%s'", shortContent),
-						(int)(30 + ((40 * (1. / projects.size())) * i)));
-			}
-			
-			// Next, see if the items under this project need to be re-ordered
+		    
+			// See if the items under this project need to be re-ordered (done here, before fetching the
+			// project's items, since the fetcher only talks to the server)
 			if (mStorage.getItemsReordered(project.id)) {
 				// Need to update remote item list order for this project
-				TodoistServer.updateItemOrders(mUser, mStorage.getItemsByProject(project.id, ItemSortMode.ORIGINAL_ORDER, true), project);
+				mServer.updateItemOrders(mUser, mStorage.getItemsByProject(project.id, ItemSortMode.ORIGINAL_ORDER, true), project);
 				mStorage.setItemsReordered(project.id, false);
 			}
-			
-			onlineItems.addAll(convertListToSyncModel(TodoistServer.getCompletedItems(mUser, project)));
-			onlineItems.addAll(convertListToSyncModel(TodoistServer.getUncompletedItems(mUser, project)));
 		}
+
+		
+		ItemsFetcher fetcher = new ItemsFetcher(projects);
+		(new Thread(fetcher, "ItemsFetcher")).start();
 		
+		try {
+			for (int i = 0; ; i++) {
+				FetchedProject fetched = fetcher.take();
+				
+				if (fetched.isLast) {
+					// Either all projects were fetched, or fetching has failed
+					if (fetched.error != null) throw fetched.error;
+					if (fetched.runtimeError != null) throw fetched.runtimeError;
+					break;
+				}
+				
+				if (callback != null) {
+					String shortContent = TodoistTextFormatter.formatText(fetched.project.getName()).toString();
+		        	if (shortContent.length() > MAX_PROJECT_NAME_IN_PROGRESS) shortContent = shortContent.subSequence(0, MAX_PROJECT_NAME_IN_PROGRESS) + "...";
+		        	
+					callback.onSyncProgress(
+							String.format("Syncing items for project '%s'", shortContent),
+							(int)(30 + ((40 * (1. / projects.size())) * i)));
+				}
+				
+				itemsSync.syncRemoteItems(fetched.onlineItems);
+			}
+			
+		} finally {
+			// In case we've stopped in the middle (does nothing if the fetcher is already done)
+			fetcher.cancel();
+		}
 		
-		syncLists(offlineItems, onlineItems);
+		// All projects were fetched - handle the local items without an online copy
+		itemsSync.finish();
 		
 		// Update item count for labels and projects
 		mStorage.updateAllProjectsItemCount();
 		mStorage.updateLabelsItemCount();
 	}
 	
+	/**
+	 * The online items of a single project (or the end of the fetched projects)
+	 */
+	private static class FetchedProject {
+		public Project project;
+		public ArrayList<SynchronizedModel> onlineItems;
+		
+		public boolean isLast = false; // No more projects will be fetched
+		public TodoistServerException error = null; // In case fetching has failed
+		public RuntimeException runtimeError = null;
+	}
+	
+	/**
+	 * Fetches the online items of all projects (in the background), one project after the other -
+	 * up to MAX_PROJECTS_FETCHED_AHEAD projects ahead of the project currently being synced. Only
+	 * talks to the server (the items order of re-ordered projects is uploaded beforehand - see syncItems).
+	 */
+	private class ItemsFetcher implements Runnable {
+		private ArrayList<Project> mProjects;
+		private BlockingQueue<FetchedProject> mQueue = new ArrayBlockingQueue<FetchedProject>(MAX_PROJECTS_FETCHED_AHEAD);
+		private volatile boolean mIsCancelled = false;
+		
+		public ItemsFetcher(ArrayList<Project> projects) {
+			mProjects = projects;
+		}
+		
+		public void run() {
+			FetchedProject last = new FetchedProject();
+			last.isLast = true;
+			
+			try {
+				for (int i = 0; (i < mProjects.size()) && (!mIsCancelled); i++) {
+					Project project = mProjects.get(i);
+					
+					FetchedProject fetched = new FetchedProject();
+					fetched.project = project;
+					fetched.onlineItems = convertListToSyncModel(mServer.getCompletedItems(mUser, project));
+					fetched.onlineItems.addAll(convertListToSyncModel(mServer.getUncompletedItems(mUser, project)));
+					
+					put(fetched);
+				}
+				
+			} catch (TodoistServerException exc) {
+				last.error = exc;
+			} catch (RuntimeException exc) {
+				last.runtimeError = exc;
+			}
+			
+			put(last);
+		}
+		
+		/**
+		 * Returns the next fetched project (waits until it's fetched)
+		 * @throws TodoistServerException in case we were interrupted while waiting
+		 */
+		public FetchedProject take() throws TodoistServerException {
+			try {
+				return mQueue.take();
+			} catch (InterruptedException e) {
+				cancel();
+				throw new TodoistServerException(ErrorCode.UNKNOWN_ERROR);
+			}
+		}
+		
+		/**
+		 * Stops fetching (the project currently being fetched is discarded)
+		 */
+		public void cancel() {
+			mIsCancelled = true;
+			mQueue.clear(); // Makes room, in case the fetcher is waiting to put a project
+		}
+		
+		private void put(FetchedProject fetched) {
+			try {
+				// Wait for room in the queue (unless the sync has stopped in the meantime)
+				while ((!mIsCancelled) && (!mQueue.offer(fetched, 100, TimeUnit.MILLISECONDS))) { }
+			} catch (InterruptedException e) {
+				mIsCancelled = true;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Fetches the online projects - after uploading the projects order (in case the projects were
+	 * re-ordered locally). Only talks to the server - the local re-ordered flag is reset by the
+	 * caller, once the projects are synced.
+	 * 
+	 * @param reorderedProjects the local projects (in their new order) - null if they weren't re-ordered
+	 * 
+	 * @throws TodoistServerException
+	 */
+	private ArrayList<SynchronizedModel> fetchProjects(ArrayList<Project> reorderedProjects) throws TodoistServerException {
+		if (reorderedProjects != null) {
+			// Need to update remote project list order
+			mServer.updateProjectOrders(mUser, reorderedProjects);
+		}
+		
+		return convertListToSyncModel(mServer.getProjects(mUser));
+	}
 	
 	/**
 	 * Synchronizes projects (offline vs. online)
 	 * 
 	 * @param callback optional callback called during sync (with progress updates)
+	 * @param onlineProjects see fetchProjects
 	 * 
 	 * @throws TodoistServerException
 	 * @throws InvalidDateStringException 
 	 */
-	private void syncProjects(ISyncProgress callback) throws TodoistServerException, InvalidDateStringException {
-		ArrayList<Project> projects = this.getProjects();
-		
+	private void syncProjects(ISyncProgress callback, ArrayList<SynchronizedModel> onlineProjects) throws TodoistServerException, InvalidDateStringException {
 		if (callback != null) {
 			callback.onSyncProgress("Syncing projects", 5);
 		}
-	
-		if (mStorage.getProjectsReordered()) {
-			// Need to update remote project list order
-			TodoistServer.updateProjectOrders(mUser, projects);
-			mStorage.setProjectsReordered(false);
-		}
-		
 		
-		ArrayList<SynchronizedModel> offlineProjects = convertListToSyncModel(mStorage.getProjects());
-		ArrayList<SynchronizedModel> onlineProjects = convertListToSyncModel(TodoistServer.getProjects(mUser));
+		ArrayList<SynchronizedModel> offlineProjects = convertListToSyncModel(mSyncSnapshot.getProjects());
 		
 		syncLists(offlineProjects, onlineProjects);
 		
@@ -1090,7 +1416,7 @@ public class TodoistClient {
 	/**
 	 * Converts a list to a generic list of SynchronizedModel's
 	 */
-	private ArrayList<SynchronizedModel> convertListToSyncModel(ArrayList<?> list) {
+	private ArrayList<SynchronizedModel> convertListToSyncModel(List<?> list) {
 		ArrayList<SynchronizedModel> ret = new ArrayList<SynchronizedModel>();
 		
 		for (int i = 0; i < list.size(); i++) {
@@ -1107,44 +1433,95 @@ public class TodoistClient {
 	 * @throws InvalidDateStringException 
 	 */
 	private void syncLists(ArrayList<SynchronizedModel> localItems, ArrayList<SynchronizedModel> remoteItems) throws TodoistServerException, InvalidDateStringException {
-		// First, create a mapping of local item IDs (so we could quickly find items later on)
-		Hashtable<Integer, SynchronizedModel> idsToItems = new Hashtable<Integer, SynchronizedModel>();
-
 		if ((localItems.size() == 0) && (remoteItems.size() == 0))
 			return; // Both lists are empty - nothing to do here
 		
-		for (int i = 0; i < localItems.size(); i++) {
-			idsToItems.put(new Integer(localItems.get(i).id), localItems.get(i));
-		}
-
-		for (int i = 0; i < remoteItems.size(); i++) {
-			SynchronizedModel remoteItem = remoteItems.get(i);
-			SynchronizedModel localItem = idsToItems.get(new Integer(remoteItem.id)); // Even if no matching local item exists, we know how to handle it
-			
-			SyncResult syncResult = checkItemsForSync(localItem, remoteItem);
-			
-			Log.e("Budoist", String.format("SyncResult: %s; Local item: %s; Remote item: %s;",
-					syncResult.toString(), (localItem != null ? localItem.toString() : "<null>"), remoteItem.toString()));
-			
-			handleSyncResult(localItem, remoteItem, syncResult);
-			
-			// This is done so we'll know which local items were dealt with (so afterwards
-			// we'll traverse all of the local items which do not have a remote copy)
-			idsToItems.remove(new Integer(remoteItem.id));
+		ListSync sync = new ListSync(localItems);
+		sync.syncRemoteItems(remoteItems);
+		sync.finish();
+	}
+	
+	/**
+	 * Syncs a list of local items against remote items, which may be given in several parts (e.g.
+	 * per project): each remote item is matched (by ID) with a local item from the entire local list,
+	 * and once all parts were given, the local items which weren't matched with any remote item are
+	 * handled as well (see finish)
+	 */
+	private class ListSync {
+		// Local items which weren't matched with a remote item yet (by their IDs)
+		private Hashtable<Integer, SynchronizedModel> mIdsToItems = new Hashtable<Integer, SynchronizedModel>();
+		
+		public ListSync(List<? extends SynchronizedModel> localItems) {
+			// First, create a mapping of local item IDs (so we could quickly find items later on)
+			for (int i = 0; i < localItems.size(); i++) {
+				mIdsToItems.put(new Integer(localItems.get(i).id), localItems.get(i));
+			}
 		}
 		
-		// Now, traverse through all of the remaining local items (which do not have a remote copy)
-		Enumeration<SynchronizedModel> e = idsToItems.elements();
+		/**
+		 * Syncs a part of the remote items
+		 */
+		public void syncRemoteItems(List<? extends SynchronizedModel> remoteItems) throws TodoistServerException, InvalidDateStringException {
+			for (int i = 0; i < remoteItems.size(); i++) {
+				SynchronizedModel remoteItem = remoteItems.get(i);
+				SynchronizedModel localItem = mIdsToItems.get(new Integer(remoteItem.id)); // Even if no matching local item exists, we know how to handle it
+				
+				SyncResult syncResult = checkItemsForSync(localItem, remoteItem);
+				
+				//Log.d(TAG, String.format("SyncResult: %s; Local item: %s; Remote item: %s;",
+				//		syncResult.toString(), (localItem != null ? localItem.toString() : "<null>"), remoteItem.toString()));
+				
+				recordSyncResult(remoteItem, syncResult);
+				
+				handleSyncResult(localItem, remoteItem, syncResult, null);
+				
+				// This is done so we'll know which local items were dealt with (so afterwards
+				// we'll traverse all of the local items which do not have a remote copy)
+				mIdsToItems.remove(new Integer(remoteItem.id));
+			}
+		}
 		
-		while (e.hasMoreElements()) {
-			SynchronizedModel localItem = e.nextElement();
-			SyncResult syncResult = checkItemsForSync(localItem, null /* No remote copy exists */);
+		/**
+		 * Handles the remaining local items (which do not have a remote copy) - should be called
+		 * once all remote items were synced. Items added online (which are given new IDs) are replaced
+		 * locally in batches (see TodoistOfflineStorage.replaceChangedIds).
+		 */
+		public void finish() throws TodoistServerException, InvalidDateStringException {
+			Enumeration<SynchronizedModel> e = mIdsToItems.elements();
+			IdChanges idChanges = new IdChanges();
 			
-			//Log.d(TAG, String.format("SyncResult: %s; Local item: %s; Remote item: <null>;",
-			//		syncResult.toString(), localItem.toString()));
-
+			try {
+				while (e.hasMoreElements()) {
+					SynchronizedModel localItem = e.nextElement();
+					SyncResult syncResult = checkItemsForSync(localItem, null /* No remote copy exists */);
+					
+					//Log.d(TAG, String.format("SyncResult: %s; Local item: %s; Remote item: <null>;",
+					//		syncResult.toString(), localItem.toString()));
+					
+					recordSyncResult(localItem, syncResult);
+					
+					handleSyncResult(localItem, null, syncResult, idChanges);
+					
+					if (idChanges.size() >= MAX_ID_CHANGES_PER_TRANSACTION) {
+						mStorage.replaceChangedIds(idChanges);
+						idChanges.clear();
+					}
+				}
+				
+			} finally {
+				// Even if we've stopped in the middle - since these items were already added online
+				mStorage.replaceChangedIds(idChanges);
+			}
 			
-			handleSyncResult(localItem, null, syncResult);
+			mIdsToItems.clear();
+		}
+	}
+	
+	private void recordSyncResult(SynchronizedModel item, SyncResult syncResult) {
+		SyncMetrics metrics = mSyncMetrics;
+		
+		if (metrics != null) {
+			metrics.recordSyncResult(item.getClass().getSimpleName(), syncResult.toString());
 		}
 	}
 	
@@ -1155,27 +1532,40 @@ public class TodoistClient {
 	 * @param localItem
 	 * @param remoteItem
 	 * @param syncResult
+	 * @param idChanges collects the items added online (see syncAddLocalToRemote)
 	 * 
 	 * @throws TodoistServerException in case of a connection error
 	 * @throws InvalidDateStringException in case of an invalid date string for a new/updated item
 	 */
-	private void handleSyncResult(SynchronizedModel localItem, SynchronizedModel remoteItem, SyncResult syncResult) throws TodoistServerException, InvalidDateStringException {
+	private void handleSyncResult(SynchronizedModel localItem, SynchronizedModel remoteItem, SyncResult syncResult, IdChanges idChanges) throws TodoistServerException, InvalidDateStringException {
+	    
+	    // The saved sync hash is always the remote copy's hash (computed before the remote copy is
+	    // modified, e.g. by having its due date calculated) - see SynchronizedModel.syncHash
+	    long remoteHash = (remoteItem != null ? remoteItem.computeSyncHash() : 0);
 	    
 	    try {
     		if (syncResult == SyncResult.ADD_LOCAL_TO_REMOTE) {
-    			syncAddLocalToRemote(localItem, remoteItem);
+    			// (The new row's hash is unknown - it's compared field by field on the next sync)
+    			syncAddLocalToRemote(localItem, remoteItem, idChanges);
     		} else if (syncResult == SyncResult.ADD_REMOTE_TO_LOCAL) {
     			syncAddRemoteToLocal(localItem, remoteItem);
+    			mStorage.setSyncHash(remoteItem, remoteHash);
     		} else if (syncResult == SyncResult.DELETE_LOCAL) {
     			syncDeleteLocal(localItem, remoteItem);
     		} else if (syncResult == SyncResult.DELETE_REMOTE) {
     			syncDeleteRemote(localItem, remoteItem);
     		} else if (syncResult == SyncResult.UPDATE_LOCAL_TO_REMOTE) {
     			syncUpdateLocalToRemote(localItem, remoteItem);
+    			// The remote copy was just updated - its new hash is unknown (the one saved before might
+    			// match the remote copy again, in case it's changed back remotely)
+    			mStorage.setSyncHash(localItem, 0);
     		} else if (syncResult == SyncResult.UPDATE_REMOTE_TO_LOCAL) {
     			syncUpdateRemoteToLocal(localItem, remoteItem);
-    		} else {
-    			// Do nothing
+    			mStorage.setSyncHash(remoteItem, remoteHash);
+    		} else if ((localItem != null) && (localItem.syncHash != remoteHash)) {
+    			// Do nothing - but since the local copy was found equal to the remote copy, save the
+    			// remote copy's hash (so the next syncs could compare them by hash)
+    			mStorage.setSyncHash(localItem, remoteHash);
     		}
     		
 	    } catch (TodoistServerException exception) {
@@ -1213,7 +1603,7 @@ public class TodoistClient {
 		} else if (remoteItem instanceof Item) {
 		    Item item = (Item)remoteItem;
 		    if ((item.hasDueDateString()) &&
-		            ((item.dueDate == null) || (item.dueDate.getTime() == 0))) {
+		            (!item.hasDueDate())) {
 		        // The date string isn't empty, but the due date is empty -
 		        // Try and recalculate the date
 		        item.calculateFirstDueDate(mUser.dateFormat, mUser.timezoneOffsetMinutes);
@@ -1246,7 +1636,7 @@ public class TodoistClient {
 		
 		if (localItem instanceof Project) {
 			// Update project remotely
-			Project onlineProject = TodoistServer.updateProject(mUser, (Project)localItem);
+			Project onlineProject = mServer.updateProject(mUser, (Project)localItem);
 			mStorage.addOrUpdateProject(onlineProject, (Project)localItem);
 			
 		} else if (localItem instanceof Item) {
@@ -1265,28 +1655,28 @@ public class TodoistClient {
 					// left unmodified), instead of marking the remote copy as complete,
 					// we simply update its next recurring date
 					local.completed = false;
-					onlineItem = TodoistServer.updateRecurringDate(mUser, local);
+					onlineItem = mServer.updateRecurringDate(mUser, local);
 					mStorage.addOrUpdateItem(onlineItem, local); // Save new due date
 						
 						
 				} else {
-					TodoistServer.completeItems(mUser, items);
+					mServer.completeItems(mUser, items);
 					remote.completed = local.completed;
 				}
 				
 			} else if ((!local.completed) && (remote.completed)) {
 				// Item was uncompleted
-				TodoistServer.uncompleteItems(mUser, items);
+				mServer.uncompleteItems(mUser, items);
 				remote.completed = local.completed;
 			}
 			
 			if (local.compareTo(remote) != 0) {
 				// Local item is (still) different than remote item - update remote item regulary
 				this.convertItemLabelIdsIntoNames((Item)localItem); // Make it so that the item's content contains all of the @label's
-				onlineItem = TodoistServer.updateItem(mUser, (Item)localItem);
+				onlineItem = mServer.updateItem(mUser, (Item)localItem);
 				
 				if ((onlineItem.dateString != null) && (onlineItem.dateString.length() > 0) &&
-				        ((onlineItem.dueDate == null) || (onlineItem.dueDate.getTime() == 0))) {
+				        (!onlineItem.hasDueDate())) {
 				    // The date string isn't empty, but the due date is empty -
 				    // Try and recalculate the date
 				    onlineItem.calculateFirstDueDate(mUser.dateFormat, mUser.timezoneOffsetMinutes);
@@ -1307,7 +1697,7 @@ public class TodoistClient {
 			// So we'll call getLabels API and see what is the original label name (we'll
 			// compare the labels by ID).
 			
-			ArrayList<Label> labels = TodoistServer.getLabels(mUser);
+			ArrayList<Label> labels = mServer.getLabels(mUser);
 			Label updatedLabel = (Label)localItem;
 			
 			// TODO: If several labels were updated at once, this method will be called several times,
@@ -1322,12 +1712,12 @@ public class TodoistClient {
 					if (onlineLabel.colorIndex != updatedLabel.colorIndex) {
 						// Update label color
 						onlineLabel.colorIndex = updatedLabel.colorIndex;
-						TodoistServer.updateLabelColor(mUser, onlineLabel);
+						mServer.updateLabelColor(mUser, onlineLabel);
 					}
 					
 					if (!onlineLabel.name.equalsIgnoreCase(updatedLabel.name)) {
 						// Update label name
-						TodoistServer.updateLabel(mUser, onlineLabel.name, updatedLabel.name);
+						mServer.updateLabel(mUser, onlineLabel.name, updatedLabel.name);
 					}
 					
 					updatedLabel.dirtyState = DirtyState.UNMODIFIED;
@@ -1339,7 +1729,7 @@ public class TodoistClient {
 			
 		} else if (localItem instanceof Note) {
 			// Update note remotely
-			TodoistServer.updateNote(mUser, (Note)localItem);
+			mServer.updateNote(mUser, (Note)localItem);
 			
 			// Just update the note's dirty state to unmodified
 			Note note = (Note)localItem;
@@ -1359,21 +1749,21 @@ public class TodoistClient {
 	private void syncDeleteRemote(SynchronizedModel localItem, SynchronizedModel remoteItem) throws TodoistServerException {
 		
 		if (localItem instanceof Project) {
-			TodoistServer.deleteProject(mUser, (Project)localItem);
+			mServer.deleteProject(mUser, (Project)localItem);
 			mStorage.deleteProject((Project)localItem);
 			
 		} else if (localItem instanceof Item) {
 			ArrayList<Item> items = new ArrayList<Item>();
 			items.add((Item)localItem);
-			TodoistServer.deleteItems(mUser, items);
+			mServer.deleteItems(mUser, items);
 			mStorage.deleteItem((Item)localItem);
 			
 		} else if (localItem instanceof Label) {
-			TodoistServer.deleteLabel(mUser, ((Label)localItem).name);
+			mServer.deleteLabel(mUser, ((Label)localItem).name);
 			mStorage.deleteLabel((Label)localItem);
 			
 		} else if (localItem instanceof Note) {
-			TodoistServer.deleteNote(mUser, (Note)localItem);
+			mServer.deleteNote(mUser, (Note)localItem);
 			mStorage.deleteNote((Note)localItem);
 		}
 	}
@@ -1414,7 +1804,7 @@ public class TodoistClient {
 		} else if (remoteItem instanceof Item) {
 		    Item item = (Item)remoteItem;
 		    if ((item.hasDueDateString()) &&
-		            ((item.dueDate == null) || (item.dueDate.getTime() == 0))) {
+		            (!item.hasDueDate())) {
 		        // The date string isn't empty, but the due date is empty -
 		        // Try and recalculate the date
 		        item.calculateFirstDueDate(mUser.dateFormat, mUser.timezoneOffsetMinutes);
@@ -1437,41 +1827,49 @@ public class TodoistClient {
 	 * updates the local copy (e.g. with new ID, new dirty state - unmodified)
 	 * @param localItem
 	 * @param remoteItem
+	 * @param idChanges if given, the local copy isn't updated right away - but is added to it instead
+	 * (so it'll be replaced along with the rest of the added items)
 	 * @throws TodoistServerException
 	 */
-	private void syncAddLocalToRemote(SynchronizedModel localItem, SynchronizedModel remoteItem) throws TodoistServerException {
+	private void syncAddLocalToRemote(SynchronizedModel localItem, SynchronizedModel remoteItem, IdChanges idChanges) throws TodoistServerException {
+		SynchronizedModel onlineModel = null;
 		
 		if (localItem instanceof Project) {
-			Project onlineProject = TodoistServer.addProject(mUser, (Project)localItem);
-			// Update project (which includes a new ID assigned by online Todoist server)
-			mStorage.addOrUpdateProject(onlineProject, (Project)localItem);
+			onlineModel = mServer.addProject(mUser, (Project)localItem);
 			
 		} else if (localItem instanceof Item) {
 			Item local = (Item)localItem;
 			this.convertItemLabelIdsIntoNames(local); // Make it so that the item's content contains all of the @label's
 			
-			Item onlineItem = TodoistServer.addItem(mUser, local);
+			Item onlineItem = mServer.addItem(mUser, local);
 			
 			if ((onlineItem.dateString != null) && (onlineItem.dateString.length() > 0) &&
-			        ((onlineItem.dueDate == null) || (onlineItem.dueDate.getTime() == 0))) {
+			        (!onlineItem.hasDueDate())) {
 			    // The date string isn't empty, but the due date is empty -
 			    // Try and recalculate the date
 			    onlineItem.calculateFirstDueDate(mUser.dateFormat, mUser.timezoneOffsetMinutes);
 		        Log.e("Budoist", String.format("syncAddLocalToRemote: Calculating due date: %s", onlineItem.toString()));
 			}
 			
-			// Update item (which includes a new ID assigned by online Todoist server)
-			mStorage.addOrUpdateItem(onlineItem, local);
+			onlineModel = onlineItem;
 			
 		} else if (localItem instanceof Label) {
-			Label onlineLabel = TodoistServer.addLabel(mUser, (Label)localItem);
-			// Update label (which includes a new ID assigned by online Todoist server)
-			mStorage.addOrUpdateLabel(onlineLabel, (Label)localItem);
+			onlineModel = mServer.addLabel(mUser, (Label)localItem);
 		
 		} else if (localItem instanceof Note) {
-			Note onlineNote = TodoistServer.addNote(mUser, (Note)localItem);
-			// Update note (which includes a new ID assigned by online Todoist server)
-			mStorage.addOrUpdateNote(onlineNote, (Note)localItem);
+			onlineModel = mServer.addNote(mUser, (Note)localItem);
+			
+		} else {
+			return;
+		}
+		
+		// Update the local copy (which includes a new ID assigned by online Todoist server)
+		if (idChanges != null) {
+			idChanges.add(localItem, onlineModel);
+		} else {
+			IdChanges changes = new IdChanges();
+			changes.add(localItem, onlineModel);
+			mStorage.replaceChangedIds(changes);
 		}
 	}
 	
@@ -1519,8 +1917,6 @@ public class TodoistClient {
 			return SyncResult.DELETE_REMOTE;
 		}
 		
-		boolean areEqual = (((Comparable)localItem).compareTo(remoteItem) == 0 ? true : false);
-
 		if (localItem.dirtyState != DirtyState.UNMODIFIED) {
 			// Local copy has been modified (and we hadn't had a chance to update the online copy)
 			// Note: In case both remote and local copy have been modified, we prefer to use offline
@@ -1529,6 +1925,14 @@ public class TodoistClient {
 			return SyncResult.UPDATE_LOCAL_TO_REMOTE;
 		} else {
 			
+			if (localItem.matchesSyncHash(remoteItem)) {
+				// The remote copy has the same hash the local copy was saved with - nothing to update
+				// (no need to compare them field by field)
+				return SyncResult.DO_NOTHING;
+			}
+			
+			boolean areEqual = (((Comparable)localItem).compareTo(remoteItem) == 0 ? true : false);
+			
 			if (areEqual) {
 				// Items are equal - nothing to update
 				return SyncResult.DO_NOTHING;
@@ -1673,7 +2077,7 @@ public class TodoistClient {
 		TimeZone tz = TimeZone.getDefault();
 		String timezone = tz.getID();
 		
-		mUser = TodoistServer.register(email, fullName, password, timezone);
+		mUser = mServer.register(email, fullName, password, timezone);
 		
 		// If we've reached this far, this means registration was successful - save user information
 		mUser.password = password; // Since password is not returned from server
@@ -1708,9 +2112,9 @@ public class TodoistClient {
 	 */
 	public void login(String email, String passwordOrOAuth2Token, boolean googleLogin) throws TodoistServerException {
 	    if (googleLogin) {
-	        mUser = TodoistServer.googleLogin(email, passwordOrOAuth2Token);
+	        mUser = mServer.googleLogin(email, passwordOrOAuth2Token);
 	    } else {
-	        mUser = TodoistServer.login(email, passwordOrOAuth2Token);
+	        mUser = mServer.login(email, passwordOrOAuth2Token);
 	    }
 		
 		// If we've reached this far, this means login was successful - save user information
@@ -1722,7 +2126,7 @@ public class TodoistClient {
 			mUser = localUser; // Save local user as the "real" updated user
 			
 			// Update the remote user details
-			TodoistServer.updateUser(localUser);
+			mServer.updateUser(localUser);
 			
 			mStorage.setUserProfileModified(false); // Profile is no longer modified
 			
@@ -1791,6 +2195,22 @@ public class TodoistClient {
 		return mStorage;
 	}
 	
+	/**
+	 * Returns the feed of changes made to the local storage (e.g. by syncing)
+	 * @return
+	 */
+	public StorageChangeFeed getChangeFeed() {
+		return mStorage.getChangeFeed();
+	}
+	
+	/**
+	 * Returns the coordinator of the startup/periodic syncs
+	 * @return
+	 */
+	public SyncCoordinator getSyncCoordinator() {
+		return mSyncCoordinator;
+	}
+	
 	public boolean isCurrentlySyncing() {
 		return mIsCurrentlySyncing;
 	}
@@ -1,17 +1,24 @@
 package budo.budoist.services;
 
+import java.lang.reflect.Method;
+
 import budo.budoist.models.Query;
+import budo.budoist.models.SynchronizedModel.DirtyState;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.os.Build;
 import android.util.Log;
 
 public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 	private static final String TAG = "TodoistDatabaseHelper";
 	
+	private static final int READ_CONNECTION_COUNT = 2;
+	
 	private static final String CREATE_PROJECTS_TABLE = "create table " +
 		DBConsts.PROJECTS_TABLE_NAME + " (" +
 			DBConsts.PROJECTS_ID + " int not null unique, " +
@@ -20,7 +27,8 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 			DBConsts.PROJECTS_INDENT + " int, " +
 			DBConsts.PROJECTS_ORDER + " int, " +
 			DBConsts.PROJECTS_ITEM_COUNT + " int, " +
-			DBConsts.PROJECTS_DIRTY_STATE + " text not null" +
+			DBConsts.PROJECTS_DIRTY_STATE + " int not null, " +
+			DBConsts.PROJECTS_SYNC_HASH + " long not null default 0" +
 		");";
 
 	private static final String CREATE_ITEMS_TABLE = "create table " +
@@ -35,7 +43,8 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 			DBConsts.ITEMS_PRIORITY + " int, " +
 			DBConsts.ITEMS_NOTE_COUNT + " int, " +
 			DBConsts.ITEMS_COMPLETED + " int not null, " +
-			DBConsts.ITEMS_DIRTY_STATE + " text not null" +
+			DBConsts.ITEMS_DIRTY_STATE + " int not null, " +
+			DBConsts.ITEMS_SYNC_HASH + " long not null default 0" +
 		");";
 	
 	private static final String CREATE_NOTES_TABLE = "create table " +
@@ -44,7 +53,8 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 			DBConsts.NOTES_ITEM_ID + " int not null, " +
 			DBConsts.NOTES_CONTENT + " text not null, " +
 			DBConsts.NOTES_POST_DATE + " long, " +
-			DBConsts.NOTES_DIRTY_STATE + " text not null" +
+			DBConsts.NOTES_DIRTY_STATE + " int not null, " +
+			DBConsts.NOTES_SYNC_HASH + " long not null default 0" +
 		");";
 
 	private static final String CREATE_LABELS_TABLE = "create table " +
@@ -53,7 +63,8 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 			DBConsts.LABELS_NAME + " text not null, " +
 			DBConsts.LABELS_COLOR + " int, " +
 			DBConsts.LABELS_COUNT + " int not null, " +
-			DBConsts.LABELS_DIRTY_STATE + " text not null" +
+			DBConsts.LABELS_DIRTY_STATE + " int not null, " +
+			DBConsts.LABELS_SYNC_HASH + " long not null default 0" +
 		");";
 	
 	private static final String CREATE_ITEMS_TO_LABELS_TABLE = "create table " +
@@ -69,6 +80,39 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 			DBConsts.QUERIES_QUERY + " text not null" +
 		");";
 	
+	private static final String CREATE_SYNC_HISTORY_TABLE = "create table " +
+		DBConsts.SYNC_HISTORY_TABLE_NAME + " (" +
+			DBConsts.SYNC_HISTORY_ID + " integer primary key autoincrement, " +
+			DBConsts.SYNC_HISTORY_START_TIME + " long not null, " +
+			DBConsts.SYNC_HISTORY_DURATION + " long not null, " +
+			DBConsts.SYNC_HISTORY_RESULT + " text not null, " +
+			DBConsts.SYNC_HISTORY_METRICS + " text not null" +
+		");";
+	
+	private static final String CREATE_BACKUP_CHANGES_TABLE = "create table " +
+		DBConsts.BACKUP_CHANGES_TABLE_NAME + " (" +
+			DBConsts.BACKUP_CHANGES_TABLE + " text not null, " +
+			DBConsts.BACKUP_CHANGES_KEY + " int not null, " +
+			"primary key (" + DBConsts.BACKUP_CHANGES_TABLE + ", " + DBConsts.BACKUP_CHANGES_KEY + ")" +
+		");";
+	
+	// Tables (and their key columns) whose changes are tracked for incremental backups
+	public static final String[] BACKUP_TABLES = new String[] {
+			DBConsts.PROJECTS_TABLE_NAME,
+			DBConsts.LABELS_TABLE_NAME,
+			DBConsts.ITEMS_TABLE_NAME,
+			DBConsts.ITEMS_TO_LABELS_TABLE_NAME,
+			DBConsts.NOTES_TABLE_NAME
+		};
+	
+	public static final String[] BACKUP_TABLE_KEYS = new String[] {
+			DBConsts.PROJECTS_ID,
+			DBConsts.LABELS_ID,
+			DBConsts.ITEMS_ID,
+			DBConsts.ITEMS_TO_LABELS_ITEM_ID, // Item labels are backed up per item
+			DBConsts.NOTES_ID
+		};
+	
 	private static final String[] INITIAL_QUERIES_DESCRIPTIONS = new String[] {
 			"Overdue and upcoming",
 			"Overdue, upcoming and important",
@@ -81,9 +125,21 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 			"p1, p2, p3"
 		};
 
+	private Context mContext;
+	private String mName;
+	private CursorFactory mFactory;
+	
+	private volatile boolean mIsWriteAheadLogging = false; // Read by other threads (see isWriteAheadLogging)
+	private SQLiteDatabase[] mReadConnections = new SQLiteDatabase[READ_CONNECTION_COUNT];
+	private int mNextReadConnection = 0;
+
 	public TodoistDatabaseHelper(Context context, String name, CursorFactory factory, int version) {
 		super(context, name, factory, version);
 		
+		mContext = context;
+		mName = name;
+		mFactory = factory;
+		
 		Log.d(TAG, String.format("Creating TodoistDatabaseHelper; version: %d", version));
 	}
 	
@@ -110,6 +166,11 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 			Log.d(TAG, String.format("Executing query: %s", CREATE_QUERIES_TABLE));
 			db.execSQL(CREATE_QUERIES_TABLE);
 			
+			Log.d(TAG, String.format("Executing query: %s", CREATE_SYNC_HISTORY_TABLE));
+			db.execSQL(CREATE_SYNC_HISTORY_TABLE);
+			
+			createBackupChanges(db);
+			
 			// Insert some initial queries
 			
 			for (int i = 0; i < INITIAL_QUERIES.length; i++) {
@@ -127,6 +188,115 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 	
+	/**
+	 * Creates the backup changes table, along with triggers which record any row inserted/updated/deleted
+	 * (as part of the same statement - so no additional commits are made)
+	 * @param db
+	 */
+	private void createBackupChanges(SQLiteDatabase db) {
+		Log.d(TAG, String.format("Executing query: %s", CREATE_BACKUP_CHANGES_TABLE));
+		db.execSQL(CREATE_BACKUP_CHANGES_TABLE);
+		
+		for (int i = 0; i < BACKUP_TABLES.length; i++) {
+			createBackupTriggers(db, i);
+		}
+	}
+	
+	/**
+	 * Drops the backup triggers, so changes made to the backup tables aren't recorded - e.g. while
+	 * restoring data, after which the next backup is a full one anyway. Should be followed by
+	 * enableBackupTriggers (if it isn't, e.g. since the process was killed, the triggers are
+	 * re-created the next time the database is opened).
+	 * @param db
+	 */
+	public void disableBackupTriggers(SQLiteDatabase db) {
+		for (int i = 0; i < BACKUP_TABLES.length; i++) {
+			db.execSQL(String.format("DROP TRIGGER IF EXISTS %s_backup_insert;", BACKUP_TABLES[i]));
+			db.execSQL(String.format("DROP TRIGGER IF EXISTS %s_backup_update;", BACKUP_TABLES[i]));
+			db.execSQL(String.format("DROP TRIGGER IF EXISTS %s_backup_delete;", BACKUP_TABLES[i]));
+		}
+	}
+	
+	/**
+	 * Re-creates the backup triggers dropped by disableBackupTriggers (existing triggers are kept)
+	 * @param db
+	 */
+	public void enableBackupTriggers(SQLiteDatabase db) {
+		for (int i = 0; i < BACKUP_TABLES.length; i++) {
+			createBackupTriggers(db, i);
+		}
+	}
+	
+	/**
+	 * Creates the triggers which record the changes made to one of the backup tables (unless they
+	 * already exist)
+	 * @param db
+	 * @param tableIndex index into BACKUP_TABLES
+	 */
+	private void createBackupTriggers(SQLiteDatabase db, int tableIndex) {
+		String table = BACKUP_TABLES[tableIndex];
+		String record = String.format("INSERT OR REPLACE INTO %s (%s, %s) VALUES ('%s', %%s.%s);",
+				DBConsts.BACKUP_CHANGES_TABLE_NAME, DBConsts.BACKUP_CHANGES_TABLE, DBConsts.BACKUP_CHANGES_KEY,
+				table, BACKUP_TABLE_KEYS[tableIndex]);
+		
+		db.execSQL(String.format("CREATE TRIGGER IF NOT EXISTS %s_backup_insert AFTER INSERT ON %s BEGIN %s END;",
+				table, table, String.format(record, "new")));
+		// Record the old key as well, in case it was changed (e.g. temp IDs replaced with real ones)
+		db.execSQL(String.format("CREATE TRIGGER IF NOT EXISTS %s_backup_update AFTER UPDATE ON %s BEGIN %s %s END;",
+				table, table, String.format(record, "old"), String.format(record, "new")));
+		db.execSQL(String.format("CREATE TRIGGER IF NOT EXISTS %s_backup_delete AFTER DELETE ON %s BEGIN %s END;",
+				table, table, String.format(record, "old")));
+	}
+	
+	/**
+	 * Rebuilds a table whose dirty state column was saved as the DirtyState's name (text), saving it as
+	 * the DirtyState's code (int) instead. Rows keep their values otherwise.
+	 * @param db
+	 * @param table
+	 * @param createTable the table's (current) create statement
+	 */
+	private void upgradeDirtyStateColumn(SQLiteDatabase db, String table, String createTable) {
+		String oldTable = table + "_v3";
+		
+		// Any backup triggers are renamed along with the table (and dropped along with it)
+		db.execSQL(String.format("ALTER TABLE %s RENAME TO %s", table, oldTable));
+		db.execSQL(createTable);
+		
+		StringBuilder columns = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		
+		Cursor c = db.rawQuery(String.format("PRAGMA table_info(%s)", oldTable), null);
+		int nameIndex = c.getColumnIndex("name");
+		
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			String column = c.getString(nameIndex);
+			
+			if (columns.length() > 0) {
+				columns.append(", ");
+				values.append(", ");
+			}
+			
+			columns.append(column);
+			
+			if (column.equals(DBConsts.ITEMS_DIRTY_STATE)) {
+				values.append("CASE ").append(column);
+				
+				for (DirtyState state : DirtyState.values()) {
+					values.append(String.format(" WHEN '%s' THEN %d", state.toString(), state.getCode()));
+				}
+				
+				values.append(String.format(" ELSE %d END", DirtyState.UNMODIFIED.getCode()));
+			} else {
+				values.append(column);
+			}
+		}
+		
+		c.close();
+		
+		db.execSQL(String.format("INSERT INTO %s (%s) SELECT %s FROM %s", table, columns, values, oldTable));
+		db.execSQL(String.format("DROP TABLE %s", oldTable));
+	}
+	
 	private void writeQuery(Query newQuery, SQLiteDatabase db) {
 		ContentValues values = new ContentValues();
 		
@@ -138,6 +308,73 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 		db.replace(DBConsts.QUERIES_TABLE_NAME, null, values);
 	}
 	
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		
+		if (db.isReadOnly()) return;
+		
+		// In case the backup triggers were left disabled (see disableBackupTriggers)
+		enableBackupTriggers(db);
+		
+		// Write-ahead logging lets readers (using other connections) run while a write is in progress
+		// (e.g. while syncing). Only supported from Android 3.0 (API level 11) - older versions simply
+		// keep their current journal mode.
+		mIsWriteAheadLogging = false;
+		
+		if (Build.VERSION.SDK_INT >= 11) {
+			try {
+				// Called by reflection, since we're built against an older API level
+				Method enableWriteAheadLogging = SQLiteDatabase.class.getMethod("enableWriteAheadLogging");
+				mIsWriteAheadLogging = (Boolean)enableWriteAheadLogging.invoke(db);
+			} catch (Exception ex) {
+				Log.e(TAG, "Could not enable write-ahead logging", ex);
+			}
+		}
+		
+		Log.d(TAG, String.format("onOpen: write-ahead logging: %b", mIsWriteAheadLogging));
+	}
+	
+	/**
+	 * Returns whether or not write-ahead logging was successfully enabled (only valid once the
+	 * writable database has been opened)
+	 * @return
+	 */
+	public boolean isWriteAheadLogging() {
+		return mIsWriteAheadLogging;
+	}
+	
+	/**
+	 * Returns one of the read-only connections (in a round-robin manner). Should only be used
+	 * in write-ahead logging mode - otherwise readers will fail while the writer is committing.
+	 * @return
+	 */
+	public synchronized SQLiteDatabase getReadConnection() {
+		int index = mNextReadConnection;
+		mNextReadConnection = (mNextReadConnection + 1) % READ_CONNECTION_COUNT;
+		
+		SQLiteDatabase db = mReadConnections[index];
+		
+		if ((db == null) || (!db.isOpen())) {
+			db = SQLiteDatabase.openDatabase(mContext.getDatabasePath(mName).getPath(), mFactory, SQLiteDatabase.OPEN_READONLY);
+			mReadConnections[index] = db;
+		}
+		
+		return db;
+	}
+	
+	@Override
+	public synchronized void close() {
+		for (int i = 0; i < mReadConnections.length; i++) {
+			if (mReadConnections[i] != null) {
+				mReadConnections[i].close();
+				mReadConnections[i] = null;
+			}
+		}
+		
+		super.close();
+	}
+	
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion,
 			int newVersion) {
@@ -145,11 +382,63 @@ public class TodoistDatabaseHelper extends SQLiteOpenHelper {
 				+" to "+newVersion
 				+", which will destroy all if older version schema is not supported");
 		
+		if (oldVersion >= 1) {
+			// Supported schema - upgrade it step by step (without losing any data)
+			
+			if (oldVersion < 2) {
+				// Version 2: Sync history table
+				Log.d(TAG, String.format("Executing query: %s", CREATE_SYNC_HISTORY_TABLE));
+				db.execSQL(CREATE_SYNC_HISTORY_TABLE);
+			}
+			
+			if (oldVersion < 3) {
+				// Version 3: Backup changes table (existing rows will be part of the next full backup)
+				createBackupChanges(db);
+			}
+			
+			if (oldVersion < 4) {
+				// Version 4: Dirty states are saved as codes instead of names
+				String[] tables = new String[] { DBConsts.PROJECTS_TABLE_NAME, DBConsts.ITEMS_TABLE_NAME, DBConsts.NOTES_TABLE_NAME, DBConsts.LABELS_TABLE_NAME };
+				String[] createTables = new String[] { CREATE_PROJECTS_TABLE, CREATE_ITEMS_TABLE, CREATE_NOTES_TABLE, CREATE_LABELS_TABLE };
+				
+				for (int i = 0; i < tables.length; i++) {
+					upgradeDirtyStateColumn(db, tables[i], createTables[i]);
+				}
+				
+				// Recreate the backup triggers of the rebuilt tables
+				for (int i = 0; i < BACKUP_TABLES.length; i++) {
+					if (!BACKUP_TABLES[i].equals(DBConsts.ITEMS_TO_LABELS_TABLE_NAME)) {
+						createBackupTriggers(db, i);
+					}
+				}
+			}
+			
+			if (oldVersion < 5) {
+				// Version 5: Sync hash columns - existing rows get an unknown hash (and are compared field by
+				// field on their next sync). Tables rebuilt by the version 4 upgrade already have them.
+				if (oldVersion == 4) {
+					String[] tables = new String[] { DBConsts.PROJECTS_TABLE_NAME, DBConsts.ITEMS_TABLE_NAME, DBConsts.NOTES_TABLE_NAME, DBConsts.LABELS_TABLE_NAME };
+					String[] columns = new String[] { DBConsts.PROJECTS_SYNC_HASH, DBConsts.ITEMS_SYNC_HASH, DBConsts.NOTES_SYNC_HASH, DBConsts.LABELS_SYNC_HASH };
+					
+					for (int i = 0; i < tables.length; i++) {
+						String query = String.format("ALTER TABLE %s ADD COLUMN %s long not null default 0", tables[i], columns[i]);
+						Log.d(TAG, String.format("Executing query: %s", query));
+						db.execSQL(query);
+					}
+				}
+			}
+			
+			return;
+		}
+		
 		db.execSQL("drop table if exists " + DBConsts.PROJECTS_TABLE_NAME);
 		db.execSQL("drop table if exists " + DBConsts.ITEMS_TABLE_NAME);
 		db.execSQL("drop table if exists " + DBConsts.NOTES_TABLE_NAME);
 		db.execSQL("drop table if exists " + DBConsts.LABELS_TABLE_NAME);
 		db.execSQL("drop table if exists " + DBConsts.ITEMS_TO_LABELS_TABLE_NAME);
+		db.execSQL("drop table if exists " + DBConsts.QUERIES_TABLE_NAME);
+		db.execSQL("drop table if exists " + DBConsts.SYNC_HISTORY_TABLE_NAME);
+		db.execSQL("drop table if exists " + DBConsts.BACKUP_CHANGES_TABLE_NAME);
 		
 		onCreate(db);
 	}
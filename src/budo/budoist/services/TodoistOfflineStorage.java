@@ -1,17 +1,23 @@
 package budo.budoist.services;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.sql.Types;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -19,6 +25,9 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import android.app.Activity;
 import android.content.ContentValues;
 import android.content.Context;
@@ -26,17 +35,23 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Environment;
 import android.util.Log;
+import budo.budoist.debug.MainThreadIoDetector;
+import budo.budoist.debug.Trace;
 import budo.budoist.models.Item;
 import budo.budoist.models.Label;
 import budo.budoist.models.Note;
 import budo.budoist.models.Project;
 import budo.budoist.models.Query;
+import budo.budoist.models.SynchronizedModel;
 import budo.budoist.models.User;
 import budo.budoist.models.SynchronizedModel.DirtyState;
 import budo.budoist.models.User.DateFormat;
 import budo.budoist.models.User.TimeFormat;
+import budo.budoist.services.StorageChangeFeed.ChangeType;
 
 /**
  * Holds all Todoist-related information for offline use (i.e. saves in phone storage)
@@ -100,38 +115,84 @@ public class TodoistOfflineStorage {
 	private final static String PREFERENCES_SYNC_FREQUENCY = "sync.sync_frequency";
 	private final static String PREFERENCES_SYNC_ON_STARTUP = "sync.sync_on_startup";
 	private final static String PREFERENCES_SYNC_ON_EXIT = "sync.sync_on_exit";
+	private final static String PREFERENCES_SYNC_STARTUP_FRESHNESS = "sync.startup_freshness";
 	
 	private final static int DEFAULT_SYNC_FREQUENCY = 240;
+	private final static int DEFAULT_STARTUP_SYNC_FRESHNESS = 15;
 	
 	private final static String PREFERENCES_BACKUP = "backup";
 	private final static String PREFERENCES_BACKUP_LAST_BACKUP_TIME = "backup.last_backup_time";
 	private final static String PREFERENCES_BACKUP_FREQUENCY = "backup.backup_frequency";
 	private final static String PREFERENCES_BACKUP_PATH = "backup.backup_path";
+	// The last backup of the current backup chain (a full backup followed by incremental backups)
+	private final static String PREFERENCES_BACKUP_CHAIN_LAST_FILE = "backup.chain_last_file";
+	private final static String PREFERENCES_BACKUP_CHAIN_LENGTH = "backup.chain_length";
+	
+	private final static int MAX_INCREMENTAL_BACKUPS = 10; // Incremental backups made before a new full backup
 	
 	private final static int DEFAULT_BACKUP_FREQUENCY = 0; // Never
+	
+	private final static int MAX_SYNC_HISTORY = 50; // Number of recent sync runs to keep
+	
+	private final static int PAGED_ITEMS_PAGE_SIZE = 100;
+	private final static int PAGED_ITEMS_MAX_PAGES = 5; // Maximal number of pages kept in memory
+	// How close to a page edge (in items) the neighboring page is loaded ahead of time
+	private final static int PAGED_ITEMS_PREFETCH_DISTANCE = 25;
+	
+	private final static int RESTORE_BATCH_SIZE = 500; // Rows inserted per transaction when restoring
 
 	private TodoistDatabaseHelper mDbHelper = null;
+	private volatile boolean mUseReadConnections = true;
 	private Context mContext = null;
+	private StorageChangeFeed mChangeFeed = new StorageChangeFeed();
+	private int mNextTempId = 0; // The next temp ID to be given (0 - not known yet)
+	
+	private LabelIndex mLabelIndex = null; // Loaded when first used (null - not loaded)
+	private int mLabelIndexVersion = 0; // Incremented on every label change (see getLabelIndex)
+	private final Object mLabelIndexLock = new Object();
+	
+	private int mRowsWritten = 0; // Rows written since the storage was created (see getRowsWritten)
+	private Hashtable<String, Integer> mTableVersions = new Hashtable<String, Integer>(); // See getTableVersion
+	private final Object mRowsWrittenLock = new Object();
 
 	private static final String BACKUP_FILENAME_TEMPLATE = "todoist_backup";
+	private static final String BACKUP_MANIFEST_FILENAME = "backup_manifest.json";
+	private static final String BACKUP_CHANGES_SUFFIX = ".changes"; // Keys changed/deleted, in incremental backups
+	// Binary snapshot of the latest full backup (kept in the backup directory, for fast disaster recovery)
+	private static final String BACKUP_SNAPSHOT_FILENAME = "todoist_snapshot.bin";
+	
+	private static final String BACKUP_MANIFEST_TYPE = "type";
+	private static final String BACKUP_MANIFEST_PREVIOUS = "previous";
+	private static final String BACKUP_MANIFEST_CREATED = "created";
+	private static final String BACKUP_TYPE_FULL = "full";
+	private static final String BACKUP_TYPE_INCREMENTAL = "incremental";
+	
+	// Temp table of old-to-new ID pairs (used while replacing changed IDs)
+	private static final String ID_CHANGES_TABLE_NAME = "id_changes";
+	private static final String ID_CHANGES_OLD_ID = "old_id";
+	private static final String ID_CHANGES_NEW_ID = "new_id";
 	
 	
 	// Definitions of columns for tables (used while backing up and restoration)
 	
 	private static String[] PROJECTS_COLUMN_NAMES = { DBConsts.PROJECTS_ID, DBConsts.PROJECTS_NAME, DBConsts.PROJECTS_COLOR, DBConsts.PROJECTS_INDENT, DBConsts.PROJECTS_ITEM_COUNT, DBConsts.PROJECTS_ORDER, DBConsts.PROJECTS_DIRTY_STATE };
-	private static int[] PROJECTS_COLUMN_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.VARCHAR };
+	private static int[] PROJECTS_COLUMN_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER };
 	
 	private static String[] LABELS_COLUMN_NAMES = { DBConsts.LABELS_ID, DBConsts.LABELS_NAME, DBConsts.LABELS_COLOR, DBConsts.LABELS_COUNT, DBConsts.LABELS_DIRTY_STATE };
-	private static int[] LABELS_COLUMN_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.INTEGER, Types.VARCHAR };
+	private static int[] LABELS_COLUMN_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.INTEGER, Types.INTEGER };
 	
 	private static String[] ITEMS_COLUMN_NAMES = { DBConsts.ITEMS_ID, DBConsts.ITEMS_CONTENT, DBConsts.ITEMS_COMPLETED, DBConsts.ITEMS_DATE_STRING, DBConsts.ITEMS_DUE_DATE, DBConsts.ITEMS_INDENT, DBConsts.ITEMS_NOTE_COUNT, DBConsts.ITEMS_ORDER, DBConsts.ITEMS_PRIORITY, DBConsts.ITEMS_PROJECT_ID, DBConsts.ITEMS_DIRTY_STATE };
-	private static int[] ITEMS_COLUMN_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.BIGINT, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.VARCHAR };
+	private static int[] ITEMS_COLUMN_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.BIGINT, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER };
 				
 	private static String[] ITEMS_TO_LABELS_COLUMN_NAMES = { DBConsts.ITEMS_TO_LABELS_ITEM_ID, DBConsts.ITEMS_TO_LABELS_LABEL_ID };
 	private static int[] ITEMS_TO_LABELS_COLUMN_TYPES = { Types.INTEGER, Types.INTEGER };
 	
 	private static String[] NOTES_COLUMN_NAMES = { DBConsts.NOTES_ID, DBConsts.NOTES_CONTENT, DBConsts.NOTES_ITEM_ID, DBConsts.NOTES_POST_DATE, DBConsts.NOTES_DIRTY_STATE };
-	private static int[] NOTES_COLUMN_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.BIGINT, Types.VARCHAR };
+	private static int[] NOTES_COLUMN_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.BIGINT, Types.INTEGER };
+	
+	// Same order as TodoistDatabaseHelper.BACKUP_TABLES
+	private static String[][] BACKUP_COLUMN_NAMES = { PROJECTS_COLUMN_NAMES, LABELS_COLUMN_NAMES, ITEMS_COLUMN_NAMES, ITEMS_TO_LABELS_COLUMN_NAMES, NOTES_COLUMN_NAMES };
+	private static int[][] BACKUP_COLUMN_TYPES = { PROJECTS_COLUMN_TYPES, LABELS_COLUMN_TYPES, ITEMS_COLUMN_TYPES, ITEMS_TO_LABELS_COLUMN_TYPES, NOTES_COLUMN_TYPES };
 	
 	
     // What's the current sort mode for the item list
@@ -168,8 +229,542 @@ public class TodoistOfflineStorage {
   
 	
 	public TodoistOfflineStorage(Context context) {
+		this(context, null);
+	}
+	
+	/**
+	 * @param context
+	 * @param factory cursor factory used for all database connections (optional)
+	 */
+	public TodoistOfflineStorage(Context context, CursorFactory factory) {
 		mContext = context;
-		mDbHelper = new TodoistDatabaseHelper(mContext, DBConsts.DATABASE_NAME, null, DBConsts.DATABASE_VERSION);
+		mDbHelper = new TodoistDatabaseHelper(mContext, DBConsts.DATABASE_NAME, factory, DBConsts.DATABASE_VERSION);
+	}
+	
+	
+	/**
+	 * Returns the database connection to be used for reads - when the database is in write-ahead
+	 * logging mode, this is one of the read-only connections (so reads, e.g. by the UI, won't wait
+	 * for writes made by the sync process)
+	 * @return
+	 */
+	private SQLiteDatabase getReadDatabase() {
+		MainThreadIoDetector.onStorageAccess("read");
+		
+		SQLiteDatabase db = mDbHelper.getWritableDatabase();
+		
+		if ((!mUseReadConnections) || (!mDbHelper.isWriteAheadLogging())) {
+			return db;
+		}
+		
+		if (db.isDbLockedByCurrentThread()) {
+			// We're in the middle of a transaction - only the writer connection can see its changes
+			return db;
+		}
+		
+		return mDbHelper.getReadConnection();
+	}
+	
+	/**
+	 * Returns the database connection to be used for writes (and for reads which are part of a write)
+	 * @return
+	 */
+	private SQLiteDatabase getWriteDatabase() {
+		MainThreadIoDetector.onStorageAccess("write");
+		
+		return mDbHelper.getWritableDatabase();
+	}
+	
+	/**
+	 * Returns the feed of changes made to the storage (views subscribe to it in order to refresh
+	 * when their displayed entities change)
+	 * @return
+	 */
+	public StorageChangeFeed getChangeFeed() {
+		return mChangeFeed;
+	}
+	
+	/**
+	 * Adds or updates a row (by its ID), and records the change into the change feed
+	 * @param db
+	 * @param table
+	 * @param idColumn
+	 * @param id
+	 * @param values should include the ID column as well
+	 */
+	private void replaceRow(SQLiteDatabase db, String table, String idColumn, int id, ContentValues values) {
+		// Update first - so we'd know whether the row is new or not
+		if (db.update(table, values, idColumn + "=?", new String []{ String.valueOf(id) }) > 0) {
+			mChangeFeed.recordChange(table, ChangeType.UPDATED, id);
+		} else {
+			db.insert(table, null, values);
+			mChangeFeed.recordChange(table, ChangeType.INSERTED, id);
+		}
+		
+		countRowsWritten(table, 1);
+	}
+	
+	/**
+	 * Begins a transaction - changes recorded into the change feed during the transaction are
+	 * published only once it commits (see endTransaction)
+	 * @param db
+	 */
+	private void beginTransaction(SQLiteDatabase db) {
+		db.beginTransaction();
+		mChangeFeed.beginTransaction();
+	}
+	
+	/**
+	 * Marks the current transaction as successful
+	 * @param db
+	 */
+	private void setTransactionSuccessful(SQLiteDatabase db) {
+		db.setTransactionSuccessful();
+		mChangeFeed.setTransactionSuccessful();
+	}
+	
+	/**
+	 * Ends the current transaction - once the outermost transaction is committed, the changes
+	 * recorded during it are published (or dropped, in case it was rolled back)
+	 * @param db
+	 */
+	private void endTransaction(SQLiteDatabase db) {
+		boolean isEnded = false;
+		
+		try {
+			db.endTransaction();
+			isEnded = true;
+		} finally {
+			mChangeFeed.endTransaction(isEnded);
+		}
+	}
+	
+	/**
+	 * Deletes a row (by its ID), and records the change into the change feed
+	 * @param db
+	 * @param table
+	 * @param idColumn
+	 * @param id
+	 */
+	private void deleteRow(SQLiteDatabase db, String table, String idColumn, int id) {
+		int rows = db.delete(table, idColumn + "=?", new String []{ String.valueOf(id) });
+		
+		if (rows > 0) {
+			mChangeFeed.recordChange(table, ChangeType.DELETED, id);
+			countRowsWritten(table, rows);
+		}
+	}
+	
+	/**
+	 * Counts rows written into a table (see getRowsWritten), and increments the table's version (see
+	 * getTableVersion) - should be called for every write made to the Todoist data tables
+	 * @param table
+	 * @param rows
+	 */
+	private void countRowsWritten(String table, int rows) {
+		if (rows <= 0) return;
+		
+		synchronized (mRowsWrittenLock) {
+			mRowsWritten += rows;
+			mTableVersions.put(table, getTableVersion(table) + 1);
+		}
+	}
+	
+	/**
+	 * Returns the version of a Todoist data table - incremented whenever any of the table's rows are
+	 * written through this storage, so a cached copy of the table is known to be stale (see
+	 * SyncSnapshot.refresh)
+	 * @param table
+	 * @return
+	 */
+	public int getTableVersion(String table) {
+		synchronized (mRowsWrittenLock) {
+			Integer version = mTableVersions.get(table);
+			return (version != null ? version : 0);
+		}
+	}
+	
+	/**
+	 * Returns the number of rows changed by the last INSERT/UPDATE/DELETE statement made (on the
+	 * current thread) - not including rows changed by triggers. Used for statements which don't
+	 * return the number of changed rows (e.g. ones run by execSQL).
+	 * @param db
+	 * @return
+	 */
+	private int getLastStatementChanges(SQLiteDatabase db) {
+		Cursor c = db.rawQuery("SELECT changes()", null);
+		c.moveToFirst();
+		int changes = c.getInt(0);
+		c.close();
+		
+		return changes;
+	}
+	
+	/**
+	 * Returns the number of rows inserted/updated/deleted in the Todoist data tables since the
+	 * storage was created - counted where the rows are written, so writes made by triggers (e.g. into
+	 * the backup changes table) aren't counted. Used for measuring how many writes an operation,
+	 * such as syncing, causes.
+	 * @return
+	 */
+	public int getRowsWritten() {
+		synchronized (mRowsWrittenLock) {
+			return mRowsWritten;
+		}
+	}
+	
+	/**
+	 * Saves the sync hash of a model's row - the hash of its remote copy, as of the last sync (see
+	 * SynchronizedModel.syncHash). Only the sync saves hashes - writing a model (e.g. when it's edited
+	 * locally) leaves its saved hash as is. Doesn't record a change into the change feed (the
+	 * displayed model hasn't changed).
+	 * @param model an item, project, label or note (only its ID is used)
+	 * @param hash the remote copy's hash (0 - unknown)
+	 */
+	public void setSyncHash(SynchronizedModel model, long hash) {
+		String table, idColumn, hashColumn;
+		
+		if (model instanceof Item) {
+			table = DBConsts.ITEMS_TABLE_NAME;
+			idColumn = DBConsts.ITEMS_ID;
+			hashColumn = DBConsts.ITEMS_SYNC_HASH;
+		} else if (model instanceof Project) {
+			table = DBConsts.PROJECTS_TABLE_NAME;
+			idColumn = DBConsts.PROJECTS_ID;
+			hashColumn = DBConsts.PROJECTS_SYNC_HASH;
+		} else if (model instanceof Label) {
+			table = DBConsts.LABELS_TABLE_NAME;
+			idColumn = DBConsts.LABELS_ID;
+			hashColumn = DBConsts.LABELS_SYNC_HASH;
+		} else if (model instanceof Note) {
+			table = DBConsts.NOTES_TABLE_NAME;
+			idColumn = DBConsts.NOTES_ID;
+			hashColumn = DBConsts.NOTES_SYNC_HASH;
+		} else {
+			return;
+		}
+		
+		SQLiteDatabase db = getWriteDatabase();
+		
+		ContentValues values = new ContentValues();
+		values.put(hashColumn, hash);
+		
+		countRowsWritten(table, db.update(table, values, idColumn + "=?", new String []{ String.valueOf(model.id) }));
+		model.syncHash = hash;
+		
+		if (model instanceof Label) indexSyncHash(model.id, hash);
+	}
+	
+	/**
+	 * Returns a new temp ID - given to a model which was added locally, until it's sync'd online and
+	 * given a "real" ID by the Todoist server. Temp IDs are negative (so they never collide with IDs
+	 * given by the server), and each one is smaller than any ID in the local storage (so no two models
+	 * are ever given the same temp ID). Only the first call queries the storage.
+	 * @return
+	 */
+	public synchronized int getNextTempId() {
+		if (mNextTempId == 0) {
+			// Not known yet - start below the smallest ID in the storage (which may be a temp ID given
+			// before the app was restarted)
+			String[][] tables = {
+					{ DBConsts.PROJECTS_TABLE_NAME, DBConsts.PROJECTS_ID },
+					{ DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_ID },
+					{ DBConsts.LABELS_TABLE_NAME, DBConsts.LABELS_ID },
+					{ DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ID }
+			};
+			SQLiteDatabase db = getReadDatabase();
+			int minId = 0;
+			
+			for (int i = 0; i < tables.length; i++) {
+				Cursor c = db.rawQuery(String.format("SELECT MIN(%s) FROM %s", tables[i][1], tables[i][0]), null);
+				
+				try {
+					// An empty table returns a NULL value (read as 0)
+					if (c.moveToFirst()) minId = Math.min(minId, c.getInt(0));
+				} finally {
+					c.close();
+				}
+			}
+			
+			mNextTempId = minId - 1;
+		}
+		
+		return mNextTempId--;
+	}
+	
+	/**
+	 * Returns a new query ID - queries are kept locally only (they're never sync'd online, so they
+	 * don't need temp IDs), and are simply numbered after the largest query ID in the storage
+	 * @return
+	 */
+	public int getNextQueryId() {
+		SQLiteDatabase db = getReadDatabase();
+		Cursor c = db.rawQuery(String.format("SELECT MAX(%s) FROM %s", DBConsts.QUERIES_ID, DBConsts.QUERIES_TABLE_NAME), null);
+		int maxId = 0;
+		
+		try {
+			// An empty table returns a NULL value (read as 0)
+			if (c.moveToFirst()) maxId = c.getInt(0);
+		} finally {
+			c.close();
+		}
+		
+		return Math.max(maxId, 0) + 1;
+	}
+	
+	
+	/**
+	 * The IDs changed by a sync - i.e. locally added models (with temp IDs), along with their online
+	 * copies (with the IDs given to them by the server). All models must be of the same type.
+	 */
+	public static class IdChanges {
+		private ArrayList<SynchronizedModel> mOldModels = new ArrayList<SynchronizedModel>();
+		private ArrayList<SynchronizedModel> mNewModels = new ArrayList<SynchronizedModel>();
+		
+		/**
+		 * @param oldModel the local model (with its old ID)
+		 * @param newModel the model to replace it (with its new ID)
+		 */
+		public void add(SynchronizedModel oldModel, SynchronizedModel newModel) {
+			if ((mNewModels.size() > 0) && (mNewModels.get(0).getClass() != newModel.getClass())) {
+				throw new IllegalArgumentException(String.format("ID changes of different model types: %s, %s",
+						mNewModels.get(0).getClass().getSimpleName(), newModel.getClass().getSimpleName()));
+			}
+			
+			mOldModels.add(oldModel);
+			mNewModels.add(newModel);
+		}
+		
+		public int size() {
+			return mNewModels.size();
+		}
+		
+		public void clear() {
+			mOldModels.clear();
+			mNewModels.clear();
+		}
+	}
+	
+	/**
+	 * Replaces the local models whose IDs were changed (e.g. locally added models, once added online)
+	 * - all of them in a single transaction: the old rows are deleted, all references to the old IDs
+	 * are updated (using a single statement per referencing table, for all models), and the new rows
+	 * are written. The items moved/reordered markers of the old IDs are moved to the new IDs as well
+	 * (right after the transaction, since those aren't kept in the DB).
+	 * @param changes
+	 */
+	public void replaceChangedIds(IdChanges changes) {
+		if (changes.size() == 0) return;
+		
+		SynchronizedModel first = changes.mNewModels.get(0);
+		String table, idColumn;
+		
+		if (first instanceof Item) {
+			table = DBConsts.ITEMS_TABLE_NAME;
+			idColumn = DBConsts.ITEMS_ID;
+		} else if (first instanceof Project) {
+			table = DBConsts.PROJECTS_TABLE_NAME;
+			idColumn = DBConsts.PROJECTS_ID;
+		} else if (first instanceof Label) {
+			table = DBConsts.LABELS_TABLE_NAME;
+			idColumn = DBConsts.LABELS_ID;
+		} else if (first instanceof Note) {
+			table = DBConsts.NOTES_TABLE_NAME;
+			idColumn = DBConsts.NOTES_ID;
+		} else {
+			throw new IllegalArgumentException("Unsupported model type: " + first.getClass().getName());
+		}
+		
+		SQLiteDatabase db = getWriteDatabase();
+		
+		beginTransaction(db);
+		
+		try {
+			// The ID pairs are kept in a temp table, so each referencing table could be updated by a
+			// single statement
+			db.execSQL(String.format("CREATE TEMP TABLE IF NOT EXISTS %s (%s integer primary key, %s integer not null)",
+					ID_CHANGES_TABLE_NAME, ID_CHANGES_OLD_ID, ID_CHANGES_NEW_ID));
+			db.delete(ID_CHANGES_TABLE_NAME, null, null);
+			
+			ContentValues pairValues = new ContentValues();
+			
+			for (int i = 0; i < changes.size(); i++) {
+				// An unchanged ID (e.g. a model which was re-added) only needs its row updated
+				if (changes.mOldModels.get(i).id == changes.mNewModels.get(i).id) continue;
+				
+				pairValues.put(ID_CHANGES_OLD_ID, changes.mOldModels.get(i).id);
+				pairValues.put(ID_CHANGES_NEW_ID, changes.mNewModels.get(i).id);
+				db.replace(ID_CHANGES_TABLE_NAME, null, pairValues);
+			}
+			
+			// Delete the old rows
+			String oldIds = String.format("(SELECT %s FROM %s)", ID_CHANGES_OLD_ID, ID_CHANGES_TABLE_NAME);
+			
+			int rowsDeleted = db.delete(table, idColumn + " IN " + oldIds, null);
+			
+			if (rowsDeleted > 0) {
+				countRowsWritten(table, rowsDeleted);
+				
+				for (int i = 0; i < changes.size(); i++) {
+					int oldId = changes.mOldModels.get(i).id;
+					if (oldId != changes.mNewModels.get(i).id) mChangeFeed.recordChange(table, ChangeType.DELETED, oldId);
+				}
+			}
+			
+			// Update the references to the old IDs
+			if (first instanceof Item) {
+				// Notes of the items (their hash includes the item ID - so it's unknown now)
+				updateChangedIdReferences(db, DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ITEM_ID, DBConsts.NOTES_SYNC_HASH);
+				mChangeFeed.recordTableChange(DBConsts.NOTES_TABLE_NAME);
+				// Labels of the items
+				updateChangedIdReferences(db, DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID, null);
+				
+			} else if (first instanceof Project) {
+				// Items under the projects (their hash includes the project ID - so it's unknown now)
+				updateChangedIdReferences(db, DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_PROJECT_ID, DBConsts.ITEMS_SYNC_HASH);
+				mChangeFeed.recordTableChange(DBConsts.ITEMS_TABLE_NAME);
+				
+			} else if (first instanceof Label) {
+				// Items of the labels
+				updateChangedIdReferences(db, DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_LABEL_ID, null);
+			}
+			
+			// Write the new rows
+			for (int i = 0; i < changes.size(); i++) {
+				SynchronizedModel model = changes.mNewModels.get(i);
+				
+				if (model instanceof Item) {
+					addOrUpdateItem((Item)model, null);
+				} else if (model instanceof Project) {
+					addOrUpdateProject((Project)model, null);
+				} else if (model instanceof Label) {
+					addOrUpdateLabel((Label)model, null);
+				} else if (model instanceof Note) {
+					addOrUpdateNote((Note)model, null);
+				}
+			}
+			
+			db.delete(ID_CHANGES_TABLE_NAME, null, null);
+			
+			setTransactionSuccessful(db);
+			
+		} finally {
+			endTransaction(db);
+			
+			// The old label rows were deleted in bulk (and the transaction might have been rolled back)
+			if (first instanceof Label) invalidateLabelIndex();
+		}
+		
+		replaceChangedMarkerIds(changes);
+	}
+	
+	/**
+	 * Updates a column referencing the changed IDs (using the ID changes temp table) - should be
+	 * called as part of replaceChangedIds
+	 * @param db
+	 * @param table
+	 * @param column
+	 * @param hashColumn the table's sync hash column, which is reset for the updated rows (null if none)
+	 */
+	private void updateChangedIdReferences(SQLiteDatabase db, String table, String column, String hashColumn) {
+		String query = String.format(
+				"UPDATE %s SET %s = (SELECT %s FROM %s WHERE %s = %s.%s)%s WHERE %s IN (SELECT %s FROM %s)",
+				table, column,
+				ID_CHANGES_NEW_ID, ID_CHANGES_TABLE_NAME, ID_CHANGES_OLD_ID, table, column,
+				(hashColumn != null ? ", " + hashColumn + " = 0" : ""),
+				column, ID_CHANGES_OLD_ID, ID_CHANGES_TABLE_NAME);
+		
+		db.execSQL(query);
+		countRowsWritten(table, getLastStatementChanges(db));
+	}
+	
+	/**
+	 * Moves the items moved/reordered markers of the changed IDs to the new IDs
+	 * @param changes
+	 */
+	private void replaceChangedMarkerIds(IdChanges changes) {
+		SynchronizedModel first = changes.mNewModels.get(0);
+		
+		if (first instanceof Project) {
+			SharedPreferences reordered = mContext.getSharedPreferences(PREFERENCES_TODOIST_DATA_ITEMS_REORDERED, Activity.MODE_PRIVATE);
+			Editor editor = reordered.edit();
+			boolean isReorderedChanged = false;
+			
+			for (int i = 0; i < changes.size(); i++) {
+				int oldId = changes.mOldModels.get(i).id;
+				int newId = changes.mNewModels.get(i).id;
+				
+				if (oldId == newId) continue;
+				
+				// Items reordered under the project (the key is the project ID)
+				String oldKey = String.valueOf(oldId);
+				
+				if (reordered.contains(oldKey)) {
+					editor.putBoolean(String.valueOf(newId), reordered.getBoolean(oldKey, false));
+					editor.remove(oldKey);
+					isReorderedChanged = true;
+				}
+				
+				// Items moved into the project (kept under the project ID)
+				List<Item> movedItems = getItemsMoved(oldId);
+				
+				if (movedItems.size() > 0) {
+					setItemsMoved(movedItems, newId);
+					deleteItemsMoved(oldId);
+				}
+			}
+			
+			if (isReorderedChanged) editor.commit();
+			
+		} else if (first instanceof Item) {
+			// Items moved into a project (the key is the item ID, under the destination project) - only
+			// the projects of the changed items may hold their markers
+			ArrayList<Integer> projectIds = new ArrayList<Integer>();
+			
+			for (int i = 0; i < changes.size(); i++) {
+				int oldProjectId = ((Item)changes.mOldModels.get(i)).projectId;
+				int newProjectId = ((Item)changes.mNewModels.get(i)).projectId;
+				
+				if (!projectIds.contains(oldProjectId)) projectIds.add(oldProjectId);
+				if (!projectIds.contains(newProjectId)) projectIds.add(newProjectId);
+			}
+			
+			for (int p = 0; p < projectIds.size(); p++) {
+				SharedPreferences moved = mContext.getSharedPreferences(PREFERENCES_TODOIST_DATA_ITEMS_MOVED + "." + projectIds.get(p), Activity.MODE_PRIVATE);
+				Editor editor = null;
+				
+				for (int i = 0; i < changes.size(); i++) {
+					String oldKey = String.valueOf(changes.mOldModels.get(i).id);
+					String newKey = String.valueOf(changes.mNewModels.get(i).id);
+					
+					if ((oldKey.equals(newKey)) || (!moved.contains(oldKey))) continue;
+					
+					if (editor == null) editor = moved.edit();
+					editor.putInt(newKey, moved.getInt(oldKey, 0));
+					editor.remove(oldKey);
+				}
+				
+				if (editor != null) editor.commit();
+			}
+		}
+	}
+	
+	/**
+	 * Sets whether or not to use the read-only connections for reads (used for measuring contention
+	 * between readers and writers)
+	 * @param useReadConnections
+	 */
+	public void setUseReadConnections(boolean useReadConnections) {
+		mUseReadConnections = useReadConnections;
+	}
+	
+	/**
+	 * Returns whether or not reads are made using the read-only connections
+	 * @return
+	 */
+	public boolean isUsingReadConnections() {
+		mDbHelper.getWritableDatabase(); // Journal mode is determined once the database is opened
+		return (mUseReadConnections && mDbHelper.isWriteAheadLogging());
 	}
 	
 	
@@ -191,20 +786,25 @@ public class TodoistOfflineStorage {
 			return;
 		}
 
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// First, delete all labels currently attached to this item
-		db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID + "=?", new String []{ String.valueOf(item.id) });
+		countRowsWritten(DBConsts.ITEMS_TO_LABELS_TABLE_NAME,
+				db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID + "=?", new String []{ String.valueOf(item.id) }));
 		
 		// Next, add the labels attached to the item
-		for (int i = 0; i < item.labelIds.size(); i++) {
+		for (int i = 0; i < item.labelIds.length; i++) {
 			ContentValues labelValues = new ContentValues();
 			labelValues.put(DBConsts.ITEMS_TO_LABELS_ITEM_ID, item.id);
-			labelValues.put(DBConsts.ITEMS_TO_LABELS_LABEL_ID, item.labelIds.get(i).intValue());
+			labelValues.put(DBConsts.ITEMS_TO_LABELS_LABEL_ID, item.labelIds[i]);
 			
 			db.replace(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, null, labelValues);
 		}
 		
+		countRowsWritten(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, item.labelIds.length);
+		
+		// Item labels are displayed as part of the item
+		mChangeFeed.recordChange(DBConsts.ITEMS_TABLE_NAME, ChangeType.UPDATED, item.id);
 	}
 	
 
@@ -214,15 +814,17 @@ public class TodoistOfflineStorage {
 	 * @return
 	 */
 	public ArrayList<Label> getItemLabels(Item item) {
+		long span = Trace.begin();
+		
 		SQLiteDatabase db;
 		Cursor c;
 		ArrayList<Label> labels = new ArrayList<Label>();
-		ArrayList<Integer> labelIds = getItemLabelIDs(item);
+		int[] labelIds = getItemLabelIDs(item);
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
-		for(int i = 0; i < labelIds.size(); i++) {
-			int labelId = labelIds.get(i);
+		for(int i = 0; i < labelIds.length; i++) {
+			int labelId = labelIds[i];
 			
 			// Get label details
 			c = db.query(DBConsts.LABELS_TABLE_NAME, null, DBConsts.LABELS_ID +"=?", 
@@ -235,11 +837,12 @@ public class TodoistOfflineStorage {
 			}
 			
 			c.moveToFirst();
-			labels.add(getLabelFromCursor(c));
+			labels.add(new RowMappers.LabelMapper(c).map());
 			c.close();
 		}
 
 		
+		Trace.end("TodoistOfflineStorage.getItemLabels", span);
 		return labels;
 	}
 	
@@ -248,20 +851,21 @@ public class TodoistOfflineStorage {
 	/**
 	 * Returns an item's label IDs
 	 */
-	public ArrayList<Integer> getItemLabelIDs(Item item) {
+	public int[] getItemLabelIDs(Item item) {
 		SQLiteDatabase db;
 		Cursor c;
-		ArrayList<Integer> labelIds = new ArrayList<Integer>();
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
-		c = db.query(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, null, DBConsts.ITEMS_TO_LABELS_ITEM_ID +"=?", 
+		c = db.query(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, new String[] { DBConsts.ITEMS_TO_LABELS_LABEL_ID },
+				DBConsts.ITEMS_TO_LABELS_ITEM_ID +"=?", 
 				new String []{ String.valueOf(item.id) },
 				null, null, null, null);
 		
+		int[] labelIds = (c.getCount() == 0 ? Item.NO_LABELS : new int[c.getCount()]);
+		
 		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-			int labelId = c.getInt(c.getColumnIndex(DBConsts.ITEMS_TO_LABELS_LABEL_ID));
-			labelIds.add(labelId);
+			labelIds[c.getPosition()] = c.getInt(0);
 		}
 
 		c.close();
@@ -285,23 +889,24 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		ContentValues values = new ContentValues();
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		if ((oldNote != null) && (oldNote.id != newNote.id)) {
 			// ID was changed - this happens when a note is added to local storage, but not yet
 			// sync'd with online server (thus, it was assigned with a temp ID)
 			
 			// Delete old note record
-			db.delete(DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ID + "=?", new String []{ String.valueOf(oldNote.id) });
+			deleteRow(db, DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ID, oldNote.id);
 		}
 		
 		values.put(DBConsts.NOTES_ID, newNote.id);
 		values.put(DBConsts.NOTES_CONTENT, newNote.content);
 		values.put(DBConsts.NOTES_ITEM_ID, newNote.itemId);
 		values.put(DBConsts.NOTES_POST_DATE, (newNote.postDate != null ? newNote.postDate.getTime() : 0));
-		values.put(DBConsts.NOTES_DIRTY_STATE, newNote.dirtyState.toString());
+		values.put(DBConsts.NOTES_DIRTY_STATE, newNote.dirtyState.getCode());
+		// (The sync hash is saved separately by the sync - see setSyncHash)
 		
-		db.replace(DBConsts.NOTES_TABLE_NAME, null, values);
+		replaceRow(db, DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ID, newNote.id, values);
 	}
 	
 	
@@ -311,10 +916,10 @@ public class TodoistOfflineStorage {
 	 */
 	public void deleteNote(Note note) {
 		SQLiteDatabase db;
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// Delete the note from the notes table
-		db.delete(DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ID + "=?", new String []{ String.valueOf(note.id) });
+		deleteRow(db, DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ID, note.id);
 		
 	}
 	
@@ -328,7 +933,7 @@ public class TodoistOfflineStorage {
 		Cursor c = null;
 		Note note;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		c = db.query(DBConsts.NOTES_TABLE_NAME, null, DBConsts.NOTES_ID +"=?", 
 				new String []{ String.valueOf(noteId) },
@@ -340,7 +945,7 @@ public class TodoistOfflineStorage {
 		}
 		
 		c.moveToFirst();
-		note = getNoteFromCursor(c);
+		note = new RowMappers.NoteMapper(c).map();
 		c.close();
 		
 		return note;
@@ -354,22 +959,23 @@ public class TodoistOfflineStorage {
 	 * @return
 	 */
 	public ArrayList<Note> getNotesByItem(Item item) {
+		long span = Trace.begin();
+		
 		SQLiteDatabase db;
 		Cursor c = null;
-		ArrayList<Note> notes = new ArrayList<Note>();
+		ArrayList<Note> notes;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		c = db.query(DBConsts.NOTES_TABLE_NAME, null, DBConsts.NOTES_ITEM_ID +"=? AND " + DBConsts.NOTES_DIRTY_STATE + "<>?", 
-				new String []{ String.valueOf(item.id), DirtyState.DELETED.toString() },
+				new String []{ String.valueOf(item.id), String.valueOf(DirtyState.DELETED.getCode()) },
 				null, null, DBConsts.NOTES_POST_DATE + " ASC", null);
 		
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-			notes.add(getNoteFromCursor(c));
-		}
+		notes = new RowMappers.NoteMapper(c).mapAll();
 
 		c.close();
 		
+		Trace.end("TodoistOfflineStorage.getNotesByItem", span);
 		return notes;
 	}
 	
@@ -381,16 +987,14 @@ public class TodoistOfflineStorage {
 	public ArrayList<Note> getNotes() {
 		SQLiteDatabase db;
 		Cursor c = null;
-		ArrayList<Note> notes = new ArrayList<Note>();
+		ArrayList<Note> notes;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		c = db.query(DBConsts.NOTES_TABLE_NAME, null, null, 
 				null, null, null, null, null);
 		
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-			notes.add(getNoteFromCursor(c));
-		}
+		notes = new RowMappers.NoteMapper(c).mapAll();
 
 		c.close();
 		
@@ -404,11 +1008,11 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		Cursor c = null;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// Get note count for current item
 		c = db.query(DBConsts.NOTES_TABLE_NAME, null, DBConsts.NOTES_ITEM_ID +"=? AND " + DBConsts.NOTES_DIRTY_STATE + "<>?", 
-				new String []{ String.valueOf(item.id), DirtyState.DELETED.toString() },
+				new String []{ String.valueOf(item.id), String.valueOf(DirtyState.DELETED.getCode()) },
 				null, null, null, null);
 		
 		int noteCount = c.getCount();
@@ -423,21 +1027,6 @@ public class TodoistOfflineStorage {
 	
 	
 	
-	// Private note related methods
-	
-	private Note getNoteFromCursor(Cursor c) {
-		Note note = new Note();
-		
-		note.id = c.getInt(c.getColumnIndex(DBConsts.NOTES_ID));
-		note.content = c.getString(c.getColumnIndex(DBConsts.NOTES_CONTENT));
-		note.itemId = c.getInt(c.getColumnIndex(DBConsts.NOTES_ITEM_ID));
-		note.postDate = new Date(c.getLong(c.getColumnIndex(DBConsts.NOTES_POST_DATE)));
-		note.dirtyState = DirtyState.valueOf(c.getString(c.getColumnIndex(DBConsts.NOTES_DIRTY_STATE)));
-		
-		return note;
-	}
-	
-
 	/*
 	 * Label related methods
 	 */
@@ -452,34 +1041,44 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		ContentValues values = new ContentValues();
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		if ((oldLabel != null) && (oldLabel.id != newLabel.id)) {
 			// ID was changed - this happens when an label is added to local storage, but not yet
 			// sync'd with online server (thus, it was assigned with a temp ID)
 			
 			// Delete old label record
-			db.delete(DBConsts.LABELS_TABLE_NAME, DBConsts.LABELS_ID + "=?", new String []{ String.valueOf(oldLabel.id) });
+			deleteRow(db, DBConsts.LABELS_TABLE_NAME, DBConsts.LABELS_ID, oldLabel.id);
+			unindexLabel(oldLabel.id);
 			
 			// Update all item-to-label with the old label ID (update to new label ID)
 			ContentValues labelValues = new ContentValues();
 			labelValues.put(DBConsts.ITEMS_TO_LABELS_LABEL_ID, newLabel.id);
-			db.update(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, labelValues, DBConsts.ITEMS_TO_LABELS_LABEL_ID + "=?", new String []{ String.valueOf(oldLabel.id) });
+			countRowsWritten(DBConsts.ITEMS_TO_LABELS_TABLE_NAME,
+					db.update(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, labelValues, DBConsts.ITEMS_TO_LABELS_LABEL_ID + "=?", new String []{ String.valueOf(oldLabel.id) }));
 		}
 		
 		values.put(DBConsts.LABELS_ID, newLabel.id);
 		values.put(DBConsts.LABELS_NAME, newLabel.name.toLowerCase());
 		values.put(DBConsts.LABELS_COLOR, newLabel.colorIndex);
 		values.put(DBConsts.LABELS_COUNT, newLabel.count);
-		values.put(DBConsts.LABELS_DIRTY_STATE, newLabel.dirtyState.toString());
+		values.put(DBConsts.LABELS_DIRTY_STATE, newLabel.dirtyState.getCode());
+		
+		// (The sync hash is saved separately by the sync - see setSyncHash)
 
-		db.replace(DBConsts.LABELS_TABLE_NAME, null, values);
+		// The label as it's saved (with a lower-case name)
+		Label savedLabel = (Label)newLabel.clone();
+		savedLabel.name = newLabel.name.toLowerCase();
+
+		replaceRow(db, DBConsts.LABELS_TABLE_NAME, DBConsts.LABELS_ID, newLabel.id, values);
+		indexLabel(savedLabel);
 		
 		if (newLabel.dirtyState == DirtyState.DELETED) {
 			// Label was effectively deleted - delete all references to the label from the items_to_labels table
 			// (Even though the label wasn't deleted completely - we still need to delete
 			// any references to it)
-			db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_LABEL_ID + "=?", new String []{ String.valueOf(newLabel.id) });
+			countRowsWritten(DBConsts.ITEMS_TO_LABELS_TABLE_NAME,
+					db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_LABEL_ID + "=?", new String []{ String.valueOf(newLabel.id) }));
 		}
 		
 		
@@ -493,41 +1092,25 @@ public class TodoistOfflineStorage {
 	 */
 	public void deleteLabel(Label label) {
 		SQLiteDatabase db;
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// First, delete the label from the labels table
-		db.delete(DBConsts.LABELS_TABLE_NAME, DBConsts.LABELS_ID + "=?", new String []{ String.valueOf(label.id) });
+		deleteRow(db, DBConsts.LABELS_TABLE_NAME, DBConsts.LABELS_ID, label.id);
+		unindexLabel(label.id);
 		
 		// Next, delete all references to the label from the items_to_labels table
-		db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_LABEL_ID + "=?", new String []{ String.valueOf(label.id) });
+		countRowsWritten(DBConsts.ITEMS_TO_LABELS_TABLE_NAME,
+				db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_LABEL_ID + "=?", new String []{ String.valueOf(label.id) }));
 
 	}
 	/**
-	 * Returns a specific label (by ID)
+	 * Returns a specific label (by its exact name) - in case a DELETED label has the same name as
+	 * an existing one, the existing label is returned
 	 * @param labelName
 	 * @return
 	 */
 	public Label getLabelByName(String labelName) {
-		SQLiteDatabase db;
-		Cursor c = null;
-		Label label;
-		
-		db = mDbHelper.getWritableDatabase();
-		
-		c = db.query(DBConsts.LABELS_TABLE_NAME, null, DBConsts.LABELS_NAME +"=?", 
-				new String []{ labelName },
-				null, null, null, null);
-		
-		if (c.getCount() == 0) {
-			c.close();
-			return null;
-		}
-		
-		c.moveToFirst();
-		label = getLabelFromCursor(c);
-		c.close();
-		
-		return label;
+		return getLabelIndex().getByName(labelName);
 	}
 
 	/**
@@ -536,28 +1119,109 @@ public class TodoistOfflineStorage {
 	 * @return
 	 */
 	public Label getLabel(int labelId) {
-		SQLiteDatabase db;
-		Cursor c = null;
-		Label label;
+		return getLabelIndex().getById(labelId);
+	}
+	
+	/**
+	 * Returns the names of labels (by their IDs)
+	 * @param labelIds
+	 * @return the names of the existing labels (in the same order)
+	 */
+	public ArrayList<String> getLabelNames(int[] labelIds) {
+		return getLabelIndex().getNames(labelIds);
+	}
+	
+	/**
+	 * Returns all labels (excluding any DELETED labels) whose names start with a prefix
+	 * (case-insensitive), sorted by name
+	 * @param prefix an empty prefix returns all labels
+	 * @return
+	 */
+	public ArrayList<Label> getLabelsByPrefix(String prefix) {
+		return getLabelIndex().getByPrefix(prefix, false);
+	}
+	
+	/**
+	 * Returns the label index - loading it (using a single query) in case it isn't loaded yet. The
+	 * index is updated whenever a label is written, and is dropped on bulk label changes (to be
+	 * re-loaded when next used). An index loaded while a label was written isn't kept - though it's
+	 * still used by the current caller.
+	 * @return
+	 */
+	private LabelIndex getLabelIndex() {
+		int version;
 		
-		db = mDbHelper.getWritableDatabase();
+		synchronized (mLabelIndexLock) {
+			if (mLabelIndex != null) return mLabelIndex;
+			version = mLabelIndexVersion;
+		}
 		
-		c = db.query(DBConsts.LABELS_TABLE_NAME, null, DBConsts.LABELS_ID +"=?", 
-				new String []{ String.valueOf(labelId) },
-				null, null, null, null);
+		long span = Trace.begin();
+		LabelIndex index = new LabelIndex(getLabels());
+		Trace.end("TodoistOfflineStorage.loadLabelIndex", span);
 		
-		if (c.getCount() == 0) {
-			c.close();
-			return null;
+		synchronized (mLabelIndexLock) {
+			if (version == mLabelIndexVersion) mLabelIndex = index;
 		}
 		
-		c.moveToFirst();
-		label = getLabelFromCursor(c);
-		c.close();
-		
-		return label;
+		return index;
+	}
+	
+	/**
+	 * Updates the label index with a label which was just written - keeping the label's saved sync
+	 * hash (which isn't written along with the label - see setSyncHash)
+	 * @param label the label, as it was written
+	 */
+	private void indexLabel(Label label) {
+		synchronized (mLabelIndexLock) {
+			mLabelIndexVersion++;
+			
+			if (mLabelIndex != null) {
+				Label indexed = mLabelIndex.getById(label.id);
+				label.syncHash = (indexed != null ? indexed.syncHash : 0);
+				mLabelIndex.put(label);
+			}
+		}
+	}
+	
+	/**
+	 * Updates the sync hash of an indexed label (see setSyncHash)
+	 * @param labelId
+	 * @param hash
+	 */
+	private void indexSyncHash(int labelId, long hash) {
+		synchronized (mLabelIndexLock) {
+			mLabelIndexVersion++;
+			
+			Label indexed = (mLabelIndex != null ? mLabelIndex.getById(labelId) : null);
+			
+			if (indexed != null) {
+				indexed.syncHash = hash;
+				mLabelIndex.put(indexed);
+			}
+		}
+	}
+	
+	/**
+	 * Removes a label which was just deleted from the label index
+	 * @param labelId
+	 */
+	private void unindexLabel(int labelId) {
+		synchronized (mLabelIndexLock) {
+			mLabelIndexVersion++;
+			if (mLabelIndex != null) mLabelIndex.remove(labelId);
+		}
 	}
 	
+	/**
+	 * Drops the label index (after bulk label changes) - it'll be re-loaded when next used
+	 */
+	private void invalidateLabelIndex() {
+		synchronized (mLabelIndexLock) {
+			mLabelIndexVersion++;
+			mLabelIndex = null;
+		}
+	}
 	
 
 	/**
@@ -565,21 +1229,22 @@ public class TodoistOfflineStorage {
 	 * @return
 	 */
 	public ArrayList<Label> getLabels() {
+		long span = Trace.begin();
+		
 		SQLiteDatabase db;
 		Cursor c = null;
-		ArrayList<Label> labels = new ArrayList<Label>();
+		ArrayList<Label> labels;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		c = db.query(DBConsts.LABELS_TABLE_NAME, null, null, 
 				null, null, null, null, null);
 		
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-			labels.add(getLabelFromCursor(c));
-		}
+		labels = new RowMappers.LabelMapper(c).mapAll();
 
 		c.close();
 		
+		Trace.end("TodoistOfflineStorage.getLabels", span);
 		return labels;
 	}
 	
@@ -602,7 +1267,7 @@ public class TodoistOfflineStorage {
 				continue;
 			}
 			
-			db = mDbHelper.getWritableDatabase();
+			db = getWriteDatabase();
 			
 			// Get item count for current label (don't count any DELETED items)
 			String query = String.format(
@@ -618,7 +1283,7 @@ public class TodoistOfflineStorage {
 					DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_DIRTY_STATE,
 					DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_LABEL_ID,
 					DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_COMPLETED);
-			c = db.rawQuery(query, new String []{ DirtyState.DELETED.toString(), String.valueOf(currentLabel.id) });
+			c = db.rawQuery(query, new String []{ String.valueOf(DirtyState.DELETED.getCode()), String.valueOf(currentLabel.id) });
 			
 			c.moveToFirst();
 			int itemCount = c.getInt(0);
@@ -636,22 +1301,6 @@ public class TodoistOfflineStorage {
 	
 	
 	
-	// Private label related methods
-	
-	private Label getLabelFromCursor(Cursor c) {
-		Label label = new Label();
-		
-		label.id = c.getInt(c.getColumnIndex(DBConsts.LABELS_ID));
-		label.name = c.getString(c.getColumnIndex(DBConsts.LABELS_NAME));
-		label.colorIndex = c.getInt(c.getColumnIndex(DBConsts.LABELS_COLOR));
-		label.count = c.getInt(c.getColumnIndex(DBConsts.LABELS_COUNT));
-		label.dirtyState = DirtyState.valueOf(c.getString(c.getColumnIndex(DBConsts.LABELS_DIRTY_STATE)));
-		
-		return label;
-	}
-	
-	
-
 	/*
 	 * Item related methods
 	 */
@@ -666,23 +1315,29 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		ContentValues values = new ContentValues();
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 
 		if ((oldItem != null) && (oldItem.id != newItem.id)) {
 			// ID was changed - this happens when an item is added to local storage, but not yet
 			// sync'd with online server (thus, it was assigned with a temp ID)
 			
 			// Delete old item record
-			db.delete(DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_ID + "=?", new String []{ String.valueOf(oldItem.id) });
+			deleteRow(db, DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_ID, oldItem.id);
 			
 			// Update all notes assigned to old item ID (update to new item ID)
 			ContentValues noteValues = new ContentValues();
 			noteValues.put(DBConsts.NOTES_ITEM_ID, newItem.id);
-			db.update(DBConsts.NOTES_TABLE_NAME, noteValues, DBConsts.NOTES_ITEM_ID + "=?", new String []{ String.valueOf(oldItem.id) });
+			noteValues.put(DBConsts.NOTES_SYNC_HASH, 0); // Unknown (the hash includes the item ID)
+			int notesUpdated = db.update(DBConsts.NOTES_TABLE_NAME, noteValues, DBConsts.NOTES_ITEM_ID + "=?", new String []{ String.valueOf(oldItem.id) });
+			if (notesUpdated > 0) {
+				countRowsWritten(DBConsts.NOTES_TABLE_NAME, notesUpdated);
+				mChangeFeed.recordTableChange(DBConsts.NOTES_TABLE_NAME);
+			}
 			// Update all labels assigned to old item ID (update to new item ID)
 			ContentValues labelValues = new ContentValues();
 			labelValues.put(DBConsts.ITEMS_TO_LABELS_ITEM_ID, newItem.id);
-			db.update(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, labelValues, DBConsts.ITEMS_TO_LABELS_ITEM_ID + "=?", new String []{ String.valueOf(oldItem.id) });
+			countRowsWritten(DBConsts.ITEMS_TO_LABELS_TABLE_NAME,
+					db.update(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, labelValues, DBConsts.ITEMS_TO_LABELS_ITEM_ID + "=?", new String []{ String.valueOf(oldItem.id) }));
 		}
 		
 		
@@ -693,17 +1348,19 @@ public class TodoistOfflineStorage {
 		
 		// In case the item has no due date, it is saved in the DB as a MAX_LONG value (used when
 		// sorting by due date, in order for it to appear last)
-		values.put(DBConsts.ITEMS_DUE_DATE, (((newItem.dueDate != null) && (newItem.dueDate.getTime() > 0)) ? newItem.dueDate.getTime() : Long.MAX_VALUE));
+		values.put(DBConsts.ITEMS_DUE_DATE, (newItem.dueTime > 0 ? newItem.dueTime : Long.MAX_VALUE));
 		
 		values.put(DBConsts.ITEMS_INDENT, newItem.indentLevel);
 		values.put(DBConsts.ITEMS_NOTE_COUNT, newItem.noteCount);
 		values.put(DBConsts.ITEMS_ORDER, newItem.itemOrder);
 		values.put(DBConsts.ITEMS_PRIORITY, newItem.priority);
 		values.put(DBConsts.ITEMS_COMPLETED, (newItem.completed == false ? 0 : 1));
-		values.put(DBConsts.ITEMS_DIRTY_STATE, newItem.dirtyState.toString());
+		values.put(DBConsts.ITEMS_DIRTY_STATE, newItem.dirtyState.getCode());
+		
+		// (The sync hash is saved separately by the sync - see setSyncHash)
 		
 		// Add/update the item in the items list
-		db.replace(DBConsts.ITEMS_TABLE_NAME, null, values);
+		replaceRow(db, DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_ID, newItem.id, values);
 		
 	}
 	
@@ -713,16 +1370,18 @@ public class TodoistOfflineStorage {
 	 */
 	public void deleteItem(Item item) {
 		SQLiteDatabase db;
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// First, delete the item from the items table
-		db.delete(DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_ID + "=?", new String []{ String.valueOf(item.id) });
+		deleteRow(db, DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_ID, item.id);
 		
 		// Next, delete any notes attached to this item
-		db.delete(DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ITEM_ID + "=?", new String []{ String.valueOf(item.id) });
+		countRowsWritten(DBConsts.NOTES_TABLE_NAME,
+				db.delete(DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ITEM_ID + "=?", new String []{ String.valueOf(item.id) }));
 		
 		// Finally, delete any labels attached to this item
-		db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID + "=?", new String []{ String.valueOf(item.id) });
+		countRowsWritten(DBConsts.ITEMS_TO_LABELS_TABLE_NAME,
+				db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID + "=?", new String []{ String.valueOf(item.id) }));
 
 	}
 	
@@ -736,7 +1395,7 @@ public class TodoistOfflineStorage {
 		Cursor c = null;
 		Item item;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		c = db.query(DBConsts.ITEMS_TABLE_NAME, null, DBConsts.ITEMS_ID +"=?", 
 				new String []{ String.valueOf(itemId) },
@@ -748,7 +1407,7 @@ public class TodoistOfflineStorage {
 		}
 		
 		c.moveToFirst();
-		item = getItemFromCursor(c);
+		item = new RowMappers.ItemMapper(c).map();
 		c.close();
 		
 		// Fill out the item's label IDs
@@ -767,10 +1426,12 @@ public class TodoistOfflineStorage {
 	 * @return
 	 */
 	public ArrayList<Item> getItemsByLabel(int labelId, ItemSortMode sortMode, boolean getCompleted) {
+		long span = Trace.begin();
+		
 		SQLiteDatabase db;
 		Cursor c = null;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		String query = String.format(
 				"SELECT * FROM %s, %s WHERE " +
@@ -794,9 +1455,11 @@ public class TodoistOfflineStorage {
 				query,
 				getOrderby(sortMode));
 		
-		c = db.rawQuery(query, new String[]{ DirtyState.DELETED.toString(), String.valueOf(labelId) });
+		c = db.rawQuery(query, new String[]{ String.valueOf(DirtyState.DELETED.getCode()), String.valueOf(labelId) });
 		
-		return fillItemsFromCursor(db, c);
+		ArrayList<Item> items = fillItemsFromCursor(db, c);
+		Trace.end("TodoistOfflineStorage.getItemsByLabel", span);
+		return items;
 	}
 
 	
@@ -810,10 +1473,12 @@ public class TodoistOfflineStorage {
 	 * @return
 	 */
 	public ArrayList<Item> getItemsByProject(int projectId, ItemSortMode sortMode, boolean getCompleted) {
+		long span = Trace.begin();
+		
 		SQLiteDatabase db;
 		Cursor c = null;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		String whereQuery = DBConsts.ITEMS_DIRTY_STATE + "<>? AND " + DBConsts.ITEMS_PROJECT_ID + "=?";
 		
@@ -823,9 +1488,11 @@ public class TodoistOfflineStorage {
 		}
 		
 		c = db.query(DBConsts.ITEMS_TABLE_NAME, null, whereQuery, 
-				new String []{ DirtyState.DELETED.toString(), String.valueOf(projectId) }, null, null, getOrderby(sortMode), null);
+				new String []{ String.valueOf(DirtyState.DELETED.getCode()), String.valueOf(projectId) }, null, null, getOrderby(sortMode), null);
 		
-		return fillItemsFromCursor(db, c);
+		ArrayList<Item> items = fillItemsFromCursor(db, c);
+		Trace.end("TodoistOfflineStorage.getItemsByProject", span);
+		return items;
 	}
 
 	
@@ -837,10 +1504,10 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		Cursor c = null;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		c = db.query(DBConsts.ITEMS_TABLE_NAME, null, DBConsts.ITEMS_DIRTY_STATE + "<>?", 
-				new String []{ DirtyState.DELETED.toString() }, null, null, null, null);
+				new String []{ String.valueOf(DirtyState.DELETED.getCode()) }, null, null, null, null);
 		
 		return fillItemsFromCursor(db, c);
 	}
@@ -855,10 +1522,12 @@ public class TodoistOfflineStorage {
 	 * @return
 	 */
 	public ArrayList<Item> getAllItems(boolean getCompleted, boolean getDeleted, ItemSortMode sortMode) {
+		long span = Trace.begin();
+		
 		SQLiteDatabase db;
 		Cursor c = null;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		String query = String.format("SELECT * FROM %s", DBConsts.ITEMS_TABLE_NAME);
 		
@@ -871,92 +1540,446 @@ public class TodoistOfflineStorage {
 			query += String.format("%s = 0", DBConsts.ITEMS_COMPLETED);
 		}
 		
-		if (!getDeleted) {
-			if (!getCompleted) {
-				query += " AND ";
+		if (!getDeleted) {
+			if (!getCompleted) {
+				query += " AND ";
+			}
+			// Return only non-deleted items
+			query += String.format("%s <> %d", DBConsts.ITEMS_DIRTY_STATE, DirtyState.DELETED.getCode());
+		}
+		
+		// Add the item order
+		query += String.format(" ORDER BY %s", getOrderby(sortMode));
+		
+		c = db.rawQuery(query, new String[] {});
+		
+		ArrayList<Item> items;
+		
+		if ((getCompleted) && (getDeleted)) {
+			// All items are returned - so all of their label IDs can be read at once (instead of
+			// querying them per item)
+			items = new RowMappers.ItemMapper(c).mapAll();
+			c.close();
+			fillItemsLabelIds(items, true);
+		} else {
+			items = fillItemsFromCursor(db, c);
+		}
+		
+		Trace.end("TodoistOfflineStorage.getAllItems", span);
+		return items;
+	}
+	
+	
+	
+	// Private item related methods
+	
+	
+	/**
+	 * Private utility function that returns the "order by" query string in
+	 * regards to the input item sort mdoe
+	 * 
+	 * @param sortMode
+	 * @return
+	 */
+	private String getOrderby(ItemSortMode sortMode) {
+		if (sortMode == ItemSortMode.ORIGINAL_ORDER) {
+			// First, completed items at the end, then by project (if we're in filter by label
+			// mode, this will group items from same project together) finally by itemOrder
+			return String.format("%s ASC, %s ASC, %s ASC",
+					DBConsts.ITEMS_COMPLETED, DBConsts.ITEMS_PROJECT_ID, DBConsts.ITEMS_ORDER);
+			
+		} else /*if (sortMode == ItemSortMode.SORT_BY_DUE_DATE) */ {
+			// First, completed items at the end, afterwards sort by dueDate, then sort by priority, finally sort by project
+			return String.format("%s ASC, %s ASC, %s DESC, %s ASC",
+					DBConsts.ITEMS_COMPLETED, DBConsts.ITEMS_DUE_DATE,
+					DBConsts.ITEMS_PRIORITY, DBConsts.ITEMS_PROJECT_ID);
+		}
+		
+	}
+	
+	/**
+	 * Private utility function for retrieving items a result cursor; for each item,
+	 * also fills out its label IDs
+	 * @param c
+	 * @return
+	 */
+	private ArrayList<Item> fillItemsFromCursor(SQLiteDatabase db, Cursor c) {
+		RowMappers.ItemMapper mapper = new RowMappers.ItemMapper(c);
+		ArrayList<Item> items = new ArrayList<Item>(c.getCount());
+		
+		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			Item newItem = mapper.map();
+			newItem.labelIds = getItemLabelIDs(newItem);
+			items.add(newItem);
+		}
+		
+		c.close();
+		
+		return items;
+	}
+	
+
+	
+	
+	/**
+	 * Returns all items as a paged list - items are loaded from the database only when accessed
+	 * (a page at a time), and only a bounded number of pages are kept in memory. Should be used
+	 * for potentially very large item lists (e.g. the "view all" query).
+	 * 
+	 * @param getCompleted
+	 * @param sortMode
+	 * @return
+	 */
+	public PagedItemList getPagedAllItems(boolean getCompleted, ItemSortMode sortMode) {
+		String where = String.format("%s <> %d", DBConsts.ITEMS_DIRTY_STATE, DirtyState.DELETED.getCode());
+		
+		if (!getCompleted) {
+			// Return only non-completed items
+			where += String.format(" AND %s = 0", DBConsts.ITEMS_COMPLETED);
+		}
+		
+		return new PagedItemList(where, sortMode, PAGED_ITEMS_PAGE_SIZE, PAGED_ITEMS_MAX_PAGES);
+	}
+	
+	/**
+	 * Called (on the main thread) once a page of a PagedItemList was loaded in the background - the
+	 * placeholders previously returned for its items should be re-read
+	 */
+	public interface OnPageLoadedListener {
+		public void onPageLoaded();
+	}
+	
+	/**
+	 * A read-only list of items, loaded page by page using keyset pagination (i.e. each page
+	 * query continues right after the sort key of the previous page's last item, instead of
+	 * using an OFFSET, which makes SQLite skip over all previous rows).
+	 * 
+	 * Only the most recently used pages are kept in memory. The list size is determined when
+	 * the list is created - so the list should be re-created once items are modified.
+	 * 
+	 * Once an AsyncLoader is set (see setAsyncLoader), pages are loaded in the background instead of
+	 * by the accessing (main) thread - items of pages which weren't loaded yet are returned as blank
+	 * placeholders until their page is loaded, and neighboring pages are loaded ahead of time, as
+	 * the accessed position gets near a page edge.
+	 */
+	public class PagedItemList extends AbstractList<Item> {
+		private String mWhere;
+		private String[] mSortColumns;
+		private boolean[] mSortAscending;
+		private String mOrderBy;
+		private int mPageSize;
+		private int mCount;
+		
+		// Sort key of the last item of each page loaded so far (the next page starts right after it)
+		private ArrayList<long[]> mPageEndKeys = new ArrayList<long[]>();
+		// Page index to its items (in least-recently-used order)
+		private LinkedHashMap<Integer, ArrayList<Item>> mPages;
+		private Item mLastItem = null;
+		
+		private AsyncLoader mLoader = null;
+		private OnPageLoadedListener mListener = null;
+		private HashSet<Integer> mRequestedPages = new HashSet<Integer>(); // Pages being loaded in the background
+		
+		private PagedItemList(String where, ItemSortMode sortMode, int pageSize, final int maxPages) {
+			mWhere = where;
+			mPageSize = pageSize;
+			
+			// Same order as getOrderby, with the item ID as a tie-breaker (so the sort key is unique)
+			if (sortMode == ItemSortMode.SORT_BY_DUE_DATE) {
+				mSortColumns = new String[] { DBConsts.ITEMS_COMPLETED, DBConsts.ITEMS_DUE_DATE,
+						DBConsts.ITEMS_PRIORITY, DBConsts.ITEMS_PROJECT_ID, DBConsts.ITEMS_ID };
+				mSortAscending = new boolean[] { true, true, false, true, true };
+			} else {
+				mSortColumns = new String[] { DBConsts.ITEMS_COMPLETED, DBConsts.ITEMS_PROJECT_ID,
+						DBConsts.ITEMS_ORDER, DBConsts.ITEMS_ID };
+				mSortAscending = new boolean[] { true, true, true, true };
+			}
+			
+			StringBuilder orderBy = new StringBuilder();
+			for (int i = 0; i < mSortColumns.length; i++) {
+				if (i > 0) orderBy.append(", ");
+				orderBy.append(mSortColumns[i]).append(mSortAscending[i] ? " ASC" : " DESC");
+			}
+			mOrderBy = orderBy.toString();
+			
+			mPages = new LinkedHashMap<Integer, ArrayList<Item>>(maxPages + 1, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, ArrayList<Item>> eldest) {
+					return (size() > maxPages);
+				}
+			};
+			
+			SQLiteDatabase db = getReadDatabase();
+			Cursor c = db.rawQuery(String.format("SELECT COUNT(*) FROM %s WHERE %s", DBConsts.ITEMS_TABLE_NAME, mWhere), null);
+			c.moveToFirst();
+			mCount = c.getInt(0);
+			c.close();
+			
+			// The list is usually displayed from its start - so the first page is loaded along with it
+			if (mCount > 0) loadPage(0);
+		}
+		
+		/**
+		 * Loads pages in the background from now on (instead of by the thread accessing the list)
+		 * @param loader the loader of the view displaying the list
+		 * @param listener called once a page was loaded
+		 */
+		public synchronized void setAsyncLoader(AsyncLoader loader, OnPageLoadedListener listener) {
+			mLoader = loader;
+			mListener = listener;
+		}
+		
+		@Override
+		public int size() {
+			return mCount;
+		}
+		
+		@Override
+		public synchronized String toString() {
+			// Don't load all items just for logging
+			return String.format("<PagedItemList: %d items; %d pages loaded>", mCount, mPages.size());
+		}
+		
+		@Override
+		public synchronized Item get(int position) {
+			if ((position < 0) || (position >= mCount)) {
+				throw new IndexOutOfBoundsException(String.format("Position: %d; Size: %d", position, mCount));
+			}
+			
+			int pageIndex = position / mPageSize;
+			int offset = position % mPageSize;
+			ArrayList<Item> page = mPages.get(pageIndex);
+			
+			if (mLoader != null) {
+				if (page == null) {
+					requestPage(pageIndex);
+					return new Item(); // Placeholder (until the page is loaded)
+				}
+				
+				// Load the neighboring page ahead of time, once we're near the page edge
+				if ((offset >= mPageSize - PAGED_ITEMS_PREFETCH_DISTANCE) && ((pageIndex + 1) * mPageSize < mCount)) {
+					requestPage(pageIndex + 1);
+				} else if ((offset < PAGED_ITEMS_PREFETCH_DISTANCE) && (pageIndex > 0)) {
+					requestPage(pageIndex - 1);
+				}
+				
+			} else if (page == null) {
+				page = loadPage(pageIndex);
+			}
+			
+			if (offset >= page.size()) {
+				// Items were deleted since the list was created - show the last item instead (until the
+				// list is re-created)
+				return (mLastItem != null ? mLastItem : new Item());
+			}
+			
+			mLastItem = page.get(offset);
+			return mLastItem;
+		}
+		
+		/**
+		 * Loads a page in the background (unless it's already loaded or being loaded) - the listener
+		 * is called once it's loaded. Should be called while holding the list's lock.
+		 */
+		private void requestPage(final int pageIndex) {
+			if ((mPages.containsKey(pageIndex)) || (mRequestedPages.contains(pageIndex))) return;
+			
+			mRequestedPages.add(pageIndex);
+			
+			mLoader.load(String.format("paged_items_%d", pageIndex), new AsyncLoader.Task<Void>() {
+				@Override
+				protected Void load() {
+					loadPage(pageIndex);
+					return null;
+				}
+				
+				@Override
+				protected void onLoaded(Void result) {
+					OnPageLoadedListener listener;
+					
+					synchronized (PagedItemList.this) {
+						mRequestedPages.remove(pageIndex);
+						listener = mListener;
+					}
+					
+					if (listener != null) listener.onPageLoaded();
+				}
+			});
+		}
+		
+		/**
+		 * Loads a page (along with any previous pages whose position in the list isn't known yet).
+		 * The list's lock is held only while accessing the loaded pages (and not while querying) -
+		 * so the list can be read while pages are loaded in the background.
+		 */
+		private ArrayList<Item> loadPage(int pageIndex) {
+			ArrayList<Item> page = null;
+			int firstPage;
+			
+			synchronized (this) {
+				firstPage = Math.min(mPageEndKeys.size(), pageIndex);
 			}
-			// Return only non-deleted items
-			query += String.format("%s <> '%s'", DBConsts.ITEMS_DIRTY_STATE, DirtyState.DELETED.toString());
+			
+			// Since each page starts after the previous one's last item, we must know where
+			// the previous page ends
+			for (int i = firstPage; i <= pageIndex; i++) {
+				long[] afterKey;
+				
+				synchronized (this) {
+					if ((i > 0) && (mPageEndKeys.size() < i)) {
+						// Previous page was empty (items were deleted since the list was created)
+						page = new ArrayList<Item>();
+						mPages.put(pageIndex, page);
+						return page;
+					}
+					
+					afterKey = (i == 0 ? null : mPageEndKeys.get(i - 1));
+				}
+				
+				long span = Trace.begin();
+				
+				page = queryPage(afterKey, i);
+				
+				synchronized (this) {
+					mPages.put(i, page);
+				}
+				
+				Trace.end("PagedItemList.loadPage", span);
+			}
+			
+			return page;
 		}
 		
-		// Add the item order
-		query += String.format(" ORDER BY %s", getOrderby(sortMode));
-		
-		c = db.rawQuery(query, new String[] {});
-		
-		return fillItemsFromCursor(db, c);
-	}
-	
-	
-	
-	// Private item related methods
-	
-	
-	/**
-	 * Private utility function that returns the "order by" query string in
-	 * regards to the input item sort mdoe
-	 * 
-	 * @param sortMode
-	 * @return
-	 */
-	private String getOrderby(ItemSortMode sortMode) {
-		if (sortMode == ItemSortMode.ORIGINAL_ORDER) {
-			// First, completed items at the end, then by project (if we're in filter by label
-			// mode, this will group items from same project together) finally by itemOrder
-			return String.format("%s ASC, %s ASC, %s ASC",
-					DBConsts.ITEMS_COMPLETED, DBConsts.ITEMS_PROJECT_ID, DBConsts.ITEMS_ORDER);
+		private ArrayList<Item> queryPage(long[] afterKey, int pageIndex) {
+			SQLiteDatabase db = getReadDatabase();
+			String where = mWhere;
 			
-		} else /*if (sortMode == ItemSortMode.SORT_BY_DUE_DATE) */ {
-			// First, completed items at the end, afterwards sort by dueDate, then sort by priority, finally sort by project
-			return String.format("%s ASC, %s ASC, %s DESC, %s ASC",
-					DBConsts.ITEMS_COMPLETED, DBConsts.ITEMS_DUE_DATE,
-					DBConsts.ITEMS_PRIORITY, DBConsts.ITEMS_PROJECT_ID);
+			if (afterKey != null) {
+				where = String.format("(%s) AND (%s)", mWhere, getKeysetCondition(afterKey));
+			}
+			
+			Cursor c = db.query(DBConsts.ITEMS_TABLE_NAME, null, where, null, null, null, mOrderBy, String.valueOf(mPageSize));
+			RowMappers.ItemMapper mapper = new RowMappers.ItemMapper(c);
+			ArrayList<Item> items = new ArrayList<Item>(c.getCount());
+			long[] lastKey = null;
+			
+			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+				items.add(mapper.map());
+				
+				if (c.isLast()) {
+					lastKey = new long[mSortColumns.length];
+					for (int i = 0; i < mSortColumns.length; i++) {
+						lastKey[i] = c.getLong(c.getColumnIndex(mSortColumns[i]));
+					}
+				}
+			}
+			
+			c.close();
+			
+			fillItemsLabelIds(items, false);
+			
+			if (lastKey != null) {
+				synchronized (this) {
+					if (pageIndex < mPageEndKeys.size()) {
+						mPageEndKeys.set(pageIndex, lastKey);
+					} else {
+						mPageEndKeys.add(lastKey);
+					}
+				}
+			}
+			
+			return items;
 		}
 		
+		/**
+		 * Returns a condition matching all rows which come after the given sort key, e.g. for
+		 * (a ASC, b DESC, id ASC): (a > ?) OR (a = ? AND b < ?) OR (a = ? AND b = ? AND id > ?)
+		 */
+		private String getKeysetCondition(long[] key) {
+			StringBuilder condition = new StringBuilder();
+			
+			for (int i = 0; i < mSortColumns.length; i++) {
+				if (i > 0) condition.append(" OR ");
+				condition.append("(");
+				
+				for (int j = 0; j < i; j++) {
+					condition.append(String.format("%s = %d AND ", mSortColumns[j], key[j]));
+				}
+				
+				condition.append(String.format("%s %s %d", mSortColumns[i], (mSortAscending[i] ? ">" : "<"), key[i]));
+				condition.append(")");
+			}
+			
+			return condition.toString();
+		}
 	}
 	
 	/**
-	 * Private utility function for retrieving items a result cursor; for each item,
-	 * also fills out its label IDs
-	 * @param c
-	 * @return
+	 * Fills out the label IDs of several items at once (using a single query)
+	 * @param items
+	 * @param isAllItems true if the items are all of the user's items (in which case the whole
+	 * 		items-to-labels table is read, instead of listing the item IDs in the query)
 	 */
-	private ArrayList<Item> fillItemsFromCursor(SQLiteDatabase db, Cursor c) {
-		ArrayList<Item> items = new ArrayList<Item>();
-		
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-			Item newItem = getItemFromCursor(c);
-			newItem.labelIds = getItemLabelIDs(newItem);
-			items.add(newItem);
-		}
+	private void fillItemsLabelIds(ArrayList<Item> items, boolean isAllItems) {
+		if (items.size() == 0) return;
 		
-		c.close();
+		SQLiteDatabase db = getReadDatabase();
+		Hashtable<Integer, Item> idsToItems = new Hashtable<Integer, Item>();
+		StringBuilder ids = new StringBuilder();
 		
-		return items;
-	}
-	
-
-	private Item getItemFromCursor(Cursor c) {
-		Item item = new Item();
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			
+			item.labelIds = Item.NO_LABELS;
+			idsToItems.put(item.id, item);
+			
+			if (isAllItems) continue;
+			
+			if (i > 0) ids.append(",");
+			ids.append(item.id);
+		}
 		
-		item.id = c.getInt(c.getColumnIndex(DBConsts.ITEMS_ID));
-		item.projectId = c.getInt(c.getColumnIndex(DBConsts.ITEMS_PROJECT_ID));
-		item.rawContent = c.getString(c.getColumnIndex(DBConsts.ITEMS_CONTENT));
-		item.dateString = c.getString(c.getColumnIndex(DBConsts.ITEMS_DATE_STRING));
+		// Ordered by item, so each item's label IDs are read consecutively
+		Cursor c = db.query(DBConsts.ITEMS_TO_LABELS_TABLE_NAME,
+				new String[] { DBConsts.ITEMS_TO_LABELS_ITEM_ID, DBConsts.ITEMS_TO_LABELS_LABEL_ID },
+				(isAllItems ? null : String.format("%s IN (%s)", DBConsts.ITEMS_TO_LABELS_ITEM_ID, ids.toString())),
+				null, null, null, DBConsts.ITEMS_TO_LABELS_ITEM_ID);
 		
-		// In case the item has no due date, it is saved in the DB as a MAX_LONG value (used when
-		// sorting by due date, in order for it to appear last)
-		long dateNum = c.getLong(c.getColumnIndex(DBConsts.ITEMS_DUE_DATE));
-		item.dueDate = new Date(((dateNum == Long.MAX_VALUE) || (dateNum < 0) ? 0 : dateNum));
+		int[] labelIds = new int[16];
+		int labelCount = 0;
+		int currentItemId = 0;
 		
-		item.indentLevel = c.getInt(c.getColumnIndex(DBConsts.ITEMS_INDENT));
-		item.noteCount = c.getInt(c.getColumnIndex(DBConsts.ITEMS_NOTE_COUNT));
-		item.itemOrder = c.getInt(c.getColumnIndex(DBConsts.ITEMS_ORDER));
-		item.priority = c.getInt(c.getColumnIndex(DBConsts.ITEMS_PRIORITY));
-		item.completed = (c.getInt(c.getColumnIndex(DBConsts.ITEMS_COMPLETED)) == 0 ? false : true);
-		item.dirtyState = DirtyState.valueOf(c.getString(c.getColumnIndex(DBConsts.ITEMS_DIRTY_STATE)));
+		for (c.moveToFirst(); ; c.moveToNext()) {
+			boolean isDone = c.isAfterLast();
+			int itemId = (isDone ? 0 : c.getInt(0));
+			
+			if ((labelCount > 0) && ((isDone) || (itemId != currentItemId))) {
+				// Done reading the current item's label IDs
+				Item item = idsToItems.get(currentItemId);
+				
+				if (item != null) {
+					item.labelIds = new int[labelCount];
+					System.arraycopy(labelIds, 0, item.labelIds, 0, labelCount);
+				}
+				
+				labelCount = 0;
+			}
+			
+			if (isDone) break;
+			
+			if (labelCount == labelIds.length) {
+				int[] newLabelIds = new int[labelIds.length * 2];
+				System.arraycopy(labelIds, 0, newLabelIds, 0, labelCount);
+				labelIds = newLabelIds;
+			}
+			
+			currentItemId = itemId;
+			labelIds[labelCount++] = c.getInt(1);
+		}
 		
-		return item;
+		c.close();
 	}
 	
 	
@@ -975,19 +1998,24 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		ContentValues values = new ContentValues();
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		if ((oldProject != null) && (oldProject.id != newProject.id)) {
 			// ID was changed - this happens when a project is added to local storage, but not yet
 			// sync'd with online server (thus, it was assigned with a temp ID)
 			
 			// Delete old project record
-			db.delete(DBConsts.PROJECTS_TABLE_NAME, DBConsts.PROJECTS_ID + "=?", new String []{ String.valueOf(oldProject.id) });
+			deleteRow(db, DBConsts.PROJECTS_TABLE_NAME, DBConsts.PROJECTS_ID, oldProject.id);
 			
 			// Update all items under that project (update to new project ID)
 			ContentValues itemValues = new ContentValues();
 			itemValues.put(DBConsts.ITEMS_PROJECT_ID, newProject.id);
-			db.update(DBConsts.ITEMS_TABLE_NAME, itemValues, DBConsts.ITEMS_PROJECT_ID + "=?", new String []{ String.valueOf(oldProject.id) });
+			itemValues.put(DBConsts.ITEMS_SYNC_HASH, 0); // Unknown (the hash includes the project ID)
+			int itemsUpdated = db.update(DBConsts.ITEMS_TABLE_NAME, itemValues, DBConsts.ITEMS_PROJECT_ID + "=?", new String []{ String.valueOf(oldProject.id) });
+			if (itemsUpdated > 0) {
+				countRowsWritten(DBConsts.ITEMS_TABLE_NAME, itemsUpdated);
+				mChangeFeed.recordTableChange(DBConsts.ITEMS_TABLE_NAME);
+			}
 			
 			// Update any items that were moved to that project (since they're marked under the old project ID)
 			List<Item> movedItems = getItemsMoved(oldProject.id);
@@ -1006,10 +2034,11 @@ public class TodoistOfflineStorage {
 		values.put(DBConsts.PROJECTS_INDENT, newProject.indentLevel);
 		values.put(DBConsts.PROJECTS_ITEM_COUNT, newProject.itemCount);
 		values.put(DBConsts.PROJECTS_ORDER, newProject.itemOrder);
-		values.put(DBConsts.PROJECTS_DIRTY_STATE, newProject.dirtyState.toString());
+		values.put(DBConsts.PROJECTS_DIRTY_STATE, newProject.dirtyState.getCode());
+		// (The sync hash is saved separately by the sync - see setSyncHash)
 		
 		
-		db.replace(DBConsts.PROJECTS_TABLE_NAME, null, values);
+		replaceRow(db, DBConsts.PROJECTS_TABLE_NAME, DBConsts.PROJECTS_ID, newProject.id, values);
 	}
 	
 	
@@ -1020,11 +2049,101 @@ public class TodoistOfflineStorage {
 	public void deleteProject(Project project) {
 		SQLiteDatabase db;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// Delete the project from the project table
-		db.delete(DBConsts.PROJECTS_TABLE_NAME, DBConsts.PROJECTS_ID + "=?", new String []{ String.valueOf(project.id) });
+		deleteRow(db, DBConsts.PROJECTS_TABLE_NAME, DBConsts.PROJECTS_ID, project.id);
+		
+	}
+	
+	/**
+	 * Deletes a project along with all of its items, using a few set-based statements in a single
+	 * transaction: the project and its items are marked as DELETED (or simply removed, if they were
+	 * ADDED and not yet sync'd online), their notes and labels are removed, and the item count of
+	 * the affected labels is updated.
+	 * 
+	 * @param project
+	 * @return number of items deleted
+	 */
+	public int deleteProjectCascade(Project project) {
+		SQLiteDatabase db;
+		String projectId = String.valueOf(project.id);
+		String itemsOfProject = String.format("(SELECT %s FROM %s WHERE %s = ?)",
+				DBConsts.ITEMS_ID, DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_PROJECT_ID);
+		int itemCount;
+		
+		db = getWriteDatabase();
+		
+		beginTransaction(db);
+		
+		try {
+			// Recount the labels of the project's items (before their labels are removed), counting
+			// only items from other projects - since all items of this project are about to be deleted
+			String query = String.format(
+					"UPDATE %s SET %s = (" +
+						"SELECT COUNT(%s.%s) FROM %s, %s " +
+						"WHERE " +
+						"(%s.%s = %s.%s) AND " +
+						"(%s.%s = %s.%s) AND " +
+						"(%s.%s <> ?) AND " +
+						"(%s.%s = 0) AND " +
+						"(%s.%s <> ?)" +
+					") " +
+					"WHERE (%s <> ?) AND (%s IN (SELECT %s FROM %s WHERE %s IN %s))",
+					DBConsts.LABELS_TABLE_NAME, DBConsts.LABELS_COUNT,
+					DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID,
+					DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TABLE_NAME,
+					DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID, DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_ID,
+					DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_LABEL_ID, DBConsts.LABELS_TABLE_NAME, DBConsts.LABELS_ID,
+					DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_DIRTY_STATE,
+					DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_COMPLETED,
+					DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_PROJECT_ID,
+					DBConsts.LABELS_DIRTY_STATE, DBConsts.LABELS_ID,
+					DBConsts.ITEMS_TO_LABELS_LABEL_ID, DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID, itemsOfProject);
+			db.execSQL(query, new Object[] { DirtyState.DELETED.getCode(), projectId, DirtyState.DELETED.getCode(), projectId });
+			countRowsWritten(DBConsts.LABELS_TABLE_NAME, getLastStatementChanges(db));
+			
+			// Remove the notes and labels attached to the project's items
+			int notesDeleted = db.delete(DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_ITEM_ID + " IN " + itemsOfProject, new String[] { projectId });
+			int labelsDeleted = db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID + " IN " + itemsOfProject, new String[] { projectId });
+			
+			// Items which weren't sync'd online yet are simply removed - the rest are marked as DELETED
+			// (so they'll be deleted from the online server when syncing)
+			itemCount = db.delete(DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_PROJECT_ID + "=? AND " + DBConsts.ITEMS_DIRTY_STATE + "=?",
+					new String[] { projectId, String.valueOf(DirtyState.ADDED.getCode()) });
+			
+			ContentValues itemValues = new ContentValues();
+			itemValues.put(DBConsts.ITEMS_DIRTY_STATE, DirtyState.DELETED.getCode());
+			itemCount += db.update(DBConsts.ITEMS_TABLE_NAME, itemValues, DBConsts.ITEMS_PROJECT_ID + "=? AND " + DBConsts.ITEMS_DIRTY_STATE + "<>?",
+					new String[] { projectId, String.valueOf(DirtyState.DELETED.getCode()) });
+			
+			if (project.dirtyState == DirtyState.ADDED) {
+				// The project wasn't sync'd online yet - simply remove it
+				deleteRow(db, DBConsts.PROJECTS_TABLE_NAME, DBConsts.PROJECTS_ID, project.id);
+			} else {
+				project.dirtyState = DirtyState.DELETED;
+				project.itemCount = 0;
+				addOrUpdateProject(project, null);
+			}
+			
+			countRowsWritten(DBConsts.ITEMS_TABLE_NAME, itemCount);
+			countRowsWritten(DBConsts.NOTES_TABLE_NAME, notesDeleted);
+			countRowsWritten(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, labelsDeleted);
+			
+			if (itemCount > 0) mChangeFeed.recordTableChange(DBConsts.ITEMS_TABLE_NAME);
+			if (notesDeleted > 0) mChangeFeed.recordTableChange(DBConsts.NOTES_TABLE_NAME);
+			if (labelsDeleted > 0) mChangeFeed.recordTableChange(DBConsts.LABELS_TABLE_NAME);
+			
+			setTransactionSuccessful(db);
+			
+		} finally {
+			endTransaction(db);
+			
+			// Label counts were updated in bulk
+			invalidateLabelIndex();
+		}
 		
+		return itemCount;
 	}
 	
 	/**
@@ -1037,7 +2156,7 @@ public class TodoistOfflineStorage {
 		Cursor c = null;
 		Project project;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		c = db.query(DBConsts.PROJECTS_TABLE_NAME, null, DBConsts.PROJECTS_ID +"=?", 
 				new String []{ String.valueOf(projectId) },
@@ -1049,7 +2168,7 @@ public class TodoistOfflineStorage {
 		}
 		
 		c.moveToFirst();
-		project = getProjectFromCursor(c);
+		project = new RowMappers.ProjectMapper(c).map();
 		c.close();
 		
 		return project;
@@ -1062,21 +2181,22 @@ public class TodoistOfflineStorage {
 	 * @return
 	 */
 	public ArrayList<Project> getProjects() {
+		long span = Trace.begin();
+		
 		SQLiteDatabase db;
 		Cursor c = null;
-		ArrayList<Project> projects = new ArrayList<Project>();
+		ArrayList<Project> projects;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		c = db.query(DBConsts.PROJECTS_TABLE_NAME, null, null, 
 				null, null, null, null, null);
 		
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-			projects.add(getProjectFromCursor(c));
-		}
+		projects = new RowMappers.ProjectMapper(c).mapAll();
 
 		c.close();
 		
+		Trace.end("TodoistOfflineStorage.getProjects", span);
 		return projects;
 	}
 	
@@ -1087,12 +2207,12 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		Cursor c = null;
 	
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// Get order out of all projcets
 		c = db.query(DBConsts.PROJECTS_TABLE_NAME, new String []{ "MAX(" + DBConsts.PROJECTS_ORDER + ")" },
 				DBConsts.ITEMS_DIRTY_STATE + "<>?",
-				new String []{ DirtyState.DELETED.toString() },
+				new String []{ String.valueOf(DirtyState.DELETED.getCode()) },
 				null, null, null, null);
 		
 		c.moveToFirst();
@@ -1110,12 +2230,12 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		Cursor c = null;
 	
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// Get max item order for current project
 		c = db.query(DBConsts.ITEMS_TABLE_NAME, new String []{ "MAX(" + DBConsts.ITEMS_ORDER + ")" },
 				DBConsts.ITEMS_PROJECT_ID +"=? AND " + DBConsts.ITEMS_DIRTY_STATE + "<>?",
-				new String []{ String.valueOf(currentProject.id), DirtyState.DELETED.toString() },
+				new String []{ String.valueOf(currentProject.id), String.valueOf(DirtyState.DELETED.getCode()) },
 				null, null, null, null);
 		
 		c.moveToFirst();
@@ -1134,12 +2254,12 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		Cursor c = null;
 	
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// Get item count for current project
 		c = db.query(DBConsts.ITEMS_TABLE_NAME, new String []{ "COUNT(" + DBConsts.ITEMS_ID + ")" },
 				DBConsts.ITEMS_PROJECT_ID +"=? AND " + DBConsts.ITEMS_DIRTY_STATE + "<>? AND " + DBConsts.ITEMS_COMPLETED + "=0", 
-				new String []{ String.valueOf(currentProject.id), DirtyState.DELETED.toString() },
+				new String []{ String.valueOf(currentProject.id), String.valueOf(DirtyState.DELETED.getCode()) },
 				null, null, null, null);
 		
 		c.moveToFirst();
@@ -1167,23 +2287,6 @@ public class TodoistOfflineStorage {
 	}
 	
 	
-	// Private project related methods
-	
-	private Project getProjectFromCursor(Cursor c) {
-		Project project = new Project();
-		
-		project.id = c.getInt(c.getColumnIndex(DBConsts.PROJECTS_ID));
-		project.rawName = c.getString(c.getColumnIndex(DBConsts.PROJECTS_NAME));
-		project.colorIndex = c.getInt(c.getColumnIndex(DBConsts.PROJECTS_COLOR));
-		project.indentLevel = c.getInt(c.getColumnIndex(DBConsts.PROJECTS_INDENT));
-		project.itemCount = c.getInt(c.getColumnIndex(DBConsts.PROJECTS_ITEM_COUNT));
-		project.itemOrder = c.getInt(c.getColumnIndex(DBConsts.PROJECTS_ORDER));
-		project.dirtyState = DirtyState.valueOf(c.getString(c.getColumnIndex(DBConsts.PROJECTS_DIRTY_STATE)));
-		
-		return project;
-	}
-	
-	
 	/*
 	 * Query related methods
 	 */
@@ -1196,14 +2299,14 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		ContentValues values = new ContentValues();
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		values.put(DBConsts.QUERIES_ID, newQuery.id);
 		values.put(DBConsts.QUERIES_NAME, newQuery.name);
 		values.put(DBConsts.QUERIES_QUERY, newQuery.query);
 		
 		// Add/update the query in the queries list
-		db.replace(DBConsts.QUERIES_TABLE_NAME, null, values);
+		replaceRow(db, DBConsts.QUERIES_TABLE_NAME, DBConsts.QUERIES_ID, newQuery.id, values);
 		
 	}
 	
@@ -1213,10 +2316,10 @@ public class TodoistOfflineStorage {
 	 */
 	public void deleteQuery(Query query) {
 		SQLiteDatabase db;
-		db = mDbHelper.getWritableDatabase();
+		db = getWriteDatabase();
 		
 		// Delete the query from the queries table
-		db.delete(DBConsts.QUERIES_TABLE_NAME, DBConsts.QUERIES_ID + "=?", new String []{ String.valueOf(query.id) });
+		deleteRow(db, DBConsts.QUERIES_TABLE_NAME, DBConsts.QUERIES_ID, query.id);
 		
 	}
 
@@ -1228,17 +2331,13 @@ public class TodoistOfflineStorage {
 		SQLiteDatabase db;
 		Cursor c = null;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		// Return all queries
 		c = db.query(DBConsts.QUERIES_TABLE_NAME, null, null, 
 				null, null, null, null, null);
 		
-		ArrayList<Query> queries = new ArrayList<Query>();
-		
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-			queries.add(getQueryFromCursor(c));
-		}
+		ArrayList<Query> queries = new RowMappers.QueryMapper(c).mapAll();
 
 		c.close();
 		
@@ -1255,7 +2354,7 @@ public class TodoistOfflineStorage {
 		Cursor c = null;
 		Query query;
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
 		c = db.query(DBConsts.QUERIES_TABLE_NAME, null, DBConsts.QUERIES_ID +"=?", 
 				new String []{ String.valueOf(queryId) },
@@ -1267,30 +2366,33 @@ public class TodoistOfflineStorage {
 		}
 		
 		c.moveToFirst();
-		query = getQueryFromCursor(c);
+		query = new RowMappers.QueryMapper(c).map();
 		c.close();
 		
 		return query;
 	}
 
-	private Query getQueryFromCursor(Cursor c) {
-		Query query = new Query();
-		
-		query.id = c.getInt(c.getColumnIndex(DBConsts.QUERIES_ID));
-		query.name = c.getString(c.getColumnIndex(DBConsts.QUERIES_NAME));
-		query.query = c.getString(c.getColumnIndex(DBConsts.QUERIES_QUERY));
-		
-		return query;
-	}
 	
 
 	
+	/**
+	 * Returns whether or not a query simply returns all items (i.e. "viewall" or "va")
+	 * @param query
+	 * @return
+	 */
+	public static boolean isViewAllQuery(String query) {
+		query = query.trim().toLowerCase();
+		return ((query.equals("viewall")) || (query.equals("va")));
+	}
+	
 	/**
 	 * Returns a list of items by a specific query (e.g. "today, tomorrow, p1, p2")
 	 * @param query
 	 * @param getCompleted should completed items be shown as well?
 	 */
 	public ArrayList<Item> getItemsByQuery(String query, boolean getCompleted) {
+		long span = Trace.begin();
+		
 		String[] subQueries = query.split(",");
 		ArrayList<Item> results = new ArrayList<Item>();
 		ArrayList<Item> subQueryResults;
@@ -1315,6 +2417,7 @@ public class TodoistOfflineStorage {
 			}
 		}
 		
+		Trace.end("TodoistOfflineStorage.getItemsByQuery", span);
 		return results;
 	}
 	
@@ -1417,9 +2520,10 @@ public class TodoistOfflineStorage {
 	 * Possible date queries: today, tomorrow, next friday, 10/5, ...
 	 * 
 	 * @param matcher
+	 * @param dateFormat dd-mm-yyyy or mm-dd-yyyy? (if null, the saved user's date format is used)
 	 * @return
 	 */
-	private Calendar getDateFromQuery(Matcher matcher) {
+	private Calendar getDateFromQuery(Matcher matcher, DateFormat dateFormat) {
 		Calendar c = Calendar.getInstance();
 		
 		c.set(Calendar.HOUR_OF_DAY, 0);
@@ -1450,13 +2554,34 @@ public class TodoistOfflineStorage {
 			
 		} else {
 			// "10/5", "10", ...
-			User user = loadUser();
-			c = calculateRealDate(matcher, user.dateFormat);
+			if (dateFormat == null) {
+				User user = loadUser();
+				dateFormat = user.dateFormat;
+			}
+			c = calculateRealDate(matcher, dateFormat);
 		}
 		
 		return c;
 	}
 	
+	/**
+	 * Parses a date query (e.g. "today", "next friday", "10/5", "sep 23") into a Calendar instance
+	 * 
+	 * @param dateQuery
+	 * @param dateFormat dd-mm-yyyy or mm-dd-yyyy?
+	 * @return null if dateQuery is not a date query
+	 */
+	public Calendar parseQueryDate(String dateQuery, DateFormat dateFormat) {
+		Pattern patternContextualDate = Pattern.compile(REGEX_CONTEXTUAL_DATE, Pattern.CASE_INSENSITIVE);
+		Matcher matcher = patternContextualDate.matcher(dateQuery.trim().toLowerCase());
+		
+		if (!matcher.matches()) {
+			return null;
+		}
+		
+		return getDateFromQuery(matcher, dateFormat);
+	}
+	
 	/**
 	 * Private utility function for calculating a real date string
 	 * @param matcher result from matching the regular expression for a real date
@@ -1590,7 +2715,7 @@ public class TodoistOfflineStorage {
 		Pattern patternLabel = Pattern.compile(REGEX_LABEL, Pattern.CASE_INSENSITIVE);
 		Pattern patternDaysSchedule = Pattern.compile(REGEX_DAYS_SCHEDULE, Pattern.CASE_INSENSITIVE);
 		
-		if ((subQuery.equals("viewall")) || (subQuery.equals("va"))) {
+		if (isViewAllQuery(subQuery)) {
 			// Return all items (excluding deleted items)
 			return this.getAllItems(getCompleted, false, ItemSortMode.SORT_BY_DUE_DATE);
 		}
@@ -1683,7 +2808,7 @@ public class TodoistOfflineStorage {
 		matcher = patternContextualDate.matcher(subQuery);
 		if (matcher.matches()) {
 			// A date query - "today", "tomorrow", "10/5", "next friday", ...
-			long[] day = getDayStartAndEnd(getDateFromQuery(matcher));
+			long[] day = getDayStartAndEnd(getDateFromQuery(matcher, null));
 			
 			// Sort by due date, then by priority
 			filterQuery = String.format("%s BETWEEN %d AND %d ORDER BY %s ASC, %s DESC",
@@ -1725,8 +2850,8 @@ public class TodoistOfflineStorage {
 		}
 		
 		// Don't return deleted items
-		filterQuery = String.format("%s <> '%s' AND %s",
-				DBConsts.ITEMS_DIRTY_STATE, DirtyState.DELETED.toString(),
+		filterQuery = String.format("%s <> %d AND %s",
+				DBConsts.ITEMS_DIRTY_STATE, DirtyState.DELETED.getCode(),
 				filterQuery);
 		
 		
@@ -1741,7 +2866,7 @@ public class TodoistOfflineStorage {
 					DBConsts.ITEMS_TABLE_NAME,
 					filterQuery);
 			
-			db = mDbHelper.getWritableDatabase();
+			db = getReadDatabase();
 			cursor = db.rawQuery(query, new String[] {});
 			
 		} else {
@@ -1767,13 +2892,15 @@ public class TodoistOfflineStorage {
 					DBConsts.ITEMS_TO_LABELS_TABLE_NAME, DBConsts.ITEMS_TO_LABELS_ITEM_ID, DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_ID,
 					filterQuery);
 			
-			db = mDbHelper.getWritableDatabase();
+			db = getReadDatabase();
 			cursor = db.rawQuery(query, new String[] { });
 		
 		}
 		
+		RowMappers.ItemMapper mapper = new RowMappers.ItemMapper(cursor);
+		
 		for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-			Item item = getItemFromCursor(cursor);
+			Item item = mapper.map();
 			
 			item.labelIds = getItemLabelIDs(item); // Fill-in label IDs
 			items.add(item);
@@ -1820,24 +2947,188 @@ public class TodoistOfflineStorage {
 		
 		// Next, clear database (projects/items/labels/notes)
 		clearTodoistData();
+		
+		// Saved view states belong to the logged-in user as well
+		ColdStartSnapshot.clear(mContext);
+		
+		// Sync history belongs to the logged-in user as well
+		clearSyncHistory();
+		
+		// Next backup should be a full one
+		resetBackupChain();
 	}
 	
 	
 	/**
-	 * Clears Todoist data only (Projects/Labels/Items/Notes)
+	 * Clears Todoist data only (Projects/Labels/Items/Notes)
+	 */
+	public void clearTodoistData() {
+		SQLiteDatabase db;
+
+		db = getWriteDatabase();
+		
+		// ("1" deletes all rows, while returning the number of deleted rows)
+		countRowsWritten(DBConsts.PROJECTS_TABLE_NAME, db.delete(DBConsts.PROJECTS_TABLE_NAME, "1", null));
+		countRowsWritten(DBConsts.ITEMS_TABLE_NAME, db.delete(DBConsts.ITEMS_TABLE_NAME, "1", null));
+		countRowsWritten(DBConsts.LABELS_TABLE_NAME, db.delete(DBConsts.LABELS_TABLE_NAME, "1", null));
+		countRowsWritten(DBConsts.NOTES_TABLE_NAME, db.delete(DBConsts.NOTES_TABLE_NAME, "1", null));
+		countRowsWritten(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, "1", null));
+		
+		synchronized (this) {
+			mNextTempId = 0; // Will be re-calculated according to the new data
+		}
+		
+		invalidateLabelIndex();
+		
+		mChangeFeed.recordTableChange(DBConsts.PROJECTS_TABLE_NAME);
+		mChangeFeed.recordTableChange(DBConsts.ITEMS_TABLE_NAME);
+		mChangeFeed.recordTableChange(DBConsts.LABELS_TABLE_NAME);
+		mChangeFeed.recordTableChange(DBConsts.NOTES_TABLE_NAME);
+	}
+
+
+	/**
+	 * Returns the total number of rows inserted/updated/deleted since the database was opened -
+	 * including rows written by triggers (e.g. into the backup changes table), and into tables other
+	 * than the Todoist data tables (see getRowsWritten)
+	 * @return
+	 */
+	public int getTotalChanges() {
+		SQLiteDatabase db;
+		Cursor c = null;
+
+		db = getWriteDatabase();
+
+		c = db.rawQuery("SELECT total_changes()", null);
+		c.moveToFirst();
+		int changes = c.getInt(0);
+		c.close();
+
+		return changes;
+	}
+
+	/**
+	 * Returns the number of local projects/labels/items/notes which were modified (added/updated/deleted)
+	 * and not yet sync'd
+	 * @return
+	 */
+	public int getDirtyRowCount() {
+		SQLiteDatabase db;
+		Cursor c = null;
+
+		db = getReadDatabase();
+
+		String query = String.format(
+				"SELECT (SELECT COUNT(*) FROM %s WHERE %s <> ?) + (SELECT COUNT(*) FROM %s WHERE %s <> ?) + " +
+				"(SELECT COUNT(*) FROM %s WHERE %s <> ?) + (SELECT COUNT(*) FROM %s WHERE %s <> ?)",
+				DBConsts.PROJECTS_TABLE_NAME, DBConsts.PROJECTS_DIRTY_STATE,
+				DBConsts.LABELS_TABLE_NAME, DBConsts.LABELS_DIRTY_STATE,
+				DBConsts.ITEMS_TABLE_NAME, DBConsts.ITEMS_DIRTY_STATE,
+				DBConsts.NOTES_TABLE_NAME, DBConsts.NOTES_DIRTY_STATE);
+		String unmodified = String.valueOf(DirtyState.UNMODIFIED.getCode());
+
+		c = db.rawQuery(query, new String[] { unmodified, unmodified, unmodified, unmodified });
+		c.moveToFirst();
+		int count = c.getInt(0);
+		c.close();
+
+		return count;
+	}
+
+
+	/*
+	 * Sync history related methods
+	 */
+
+
+	/**
+	 * Adds a finished sync run to the sync history (only the latest MAX_SYNC_HISTORY runs are kept)
+	 * @param metrics
+	 */
+	public void addSyncHistory(SyncMetrics metrics) {
+		SQLiteDatabase db;
+		ContentValues values = new ContentValues();
+
+		db = getWriteDatabase();
+
+		values.put(DBConsts.SYNC_HISTORY_START_TIME, metrics.startTime);
+		values.put(DBConsts.SYNC_HISTORY_DURATION, metrics.durationMs);
+		values.put(DBConsts.SYNC_HISTORY_RESULT, metrics.result);
+		values.put(DBConsts.SYNC_HISTORY_METRICS, metrics.toJson());
+
+		db.insert(DBConsts.SYNC_HISTORY_TABLE_NAME, null, values);
+
+		// Trim older sync runs
+		db.execSQL(String.format("DELETE FROM %s WHERE %s NOT IN (SELECT %s FROM %s ORDER BY %s DESC LIMIT %d)",
+				DBConsts.SYNC_HISTORY_TABLE_NAME, DBConsts.SYNC_HISTORY_ID,
+				DBConsts.SYNC_HISTORY_ID, DBConsts.SYNC_HISTORY_TABLE_NAME, DBConsts.SYNC_HISTORY_ID,
+				MAX_SYNC_HISTORY));
+	}
+
+	/**
+	 * Returns the recent sync runs (newest first)
+	 * @return
+	 */
+	public ArrayList<SyncMetrics> getSyncHistory() {
+		SQLiteDatabase db;
+		Cursor c = null;
+
+		db = getReadDatabase();
+
+		c = db.query(DBConsts.SYNC_HISTORY_TABLE_NAME, new String[] { DBConsts.SYNC_HISTORY_METRICS },
+				null, null, null, null, DBConsts.SYNC_HISTORY_ID + " DESC");
+
+		ArrayList<SyncMetrics> history = new ArrayList<SyncMetrics>();
+
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			try {
+				history.add(SyncMetrics.fromJson(c.getString(0)));
+			} catch (Exception e) {
+				Log.e(TAG, "Invalid sync history entry", e);
+			}
+		}
+
+		c.close();
+
+		return history;
+	}
+
+	/**
+	 * Exports the sync history into a JSON file (an array of sync runs, newest first)
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void exportSyncHistory(String filename) throws IOException {
+		ArrayList<SyncMetrics> history = getSyncHistory();
+		StringBuilder json = new StringBuilder("[");
+
+		for (int i = 0; i < history.size(); i++) {
+			if (i > 0) json.append(",\n");
+			json.append(history.get(i).toJson());
+		}
+
+		json.append("]\n");
+
+		FileOutputStream out = new FileOutputStream(filename);
+
+		try {
+			out.write(json.toString().getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Clears the sync history
 	 */
-	public void clearTodoistData() {
+	public void clearSyncHistory() {
 		SQLiteDatabase db;
 
-		db = mDbHelper.getWritableDatabase();
-		
-		db.delete(DBConsts.PROJECTS_TABLE_NAME, null, null);
-		db.delete(DBConsts.ITEMS_TABLE_NAME, null, null);
-		db.delete(DBConsts.LABELS_TABLE_NAME, null, null);
-		db.delete(DBConsts.NOTES_TABLE_NAME, null, null);
-		db.delete(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, null, null);
+		db = getWriteDatabase();
+
+		db.delete(DBConsts.SYNC_HISTORY_TABLE_NAME, null, null);
 	}
-	
+
 	
 	/*
 	 * User related methods
@@ -2212,6 +3503,31 @@ public class TodoistOfflineStorage {
 		
 		return preferences.getBoolean(PREFERENCES_SYNC_ON_EXIT, false);
 	}
+	
+	/**
+	 * Sets how recent the last sync should be (in minutes) for skipping the startup sync
+	 * 
+	 * @param mins 0 means always sync on startup
+	 */
+	public void setStartupSyncFreshness(int mins) {
+		SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_SYNC, Activity.MODE_PRIVATE);
+		Editor editor = preferences.edit();
+		
+		editor.putInt(PREFERENCES_SYNC_STARTUP_FRESHNESS, mins);
+
+		editor.commit();
+	}
+	
+	/**
+	 * Returns how recent the last sync should be (in minutes) for skipping the startup sync
+	 * 
+	 * @return
+	 */
+	public int getStartupSyncFreshness() {
+		SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_SYNC, Activity.MODE_PRIVATE);
+		
+		return preferences.getInt(PREFERENCES_SYNC_STARTUP_FRESHNESS, DEFAULT_STARTUP_SYNC_FRESHNESS);
+	}
 
 	/**
 	 * Sets the initial view
@@ -2543,6 +3859,22 @@ public class TodoistOfflineStorage {
 	 * @returns the filename the Todoist data was saved to
 	 */
 	public String backupTodoistData(Context context) throws IOException {
+		return backupTodoistData(context, false);
+	}
+	
+	/**
+	 * Backups Todoist data into a zip file (see above) - either a full backup, or an incremental
+	 * backup containing only the rows changed/deleted since the previous backup. Incremental backups
+	 * are chained to the previous backup (in the same directory), starting with a full backup - a new
+	 * full backup is made once the chain becomes too long (or if the previous backup is missing).
+	 * 
+	 * @param context
+	 * @param incremental
+	 * @throws IOException 
+	 * @returns the filename the Todoist data was saved to (null if nothing was changed since the
+	 * 		previous backup, so no incremental backup was needed)
+	 */
+	public String backupTodoistData(Context context, boolean incremental) throws IOException {
 	    String backupDir = getBackupPath();
 	    
 	    if (backupDir == null) {
@@ -2550,6 +3882,23 @@ public class TodoistOfflineStorage {
 		    backupDir = getDefaultBackupPath(context);
 	    }
 	    
+	    SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_BACKUP, Activity.MODE_PRIVATE);
+	    String previousFilename = preferences.getString(PREFERENCES_BACKUP_CHAIN_LAST_FILE, null);
+	    int chainLength = preferences.getInt(PREFERENCES_BACKUP_CHAIN_LENGTH, 0);
+	    
+	    if (incremental) {
+	    	if ((previousFilename == null) || (chainLength >= MAX_INCREMENTAL_BACKUPS) ||
+	    			(!new File(previousFilename).exists()) ||
+	    			(!new File(previousFilename).getParentFile().equals(new File(backupDir)))) {
+	    		// No chain to continue (or it's long enough) - start a new one with a full backup
+	    		incremental = false;
+	    		
+	    	} else if (getLastBackupChange() == 0) {
+	    		// Nothing was changed since the previous backup
+	    		return null;
+	    	}
+	    }
+	    
 	    // Create the directory structure is non-existent
     	File dir = new File(backupDir);
     	dir.mkdirs();
@@ -2577,11 +3926,36 @@ public class TodoistOfflineStorage {
     			c.get(Calendar.HOUR_OF_DAY),
     			c.get(Calendar.MINUTE));
     	
+    	if (incremental) {
+    		dateString = String.format("%s_incremental_%d", dateString, chainLength + 1);
+    	}
+    	
     	// Compose final backup filename
 	    String backupFilename = String.format("%s/%s_%s.zip",
 	    		backupDir, BACKUP_FILENAME_TEMPLATE, dateString);
 	    
-	    backupTodoistData(backupFilename);
+	    // Changes made from now on (while backing up) will be part of the next backup
+	    long lastChange = getLastBackupChange();
+	    
+	    writeBackup(backupFilename, (incremental ? new File(previousFilename).getName() : null), lastChange);
+	    
+	    // The backup now contains all changes made up until it started
+	    clearBackupChanges(lastChange);
+	    
+	    Editor editor = preferences.edit();
+	    editor.putString(PREFERENCES_BACKUP_CHAIN_LAST_FILE, backupFilename);
+	    editor.putInt(PREFERENCES_BACKUP_CHAIN_LENGTH, (incremental ? chainLength + 1 : 0));
+	    editor.commit();
+	    
+	    if (!incremental) {
+	    	// Refresh the binary snapshot as well (it's only a faster alternative to the full backup - so
+	    	// failing to write it doesn't fail the backup)
+	    	try {
+	    		snapshotTodoistData(String.format("%s/%s", backupDir, BACKUP_SNAPSHOT_FILENAME));
+	    	} catch (IOException e) {
+	    		Log.e(TAG, "Error while writing backup snapshot", e);
+	    	}
+	    }
 	    
 		return backupFilename;
 	}
@@ -2594,43 +3968,133 @@ public class TodoistOfflineStorage {
 	 * @throws IOException 
 	 */
 	public void backupTodoistData(String filename) throws IOException {
+		writeBackup(filename, null, 0);
+	}
+	
+	/**
+	 * Writes a full/incremental backup zip file
+	 * 
+	 * @param filename
+	 * @param previousFilename the previous backup in the chain (for incremental backups), or null for a full backup
+	 * @param lastChange incremental backups contain all rows changed up until (and including) this change
+	 * 		(see getLastBackupChange)
+	 * @throws IOException
+	 */
+	private void writeBackup(String filename, String previousFilename, long lastChange) throws IOException {
+		String[] tablesCsv = new String[TodoistDatabaseHelper.BACKUP_TABLES.length];
+		String[] changesCsv = new String[TodoistDatabaseHelper.BACKUP_TABLES.length];
 		
 		//
 		// First, convert all tables to CSV strings
 		//
 		
-		String projectsCsv = tableToCsv(DBConsts.PROJECTS_TABLE_NAME,
-				PROJECTS_COLUMN_NAMES, PROJECTS_COLUMN_TYPES);
+		for (int i = 0; i < TodoistDatabaseHelper.BACKUP_TABLES.length; i++) {
+			String tableName = TodoistDatabaseHelper.BACKUP_TABLES[i];
+			
+			if (previousFilename == null) {
+				// Full backup - all rows
+				tablesCsv[i] = tableToCsv(tableName, BACKUP_COLUMN_NAMES[i], BACKUP_COLUMN_TYPES[i], null, null);
+				
+			} else {
+				// Incremental backup - the keys of all changed/deleted rows, along with the current
+				// contents of the changed rows
+				String changedKeys = String.format("SELECT %s FROM %s WHERE %s = ? AND rowid <= ?",
+						DBConsts.BACKUP_CHANGES_KEY, DBConsts.BACKUP_CHANGES_TABLE_NAME, DBConsts.BACKUP_CHANGES_TABLE);
+				String[] args = new String[] { tableName, String.valueOf(lastChange) };
+				
+				changesCsv[i] = tableToCsv(DBConsts.BACKUP_CHANGES_TABLE_NAME,
+						new String[] { DBConsts.BACKUP_CHANGES_KEY }, new int[] { Types.INTEGER },
+						DBConsts.BACKUP_CHANGES_TABLE + " = ? AND rowid <= ?", args);
+				tablesCsv[i] = tableToCsv(tableName, BACKUP_COLUMN_NAMES[i], BACKUP_COLUMN_TYPES[i],
+						String.format("%s IN (%s)", TodoistDatabaseHelper.BACKUP_TABLE_KEYS[i], changedKeys), args);
+			}
+		}
 		
-		String labelsCsv = tableToCsv(DBConsts.LABELS_TABLE_NAME,
-				LABELS_COLUMN_NAMES, LABELS_COLUMN_TYPES);
+		JSONObject manifest = new JSONObject();
 		
-		String itemsCsv = tableToCsv(DBConsts.ITEMS_TABLE_NAME,
-				ITEMS_COLUMN_NAMES, ITEMS_COLUMN_TYPES);
-	
-		String itemsToLabelsCsv = tableToCsv(DBConsts.ITEMS_TO_LABELS_TABLE_NAME,
-				ITEMS_TO_LABELS_COLUMN_NAMES, ITEMS_TO_LABELS_COLUMN_TYPES);
-	
-		String notesCsv = tableToCsv(DBConsts.NOTES_TABLE_NAME,
-				NOTES_COLUMN_NAMES, NOTES_COLUMN_TYPES);
+		try {
+			manifest.put(BACKUP_MANIFEST_TYPE, (previousFilename == null ? BACKUP_TYPE_FULL : BACKUP_TYPE_INCREMENTAL));
+			if (previousFilename != null) manifest.put(BACKUP_MANIFEST_PREVIOUS, previousFilename);
+			manifest.put(BACKUP_MANIFEST_CREATED, System.currentTimeMillis());
+		} catch (JSONException e) {
+			throw new IOException(e.toString());
+		}
 	
 		//
-		// Next, add all CSV files to a single Zip file
+		// Next, add all CSV files to a single Zip file (changed keys first, so they're deleted
+		// before the changed rows are re-inserted when restoring)
 		//
 		
 		FileOutputStream dest = new FileOutputStream(filename, false); 
 		ZipOutputStream zipOut = new ZipOutputStream(dest);
 		
-		writeZipBuffer(DBConsts.PROJECTS_TABLE_NAME, projectsCsv, zipOut);
-		writeZipBuffer(DBConsts.LABELS_TABLE_NAME, labelsCsv, zipOut);
-		writeZipBuffer(DBConsts.ITEMS_TABLE_NAME, itemsCsv, zipOut);
-		writeZipBuffer(DBConsts.ITEMS_TO_LABELS_TABLE_NAME, itemsToLabelsCsv, zipOut);
-		writeZipBuffer(DBConsts.NOTES_TABLE_NAME, notesCsv, zipOut);
-		
-		zipOut.close();
+		try {
+			ZipEntry manifestEntry = new ZipEntry(BACKUP_MANIFEST_FILENAME);
+			zipOut.putNextEntry(manifestEntry);
+			zipOut.write(manifest.toString().getBytes("utf-8"));
+			zipOut.closeEntry();
+			
+			for (int i = 0; i < TodoistDatabaseHelper.BACKUP_TABLES.length; i++) {
+				if (changesCsv[i] != null) {
+					writeZipBuffer(TodoistDatabaseHelper.BACKUP_TABLES[i] + BACKUP_CHANGES_SUFFIX, changesCsv[i], zipOut);
+				}
+				writeZipBuffer(TodoistDatabaseHelper.BACKUP_TABLES[i], tablesCsv[i], zipOut);
+			}
+			
+		} finally {
+			zipOut.close();
+		}
 
 	}
 	
+	/**
+	 * Returns the latest change recorded (by the database triggers) since the last backup
+	 * 
+	 * @return 0 if nothing was changed since the last backup
+	 */
+	private long getLastBackupChange() {
+		SQLiteDatabase db;
+		Cursor c = null;
+		
+		db = getWriteDatabase();
+		
+		c = db.rawQuery(String.format("SELECT MAX(rowid) FROM %s", DBConsts.BACKUP_CHANGES_TABLE_NAME), null);
+		c.moveToFirst();
+		long lastChange = (c.isNull(0) ? 0 : c.getLong(0));
+		c.close();
+		
+		return lastChange;
+	}
+	
+	/**
+	 * Clears the recorded changes (up until and including the given change)
+	 * 
+	 * @param lastChange
+	 */
+	private void clearBackupChanges(long lastChange) {
+		SQLiteDatabase db;
+		db = getWriteDatabase();
+		
+		db.delete(DBConsts.BACKUP_CHANGES_TABLE_NAME, "rowid <= ?", new String[] { String.valueOf(lastChange) });
+	}
+	
+	/**
+	 * Makes the next backup a full one (e.g. after restoring data, since the current data no longer
+	 * matches the backup chain)
+	 */
+	private void resetBackupChain() {
+		SQLiteDatabase db;
+		db = getWriteDatabase();
+		
+		db.delete(DBConsts.BACKUP_CHANGES_TABLE_NAME, null, null);
+		
+		SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_BACKUP, Activity.MODE_PRIVATE);
+		Editor editor = preferences.edit();
+		editor.putString(PREFERENCES_BACKUP_CHAIN_LAST_FILE, null);
+		editor.putInt(PREFERENCES_BACKUP_CHAIN_LENGTH, 0);
+		editor.commit();
+	}
+	
 	
 	/**
 	 * Utility function for writing a table CSV contents into a Zip file
@@ -2657,9 +4121,11 @@ public class TodoistOfflineStorage {
 	 * @param tableName
 	 * @param columns
 	 * @param columnTypes
+	 * @param selection which rows to convert (null for all rows)
+	 * @param selectionArgs
 	 * @return the CSV contents
 	 */
-	private String tableToCsv(String tableName, String[] columns, int[] columnTypes) {
+	private String tableToCsv(String tableName, String[] columns, int[] columnTypes, String selection, String[] selectionArgs) {
 		StringBuilder csvOutput = new StringBuilder();
 		SQLiteDatabase db;
 		Cursor c = null;
@@ -2677,10 +4143,10 @@ public class TodoistOfflineStorage {
 		
 		// Query the rows and write them as CSV
 		
-		db = mDbHelper.getWritableDatabase();
+		db = getReadDatabase();
 		
-		c = db.query(tableName, columns, null, 
-				null, null, null, null, null);
+		c = db.query(tableName, columns, selection, 
+				selectionArgs, null, null, null, null);
 		
 		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
 			// Write current rows as CSV
@@ -2760,143 +4226,453 @@ public class TodoistOfflineStorage {
 	 * Restores all Todoist data (projects/items/labels/notes) from a zip file containing
 	 * CSV files (where each CSV file represents a data table).
 	 * 
+	 * In case of an incremental backup, the entire backup chain (starting with the full backup it's
+	 * based on) is restored - so the data is restored to its state as of the given backup.
+	 * 
 	 * NOTE: Deletes all previous local Todoist data before restoration
 	 * 
 	 * @param backupFilename
 	 * @throws IOException 
 	 */
 	public void restoreTodoistData(String backupFilename) throws IOException {
-		FileInputStream input = new FileInputStream(backupFilename);
-		ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(input));
-		ZipEntry entry;
+		if (BinarySnapshot.isSnapshot(new File(backupFilename))) {
+			restoreTodoistSnapshot(backupFilename);
+			return;
+		}
 		
-		// If we've reached this far - this means it's a valid zip file - clear all storage
-		clearTodoistData();
+		ArrayList<File> chain = getBackupChain(new File(backupFilename));
+		
+		for (int i = 0; i < chain.size(); i++) {
+			// First backup in chain is the full backup
+			restoreBackupFile(chain.get(i), (i > 0));
+		}
+		
+		// Restored labels are re-loaded into the label index when next used
+		invalidateLabelIndex();
+		
+		// Restored data doesn't match the current backup chain anymore
+		resetBackupChain();
+	}
+	
+	/**
+	 * Returns the backup chain ending with the given backup - starting with the full backup
+	 * 
+	 * @param backupFile
+	 * @return
+	 * @throws IOException in case one of the chained backups is missing
+	 */
+	private ArrayList<File> getBackupChain(File backupFile) throws IOException {
+		ArrayList<File> chain = new ArrayList<File>();
+		File currentFile = backupFile;
 		
-		while ((entry = zipIn.getNextEntry()) != null) {
-			byte[] buffer = new byte[2048];
-			int size;
-			StringBuilder csvContents = new StringBuilder();
+		while (true) {
+			chain.add(0, currentFile);
+			
+			JSONObject manifest = readBackupManifest(currentFile);
+			
+			if ((manifest == null) || (!BACKUP_TYPE_INCREMENTAL.equals(manifest.optString(BACKUP_MANIFEST_TYPE)))) {
+				// Full backup (older backups have no manifest at all) - start of chain
+				break;
+			}
 			
-			// Read current CSV file contents
-			while ((size = zipIn.read(buffer, 0, buffer.length)) != -1) {
-				csvContents.append(new String(buffer, 0, size));
+			File previousFile = new File(currentFile.getParentFile(), manifest.optString(BACKUP_MANIFEST_PREVIOUS));
+			
+			if ((!previousFile.exists()) || (chain.size() > MAX_INCREMENTAL_BACKUPS * 10)) {
+				throw new IOException(String.format("Backup %s is missing (needed for restoring %s)",
+						previousFile.getPath(), backupFile.getPath()));
+			}
+			
+			currentFile = previousFile;
+		}
+		
+		return chain;
+	}
+	
+	/**
+	 * Reads the manifest of a backup file
+	 * 
+	 * @param backupFile
+	 * @return null if the backup has no manifest
+	 * @throws IOException
+	 */
+	private JSONObject readBackupManifest(File backupFile) throws IOException {
+		ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(new FileInputStream(backupFile)));
+		ZipEntry entry;
+		
+		try {
+			while ((entry = zipIn.getNextEntry()) != null) {
+				if (!entry.getName().equals(BACKUP_MANIFEST_FILENAME)) continue;
+				
+				InputStreamReader reader = new InputStreamReader(zipIn, "UTF-8");
+				StringBuilder contents = new StringBuilder();
+				char[] buffer = new char[1024];
+				int size;
+				
+				while ((size = reader.read(buffer, 0, buffer.length)) != -1) {
+					contents.append(buffer, 0, size);
+				}
+				
+				return new JSONObject(contents.toString());
 			}
 			
-			// See to which table does the CSV file belong to (since table name = filename without the .csv extension)
+		} catch (JSONException e) {
+			throw new IOException(String.format("Invalid backup manifest: %s", e.toString()));
 			
-			String tableName = entry.getName().substring(0, entry.getName().length() - 4);
+		} finally {
+			zipIn.close();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Restores a single backup file
+	 * 
+	 * @param backupFile
+	 * @param incremental if false, all local data is deleted before restoration
+	 * @throws IOException
+	 */
+	private void restoreBackupFile(File backupFile, boolean incremental) throws IOException {
+		FileInputStream input = new FileInputStream(backupFile);
+		ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(input));
+		ZipEntry entry;
+		
+		if (!incremental) {
+			// If we've reached this far - this means it's a valid zip file - clear all storage
+			clearTodoistData();
+		}
+		
+		try {
+			while ((entry = zipIn.getNextEntry()) != null) {
+				if (!entry.getName().endsWith(".csv")) continue; // E.g. the manifest
+				
+				// See to which table does the CSV file belong to (since table name = filename without the .csv extension)
+				
+				String tableName = entry.getName().substring(0, entry.getName().length() - 4);
+				boolean isChangedKeys = tableName.endsWith(BACKUP_CHANGES_SUFFIX);
+				
+				if (isChangedKeys) tableName = tableName.substring(0, tableName.length() - BACKUP_CHANGES_SUFFIX.length());
+				
+				for (int i = 0; i < TodoistDatabaseHelper.BACKUP_TABLES.length; i++) {
+					if (!tableName.equalsIgnoreCase(TodoistDatabaseHelper.BACKUP_TABLES[i])) continue;
+					
+					// Stream the CSV file contents straight into the table (the reader returns end-of-file once
+					// the current zip entry ends, so it shouldn't be closed)
+					CsvReader csv = new CsvReader(new InputStreamReader(zipIn, "UTF-8"));
+					
+					if (isChangedKeys) {
+						// Delete the changed rows (changed rows are re-inserted afterwards)
+						csvDeleteFromTable(csv, TodoistDatabaseHelper.BACKUP_TABLES[i], TodoistDatabaseHelper.BACKUP_TABLE_KEYS[i]);
+					} else {
+						csvToTable(csv, TodoistDatabaseHelper.BACKUP_TABLES[i], BACKUP_COLUMN_NAMES[i]);
+					}
+					
+					break;
+				}
+			}
+			
+		} finally {
+			zipIn.close();
+			input.close();
+		}
+		
+	}
+	
+	/**
+	 * Saves all Todoist data (projects/items/labels/notes) as a binary snapshot (see BinarySnapshot) -
+	 * much faster to write and restore than the zipped CSV backup.
+	 * 
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void snapshotTodoistData(String filename) throws IOException {
+		SQLiteDatabase db = getReadDatabase();
+		
+		// Write into a temporary file first, so an existing snapshot is never left half-written
+		File snapshotFile = new File(filename);
+		File tempFile = new File(filename + ".tmp");
+		BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile, false), 64 * 1024);
+		
+		try {
+			BinarySnapshot.Writer writer = new BinarySnapshot.Writer(output, TodoistDatabaseHelper.BACKUP_TABLES.length);
 			
-			if (tableName.equalsIgnoreCase(DBConsts.PROJECTS_TABLE_NAME)) {
-				csvToTable(csvContents.toString(), DBConsts.PROJECTS_TABLE_NAME, PROJECTS_COLUMN_NAMES);
-			} else if (tableName.equalsIgnoreCase(DBConsts.LABELS_TABLE_NAME)) {
-				csvToTable(csvContents.toString(), DBConsts.LABELS_TABLE_NAME, LABELS_COLUMN_NAMES);
-			} else if (tableName.equalsIgnoreCase(DBConsts.ITEMS_TABLE_NAME)) {
-				csvToTable(csvContents.toString(), DBConsts.ITEMS_TABLE_NAME, ITEMS_COLUMN_NAMES);
-			} else if (tableName.equalsIgnoreCase(DBConsts.ITEMS_TO_LABELS_TABLE_NAME)) {
-				csvToTable(csvContents.toString(), DBConsts.ITEMS_TO_LABELS_TABLE_NAME, ITEMS_TO_LABELS_COLUMN_NAMES);
-			} else if (tableName.equalsIgnoreCase(DBConsts.NOTES_TABLE_NAME)) {
-				csvToTable(csvContents.toString(), DBConsts.NOTES_TABLE_NAME, NOTES_COLUMN_NAMES);
+			for (int i = 0; i < TodoistDatabaseHelper.BACKUP_TABLES.length; i++) {
+				byte[] snapshotTypes = new byte[BACKUP_COLUMN_TYPES[i].length];
+				
+				for (int j = 0; j < snapshotTypes.length; j++) {
+					snapshotTypes[j] = ((BACKUP_COLUMN_TYPES[i][j] == Types.INTEGER) || (BACKUP_COLUMN_TYPES[i][j] == Types.BIGINT) ?
+							BinarySnapshot.TYPE_LONG : BinarySnapshot.TYPE_STRING);
+				}
+				
+				Cursor c = db.query(TodoistDatabaseHelper.BACKUP_TABLES[i], BACKUP_COLUMN_NAMES[i], null, null, null, null, null);
+				
+				try {
+					writer.writeTable(TodoistDatabaseHelper.BACKUP_TABLES[i], BACKUP_COLUMN_NAMES[i], snapshotTypes, c);
+				} finally {
+					c.close();
+				}
 			}
+			
+			writer.flush();
+			
+		} finally {
+			output.close();
 		}
 		
-		zipIn.close();
-		input.close();
+		snapshotFile.delete();
 		
+		if (!tempFile.renameTo(snapshotFile)) {
+			throw new IOException(String.format("Couldn't rename %s to %s", tempFile.getPath(), filename));
+		}
 	}
 	
-
 	/**
-	 * Utility function for parsing the contents of a CSV file and importing it into a table
+	 * Restores all Todoist data (projects/items/labels/notes) from a binary snapshot.
+	 * The whole snapshot is verified before any local data is touched.
 	 * 
-	 * @param csvContents
-	 * @param tableName
-	 * @param columns
+	 * NOTE: Deletes all previous local Todoist data before restoration
 	 * 
+	 * @param filename
+	 * @throws IOException 
 	 */
-	private void csvToTable(String csvContents, String tableName, String[] columns) {
-		SQLiteDatabase db;
-		db = mDbHelper.getWritableDatabase();
+	public void restoreTodoistSnapshot(String filename) throws IOException {
+		ArrayList<BinarySnapshot.Table> tables = BinarySnapshot.read(new File(filename));
 		
-		// Parse the CSV file line-by-line
+		SQLiteDatabase db;
+		db = getWriteDatabase();
 		
-		String[] rows = csvContents.split("\n");
+		// Restored data doesn't match the current backup chain anymore - so the next backup is a full
+		// one (even if restoring fails midway), and the cleared/restored rows needn't be recorded as
+		// backup changes
+		resetBackupChain();
+		mDbHelper.disableBackupTriggers(db);
 		
-		for (int i = 1; i < rows.length; i++) { // Start parsing from 2nd row (first one is the headers row)
+		try {
+			// If we've reached this far - this means it's a valid snapshot - clear all storage
+			clearTodoistData();
 			
-			// Parse current row into columns
-			ContentValues values = new ContentValues();
-			ArrayList<Object> csvValues = decodeCsvRow(rows[i]);
+			restoreSnapshotTables(db, tables);
 			
-			// Fill-in the current entry's columns
-			for (int c = 0; c < columns.length; c++) {
-				Object csvValue = csvValues.get(c);
-				if (csvValue instanceof String)
-					values.put(columns[c], (String)csvValue);
-				else
-					values.put(columns[c], (Long)csvValue);
+		} finally {
+			mDbHelper.enableBackupTriggers(db);
+		}
+		
+		// Restored labels are re-loaded into the label index when next used
+		invalidateLabelIndex();
+		
+		// Again, in case a backup was made while restoring (without recording the restored rows)
+		resetBackupChain();
+	}
+	
+	/**
+	 * Inserts the rows of the snapshot tables (see restoreTodoistSnapshot)
+	 * @param db
+	 * @param tables
+	 */
+	private void restoreSnapshotTables(SQLiteDatabase db, ArrayList<BinarySnapshot.Table> tables) {
+		for (int t = 0; t < tables.size(); t++) {
+			BinarySnapshot.Table table = tables.get(t);
+			String tableName = null;
+			
+			for (int i = 0; i < TodoistDatabaseHelper.BACKUP_TABLES.length; i++) {
+				if (table.name.equalsIgnoreCase(TodoistDatabaseHelper.BACKUP_TABLES[i])) {
+					tableName = TodoistDatabaseHelper.BACKUP_TABLES[i];
+					break;
+				}
 			}
 			
-			// Add the CSV entry to the table
-			db.replace(tableName, null, values);
+			if (tableName == null) continue; // Unknown table
+			
+			SQLiteStatement statement = compileInsert(db, tableName, table.columns);
+			
+			// Insert the rows in batches (each batch in a single transaction)
+			beginTransaction(db);
+			
+			try {
+				for (int row = 0; row < table.rowCount; row++) {
+					for (int c = 0; c < table.columns.length; c++) {
+						bindValue(statement, c + 1, upgradeRestoredValue(table.columns[c], table.getValue(row, c)));
+					}
+					
+					statement.executeInsert();
+					countRowsWritten(tableName, 1);
+					
+					if ((row + 1) % RESTORE_BATCH_SIZE == 0) {
+						mChangeFeed.recordTableChange(tableName);
+						setTransactionSuccessful(db);
+						endTransaction(db);
+						beginTransaction(db);
+					}
+				}
+				
+				mChangeFeed.recordTableChange(tableName);
+				setTransactionSuccessful(db);
+				
+			} finally {
+				endTransaction(db);
+				statement.close();
+			}
 		}
 	}
 	
-
 	/**
-	 * Utility function decoding column values from a CSV-formatted row
+	 * Compiles an INSERT OR REPLACE statement for the given table columns
 	 * 
-	 * @param row
+	 * @param db
+	 * @param tableName
+	 * @param columns
 	 * @return
 	 */
-	private ArrayList<Object> decodeCsvRow(String row) {
-		ArrayList<Object> results = new ArrayList<Object>();
+	private SQLiteStatement compileInsert(SQLiteDatabase db, String tableName, String[] columns) {
+		StringBuilder sql = new StringBuilder();
+		sql.append("INSERT OR REPLACE INTO ").append(tableName).append(" (");
+		for (int c = 0; c < columns.length; c++) {
+			sql.append(c > 0 ? ", " : "").append(columns[c]);
+		}
+		sql.append(") VALUES (");
+		for (int c = 0; c < columns.length; c++) {
+			sql.append(c > 0 ? ", ?" : "?");
+		}
+		sql.append(")");
 		
-		int index = 0, nextIndex = 0;
-		boolean isNumber = false;
-		String currentResult;
-		row = row.trim();
+		return db.compileStatement(sql.toString());
+	}
+	
+	/**
+	 * Binds a restored value (a String, a Long or null) to a statement
+	 * 
+	 * @param statement
+	 * @param index
+	 * @param value
+	 */
+	private void bindValue(SQLiteStatement statement, int index, Object value) {
+		if (value instanceof String)
+			statement.bindString(index, (String)value);
+		else if (value instanceof Long)
+			statement.bindLong(index, (Long)value);
+		else
+			statement.bindNull(index);
+	}
+	
+	/**
+	 * Converts a restored value saved by an older version into its current form - i.e. dirty states
+	 * which were saved by name (instead of by code)
+	 * 
+	 * @param column
+	 * @param value
+	 * @return
+	 */
+	private Object upgradeRestoredValue(String column, Object value) {
+		if ((value instanceof String) && (column.equalsIgnoreCase(DBConsts.ITEMS_DIRTY_STATE))) {
+			try {
+				return Long.valueOf(DirtyState.valueOf((String)value).getCode());
+			} catch (IllegalArgumentException e) {
+				Log.e(TAG, String.format("Unknown restored dirty state: %s", value));
+				return Long.valueOf(DirtyState.UNMODIFIED.getCode());
+			}
+		}
 		
-		while (index < row.length()) {
-			if (row.charAt(index) == '\"') {
-				// Current column value is a string - matching ending quote
-				isNumber = false;
-				
-				nextIndex = index;
-				do {
-					nextIndex = row.indexOf("\"", nextIndex + 1);
-				} while (row.charAt(nextIndex - 1) == '\\'); // Make sure we don't accidently come across escaped quotes
+		return value;
+	}
+	
+	/**
+	 * Utility function for deleting all rows whose keys are listed in a CSV file
+	 * 
+	 * @param csv
+	 * @param tableName
+	 * @param keyColumn
+	 * @throws IOException
+	 */
+	private void csvDeleteFromTable(CsvReader csv, String tableName, String keyColumn) throws IOException {
+		SQLiteDatabase db;
+		db = getWriteDatabase();
+		
+		SQLiteStatement statement = db.compileStatement(String.format("DELETE FROM %s WHERE %s = ?", tableName, keyColumn));
+		ArrayList<Object> csvValues;
+		int batchCount = 0;
+		
+		csv.readRow(); // Skip the headers row
+		
+		beginTransaction(db);
+		
+		try {
+			while ((csvValues = csv.readRow()) != null) {
+				if ((csvValues.size() == 0) || (!(csvValues.get(0) instanceof Long))) continue;
 				
-			} else {
-				// Current column value is a number - add until end of line or next comma
-				isNumber = true;
-				nextIndex = row.indexOf(",", index + 1);
+				statement.bindLong(1, (Long)csvValues.get(0));
+				statement.execute();
+				countRowsWritten(tableName, getLastStatementChanges(db));
 				
-				if (nextIndex == -1) {
-					// No comma - reached last column in row
-					nextIndex = row.length();
+				if (++batchCount == RESTORE_BATCH_SIZE) {
+					mChangeFeed.recordTableChange(tableName);
+					setTransactionSuccessful(db);
+					endTransaction(db);
+					beginTransaction(db);
+					batchCount = 0;
 				}
 			}
 			
-			if (isNumber) {
-				currentResult = row.substring(index, nextIndex).trim();
-				index = nextIndex + 1;
-
-				results.add(new Long(currentResult));
+			mChangeFeed.recordTableChange(tableName);
+			setTransactionSuccessful(db);
+			
+		} finally {
+			endTransaction(db);
+			statement.close();
+		}
+	}
+	
+	
+	/**
+	 * Utility function for parsing a CSV file (row by row) and importing it into a table
+	 * 
+	 * @param csv
+	 * @param tableName
+	 * @param columns
+	 * @throws IOException 
+	 * 
+	 */
+	private void csvToTable(CsvReader csv, String tableName, String[] columns) throws IOException {
+		SQLiteDatabase db;
+		db = getWriteDatabase();
+		
+		SQLiteStatement statement = compileInsert(db, tableName, columns);
+		ArrayList<Object> csvValues;
+		int batchCount = 0;
+		
+		csv.readRow(); // Skip the headers row
+		
+		// Insert the rows in batches (each batch in a single transaction)
+		beginTransaction(db);
+		
+		try {
+			while ((csvValues = csv.readRow()) != null) {
+				// Bind the current entry's columns
+				for (int c = 0; c < columns.length; c++) {
+					bindValue(statement, c + 1, upgradeRestoredValue(columns[c], (c < csvValues.size() ? csvValues.get(c) : null)));
+				}
 				
-			} else {
-				currentResult = row.substring(index + 1, nextIndex).trim();
-				index = nextIndex + 2;
+				// Add the CSV entry to the table
+				statement.executeInsert();
+				countRowsWritten(tableName, 1);
 				
-				// Un-escape newlines and quotes
-				currentResult = currentResult.replace("\\n", "\n").replace("\\\"", "\"");
-				results.add(currentResult);
+				if (++batchCount == RESTORE_BATCH_SIZE) {
+					mChangeFeed.recordTableChange(tableName);
+					setTransactionSuccessful(db);
+					endTransaction(db);
+					beginTransaction(db);
+					batchCount = 0;
+				}
 			}
+			
+			mChangeFeed.recordTableChange(tableName);
+			setTransactionSuccessful(db);
+			
+		} finally {
+			endTransaction(db);
+			statement.close();
 		}
-		
-		return results;
 	}
-
+	
 	
 	/**
 	 * Sets the last time the user has made a backup
@@ -85,7 +85,10 @@ public class TodoistServer {
 	private final static String KEY__QUERIES = "queries";
 	private final static String KEY__DATA = "data";
 	
-	private static JsonServer mServer = new JsonServer(TODOIST_BASE_URL);
+	private JsonServer mServer;
+	
+	// The metrics of the sync currently running through this instance (null if none)
+	private volatile SyncMetrics mMetrics = null;
 
 
 	public enum ErrorCode {
@@ -112,6 +115,33 @@ public class TodoistServer {
 	}
 	
 	
+	/**
+	 * Creates a server which sends its requests to the online Todoist server
+	 */
+	public TodoistServer() {
+		this(null);
+	}
+	
+	/**
+	 * Creates a server whose requests are handled in-process (e.g. by a local stand-in of the Todoist
+	 * server) - only requests made through this instance are affected
+	 * @param handler null - send requests to the online Todoist server
+	 */
+	public TodoistServer(JsonServer.IRequestHandler handler) {
+		mServer = new JsonServer(TODOIST_BASE_URL, handler);
+	}
+	
+	/**
+	 * Sets the metrics which requests (and errors returned by the server) made through this
+	 * instance are recorded into
+	 * @param metrics null - don't record
+	 */
+	public void setMetrics(SyncMetrics metrics) {
+		mMetrics = metrics;
+		mServer.setMetrics(metrics);
+	}
+	
+	
 	/*
 	 * User APIs
 	 */
@@ -124,7 +154,7 @@ public class TodoistServer {
 	 * @return
 	 * @throws TodoistServerException 
 	 */
-	public static User googleLogin(String email, String oauth2Token) throws TodoistServerException {
+	public User googleLogin(String email, String oauth2Token) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		
 		params.put(KEY__EMAIL, email);
@@ -144,7 +174,7 @@ public class TodoistServer {
 	 * @return
 	 * @throws TodoistServerException 
 	 */
-	public static User login(String email, String password) throws TodoistServerException {
+	public User login(String email, String password) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		
 		params.put(KEY__EMAIL, email);
@@ -167,7 +197,7 @@ public class TodoistServer {
 	 * @return
 	 * @throws TodoistServerException
 	 */
-	public static User register(String email, String fullName, String password, String timezone) throws TodoistServerException {
+	public User register(String email, String fullName, String password, String timezone) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		
 		params.put(KEY__EMAIL, email);
@@ -182,7 +212,7 @@ public class TodoistServer {
 	}
 	
 	
-	public static void updateUser(User user) throws TodoistServerException {
+	public void updateUser(User user) throws TodoistServerException {
 		Hashtable<String, Object> params = user.toKeyValue();
 		
 		Hashtable<String, Object> ret = (Hashtable<String, Object>)parseReturnValue(
@@ -199,7 +229,7 @@ public class TodoistServer {
 	 * @param user
 	 * @throws TodoistServerException
 	 */
-	public static ArrayList<Project> getProjects(User user) throws TodoistServerException {
+	public ArrayList<Project> getProjects(User user) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		ArrayList<Project> projects = new ArrayList<Project>();
 		
@@ -223,7 +253,7 @@ public class TodoistServer {
 	 * @param projectId
 	 * @throws TodoistServerException
 	 */
-	public static Project getProject(User user, int projectId) throws TodoistServerException {
+	public Project getProject(User user, int projectId) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -242,7 +272,7 @@ public class TodoistServer {
 	 * @param project
 	 * @throws TodoistServerException
 	 */
-	public static Project addProject(User user, Project project) throws TodoistServerException {
+	public Project addProject(User user, Project project) throws TodoistServerException {
 		Hashtable<String, Object> params = project.toKeyValue();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -259,7 +289,7 @@ public class TodoistServer {
 	 * @param project
 	 * @throws TodoistServerException
 	 */
-	public static Project updateProject(User user, Project project) throws TodoistServerException {
+	public Project updateProject(User user, Project project) throws TodoistServerException {
 		Hashtable<String, Object> params = project.toKeyValue();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -277,7 +307,7 @@ public class TodoistServer {
 	 * @param projects
 	 * @throws TodoistServerException
 	 */
-	public static void updateProjectOrders(User user, ArrayList<Project> projects) throws TodoistServerException {
+	public void updateProjectOrders(User user, ArrayList<Project> projects) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		ArrayList<Integer> projectIds = new ArrayList<Integer>();
 		
@@ -308,7 +338,7 @@ public class TodoistServer {
 	 * @param project
 	 * @throws TodoistServerException
 	 */
-	public static void deleteProject(User user, Project project) throws TodoistServerException {
+	public void deleteProject(User user, Project project) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -330,7 +360,7 @@ public class TodoistServer {
 	 * @param user
 	 * @throws TodoistServerException
 	 */
-	public static ArrayList<Label> getLabels(User user) throws TodoistServerException {
+	public ArrayList<Label> getLabels(User user) throws TodoistServerException {
 		Hashtable<String, Object> params =  new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -355,7 +385,7 @@ public class TodoistServer {
 	 * @param label
 	 * @throws TodoistServerException
 	 */
-	public static void updateLabelColor(User user, Label label) throws TodoistServerException {
+	public void updateLabelColor(User user, Label label) throws TodoistServerException {
 		Hashtable<String, Object> params =  new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -373,7 +403,7 @@ public class TodoistServer {
 	 * @param label
 	 * @throws TodoistServerException
 	 */
-	public static Label addLabel(User user, Label label) throws TodoistServerException {
+	public Label addLabel(User user, Label label) throws TodoistServerException {
 		Hashtable<String, Object> params =  new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -394,7 +424,7 @@ public class TodoistServer {
 	 * @param newName
 	 * @throws TodoistServerException
 	 */
-	public static void updateLabel(User user, String oldName, String newName) throws TodoistServerException {
+	public void updateLabel(User user, String oldName, String newName) throws TodoistServerException {
 		Hashtable<String, Object> params =  new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -411,7 +441,7 @@ public class TodoistServer {
 	 * @param name
 	 * @throws TodoistServerException
 	 */
-	public static void deleteLabel(User user, String name) throws TodoistServerException {
+	public void deleteLabel(User user, String name) throws TodoistServerException {
 		Hashtable<String, Object> params =  new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -434,7 +464,7 @@ public class TodoistServer {
 	 * @param project
 	 * @throws TodoistServerException
 	 */
-	public static ArrayList<Item> getUncompletedItems(User user, Project project) throws TodoistServerException {
+	public ArrayList<Item> getUncompletedItems(User user, Project project) throws TodoistServerException {
 		Hashtable<String, Object> params =  new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -460,7 +490,7 @@ public class TodoistServer {
 	 * @param project
 	 * @throws TodoistServerException
 	 */
-	public static ArrayList<Item> getCompletedItems(User user, Project project) throws TodoistServerException {
+	public ArrayList<Item> getCompletedItems(User user, Project project) throws TodoistServerException {
 		Hashtable<String, Object> params =  new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -486,7 +516,7 @@ public class TodoistServer {
 	 * @param ids
 	 * @throws TodoistServerException
 	 */
-	public static ArrayList<Item> getItemsById(User user, ArrayList<Integer> ids) throws TodoistServerException {
+	public ArrayList<Item> getItemsById(User user, ArrayList<Integer> ids) throws TodoistServerException {
 		Hashtable<String, Object> params =  new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -512,7 +542,7 @@ public class TodoistServer {
 	 * @param item
 	 * @throws TodoistServerException
 	 */
-	public static Item addItem(User user, Item item) throws TodoistServerException {
+	public Item addItem(User user, Item item) throws TodoistServerException {
 		Hashtable<String, Object> params = item.toKeyValue();
 		
 		if (params.containsKey(Item.KEY__DATE_STRING)) {
@@ -539,7 +569,7 @@ public class TodoistServer {
 	 * @param item
 	 * @throws TodoistServerException
 	 */
-	public static Item updateItem(User user, Item item) throws TodoistServerException {
+	public Item updateItem(User user, Item item) throws TodoistServerException {
 		Hashtable<String, Object> params = item.toKeyValue();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -558,7 +588,7 @@ public class TodoistServer {
 	 * @param project
 	 * @throws TodoistServerException
 	 */
-	public static void updateItemOrders(User user, ArrayList<Item> items, Project project) throws TodoistServerException {
+	public void updateItemOrders(User user, ArrayList<Item> items, Project project) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		ArrayList<Integer> itemIds = new ArrayList<Integer>();
 		
@@ -592,7 +622,7 @@ public class TodoistServer {
 	 * @param newProject
 	 * @throws TodoistServerException
 	 */
-	public static void moveItems(User user, ArrayList<Item> items, Project newProject) throws TodoistServerException {
+	public void moveItems(User user, ArrayList<Item> items, Project newProject) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		Hashtable<String, ArrayList<String>> currentMapping = new Hashtable<String, ArrayList<String>>();
 
@@ -622,7 +652,7 @@ public class TodoistServer {
 	 * @param items
 	 * @throws TodoistServerException
 	 */
-	public static void deleteItems(User user, ArrayList<Item> items) throws TodoistServerException {
+	public void deleteItems(User user, ArrayList<Item> items) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		ArrayList<Integer> itemIds = new ArrayList<Integer>();
 
@@ -644,7 +674,7 @@ public class TodoistServer {
 	 * @param items
 	 * @throws TodoistServerException
 	 */
-	public static void completeItems(User user, ArrayList<Item> items) throws TodoistServerException {
+	public void completeItems(User user, ArrayList<Item> items) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		ArrayList<Integer> itemIds = new ArrayList<Integer>();
 
@@ -666,7 +696,7 @@ public class TodoistServer {
 	 * @param items
 	 * @throws TodoistServerException
 	 */
-	public static void uncompleteItems(User user, ArrayList<Item> items) throws TodoistServerException {
+	public void uncompleteItems(User user, ArrayList<Item> items) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		ArrayList<Integer> itemIds = new ArrayList<Integer>();
 
@@ -691,7 +721,7 @@ public class TodoistServer {
 	 * @return updated item (with new due date)
 	 * @throws TodoistServerException
 	 */
-	public static Item updateRecurringDate(User user, Item item) throws TodoistServerException {
+	public Item updateRecurringDate(User user, Item item) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		ArrayList<Integer> itemIds = new ArrayList<Integer>();
 		ArrayList<Item> items = new ArrayList<Item>();
@@ -725,7 +755,7 @@ public class TodoistServer {
 	 * @param note
 	 * @throws TodoistServerException
 	 */
-	public static Note addNote(User user, Note note) throws TodoistServerException {
+	public Note addNote(User user, Note note) throws TodoistServerException {
 		Hashtable<String, Object> params = note.toKeyValue();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -742,7 +772,7 @@ public class TodoistServer {
 	 * @param note
 	 * @throws TodoistServerException
 	 */
-	public static void updateNote(User user, Note note) throws TodoistServerException {
+	public void updateNote(User user, Note note) throws TodoistServerException {
 		Hashtable<String, Object> params = note.toKeyValue();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -756,7 +786,7 @@ public class TodoistServer {
 	 * @param note
 	 * @throws TodoistServerException
 	 */
-	public static void deleteNote(User user, Note note) throws TodoistServerException {
+	public void deleteNote(User user, Note note) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		
 		params.put(KEY__TOKEN, user.apiToken);
@@ -774,7 +804,7 @@ public class TodoistServer {
 	 * @param item
 	 * @throws TodoistServerException
 	 */
-	public static ArrayList<Note> getNotes(User user, Item item) throws TodoistServerException {
+	public ArrayList<Note> getNotes(User user, Item item) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		ArrayList<Note> notes = new ArrayList<Note>();
 		
@@ -808,7 +838,7 @@ public class TodoistServer {
 	 * @param item
 	 * @throws TodoistServerException
 	 */
-	public static ArrayList<Item> query(User user, String query) throws TodoistServerException {
+	public ArrayList<Item> query(User user, String query) throws TodoistServerException {
 		Hashtable<String, Object> params = new Hashtable<String, Object>();
 		ArrayList<String> queries = new ArrayList<String>();
 		queries.add(query);
@@ -839,7 +869,7 @@ public class TodoistServer {
 	 */
 	
 	
-	private static Object parseReturnValue(Object input) throws TodoistServerException {
+	private Object parseReturnValue(Object input) throws TodoistServerException {
 		if ((input instanceof Hashtable<?, ?>) || (input instanceof ArrayList<?>)) {
 			return input;
 		} else if ((input instanceof String) && (((String)input).compareToIgnoreCase("ok") == 0)) {
@@ -865,6 +895,9 @@ public class TodoistServer {
 				errorCode = ErrorCode.UNKNOWN_ERROR;
 			}
 			
+			SyncMetrics metrics = mMetrics;
+			if (metrics != null) metrics.recordServerError(errorCode.toString());
+			
 			throw new TodoistServerException(errorCode);
 		}
 	}
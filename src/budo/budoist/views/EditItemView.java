@@ -1,6 +1,5 @@
 package budo.budoist.views;
 
-import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -10,6 +9,7 @@ import budo.budoist.R;
 import budo.budoist.Bootloader;
 import budo.budoist.TodoistApplication;
 import budo.budoist.models.Item;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.Project;
 import budo.budoist.models.TodoistTextFormatter;
 import budo.budoist.services.TodoistClient;
@@ -164,7 +164,7 @@ public class EditItemView extends Activity implements TextWatcher, OnItemSelecte
         
         Bundle extras = getIntent().getExtras();
         
-        mItem = (Item)extras.get(KEY__ITEM);
+        mItem = (Item)ModelRegistry.getExtra(extras, KEY__ITEM);
         mMaxOrder = extras.getInt(KEY__MAX_ORDER);
         setContentView(R.layout.edit_item);
         
@@ -188,7 +188,7 @@ public class EditItemView extends Activity implements TextWatcher, OnItemSelecte
 					mItem.priority = Item.PRIORITY_4_LOWEST;
 
 				Intent intent = new Intent();
-				intent.putExtra(KEY__ITEM, mItem);
+				ModelRegistry.putExtra(intent, KEY__ITEM, mItem);
 				setResult(RESULT_OK, intent);
 				finish();
 			}
@@ -267,7 +267,7 @@ public class EditItemView extends Activity implements TextWatcher, OnItemSelecte
         mItemProjectName = (TextView)findViewById(R.id.item_project_name);
         
         
-        mItemProject = (Project)extras.get(KEY__PROJECT);
+        mItemProject = (Project)ModelRegistry.getExtra(extras, KEY__PROJECT);
         
         // In case initial project wasn't passed from outside
         if (mItemProject == null)
@@ -295,7 +295,7 @@ public class EditItemView extends Activity implements TextWatcher, OnItemSelecte
 				// Show a checked label list
 		        Intent intent = new Intent(getBaseContext(), LabelListView.class);
 		        intent.putExtra(LabelListView.KEY__VIEW_MODE, LabelListView.LabelViewMode.SELECT_LABELS.toString());
-		        intent.putExtra(LabelListView.KEY__ITEM, (Serializable)mItem);
+		        ModelRegistry.putExtra(intent, LabelListView.KEY__ITEM, mItem);
 	            startActivityForResult(intent, Bootloader.REQUEST_CODE__SELECT_ITEM_LABELS);
 			}
 		});
@@ -310,12 +310,12 @@ public class EditItemView extends Activity implements TextWatcher, OnItemSelecte
 					// Date has never been selected before - init the dialog with a default date
 					Calendar c = Calendar.getInstance();
 					
-					if ((mItem.dueDate == null) || (mItem.dueDate.getTime() == 0)) {
+					if (!mItem.hasDueDate()) {
 						// No due date - set as today's date (which means we don't have to set the
 						// calendar at - it defaults to today's date anyhow)
 					} else {
 						// Set as current item's due date
-						c.setTime(mItem.dueDate);
+						c.setTimeInMillis(mItem.dueTime);
 					}
 					
 					mYear = c.get(Calendar.YEAR);
@@ -408,7 +408,7 @@ public class EditItemView extends Activity implements TextWatcher, OnItemSelecte
 		if (requestCode == Bootloader.REQUEST_CODE__SELECT_ITEM_LABELS) {
 			// Called when returning from "Select Labels"
 			if (resultCode == RESULT_OK) {
-				Item item = (Item)data.getExtras().get(LabelListView.KEY__ITEM);
+				Item item = (Item)ModelRegistry.getExtra(data.getExtras(), LabelListView.KEY__ITEM);
 				
 				// Update item with new labels
 				mItem = item;
@@ -416,7 +416,7 @@ public class EditItemView extends Activity implements TextWatcher, OnItemSelecte
 		} else if (requestCode == Bootloader.REQUEST_CODE__MOVE_TO_PROJECT) {
 			// Called when returning from "Select Project"
 			if (resultCode == RESULT_OK) {
-				Project project = (Project)data.getExtras().get(ProjectListView.KEY__PROJECT);
+				Project project = (Project)ModelRegistry.getExtra(data.getExtras(), ProjectListView.KEY__PROJECT);
 				
 				// Remember currently selected project
 				mItemProject = project;
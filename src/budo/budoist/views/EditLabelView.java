@@ -3,6 +3,7 @@ package budo.budoist.views;
 import budo.budoist.R;
 import budo.budoist.TodoistApplication;
 import budo.budoist.models.Label;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.views.adapters.ColorSpinnerAdapter;
 import android.app.Activity;
 import android.content.Context;
@@ -43,7 +44,7 @@ public class EditLabelView extends Activity implements TextWatcher {
         
         Bundle extras = getIntent().getExtras();
         
-        mLabel = (Label)extras.get(KEY__LABEL);
+        mLabel = (Label)ModelRegistry.getExtra(extras, KEY__LABEL);
         setContentView(R.layout.edit_label);
         
         mOkButton = (Button)findViewById(R.id.label_ok_button);
@@ -54,7 +55,7 @@ public class EditLabelView extends Activity implements TextWatcher {
 				mLabel.colorIndex = mColorSpinner.getSelectedItemPosition();
 
 				Intent intent = new Intent();
-				intent.putExtra(KEY__LABEL, mLabel);
+				ModelRegistry.putExtra(intent, KEY__LABEL, mLabel);
 				setResult(RESULT_OK, intent);
 				finish();
 			}
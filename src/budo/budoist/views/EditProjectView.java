@@ -2,6 +2,7 @@ package budo.budoist.views;
 
 import budo.budoist.R;
 import budo.budoist.TodoistApplication;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.Project;
 import budo.budoist.services.TodoistClient;
 import budo.budoist.services.TodoistOfflineStorage;
@@ -57,7 +58,7 @@ public class EditProjectView extends Activity implements TextWatcher, OnItemSele
         
         Bundle extras = getIntent().getExtras();
         
-        mProject = (Project)extras.get(KEY__PROJECT);
+        mProject = (Project)ModelRegistry.getExtra(extras, KEY__PROJECT);
         mMaxOrder = mStorage.getProjectsMaxOrder();
         
         if (mProject == null) {
@@ -76,7 +77,7 @@ public class EditProjectView extends Activity implements TextWatcher, OnItemSele
 				mProject.indentLevel = mIndentSpinner.getSelectedItemPosition() + 1;
 
 				Intent intent = new Intent();
-				intent.putExtra(KEY__PROJECT, mProject);
+				ModelRegistry.putExtra(intent, KEY__PROJECT, mProject);
 				setResult(RESULT_OK, intent);
 				finish();
 			}
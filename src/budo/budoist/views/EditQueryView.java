@@ -2,6 +2,7 @@ package budo.budoist.views;
 
 import budo.budoist.R;
 import budo.budoist.TodoistApplication;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.Query;
 import android.app.Activity;
 import android.content.Intent;
@@ -42,7 +43,7 @@ public class EditQueryView extends Activity implements TextWatcher {
         
         Bundle extras = getIntent().getExtras();
         
-        mQuery = (Query)extras.get(KEY__QUERY);
+        mQuery = (Query)ModelRegistry.getExtra(extras, KEY__QUERY);
         setContentView(R.layout.edit_query);
         
         mQueryHelp = (TextView)findViewById(R.id.query_help);
@@ -64,7 +65,7 @@ public class EditQueryView extends Activity implements TextWatcher {
 				mQuery.query = mQueryContent.getText().toString();
 
 				Intent intent = new Intent();
-				intent.putExtra(KEY__QUERY, mQuery);
+				ModelRegistry.putExtra(intent, KEY__QUERY, mQuery);
 				setResult(RESULT_OK, intent);
 				finish();
 			}
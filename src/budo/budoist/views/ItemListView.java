@@ -1,39 +1,44 @@
 package budo.budoist.views;
 
-import java.io.Serializable;
 import java.util.ArrayList;
-import pl.polidea.treeview.InMemoryTreeStateManager;
+import java.util.List;
 import budo.budoist.R;
 import budo.budoist.Bootloader;
 import budo.budoist.TodoistApplication;
+import budo.budoist.debug.Trace;
 import budo.budoist.models.Item;
 import budo.budoist.models.Label;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.Project;
 import budo.budoist.models.Query;
 import budo.budoist.models.TodoistTextFormatter;
 import budo.budoist.models.User;
-import budo.budoist.receivers.AppService;
+import budo.budoist.services.AsyncLoader;
+import budo.budoist.services.ColdStartSnapshot;
+import budo.budoist.services.DBConsts;
+import budo.budoist.services.StorageChangeFeed.ChangeSet;
+import budo.budoist.services.StorageChangeFeed.OnStorageChangedListener;
 import budo.budoist.services.TodoistClient;
 import budo.budoist.services.TodoistOfflineStorage;
 import budo.budoist.services.TodoistOfflineStorage.ItemSortMode;
 import budo.budoist.services.TodoistOfflineStorage.ItemViewInQueryMode;
+import budo.budoist.services.TodoistOfflineStorage.OnPageLoadedListener;
+import budo.budoist.services.TodoistOfflineStorage.PagedItemList;
 import budo.budoist.views.LabelListView.LabelViewMode;
 import budo.budoist.views.ProjectListView.ProjectViewMode;
 import budo.budoist.views.QueryListView.QueryViewMode;
 import budo.budoist.views.adapters.ItemTreeItemAdapter;
 import budo.budoist.views.adapters.ItemTreeItemAdapter.IOnItemCompleted;
 import budo.budoist.views.adapters.ItemTreeItemAdapter.IOnItemNotes;
+import budo.budoist.views.adapters.ItemTreeStateManager;
 import pl.polidea.treeview.TreeBuilder;
-import pl.polidea.treeview.TreeStateManager;
 import pl.polidea.treeview.TreeViewList;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.ActivityInfo;
 import android.os.Bundle;
 import android.util.Log;
@@ -65,7 +70,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 	private TextView mProjectsToolbarText, mLabelsToolbarText, mQueriesToolbarText;
 
     private static final int LEVEL_NUMBER = 5;
-    private TreeStateManager<Item> mTreeManager = null;
+    private ItemTreeStateManager mTreeManager = null;
     private ItemTreeItemAdapter mItemAdapter;
     private boolean mCollapsible;
     
@@ -81,7 +86,6 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 	private ProgressDialog mLoadingDialog;
 	
 	private Context mContext;
-	private boolean mFinishedLoadingItems = true;
 	
  
     
@@ -109,21 +113,17 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 	private User mUser;
 	private Menu mMenu;
 	
-	private class SyncReceiver extends BroadcastReceiver {
+	private OnStorageChangedListener mStorageListener = new OnStorageChangedListener() {
 		@Override
-		public void onReceive(Context context, Intent intent) {
-			runOnUiThread(new Runnable() {
-				public void run() {
-					// Refresh visual item list
-					buildItemList(getItemList());
-				}
-			});
-
+		public void onStorageChanged(ChangeSet changes) {
+			// Refresh visual item list (one of the displayed items/labels changed, or new items were added)
+			refreshItemList();
 		}
-	}
+	};
+	
+	private ArrayList<Label> mLabels; // Labels displayed as part of the items
 	
-	private SyncReceiver mSyncReceiver = null;
-	private boolean mIsSyncReceiverRegistered = false;
+	private AsyncLoader mLoader = new AsyncLoader();
 
 	
     
@@ -154,10 +154,10 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 			@Override
 			public void onClick(View arg0) {
 	            Intent intent = new Intent(getBaseContext(), EditItemView.class);
-	            intent.putExtra(EditItemView.KEY__ITEM, (Serializable)null);
+	            ModelRegistry.putExtra(intent, EditItemView.KEY__ITEM, null);
 	            
 	            if (mViewMode == ItemViewMode.FILTER_BY_PROJECTS) {
-		            intent.putExtra(EditItemView.KEY__PROJECT, mFilterProject); // So we'll set the initial project for the new item
+		            ModelRegistry.putExtra(intent, EditItemView.KEY__PROJECT, mFilterProject); // So we'll set the initial project for the new item
 	            }
 	            startActivityForResult(intent, Bootloader.REQUEST_CODE__EDIT_ITEM);
 			}
@@ -249,10 +249,10 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
      * Loads the item list, according to the view mode and sort type
      * @return
      */
-    private ArrayList<Item> getItemList() {
-    	ArrayList<Item> items = null;
+    private List<Item> getItemList() {
+    	long span = Trace.begin();
     	
-    	mFinishedLoadingItems = false;
+    	List<Item> items = null;
     	
     	Log.d(TAG, "getItemList: " + mViewMode.toString());
     	
@@ -261,11 +261,15 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
         } else if (mViewMode == ItemViewMode.FILTER_BY_PROJECTS) {
         	items = mClient.getItemsByProject(mFilterProject, mSortMode);
         } else if (mViewMode == ItemViewMode.FILTER_BY_QUERIES) {
-        	items = mClient.getItemsByQuery(mFilterQuery);
+        	if (TodoistOfflineStorage.isViewAllQuery(mFilterQuery.query)) {
+        		// Potentially a very large list - load it lazily, as the user scrolls
+        		items = mClient.getPagedAllItems(ItemSortMode.SORT_BY_DUE_DATE);
+        	} else {
+        		items = mClient.getItemsByQuery(mFilterQuery);
+        	}
         }
     	
-    	mFinishedLoadingItems = true;
-    	
+    	Trace.end("ItemListView.getItemList", span);
     	return items;
     }
     
@@ -273,7 +277,34 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
      * Converts an items list into a tree item view (as set by itemOrder and indentLevel fields, or
      * in case we're sorting by due date - by the dueDate fields of the items)
      */
-    private void buildItemList(ArrayList<Item> items) {
+    private void buildItemList(List<Item> items) {
+    	buildItemList(items, true);
+    }
+    
+    /**
+     * Converts an items list into a tree item view (see above)
+     * @param items
+     * @param isFresh false if the items were loaded from the view's cold start snapshot (and not from storage)
+     */
+    private void buildItemList(List<Item> items, boolean isFresh) {
+    	long span = Trace.begin();
+    	
+    	if (items instanceof PagedItemList) {
+    		// A flat list, whose items are loaded only when displayed (in the background - the list
+    		// is redrawn once each page is loaded)
+    		PagedItemList pagedItems = (PagedItemList)items;
+    		pagedItems.setAsyncLoader(mLoader, new OnPageLoadedListener() {
+    			@Override
+    			public void onPageLoaded() {
+    				mTreeManager.refresh();
+    			}
+    		});
+    		mTreeManager.setPagedItems(pagedItems);
+    		Trace.end("ItemListView.buildItemList", span);
+    		return;
+    	}
+    	
+    	mTreeManager.setPagedItems(null);
     	mTreeManager.clear();
     	TreeBuilder<Item> treeBuilder = new TreeBuilder<Item>(mTreeManager);
     	
@@ -322,6 +353,91 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
     		treeBuilder.sequentiallyAddNextNode(items.get(i), indent);
 			lastIndentLevel = indent;
     	}
+    	
+    	if (isFresh) saveColdStartSnapshot(items);
+    	
+    	Trace.end("ItemListView.buildItemList", span);
+    }
+    
+    /**
+     * Returns a key identifying the current view (what's displayed and how it's sorted) - used for
+     * saving its cold start snapshot
+     * @return null if the view shouldn't be saved (a lazily loaded list)
+     */
+    private String getViewKey() {
+    	if (mViewMode == ItemViewMode.FILTER_BY_LABELS) {
+    		return String.format("label_%d_%s", mFilterLabel.id, mSortMode.toString());
+    	} else if (mViewMode == ItemViewMode.FILTER_BY_PROJECTS) {
+    		return String.format("project_%d_%s", mFilterProject.id, mSortMode.toString());
+    	} else if (TodoistOfflineStorage.isViewAllQuery(mFilterQuery.query)) {
+    		return null;
+    	} else {
+    		// Include the query itself, in case it was modified
+    		return String.format("query_%d_%s_%s", mFilterQuery.id, mItemViewInQueryMode.toString(), mFilterQuery.query);
+    	}
+    }
+    
+    /**
+     * Saves the currently displayed items as the view's cold start snapshot (in the background), so
+     * the next time this view is opened first, it could be drawn right away
+     * @param items
+     */
+    private void saveColdStartSnapshot(List<Item> items) {
+    	final String viewKey = getViewKey();
+    	
+    	if ((viewKey == null) || (items instanceof PagedItemList) || (mLabels == null)) return;
+    	
+    	final ArrayList<Item> savedItems = new ArrayList<Item>(items.subList(0, Math.min(items.size(), ColdStartSnapshot.MAX_ITEMS)));
+    	final ArrayList<Label> savedLabels = mLabels;
+    	
+		(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ColdStartSnapshot.save(getApplicationContext(), viewKey, savedItems, savedLabels);
+			}
+		})).start();
+    }
+    
+    /**
+     * Reloads the displayed items in the background, and then rebuilds the item list
+     */
+    private void refreshItemList() {
+    	mLoader.load("items", new AsyncLoader.Task<List<Item>>() {
+    		private ArrayList<Project> mLoadedProjects;
+    		
+    		@Override
+    		protected List<Item> load() {
+    			mLoadedProjects = loadProjects();
+    			return getItemList();
+    		}
+    		
+    		@Override
+    		protected void onLoaded(List<Item> items) {
+    			if (mLoadedProjects != null) mItemAdapter.setProjects(mLoadedProjects);
+    			buildItemList(items);
+    		}
+    	});
+    }
+    
+    /**
+     * Loads the projects displayed as part of the items (only when viewing items of several projects).
+     * Should not be called from the main thread (the loaded projects should be set on the adapter
+     * from the main thread).
+     * @return null if no projects are displayed
+     */
+    private ArrayList<Project> loadProjects() {
+    	return (mViewMode != ItemViewMode.FILTER_BY_PROJECTS ? mClient.getProjects() : null);
+    }
+    
+    /**
+     * Subscribes to changes of items (and of labels, which are displayed as part of the items).
+     * Any item change is relevant, and not only changes of the displayed items - the displayed items
+     * are filtered (by project, label or query), and an item which isn't displayed might be updated
+     * into the filter (e.g. moved into the project by a sync, or given the displayed label).
+     */
+    private void subscribeToChanges() {
+    	mClient.getChangeFeed().subscribe(mStorageListener, DBConsts.ITEMS_TABLE_NAME, null);
+    	mClient.getChangeFeed().subscribe(mStorageListener, DBConsts.LABELS_TABLE_NAME, null);
     }
     
     public TodoistClient getClient() {
@@ -354,8 +470,6 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
     public void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
-		mSyncReceiver = new SyncReceiver();
-		
         overridePendingTransition(0, 0);
         
         mContext = this;
@@ -386,64 +500,73 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
         setSortMode(currentSortMode);
         
         if (mViewMode == ItemViewMode.FILTER_BY_LABELS) {
-        	mFilterLabel = (Label)extras.get(KEY__LABEL);
+        	mFilterLabel = (Label)ModelRegistry.getExtra(extras, KEY__LABEL);
         	this.setTitle("Label: " + mFilterLabel.name);
         	
         } else if (mViewMode == ItemViewMode.FILTER_BY_PROJECTS) {
-        	mFilterProject = (Project)extras.get(KEY__PROJECT);
+        	mFilterProject = (Project)ModelRegistry.getExtra(extras, KEY__PROJECT);
         	this.setTitle("Project: " + TodoistTextFormatter.formatText(mFilterProject.getName()).toString());
         	
         } else if (mViewMode == ItemViewMode.FILTER_BY_QUERIES) {
-        	mFilterQuery = (Query)extras.get(KEY__QUERY);
+        	mFilterQuery = (Query)ModelRegistry.getExtra(extras, KEY__QUERY);
         	this.setTitle("Query: " + mFilterQuery.name);
         }
         
-		mLoadingDialog = ProgressDialog.show(mContext, "", "Loading items...");
-		
-		
-		ArrayList<Label> labels;
-		labels = mClient.getLabels();
-
 		// Initialize these in the main onCreate thread, since this ensures the manager and adapter are ready
 		// when other events (such as the onActivityResult) start running.
-		mTreeManager = new InMemoryTreeStateManager<Item>();
+		mTreeManager = new ItemTreeStateManager();
 		mItemAdapter = new ItemTreeItemAdapter(ItemListView.this, ItemListView.this, ItemListView.this, mTreeManager, LEVEL_NUMBER);
-		mItemAdapter.setLabels(labels);
 		
-		// Run this logic on a separate thread in order for the loading dialog to actually show
-		(new Thread(new Runnable() {
+		// If this view was saved when last displayed - draw its first frame right away, without waiting for
+		// the storage (the view is reconciled with the storage once the items are loaded below)
+		String viewKey = getViewKey();
+		final ColdStartSnapshot.Contents snapshot = (viewKey != null ? ColdStartSnapshot.load(this, viewKey) : null);
+		
+		if (snapshot != null) {
+			mLabels = snapshot.labels;
+			mItemAdapter.setLabels(mLabels);
+			buildItemList(snapshot.items, false);
+			showItemList();
+			
+		} else {
+			mLoadingDialog = ProgressDialog.show(mContext, "", "Loading items...");
+		}
+		
+		mLoader.load("initial_items", new AsyncLoader.Task<List<Item>>() {
+			private ArrayList<Label> mLoadedLabels;
+			private ArrayList<Project> mLoadedProjects;
+			
 			@Override
-			public void run() {
-				final ArrayList<Item> items;
+			protected List<Item> load() {
+				// Labels might have changed since the snapshot was saved
+				mLoadedLabels = mClient.getLabels();
+				mLoadedProjects = loadProjects();
 				
-	        	items = getItemList();
-	        	
-	        	Log.d(TAG, "Items: " + (items == null ? "<null>" : items.toString()));
-		        
-				runOnUiThread(new Runnable() {
-					public void run() {	
-			        	Log.d(TAG, "Creating new tree manager with items: "+ (items == null ? "<null>" : items.toString()));
-			            buildItemList(items);
-						
-				        setContentView(R.layout.items_list);
-				        
-				        loadTopToolbar();
-				        
-				        mTreeView = (TreeViewList) findViewById(R.id.items_tree_view);
-				        
-				        mTreeView.setLongClickable(true);
-				        mTreeView.setItemsCanFocus(false);
-				        
-				        mTreeView.setAdapter(mItemAdapter);
-				        setCollapsible(true);
-				        registerForContextMenu(mTreeView);
-				        
-						if (mLoadingDialog.isShowing())
-							mLoadingDialog.dismiss();
-					}
-				});
+				List<Item> items = getItemList();
+				
+				Log.d(TAG, "Items: " + (items == null ? "<null>" : items.toString()));
+				
+				return items;
 			}
-		})).start();
+			
+			@Override
+			protected void onLoaded(List<Item> items) {
+				Log.d(TAG, "Creating new tree manager with items: "+ (items == null ? "<null>" : items.toString()));
+				
+				mLabels = mLoadedLabels;
+				mItemAdapter.setLabels(mLabels);
+				if (mLoadedProjects != null) mItemAdapter.setProjects(mLoadedProjects);
+				
+				buildItemList(items);
+				
+				if (snapshot == null) {
+					showItemList();
+					
+					if (mLoadingDialog.isShowing())
+						mLoadingDialog.dismiss();
+				}
+			}
+		});
 
         /*
         if (mViewMode == ItemSortMode.FILTER_BY_LABELS) {
@@ -452,6 +575,31 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
         */
     }
     
+    /**
+     * Sets up the item list layout (once the initial items were built)
+     */
+    private void showItemList() {
+        setContentView(R.layout.items_list);
+        
+        // Let the startup sync run once the first frame was drawn (so it won't slow down loading this view)
+        getWindow().getDecorView().post(new Runnable() {
+            public void run() {
+                mClient.getSyncCoordinator().onFirstFrameDrawn();
+            }
+        });
+        
+        loadTopToolbar();
+        
+        mTreeView = (TreeViewList) findViewById(R.id.items_tree_view);
+        
+        mTreeView.setLongClickable(true);
+        mTreeView.setItemsCanFocus(false);
+        
+        mTreeView.setAdapter(mItemAdapter);
+        setCollapsible(true);
+        registerForContextMenu(mTreeView);
+    }
+    
     protected final void setCollapsible(boolean newCollapsible) {
         this.mCollapsible = newCollapsible;
         mTreeView.setCollapsible(this.mCollapsible);
@@ -490,8 +638,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 				@Override
 				public void run() {
 					// Refresh item list
-					ArrayList<Item> items = getItemList();
-					buildItemList(items);
+					refreshItemList();
 				}
 			});
 			
@@ -506,7 +653,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 				public void run() {
 			    	setSortMode(ItemSortMode.SORT_BY_DUE_DATE);
 			    	
-			    	final ArrayList<Item> items = getItemList();
+			    	final List<Item> items = getItemList();
 			    	
 					runOnUiThread(new Runnable() {
 						public void run() {	
@@ -530,7 +677,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 				public void run() {
 			    	setSortMode(ItemSortMode.ORIGINAL_ORDER);
 			    	
-			    	final ArrayList<Item> items = getItemList();
+			    	final List<Item> items = getItemList();
 			    	
 					runOnUiThread(new Runnable() {
 						public void run() {	
@@ -591,13 +738,13 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 			// Show the notes for the selected item
 			mItemEdited = item;
 	        intent = new Intent(getBaseContext(), NoteListView.class);
-	        intent.putExtra(NoteListView.KEY__ITEM, item);
+	        ModelRegistry.putExtra(intent, NoteListView.KEY__ITEM, item);
 	        startActivityForResult(intent, Bootloader.REQUEST_CODE__EDIT_NOTES);
         	return true;
 
         case R.id.context_menu_edit_item:
             intent = new Intent(getBaseContext(), EditItemView.class);
-            intent.putExtra(EditItemView.KEY__ITEM, item);
+            ModelRegistry.putExtra(intent, EditItemView.KEY__ITEM, item);
             mItemEdited = item;
             startActivityForResult(intent, Bootloader.REQUEST_CODE__EDIT_ITEM);
             
@@ -623,7 +770,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 							public void run() {
 		        	        	deleteItemsRecursively(item);
 		        	        	
-		        	        	final ArrayList<Item> items = getItemList();
+		        	        	final List<Item> items = getItemList();
 		        	        	
     							runOnUiThread(new Runnable() {
 									public void run() {	
@@ -681,10 +828,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 	public void onResume() {
 		super.onResume();
 		
-		if (!mIsSyncReceiverRegistered) {
-			registerReceiver(mSyncReceiver, new IntentFilter(AppService.SYNC_COMPLETED_ACTION));
-			mIsSyncReceiverRegistered = true;
-		}
+		subscribeToChanges();
 		
 	}
    
@@ -692,15 +836,19 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 	protected void onPause() {
 		super.onPause();
 		
-		if (mIsSyncReceiverRegistered) {
-			unregisterReceiver(mSyncReceiver);
-			mIsSyncReceiverRegistered = false;
-		}
+		mClient.getChangeFeed().unsubscribe(mStorageListener);
 
 		if ((mLoadingDialog != null) && (mLoadingDialog.isShowing()))
 			mLoadingDialog.dismiss();
 	}
 	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		
+		mLoader.cancelAll();
+	}
+	
     /**
      * Called when the edit/add item or settings activity returns
      */
@@ -721,7 +869,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 	    			(new Thread(new Runnable() {
 						@Override
 						public void run() {
-	        	        	final ArrayList<Item> items = getItemList();
+	        	        	final List<Item> items = getItemList();
 			    			
 							runOnUiThread(new Runnable() {
 								public void run() {	
@@ -744,6 +892,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 				
 				// This might have changed
 				mItemViewInQueryMode = mStorage.getItemViewInQueryMode();
+				mItemAdapter.reloadTextSize();
 				
 				// Refresh items - happens when user changes text size, etc
     			mLoadingDialog = ProgressDialog.show(this, "", "Loading items...");
@@ -752,7 +901,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
     			(new Thread(new Runnable() {
 					@Override
 					public void run() {
-        	        	final ArrayList<Item> items = getItemList();
+        	        	final List<Item> items = getItemList();
 		    			
 						runOnUiThread(new Runnable() {
 							public void run() {	
@@ -776,7 +925,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
     			// TODO: Refresh item's note count
     			// Problem: this is time-consuming and there can't seem to be a way to refresh
     			// a single item
-    			final Item item = (Item)data.getExtras().get(EditItemView.KEY__ITEM);
+    			final Item item = (Item)ModelRegistry.getExtra(data.getExtras(), EditItemView.KEY__ITEM);
     			
     			Log.e("Budoist", "Edit Item: " + item.toString());
     			
@@ -814,12 +963,17 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 		    			
 		    			// Refresh the labels in case the user modified them (e.g. added a new label,
 		    			// changed label color, renamed it, etc)
-		    			mItemAdapter.setLabels(mClient.getLabels());
+		    			final ArrayList<Label> labels = mClient.getLabels();
+		    			final ArrayList<Project> projects = loadProjects();
 		    			
-        	        	final ArrayList<Item> items = getItemList();
+        	        	final List<Item> items = getItemList();
 		    			
 						runOnUiThread(new Runnable() {
 							public void run() {	
+				    			mLabels = labels;
+				    			mItemAdapter.setLabels(mLabels);
+				    			if (projects != null) mItemAdapter.setProjects(projects);
+				    			
 				    			buildItemList(items); // Since this changes the UI
 				    			
 								if (mLoadingDialog.isShowing())
@@ -876,7 +1030,7 @@ public class ItemListView extends Activity implements IOnItemCompleted, IOnItemN
 		mItemEdited = item;
 		
         Intent intent = new Intent(getBaseContext(), NoteListView.class);
-        intent.putExtra(NoteListView.KEY__ITEM, item);
+        ModelRegistry.putExtra(intent, NoteListView.KEY__ITEM, item);
         startActivityForResult(intent, Bootloader.REQUEST_CODE__EDIT_NOTES);
         
 	}
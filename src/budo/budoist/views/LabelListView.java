@@ -1,6 +1,5 @@
 package budo.budoist.views;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashSet;
 import pl.polidea.treeview.InMemoryTreeStateManager;
@@ -9,10 +8,13 @@ import budo.budoist.Bootloader;
 import budo.budoist.TodoistApplication;
 import budo.budoist.models.Item;
 import budo.budoist.models.Label;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.TodoistTextFormatter;
 import budo.budoist.models.User;
-import budo.budoist.receivers.AppService;
 import budo.budoist.services.PremiumAccountException;
+import budo.budoist.services.DBConsts;
+import budo.budoist.services.StorageChangeFeed.ChangeSet;
+import budo.budoist.services.StorageChangeFeed.OnStorageChangedListener;
 import budo.budoist.services.TodoistClient;
 import budo.budoist.services.TodoistOfflineStorage;
 import budo.budoist.services.TodoistServerException;
@@ -26,13 +28,13 @@ import pl.polidea.treeview.TreeStateManager;
 import pl.polidea.treeview.TreeViewList;
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.graphics.Typeface;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.MotionEvent;
@@ -44,6 +46,7 @@ import android.view.View;
 import android.view.View.OnTouchListener;
 import android.widget.AdapterView;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
@@ -56,12 +59,13 @@ import android.widget.AdapterView.OnItemClickListener;
  * @author Yaron Budowski
  *
  */
-public class LabelListView extends Activity implements OnItemClickListener, OnClickListener {
+public class LabelListView extends Activity implements OnItemClickListener, OnClickListener, TextWatcher {
     private static final String TAG = LabelListView.class.getSimpleName();
     private TreeViewList mTreeView;
     private Button mOkButton;
     private Button mCancelButton;
     private LinearLayout mButtonsToolbar;
+    private EditText mFilterText;
     
     private RelativeLayout mTopToolbar;
 	private LinearLayout mProjectsToolbarButton, mLabelsToolbarButton, mQueriesToolbarButton;
@@ -100,30 +104,19 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
 	private static final int MAX_ITEM_NAME_IN_TITLE = 30;
 	
 	
-	private class SyncReceiver extends BroadcastReceiver {
+	private OnStorageChangedListener mStorageListener = new OnStorageChangedListener() {
 		@Override
-		public void onReceive(Context context, Intent intent) {
-			runOnUiThread(new Runnable() {
-				public void run() {
-					// Refresh visual labels list
-					buildLabelList(mClient.getLabels());
-				}
-			});
-
+		public void onStorageChanged(ChangeSet changes) {
+			// Refresh visual labels list (label list changed, e.g. by a sync)
+			buildLabelList(getDisplayedLabels());
 		}
-	}
-	
-	private SyncReceiver mSyncReceiver = null;
-	private boolean mIsSyncReceiverRegistered = false;
+	};
 	
 	@Override
 	protected void onPause() {
 		super.onPause();
 		
-		if (mIsSyncReceiverRegistered) {
-			unregisterReceiver(mSyncReceiver);
-			mIsSyncReceiverRegistered = false;
-		}
+		mClient.getChangeFeed().unsubscribe(mStorageListener);
 
 	}
 
@@ -160,7 +153,7 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
 			@Override
 			public void onClick(View arg0) {
 	            Intent intent = new Intent(getBaseContext(), EditLabelView.class);
-	            intent.putExtra(EditLabelView.KEY__LABEL, (Serializable)null);
+	            ModelRegistry.putExtra(intent, EditLabelView.KEY__LABEL, null);
 	            startActivityForResult(intent, Bootloader.REQUEST_CODE__EDIT_LABEL);
 			}
 		});
@@ -233,14 +226,40 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
     	}
     }
     
+    /**
+     * Returns the labels to display - only the ones whose names start with the filter text (in case
+     * one was entered)
+     */
+    private ArrayList<Label> getDisplayedLabels() {
+    	String filter = (mFilterText != null ? mFilterText.getText().toString().trim() : "");
+    	
+    	// Labels are written as "@label" inside the item's content
+    	if (filter.startsWith("@")) filter = filter.substring(1);
+    	
+    	return mClient.getLabelsByPrefix(filter);
+    }
+    
+	@Override
+	public void afterTextChanged(Editable arg0) {
+		// Filter text was changed (the selected labels are kept, even if they're not displayed)
+		buildLabelList(getDisplayedLabels());
+	}
+
+	@Override
+	public void beforeTextChanged(CharSequence arg0, int arg1, int arg2,
+			int arg3) {
+	}
+
+	@Override
+	public void onTextChanged(CharSequence arg0, int arg1, int arg2, int arg3) {
+	}
+    
     @Override
     public void onResume() {
     	super.onResume();
     	
-    	if (!mIsSyncReceiverRegistered) {
-			registerReceiver(mSyncReceiver, new IntentFilter(AppService.SYNC_COMPLETED_ACTION));
-			mIsSyncReceiverRegistered = true;
-		}
+		// All labels are displayed
+		mClient.getChangeFeed().subscribe(mStorageListener, DBConsts.LABELS_TABLE_NAME, null);
 
 		if (mViewMode == LabelViewMode.FILTER_BY_LABELS) {
 	        mStorage.setLastViewedFilter(InitialView.FILTER_BY_LABELS);
@@ -253,13 +272,11 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
         super.onCreate(savedInstanceState);
         boolean newCollapsible;
         
-		mSyncReceiver = new SyncReceiver();
-		
         overridePendingTransition(0, 0);
         
         Bundle extras = getIntent().getExtras();
         mViewMode = LabelViewMode.valueOf(extras.getString(KEY__VIEW_MODE));
-        mItem = (Item)extras.getSerializable(KEY__ITEM);
+        mItem = (Item)ModelRegistry.getExtra(extras, KEY__ITEM);
         
         mApplication = (TodoistApplication)getApplication();
         mClient = mApplication.getClient();
@@ -273,6 +290,14 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
         newCollapsible = true;
     
         setContentView(R.layout.labels_list);
+        
+        // Let the startup sync run once the first frame was drawn (so it won't slow down loading this view)
+        getWindow().getDecorView().post(new Runnable() {
+            public void run() {
+                mClient.getSyncCoordinator().onFirstFrameDrawn();
+            }
+        });
+        
         mTreeView = (TreeViewList) findViewById(R.id.labels_tree_view);
         mTreeView.setItemsCanFocus(false);
         
@@ -281,6 +306,8 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
         mOkButton = (Button) findViewById(R.id.labels_button_ok);
         mCancelButton = (Button) findViewById(R.id.labels_button_cancel);
         mButtonsToolbar = (LinearLayout) findViewById(R.id.labels_list_button_toolbar);
+        mFilterText = (EditText) findViewById(R.id.labels_filter);
+        mFilterText.addTextChangedListener(this);
         
         mOkButton.setOnClickListener(this);
         mCancelButton.setOnClickListener(this);
@@ -301,6 +328,7 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
 	        	this.setTitle(String.format("Select Labels for '%s'", shortContent));
         	}
         	mButtonsToolbar.setVisibility(View.VISIBLE);
+        	mFilterText.setVisibility(View.VISIBLE);
         	
         } else if (mViewMode == LabelViewMode.SELECT_INITIAL_LABEL) {
 			this.setTitle("Select Initial Label to Filter by");
@@ -309,10 +337,12 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
         
         
         // Build the initially selected label list
+        mSelectedLabelIds = new HashSet<Integer>();
+        
         if ((mItem != null) && (mItem.labelIds != null)) {
-        	mSelectedLabelIds = new HashSet<Integer>(mItem.labelIds);
-        } else {
-        	mSelectedLabelIds = new HashSet<Integer>();
+        	for (int i = 0; i < mItem.labelIds.length; i++) {
+        		mSelectedLabelIds.add(mItem.labelIds[i]);
+        	}
         }
         
         mLabelAdapter = new LabelTreeItemAdapter(this, mSelectedLabelIds, mTreeManager, LEVEL_NUMBER);
@@ -370,7 +400,7 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
 				@Override
 				public void run() {
 					// Refresh label list
-					buildLabelList(mClient.getLabels());
+					buildLabelList(getDisplayedLabels());
 				}
 			});
 			
@@ -390,12 +420,13 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
 		if (requestCode == Bootloader.REQUEST_CODE__SETTINGS) {
 			if (resultCode == RESULT_OK) {
 				// Refresh labels - happens when user changes text size, etc
+				mLabelAdapter.reloadTextSize();
     			(new Thread(new Runnable() {
 					@Override
 					public void run() {
 						runOnUiThread(new Runnable() {
 							public void run() {	
-				                buildLabelList(mClient.getLabels());
+				                buildLabelList(getDisplayedLabels());
 							}
 						});
 		 
@@ -405,7 +436,7 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
 			}
 		} else if (requestCode == Bootloader.REQUEST_CODE__EDIT_LABEL) {
     		if (resultCode == RESULT_OK) {
-    			Label label = (Label)data.getExtras().get(EditLabelView.KEY__LABEL);
+    			Label label = (Label)ModelRegistry.getExtra(data.getExtras(), EditLabelView.KEY__LABEL);
     			
     			if (label.id == 0) {
     				// Add label
@@ -426,7 +457,7 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
     			}
     			
     			// Refresh visual label list
-                buildLabelList(mClient.getLabels());
+                buildLabelList(getDisplayedLabels());
     		}
     	}
     }
@@ -467,7 +498,7 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
             }
             
             Intent intent = new Intent(getBaseContext(), EditLabelView.class);
-            intent.putExtra(EditLabelView.KEY__LABEL, label);
+            ModelRegistry.putExtra(intent, EditLabelView.KEY__LABEL, label);
             mLabelEdited = label;
             startActivityForResult(intent, Bootloader.REQUEST_CODE__EDIT_LABEL);
  
@@ -531,7 +562,7 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
 			// Show items list activity filtered by selected label
 	        Intent intent = new Intent(getBaseContext(), ItemListView.class);
 	        intent.putExtra(ItemListView.KEY__VIEW_MODE, ItemListView.ItemViewMode.FILTER_BY_LABELS.toString());
-	        intent.putExtra(ItemListView.KEY__LABEL, (Serializable)label);
+	        ModelRegistry.putExtra(intent, ItemListView.KEY__LABEL, label);
 	        startActivity(intent);
 	        
 	        mStorage.setLastViewedLabel(label.id);
@@ -541,7 +572,7 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
 		} else if (mViewMode == LabelViewMode.SELECT_INITIAL_LABEL) {
 			// Return selected label and close activity
 			Intent intent = new Intent();
-			intent.putExtra(KEY__LABEL, label);
+			ModelRegistry.putExtra(intent, KEY__LABEL, label);
 			setResult(RESULT_OK, intent);
 			finish();
 		}
@@ -555,8 +586,8 @@ public class LabelListView extends Activity implements OnItemClickListener, OnCl
 		if (arg0 == mOkButton) {
 			// Return selected labels and close activity
 			Intent intent = new Intent();
-			mItem.labelIds = new ArrayList<Integer>(mSelectedLabelIds); // mItem.labelIds holds new label IDs
-			intent.putExtra(KEY__ITEM, mItem);
+			mItem.labelIds = Item.toLabelIds(mSelectedLabelIds); // mItem.labelIds holds new label IDs
+			ModelRegistry.putExtra(intent, KEY__ITEM, mItem);
 			
 			setResult(RESULT_OK, intent);
 			finish();
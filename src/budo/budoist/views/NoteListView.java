@@ -7,11 +7,14 @@ import budo.budoist.R;
 import budo.budoist.Bootloader;
 import budo.budoist.TodoistApplication;
 import budo.budoist.models.Item;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.Note;
 import budo.budoist.models.TodoistTextFormatter;
 import budo.budoist.models.User;
-import budo.budoist.receivers.AppService;
 import budo.budoist.services.PremiumAccountException;
+import budo.budoist.services.DBConsts;
+import budo.budoist.services.StorageChangeFeed.ChangeSet;
+import budo.budoist.services.StorageChangeFeed.OnStorageChangedListener;
 import budo.budoist.services.TodoistClient;
 import budo.budoist.views.adapters.NoteTreeItemAdapter;
 import budo.budoist.views.adapters.NoteTreeItemAdapter.IOnNoteDelete;
@@ -22,11 +25,9 @@ import pl.polidea.treeview.TreeViewList;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.view.View.OnClickListener;
 import android.view.Display;
@@ -73,22 +74,17 @@ public class NoteListView extends Activity implements IOnNoteDelete, IOnNoteEdit
 	private User mUser;
 	private Button mCloseButton;
 	
-	private class SyncReceiver extends BroadcastReceiver {
+	private OnStorageChangedListener mStorageListener = new OnStorageChangedListener() {
 		@Override
-		public void onReceive(Context context, Intent intent) {
-			runOnUiThread(new Runnable() {
-				public void run() {
-					// Refresh visual note list
-		            buildNoteList();
-		            mNotesModified = true;
-				}
-			});
-
+		public void onStorageChanged(ChangeSet changes) {
+			// Refresh visual note list (one of the displayed notes changed, or new notes were added)
+            buildNoteList();
+            mNotesModified = true;
 		}
-	}
+	};
 	
-	private SyncReceiver mSyncReceiver = null;
-	private boolean mIsSyncReceiverRegistered = false;
+	private ArrayList<Integer> mNoteIds = new ArrayList<Integer>(); // Currently displayed notes
+	private boolean mIsSubscribedToChanges = false;
 	
 
 	
@@ -107,10 +103,23 @@ public class NoteListView extends Activity implements IOnNoteDelete, IOnNoteEdit
 			// Shouldn't happen since this entire activity is shown only if the user is premium
 		}
    	
+    	mNoteIds.clear();
+    	
     	// Add notes to tree sequently
     	for (int i = 0; i < notes.size(); i++) {
     		treeBuilder.sequentiallyAddNextNode(notes.get(i), 0);
+    		mNoteIds.add(notes.get(i).id);
     	}
+    	
+    	if (mIsSubscribedToChanges) subscribeToChanges(); // Displayed notes have changed
+    }
+    
+    /**
+     * Subscribes to changes of the currently displayed notes
+     */
+    private void subscribeToChanges() {
+    	mClient.getChangeFeed().subscribe(mStorageListener, DBConsts.NOTES_TABLE_NAME, mNoteIds);
+    	mIsSubscribedToChanges = true;
     }
     
     public TodoistClient getClient() {
@@ -128,20 +137,15 @@ public class NoteListView extends Activity implements IOnNoteDelete, IOnNoteEdit
 	public void onResume() {
 		super.onResume();
 		
-		if (!mIsSyncReceiverRegistered) {
-			registerReceiver(mSyncReceiver, new IntentFilter(AppService.SYNC_COMPLETED_ACTION));
-			mIsSyncReceiverRegistered = true;
-		}
+		subscribeToChanges();
 	}
 
  	@Override
 	protected void onPause() {
 		super.onPause();
 		
-		if (mIsSyncReceiverRegistered) {
-			unregisterReceiver(mSyncReceiver);
-			mIsSyncReceiverRegistered = false;
-		}
+		mClient.getChangeFeed().unsubscribe(mStorageListener);
+		mIsSubscribedToChanges = false;
 
 		
 		if ((mLoadingDialog != null) && (mLoadingDialog.isShowing()))
@@ -155,8 +159,6 @@ public class NoteListView extends Activity implements IOnNoteDelete, IOnNoteEdit
     public void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
-		mSyncReceiver = new SyncReceiver();
-		
         mContext = this;
         
         mNotesModified = false;
@@ -167,7 +169,7 @@ public class NoteListView extends Activity implements IOnNoteDelete, IOnNoteEdit
         mClient = mApplication.getClient();
         mUser = mClient.getUser();
         
-        mItem = (Item)extras.get(KEY__ITEM);
+        mItem = (Item)ModelRegistry.getExtra(extras, KEY__ITEM);
         mNoteCount = mItem.noteCount;
         
     	String shortContent = TodoistTextFormatter.formatText(mItem.getContent()).toString();
@@ -437,6 +439,7 @@ public class NoteListView extends Activity implements IOnNoteDelete, IOnNoteEdit
 		if (requestCode == Bootloader.REQUEST_CODE__SETTINGS) {
 			if (resultCode == RESULT_OK) {
 				// Refresh notes - happens when user changes text size, etc
+				if (mNoteAdapter != null) mNoteAdapter.reloadTextSize();
     			(new Thread(new Runnable() {
 					@Override
 					public void run() {
@@ -458,7 +461,7 @@ public class NoteListView extends Activity implements IOnNoteDelete, IOnNoteEdit
     	// Return the item (in case the note count was modified)
 		Intent intent = new Intent();
 		mItem.noteCount = mNoteCount;
-		intent.putExtra(KEY__ITEM, mItem);
+		ModelRegistry.putExtra(intent, KEY__ITEM, mItem);
 		intent.putExtra(KEY__NOTES_MODIFIED, new Boolean(mNotesModified));
 		
 		setResult(RESULT_OK, intent);
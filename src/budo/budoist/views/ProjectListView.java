@@ -1,6 +1,5 @@
 package budo.budoist.views;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -8,10 +7,14 @@ import pl.polidea.treeview.InMemoryTreeStateManager;
 import budo.budoist.R;
 import budo.budoist.Bootloader;
 import budo.budoist.TodoistApplication;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.Project;
 import budo.budoist.models.TodoistTextFormatter;
 import budo.budoist.models.User;
-import budo.budoist.receivers.AppService;
+import budo.budoist.services.AsyncLoader;
+import budo.budoist.services.DBConsts;
+import budo.budoist.services.StorageChangeFeed.ChangeSet;
+import budo.budoist.services.StorageChangeFeed.OnStorageChangedListener;
 import budo.budoist.services.TodoistClient;
 import budo.budoist.services.TodoistOfflineStorage;
 import budo.budoist.services.TodoistServerException;
@@ -25,11 +28,9 @@ import pl.polidea.treeview.TreeViewList;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Typeface;
 import android.os.Bundle;
@@ -97,27 +98,38 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 
 	private Context mContext;
 	
-	private class SyncReceiver extends BroadcastReceiver {
+	private AsyncLoader mLoader = new AsyncLoader();
+	
+	private OnStorageChangedListener mStorageListener = new OnStorageChangedListener() {
 		@Override
-		public void onReceive(Context context, Intent intent) {
-			runOnUiThread(new Runnable() {
-				public void run() {
-					// Refresh visual projects list
-					buildProjectList(mClient.getProjects());
-				}
-			});
-
+		public void onStorageChanged(ChangeSet changes) {
+			// Refresh visual projects list (project list changed, e.g. by a sync)
+			refreshProjectList();
 		}
-	}
-	
-	private SyncReceiver mSyncReceiver = null;
-	private boolean mIsSyncReceiverRegistered = false;
+	};
 	
 	
 	public TodoistClient getClient() {
 		return mClient;
 	}
 
+	/**
+	 * Reloads the projects in the background, and then rebuilds the project list
+	 */
+	private void refreshProjectList() {
+		mLoader.load("projects", new AsyncLoader.Task<ArrayList<Project>>() {
+			@Override
+			protected ArrayList<Project> load() {
+				return mClient.getProjects();
+			}
+			
+			@Override
+			protected void onLoaded(ArrayList<Project> projects) {
+				buildProjectList(projects);
+			}
+		});
+	}
+
 	/**
 	 * Converts a project list into a tree item view (as set by itemOrder and
 	 * indentLevel fields)
@@ -198,7 +210,7 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 			@Override
 			public void onClick(View arg0) {
 				Intent intent = new Intent(getBaseContext(), EditProjectView.class);
-				intent.putExtra(EditProjectView.KEY__PROJECT, (Serializable) null);
+				ModelRegistry.putExtra(intent, EditProjectView.KEY__PROJECT, null);
 				startActivityForResult(intent,
 						Bootloader.REQUEST_CODE__EDIT_PROJECT);
 			}
@@ -262,10 +274,7 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 	protected void onPause() {
 		super.onPause();
 		
-		if (mIsSyncReceiverRegistered) {
-			unregisterReceiver(mSyncReceiver);
-			mIsSyncReceiverRegistered = false;
-		}
+		mClient.getChangeFeed().unsubscribe(mStorageListener);
 
 		if ((mLoadingDialog != null) && (mLoadingDialog.isShowing()))
 			mLoadingDialog.dismiss();
@@ -275,10 +284,8 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 	public void onResume() {
 		super.onResume();
 		
-		if (!mIsSyncReceiverRegistered) {
-			registerReceiver(mSyncReceiver, new IntentFilter(AppService.SYNC_COMPLETED_ACTION));
-			mIsSyncReceiverRegistered = true;
-		}
+		// All projects are displayed
+		mClient.getChangeFeed().subscribe(mStorageListener, DBConsts.PROJECTS_TABLE_NAME, null);
 		
 		if (mViewMode == ProjectViewMode.FILTER_BY_PROJECTS) {
 	        mStorage.setLastViewedFilter(InitialView.FILTER_BY_PROJECTS);
@@ -291,8 +298,6 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 		super.onCreate(savedInstanceState);
 		boolean newCollapsible;
 		
-		mSyncReceiver = new SyncReceiver();
-
         overridePendingTransition(0, 0);
         
 		mContext = this;
@@ -325,13 +330,20 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 		    mApplication.setProjectTreeState(mTreeManager);
 		    
 		    // Refresh the project list only when it's a new project state
-		    ArrayList<Project> projects = mClient.getProjects();
-		    buildProjectList(projects);
+		    refreshProjectList();
 		}
 
 		newCollapsible = true;
 
 		setContentView(R.layout.projects_list);
+		
+		// Let the startup sync run once the first frame was drawn (so it won't slow down loading this view)
+		getWindow().getDecorView().post(new Runnable() {
+			public void run() {
+				mClient.getSyncCoordinator().onFirstFrameDrawn();
+			}
+		});
+		
 		mTreeView = (TreeViewList) findViewById(R.id.projects_tree_view);
 
 		loadTopToolbar();
@@ -355,6 +367,8 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
+		
+		mLoader.cancelAll();
 
 		if (mViewMode != ProjectViewMode.FILTER_BY_PROJECTS) {
 			// Selecting a project action was canceled
@@ -396,7 +410,7 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 				@Override
 				public void run() {
 					// Refresh visual projects list
-					buildProjectList(mClient.getProjects());
+					refreshProjectList();
 				}
 			});
 			
@@ -432,7 +446,7 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 			return true;
 		case R.id.context_menu_edit_project:
 			Intent intent = new Intent(getBaseContext(), EditProjectView.class);
-			intent.putExtra(EditProjectView.KEY__PROJECT, project);
+			ModelRegistry.putExtra(intent, EditProjectView.KEY__PROJECT, project);
 			mProjectEdited = project;
 			startActivityForResult(intent,
 					Bootloader.REQUEST_CODE__EDIT_PROJECT);
@@ -462,7 +476,7 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 								runOnUiThread(new Runnable() {
 									public void run() {
 										// Refresh visual projects list
-										buildProjectList(mClient.getProjects());
+										refreshProjectList();
 
 										if (mLoadingDialog.isShowing())
 											mLoadingDialog.dismiss();
@@ -515,24 +529,12 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 		if (requestCode == Bootloader.REQUEST_CODE__SETTINGS) {
 			if (resultCode == RESULT_OK) {
 				// Refresh projects - happens when user changes text size, etc
-    			(new Thread(new Runnable() {
-					@Override
-					public void run() {
-						final ArrayList<Project> projects = mClient.getProjects();
-						runOnUiThread(new Runnable() {
-							public void run() {	
-								buildProjectList(projects);
-							}
-						});
-		 
-					}
-				})).start();
- 			
+				mProjectAdapter.reloadTextSize();
+				refreshProjectList();
 			}
 		} else if (requestCode == Bootloader.REQUEST_CODE__EDIT_PROJECT) {
 			if (resultCode == RESULT_OK) {
-				final Project project = (Project) data.getExtras().get(
-						EditProjectView.KEY__PROJECT);
+				final Project project = (Project) ModelRegistry.getExtra(data.getExtras(), EditProjectView.KEY__PROJECT);
 
 				if (project.id == 0) {
 					mLoadingDialog = ProgressDialog.show(this, "",
@@ -558,7 +560,7 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 						runOnUiThread(new Runnable() {
 							public void run() {
 								// Refresh visual projects list
-								buildProjectList(mClient.getProjects());
+								refreshProjectList();
 
 								if (mLoadingDialog.isShowing())
 									mLoadingDialog.dismiss();
@@ -581,7 +583,7 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 			Intent intent = new Intent(getBaseContext(), ItemListView.class);
 			intent.putExtra(ItemListView.KEY__VIEW_MODE,
 					ItemListView.ItemViewMode.FILTER_BY_PROJECTS.toString());
-			intent.putExtra(ItemListView.KEY__PROJECT, (Serializable) project);
+			ModelRegistry.putExtra(intent, ItemListView.KEY__PROJECT, project);
 			startActivity(intent);
 			
 	        mStorage.setLastViewedProject(project.id);
@@ -591,7 +593,7 @@ public class ProjectListView extends Activity implements OnItemClickListener {
 		} else {
 			// Return selected project and close activity
 			Intent intent = new Intent();
-			intent.putExtra(KEY__PROJECT, project);
+			ModelRegistry.putExtra(intent, KEY__PROJECT, project);
 			setResult(RESULT_OK, intent);
 			finish();
 		}
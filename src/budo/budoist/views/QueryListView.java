@@ -1,11 +1,11 @@
 package budo.budoist.views;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 import pl.polidea.treeview.InMemoryTreeStateManager;
 import budo.budoist.R;
 import budo.budoist.Bootloader;
 import budo.budoist.TodoistApplication;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.Query;
 import budo.budoist.models.User;
 import budo.budoist.services.TodoistClient;
@@ -105,7 +105,7 @@ public class QueryListView extends Activity implements OnItemClickListener {
 			@Override
 			public void onClick(View arg0) {
 	            Intent intent = new Intent(getBaseContext(), EditQueryView.class);
-	            intent.putExtra(EditQueryView.KEY__QUERY, (Serializable)null);
+	            ModelRegistry.putExtra(intent, EditQueryView.KEY__QUERY, null);
 	            startActivityForResult(intent, Bootloader.REQUEST_CODE__EDIT_QUERY);
 			}
 		});
@@ -222,6 +222,14 @@ public class QueryListView extends Activity implements OnItemClickListener {
         newCollapsible = true;
         
         setContentView(R.layout.queries_list);
+        
+        // Let the startup sync run once the first frame was drawn (so it won't slow down loading this view)
+        getWindow().getDecorView().post(new Runnable() {
+            public void run() {
+                mClient.getSyncCoordinator().onFirstFrameDrawn();
+            }
+        });
+        
         mTreeView = (TreeViewList) findViewById(R.id.queries_tree_view);
         mTreeView.setItemsCanFocus(false);
         
@@ -298,6 +306,7 @@ public class QueryListView extends Activity implements OnItemClickListener {
 		if (requestCode == Bootloader.REQUEST_CODE__SETTINGS) {
 			if (resultCode == RESULT_OK) {
 				// Refresh queries - happens when user changes text size, etc
+				mQueryAdapter.reloadTextSize();
     			(new Thread(new Runnable() {
 					@Override
 					public void run() {
@@ -313,7 +322,7 @@ public class QueryListView extends Activity implements OnItemClickListener {
 			}
 		} else if (requestCode == Bootloader.REQUEST_CODE__EDIT_QUERY) {
     		if (resultCode == RESULT_OK) {
-    			Query query = (Query)data.getExtras().get(EditQueryView.KEY__QUERY);
+    			Query query = (Query)ModelRegistry.getExtra(data.getExtras(), EditQueryView.KEY__QUERY);
     			
     			if (query.id == 0) {
     				// Add query
@@ -356,7 +365,7 @@ public class QueryListView extends Activity implements OnItemClickListener {
         switch (item.getItemId()) {
         case R.id.context_menu_edit_query:
             Intent intent = new Intent(getBaseContext(), EditQueryView.class);
-            intent.putExtra(EditQueryView.KEY__QUERY, query);
+            ModelRegistry.putExtra(intent, EditQueryView.KEY__QUERY, query);
             startActivityForResult(intent, Bootloader.REQUEST_CODE__EDIT_QUERY);
  
         	return true;
@@ -404,7 +413,7 @@ public class QueryListView extends Activity implements OnItemClickListener {
 			// Show items list activity filtered by selected query
 	        Intent intent = new Intent(getBaseContext(), ItemListView.class);
 	        intent.putExtra(ItemListView.KEY__VIEW_MODE, ItemListView.ItemViewMode.FILTER_BY_QUERIES.toString());
-	        intent.putExtra(ItemListView.KEY__QUERY, (Serializable)query);
+	        ModelRegistry.putExtra(intent, ItemListView.KEY__QUERY, query);
 	        startActivity(intent);
 	        
 	        mStorage.setLastViewedQuery(query.id);
@@ -414,7 +423,7 @@ public class QueryListView extends Activity implements OnItemClickListener {
 		} else {
 			// Return selected query and close activity
 			Intent intent = new Intent();
-			intent.putExtra(KEY__QUERY, query);
+			ModelRegistry.putExtra(intent, KEY__QUERY, query);
 			setResult(RESULT_OK, intent);
 			finish();			
 		}
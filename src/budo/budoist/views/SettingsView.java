@@ -8,12 +8,15 @@ import budo.budoist.Bootloader;
 import budo.budoist.TodoistApplication;
 import budo.budoist.models.Item;
 import budo.budoist.models.Label;
+import budo.budoist.models.ModelRegistry;
 import budo.budoist.models.Project;
 import budo.budoist.models.Query;
 import budo.budoist.models.TodoistTextFormatter;
 import budo.budoist.models.User;
 import budo.budoist.models.User.DateFormat;
 import budo.budoist.models.User.TimeFormat;
+import budo.budoist.receivers.OnBootReceiver;
+import budo.budoist.services.SyncMetrics;
 import budo.budoist.services.TodoistClient;
 import budo.budoist.services.TodoistOfflineStorage;
 import budo.budoist.services.TodoistOfflineStorage.InitialView;
@@ -46,6 +49,8 @@ import android.widget.Toast;
  */
 public class SettingsView extends PreferenceActivity {
     private static final String TAG = SettingsView.class.getSimpleName();
+    
+    private static final int MAX_SYNC_HISTORY_DISPLAYED = 10;
 
     private TodoistApplication mApplication;
     private TodoistClient mClient;
@@ -56,7 +61,9 @@ public class SettingsView extends PreferenceActivity {
     private ListPreference mSyncFrequency;
     private Preference mLoginDetails;
     private CheckBoxPreference mSyncOnStartup;
+    private ListPreference mStartupSyncFreshness;
     private CheckBoxPreference mSyncOnExit;
+    private Preference mSyncHistory;
     
     private Preference mDefaultProject;
     private ListPreference mSortMode;
@@ -133,6 +140,7 @@ public class SettingsView extends PreferenceActivity {
 				preference.setSummary(entry);
 				
 				mStorage.setSyncFrequency(Integer.valueOf((String)newValue));
+				OnBootReceiver.scheduleService(SettingsView.this); // Wake up according to the new frequency
 				
 				return true;
 			}
@@ -148,6 +156,23 @@ public class SettingsView extends PreferenceActivity {
 				return true;
 			}
 		});
+	    
+	    mStartupSyncFreshness = (ListPreference)findPreference("startup_sync_freshness");
+	    mStartupSyncFreshness.setValue(String.valueOf(mStorage.getStartupSyncFreshness()));
+	    mStartupSyncFreshness.setSummary(mStartupSyncFreshness.getEntry());
+	    
+	    mStartupSyncFreshness.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
+			@Override
+			public boolean onPreferenceChange(Preference preference, Object newValue) {
+				int valueIndex = Arrays.asList(mStartupSyncFreshness.getEntryValues()).indexOf(newValue);
+				String entry = (String) mStartupSyncFreshness.getEntries()[valueIndex];
+				preference.setSummary(entry);
+				
+				mStorage.setStartupSyncFreshness(Integer.valueOf((String)newValue));
+				
+				return true;
+			}
+		});
     
  	    mSyncOnExit = (CheckBoxPreference)findPreference("sync_on_exit");
 	    mSyncOnExit.setChecked(mStorage.getSyncOnExit());
@@ -159,6 +184,15 @@ public class SettingsView extends PreferenceActivity {
 				return true;
 			}
 		});
+	    
+	    mSyncHistory = (Preference)findPreference("sync_history");
+	    mSyncHistory.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+			@Override
+			public boolean onPreferenceClick(Preference preference) {
+				showSyncHistory();
+				return true;
+			}
+		});
        
 	    mDefaultProject = (Preference)findPreference("default_project");
 		Project project = mStorage.getProject(mStorage.getDefaultProject());
@@ -472,6 +506,7 @@ public class SettingsView extends PreferenceActivity {
 				preference.setSummary(entry);
 				
 				mStorage.setBackupFrequency(Integer.valueOf((String)newValue));
+				OnBootReceiver.scheduleService(SettingsView.this); // Wake up according to the new frequency
 				
 				return true;
 			}
@@ -537,13 +572,53 @@ public class SettingsView extends PreferenceActivity {
     }
     
     private void refreshBackupNowDate() {
-	    Item item = new Item(); item.dueDate = mStorage.getLastBackupTime();
-		String dateString = (item.dueDate.getTime() == 0 ? "Never": item.getDueDateDescription(mUser.timeFormat, 0 /* Since last backup time is stored as local time, not GMT */));
+	    Item item = new Item(); item.setDueDate(mStorage.getLastBackupTime());
+		String dateString = (!item.hasDueDate() ? "Never": item.getDueDateDescription(mUser.timeFormat, 0 /* Since last backup time is stored as local time, not GMT */));
 	    mBackupNow.setSummary("Last Backup: " + dateString);
     }
     
+    private void showSyncHistory() {
+		ArrayList<SyncMetrics> history = mClient.getSyncHistory();
+		StringBuilder message = new StringBuilder();
+		
+		if (history.size() == 0) {
+			message.append("No syncs were made yet");
+		}
+		
+		for (int i = 0; i < Math.min(MAX_SYNC_HISTORY_DISPLAYED, history.size()); i++) {
+			SyncMetrics metrics = history.get(i);
+			Item item = new Item(); item.dueTime = metrics.startTime;
+			
+			if (i > 0) message.append("\n\n");
+			message.append(item.getDueDateDescription(mUser.timeFormat, 0 /* Sync start time is stored as local time */));
+			message.append(": ");
+			message.append(metrics.getSummary());
+		}
+		
+		AlertDialog.Builder builder = new AlertDialog.Builder(SettingsView.this);
+		builder.setTitle("Sync History");
+		builder.setMessage(message.toString());
+		builder.setNegativeButton("Close", null);
+		
+		if (history.size() > 0) {
+			builder.setPositiveButton("Export", new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					try {
+						String filename = mClient.exportSyncHistory(SettingsView.this);
+						Toast.makeText(SettingsView.this, "Sync history exported: " + filename, Toast.LENGTH_LONG).show();
+					} catch (IOException e) {
+						Toast.makeText(SettingsView.this, "Export failed - probably no disk space or SD card is not available.", Toast.LENGTH_LONG).show();
+					}
+				}
+			});
+		}
+		
+		builder.show();
+    }
+    
     private void refreshSyncNowDate() {
- 	    Item item = new Item(); item.dueDate = mStorage.getLastSyncTime();
+ 	    Item item = new Item(); item.setDueDate(mStorage.getLastSyncTime());
 		String dateString = item.getDueDateDescription(mUser.timeFormat, 0 /* Since last sync time is stored as local time, not GMT */ );
 	    mSyncNow.setSummary("Last Sync: " + dateString);
     }
@@ -643,7 +718,7 @@ public class SettingsView extends PreferenceActivity {
     	} else if (requestCode == Bootloader.REQUEST_CODE__SELECT_DEFAULT_PROJECT) {
     		if (resultCode == RESULT_OK) {
     			// User chose the default project for new items
-    			Project project = (Project)data.getExtras().get(ProjectListView.KEY__PROJECT);
+    			Project project = (Project)ModelRegistry.getExtra(data.getExtras(), ProjectListView.KEY__PROJECT);
     			
     			// Save the selected project
     			mStorage.setDefaultProject(project.id);
@@ -655,7 +730,7 @@ public class SettingsView extends PreferenceActivity {
  		} else if (requestCode == Bootloader.REQUEST_CODE__SELECT_INITIAL_PROJECT) {
     		if (resultCode == RESULT_OK) {
     			// User chose the initial project
-    			Project project = (Project)data.getExtras().get(ProjectListView.KEY__PROJECT);
+    			Project project = (Project)ModelRegistry.getExtra(data.getExtras(), ProjectListView.KEY__PROJECT);
     			
     			// Save the selected project
     			mStorage.setInitialView(InitialView.SPECIFIC_PROJECT);
@@ -669,7 +744,7 @@ public class SettingsView extends PreferenceActivity {
 		} else if (requestCode == Bootloader.REQUEST_CODE__SELECT_INITIAL_LABEL) {
     		if (resultCode == RESULT_OK) {
     			// User chose the initial label
-    			Label label = (Label)data.getExtras().get(LabelListView.KEY__LABEL);
+    			Label label = (Label)ModelRegistry.getExtra(data.getExtras(), LabelListView.KEY__LABEL);
     			
     			// Save the selected label
     			mStorage.setInitialView(InitialView.SPECIFIC_LABEL);
@@ -683,7 +758,7 @@ public class SettingsView extends PreferenceActivity {
  		} else if (requestCode == Bootloader.REQUEST_CODE__SELECT_INITIAL_QUERY) {
     		if (resultCode == RESULT_OK) {
     			// User chose the initial query
-    			Query query = (Query)data.getExtras().get(QueryListView.KEY__QUERY);
+    			Query query = (Query)ModelRegistry.getExtra(data.getExtras(), QueryListView.KEY__QUERY);
     			
     			// Save the selected query
     			mStorage.setInitialView(InitialView.SPECIFIC_QUERY);
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Hashtable;
 import pl.polidea.treeview.AbstractTreeViewAdapter;
 import budo.budoist.R;
+import budo.budoist.debug.Trace;
 import budo.budoist.models.Item;
 import budo.budoist.models.Label;
 import budo.budoist.models.Project;
@@ -56,6 +57,7 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
 	private IOnItemNotes mOnItemNotes = null;
 	
 	private Hashtable<Integer, Label> mIdToLabels;
+	private volatile Hashtable<Integer, Project> mIdToProjects;
     
     private OnCheckedChangeListener onCheckedChange = new OnCheckedChangeListener() {
         @Override
@@ -93,6 +95,22 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
         }
     }
    
+    /**
+     * Updates the projects list - used for showing the items' projects (when viewing items of
+     * several projects), without querying the storage on every bind
+     * 
+     * @param projects
+     */
+    public void setProjects(ArrayList<Project> projects) {
+        Hashtable<Integer, Project> idToProjects = new Hashtable<Integer, Project>();
+        
+        for (int i = 0; i < projects.size(); i++) {
+        	idToProjects.put(projects.get(i).id, projects.get(i));
+        }
+        
+        mIdToProjects = idToProjects;
+    }
+    
     public ItemTreeItemAdapter(final ItemListView itemListView,
     		final IOnItemCompleted onItemCompleted,
     		final IOnItemNotes onItemNotes,
@@ -102,6 +120,7 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
         
         mClient = itemListView.getClient();
         mStorage = mClient.getStorage();
+        mTextSize = mStorage.getTextSize(); // Read once (and not on every bind)
         
         mOnItemCompleted = onItemCompleted;
         mOnItemNotes = onItemNotes;
@@ -111,6 +130,13 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
         mItemViewInQueryMode = mItemListView.getItemViewInQueryMode();
     }
 
+    /**
+     * Re-reads the text size (used when the user changes it in the settings)
+     */
+    public void reloadTextSize() {
+        mTextSize = mStorage.getTextSize();
+    }
+
     @Override
     public View getNewChildView(final TreeNodeInfo<Item> treeNodeInfo) {
         final LinearLayout viewLayout = (LinearLayout) getActivity()
@@ -121,6 +147,8 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
     @Override
     public View updateView(final View view,
             final TreeNodeInfo<Item> treeNodeInfo) {
+        long span = Trace.begin();
+        
     	final Item item = treeNodeInfo.getId();
     	LinearLayout viewLayout = (LinearLayout) view;
 
@@ -141,7 +169,6 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
         final CheckBox itemCheckbox = (CheckBox) viewLayout
         	.findViewById(R.id.item_list_item_checkbox);
         
-        mTextSize = mStorage.getTextSize();
         mItemViewInQueryMode = mItemListView.getItemViewInQueryMode();
         
         // Display the formatted text (highlighting, etc)
@@ -162,7 +189,7 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
                 )
             ) {
         	// Show item's projects
-        	Project project = mClient.getProjectById(item.projectId);
+        	Project project = (mIdToProjects != null ? mIdToProjects.get(item.projectId) : null);
         	
         	if (project != null) {
             	itemLabels.setText(project.getName());
@@ -180,8 +207,8 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
         	// Show item's labels
 	        if (item.labelIds != null) {
 		        // Fill out the labels
-		        for (int i = 0; i < item.labelIds.size(); i++) {
-		        	int labelId = item.labelIds.get(i);
+		        for (int i = 0; i < item.labelIds.length; i++) {
+		        	int labelId = item.labelIds[i];
 		        	Label currentLabel = mIdToLabels.get(labelId);
 		        	
 		        	if (currentLabel == null) {
@@ -193,7 +220,7 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
 		        	itemLabels.append(Html.fromHtml(String.format("<font color='#%X'><i>%s</i></font>",
 		        			currentLabel.getColor(), currentLabel.name)));
 		        	
-		        	if (i < item.labelIds.size() - 1) {
+		        	if (i < item.labelIds.length - 1) {
 		        		itemLabels.append(", ");
 		        	}
 		        }
@@ -233,7 +260,7 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
         
         itemDueDate.setTextSize(TypedValue.COMPLEX_UNIT_DIP, mTextSize - 4);
         
-        if ((item.dueDate == null) || (item.dueDate.getTime() == 0)) {
+        if (!item.hasDueDate()) {
         	itemDateLayout.setVisibility(View.GONE);
         } else {
         	itemDateLayout.setVisibility(View.VISIBLE);
@@ -296,6 +323,7 @@ public class ItemTreeItemAdapter extends AbstractTreeViewAdapter<Item> implement
 	    
         viewLayout.setTag(item);
 
+        Trace.end("ItemTreeItemAdapter.updateView", span);
         return viewLayout;
     }
     
@@ -0,0 +1,156 @@
+package budo.budoist.views.adapters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pl.polidea.treeview.InMemoryTreeStateManager;
+import pl.polidea.treeview.TreeNodeInfo;
+import pl.polidea.treeview.TreeStateManager;
+import android.database.DataSetObserver;
+import budo.budoist.models.Item;
+import budo.budoist.services.TodoistOfflineStorage.PagedItemList;
+
+/**
+ * Tree state manager for the items list - either a regular (in-memory) tree, or a flat list
+ * backed by a paged item list (so very large lists are loaded lazily, as the user scrolls).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class ItemTreeStateManager implements TreeStateManager<Item> {
+	private static final long serialVersionUID = 1L;
+
+	private InMemoryTreeStateManager<Item> mTree = new InMemoryTreeStateManager<Item>();
+	private transient PagedItemList mPagedItems = null;
+
+
+	/**
+	 * Switches the manager to a flat, paged list (or back to a regular tree, if null)
+	 * @param pagedItems
+	 */
+	public synchronized void setPagedItems(PagedItemList pagedItems) {
+		mPagedItems = pagedItems;
+
+		if (pagedItems != null) {
+			mTree.clear(); // Also notifies the list view of the change
+		} else {
+			mTree.refresh();
+		}
+	}
+
+	public synchronized boolean isPaged() {
+		return (mPagedItems != null);
+	}
+
+
+	@Override
+	public synchronized int getVisibleCount() {
+		return (mPagedItems != null ? mPagedItems.size() : mTree.getVisibleCount());
+	}
+
+	@Override
+	public synchronized List<Item> getVisibleList() {
+		return (mPagedItems != null ? mPagedItems : mTree.getVisibleList());
+	}
+
+	@Override
+	public synchronized TreeNodeInfo<Item> getNodeInfo(Item id) {
+		if (mPagedItems != null) {
+			// Flat list - all items are visible top-level items, without children
+			return new TreeNodeInfo<Item>(id, 0, false, true, false);
+		}
+
+		return mTree.getNodeInfo(id);
+	}
+
+	@Override
+	public synchronized int getLevel(Item id) {
+		return (mPagedItems != null ? 0 : mTree.getLevel(id));
+	}
+
+	@Override
+	public synchronized Integer[] getHierarchyDescription(Item id) {
+		return (mPagedItems != null ? new Integer[] { 0 } : mTree.getHierarchyDescription(id));
+	}
+
+	@Override
+	public synchronized List<Item> getChildren(Item id) {
+		return (mPagedItems != null ? new ArrayList<Item>() : mTree.getChildren(id));
+	}
+
+	@Override
+	public synchronized Item getParent(Item id) {
+		return (mPagedItems != null ? null : mTree.getParent(id));
+	}
+
+	@Override
+	public synchronized Item getNextSibling(Item id) {
+		return (mPagedItems != null ? null : mTree.getNextSibling(id));
+	}
+
+	@Override
+	public synchronized Item getPreviousSibling(Item id) {
+		return (mPagedItems != null ? null : mTree.getPreviousSibling(id));
+	}
+
+	@Override
+	public synchronized boolean isInTree(Item id) {
+		return (mPagedItems != null ? false : mTree.isInTree(id));
+	}
+
+
+	/*
+	 * Tree modifications (only applicable to a regular tree - a paged list is read-only)
+	 */
+
+
+	@Override
+	public void addBeforeChild(Item parent, Item newChild, Item beforeChild) {
+		mTree.addBeforeChild(parent, newChild, beforeChild);
+	}
+
+	@Override
+	public void addAfterChild(Item parent, Item newChild, Item afterChild) {
+		mTree.addAfterChild(parent, newChild, afterChild);
+	}
+
+	@Override
+	public void removeNodeRecursively(Item id) {
+		if (mPagedItems == null) mTree.removeNodeRecursively(id);
+	}
+
+	@Override
+	public void expandDirectChildren(Item id) {
+		if (mPagedItems == null) mTree.expandDirectChildren(id);
+	}
+
+	@Override
+	public void expandEverythingBelow(Item id) {
+		if (mPagedItems == null) mTree.expandEverythingBelow(id);
+	}
+
+	@Override
+	public void collapseChildren(Item id) {
+		if (mPagedItems == null) mTree.collapseChildren(id);
+	}
+
+	@Override
+	public void registerDataSetObserver(DataSetObserver observer) {
+		mTree.registerDataSetObserver(observer);
+	}
+
+	@Override
+	public void unregisterDataSetObserver(DataSetObserver observer) {
+		mTree.unregisterDataSetObserver(observer);
+	}
+
+	@Override
+	public void clear() {
+		mTree.clear();
+	}
+
+	@Override
+	public void refresh() {
+		mTree.refresh();
+	}
+}
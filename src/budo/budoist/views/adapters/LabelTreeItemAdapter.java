@@ -79,6 +79,14 @@ public class LabelTreeItemAdapter extends AbstractTreeViewAdapter<Label> {
         
         mClient = labelListView.getClient();
         mStorage = mClient.getStorage();
+        mTextSize = mStorage.getTextSize(); // Read once (and not on every bind)
+    }
+
+    /**
+     * Re-reads the text size (used when the user changes it in the settings)
+     */
+    public void reloadTextSize() {
+        mTextSize = mStorage.getTextSize();
     }
 
     @Override
@@ -103,8 +111,6 @@ public class LabelTreeItemAdapter extends AbstractTreeViewAdapter<Label> {
         
         Label label = treeNodeInfo.getId();
         
-        mTextSize = mStorage.getTextSize();
-        
         itemCount.setText(String.valueOf((label.count)));
         itemCount.setTextSize(TypedValue.COMPLEX_UNIT_DIP, mTextSize);
         
@@ -55,6 +55,14 @@ public class NoteTreeItemAdapter extends AbstractTreeViewAdapter<Note> implement
         
         mClient = noteListView.getClient();
         mStorage = mClient.getStorage();
+        mTextSize = mStorage.getTextSize(); // Read once (and not on every bind)
+    }
+
+    /**
+     * Re-reads the text size (used when the user changes it in the settings)
+     */
+    public void reloadTextSize() {
+        mTextSize = mStorage.getTextSize();
     }
 
     @Override
@@ -75,8 +83,6 @@ public class NoteTreeItemAdapter extends AbstractTreeViewAdapter<Note> implement
         mNoteDelete = (ImageView) viewLayout.findViewById(R.id.note_list_item_delete);
         mNoteEdit = (ImageView) viewLayout.findViewById(R.id.note_list_item_edit);
         
-        mTextSize = mStorage.getTextSize();
-        
         Note note = treeNodeInfo.getId();
         
         // Set note content with formatting (highlighting, etc)
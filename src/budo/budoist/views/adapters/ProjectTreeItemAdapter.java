@@ -40,6 +40,14 @@ public class ProjectTreeItemAdapter extends AbstractTreeViewAdapter<Project> {
         
         mClient = projectListView.getClient();
         mStorage = mClient.getStorage();
+        mTextSize = mStorage.getTextSize(); // Read once (and not on every bind)
+    }
+
+    /**
+     * Re-reads the text size (used when the user changes it in the settings)
+     */
+    public void reloadTextSize() {
+        mTextSize = mStorage.getTextSize();
     }
 
     @Override
@@ -63,8 +71,6 @@ public class ProjectTreeItemAdapter extends AbstractTreeViewAdapter<Project> {
         
         Project project = treeNodeInfo.getId();
         
-        mTextSize = mStorage.getTextSize();
-        
         // Set project name with formatting (highlighting, etc)
         projectName.setText(TodoistTextFormatter.formatText(project.getName()));
         projectName.setTextSize(TypedValue.COMPLEX_UNIT_DIP, mTextSize);
@@ -37,6 +37,14 @@ public class QueryTreeItemAdapter extends AbstractTreeViewAdapter<Query> {
         
         mClient = queryListView.getClient();
         mStorage = mClient.getStorage();
+        mTextSize = mStorage.getTextSize(); // Read once (and not on every bind)
+    }
+
+    /**
+     * Re-reads the text size (used when the user changes it in the settings)
+     */
+    public void reloadTextSize() {
+        mTextSize = mStorage.getTextSize();
     }
 
     @Override
@@ -53,8 +61,6 @@ public class QueryTreeItemAdapter extends AbstractTreeViewAdapter<Query> {
         TextView queryName = (TextView) viewLayout
         	.findViewById(R.id.query_list_item_name);
         
-        mTextSize = mStorage.getTextSize();
-        
         Query query = treeNodeInfo.getId();
         
         queryName.setText(query.name);
@@ -0,0 +1,73 @@
+package budo.budoist.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the primitive (int[]) compareArrays against the original ArrayList one - both should agree
+ * on every pair of arrays.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class CompareArraysTest extends TestCase {
+
+	private Item mModel = new Item();
+
+	public void testNulls() {
+		assertTrue(mModel.compareArrays((int[])null, (int[])null));
+		assertFalse(mModel.compareArrays(null, new int[0]));
+		assertFalse(mModel.compareArrays(new int[0], null));
+	}
+
+	public void testEmpty() {
+		assertTrue(mModel.compareArrays(new int[0], new int[0]));
+		assertFalse(mModel.compareArrays(new int[0], new int[] { 1 }));
+	}
+
+	public void testOrderDoesntMatter() {
+		assertTrue(mModel.compareArrays(new int[] { 1, 2, 3 }, new int[] { 3, 1, 2 }));
+		assertFalse(mModel.compareArrays(new int[] { 1, 2, 3 }, new int[] { 1, 2, 4 }));
+		assertFalse(mModel.compareArrays(new int[] { 1, 2 }, new int[] { 1, 2, 3 }));
+	}
+
+	public void testMatchesArrayListVersion() {
+		int[][] arrays = {
+				null, {}, { 1 }, { 2 }, { 1, 2 }, { 2, 1 }, { 1, 1 }, { 1, 1, 2 }, { 1, 2, 2 },
+				{ -5, 7, 1000000 }, { 1000000, -5, 7 }, { Integer.MIN_VALUE, Integer.MAX_VALUE }
+		};
+
+		for (int i = 0; i < arrays.length; i++) {
+			for (int j = 0; j < arrays.length; j++) {
+				boolean expected = mModel.compareArrays(toList(arrays[i]), toList(arrays[j]));
+				boolean actual = mModel.compareArrays(arrays[i], arrays[j]);
+
+				assertEquals(Arrays.toString(arrays[i]) + " vs. " + Arrays.toString(arrays[j]), expected, actual);
+			}
+		}
+	}
+
+	public void testItemLabelIds() {
+		Item item1 = new Item();
+		Item item2 = new Item();
+
+		item1.labelIds = new int[] { 4, 8 };
+		item2.labelIds = new int[] { 8, 4 };
+		assertTrue(item1.compareLabelIds(item2));
+
+		item2.labelIds = new int[] { 8 };
+		assertFalse(item1.compareLabelIds(item2));
+	}
+
+
+	private static ArrayList<Integer> toList(int[] array) {
+		if (array == null) return null;
+
+		ArrayList<Integer> list = new ArrayList<Integer>(array.length);
+		for (int i = 0; i < array.length; i++) list.add(array[i]);
+
+		return list;
+	}
+}
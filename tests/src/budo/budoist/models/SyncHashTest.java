@@ -0,0 +1,198 @@
+package budo.budoist.models;
+
+import java.util.Date;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the sync hashes agree with compareTo - models with equal hashes are equal, and changing
+ * any compared field changes the hash - and the rules of matchesSyncHash.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class SyncHashTest extends TestCase {
+
+	private final static int RANDOM_PAIRS = 2000;
+
+	private Random mRandom = new Random(1234);
+
+
+	public void testItemFields() {
+		Item item = newItem();
+		long hash = item.computeSyncHash();
+
+		Item other = (Item)item.clone();
+		assertEquals(hash, other.computeSyncHash());
+
+		other = (Item)item.clone(); other.projectId++;
+		assertChanged(item, other);
+		other = (Item)item.clone(); other.dueTime++;
+		assertChanged(item, other);
+		other = (Item)item.clone(); other.dateString = (other.dateString == null ? "today" : null);
+		assertChanged(item, other);
+		other = (Item)item.clone(); other.indentLevel++;
+		assertChanged(item, other);
+		other = (Item)item.clone(); other.itemOrder++;
+		assertChanged(item, other);
+		other = (Item)item.clone(); other.priority++;
+		assertChanged(item, other);
+		other = (Item)item.clone(); other.completed = !other.completed;
+		assertChanged(item, other);
+		other = (Item)item.clone(); other.noteCount++;
+		assertChanged(item, other);
+		other = (Item)item.clone(); other.rawContent += "!";
+		assertChanged(item, other);
+	}
+
+	public void testProjectFields() {
+		Project project = newProject();
+
+		Project other = (Project)project.clone(); other.rawName = "*" + other.rawName;
+		assertChanged(project, other);
+		other = (Project)project.clone(); other.indentLevel++;
+		assertChanged(project, other);
+		other = (Project)project.clone(); other.itemOrder++;
+		assertChanged(project, other);
+		other = (Project)project.clone(); other.colorIndex++;
+		assertChanged(project, other);
+	}
+
+	public void testLabelAndNoteFields() {
+		Label label = newLabel();
+
+		Label otherLabel = (Label)label.clone(); otherLabel.name += "x";
+		assertChanged(label, otherLabel);
+		otherLabel = (Label)label.clone(); otherLabel.colorIndex++;
+		assertChanged(label, otherLabel);
+
+		Note note = newNote();
+
+		Note otherNote = (Note)note.clone(); otherNote.itemId++;
+		assertChanged(note, otherNote);
+		otherNote = (Note)note.clone(); otherNote.content = "";
+		assertChanged(note, otherNote);
+	}
+
+	public void testRandomPairs() {
+		int hashMatches = 0;
+
+		for (int i = 0; i < RANDOM_PAIRS; i++) {
+			Item item1 = newItem(), item2 = newItem();
+			hashMatches += assertEquivalent(item1, item2, item1.compareTo(item2) == 0);
+
+			Project project1 = newProject(), project2 = newProject();
+			hashMatches += assertEquivalent(project1, project2, project1.compareTo(project2) == 0);
+
+			Label label1 = newLabel(), label2 = newLabel();
+			hashMatches += assertEquivalent(label1, label2, label1.compareTo(label2) == 0);
+
+			Note note1 = newNote(), note2 = newNote();
+			hashMatches += assertEquivalent(note1, note2, note1.compareTo(note2) == 0);
+		}
+
+		assertTrue(hashMatches > 0);
+	}
+
+	public void testStrings() {
+		Label nullName = newLabel(), emptyName = (Label)nullName.clone();
+		nullName.name = null;
+		emptyName.name = "";
+		assertChanged(nullName, emptyName);
+
+		// Adjacent strings can't be mistaken for one another
+		Item item1 = newItem(), item2 = (Item)item1.clone();
+		item1.dateString = "ab"; item1.rawContent = "c";
+		item2.dateString = "a"; item2.rawContent = "bc";
+		assertChanged(item1, item2);
+	}
+
+	public void testMatchesSyncHash() {
+		Item local = newItem();
+		Item remote = (Item)local.clone();
+
+		// Unknown hash
+		local.syncHash = 0;
+		assertFalse(local.matchesSyncHash(remote));
+
+		local.syncHash = remote.computeSyncHash();
+		assertTrue(local.matchesSyncHash(remote));
+
+		// Label IDs aren't part of the hash, but are still compared
+		remote.labelIds = new int[] { 1, 2, 3 };
+		local.labelIds = new int[] { 3, 2, 1 };
+		assertTrue(local.matchesSyncHash(remote));
+		local.labelIds = new int[] { 1, 2 };
+		assertFalse(local.matchesSyncHash(remote));
+	}
+
+	public void testNeverZero() {
+		assertTrue(new Item().computeSyncHash() != 0);
+		assertTrue(new Project().computeSyncHash() != 0);
+		assertTrue(new Label().computeSyncHash() != 0);
+		assertTrue(new Note().computeSyncHash() != 0);
+	}
+
+
+	/**
+	 * Equal hashes mean equal models - while equal models may still have different hashes (e.g. items
+	 * whose raw contents differ only by label references, which compareTo ignores)
+	 * @return 1 if the hashes are equal, 0 otherwise
+	 */
+	private static int assertEquivalent(SynchronizedModel model, SynchronizedModel other, boolean isEqual) {
+		if (model.computeSyncHash() != other.computeSyncHash()) return 0;
+
+		assertTrue(model.toString() + " vs. " + other.toString(), isEqual);
+		return 1;
+	}
+
+	private static void assertChanged(SynchronizedModel model, SynchronizedModel other) {
+		assertTrue(other.toString(), model.computeSyncHash() != other.computeSyncHash());
+	}
+
+	// Random models are drawn from small value ranges - so some random pairs are equal
+
+	private Item newItem() {
+		Item item = new Item();
+		item.id = mRandom.nextInt(2) + 1;
+		item.projectId = mRandom.nextInt(2) + 1;
+		item.rawContent = (mRandom.nextBoolean() ? "Task" : "Task @work");
+		item.dateString = (mRandom.nextBoolean() ? "tomorrow" : null);
+		item.dueTime = (mRandom.nextBoolean() ? 1325376000000L : 0);
+		item.indentLevel = mRandom.nextInt(2) + 1;
+		item.itemOrder = mRandom.nextInt(2);
+		item.priority = mRandom.nextInt(2) + 1;
+		item.completed = mRandom.nextBoolean();
+		item.noteCount = mRandom.nextInt(2);
+		item.labelIds = new int[0];
+		return item;
+	}
+
+	private Project newProject() {
+		Project project = new Project();
+		project.id = mRandom.nextInt(2) + 1;
+		project.rawName = (mRandom.nextBoolean() ? "Work" : "*Work");
+		project.indentLevel = mRandom.nextInt(2) + 1;
+		project.itemOrder = mRandom.nextInt(2);
+		project.colorIndex = mRandom.nextInt(2);
+		return project;
+	}
+
+	private Label newLabel() {
+		Label label = new Label();
+		label.id = mRandom.nextInt(2) + 1;
+		label.name = (mRandom.nextBoolean() ? "home" : "work");
+		label.colorIndex = mRandom.nextInt(2);
+		return label;
+	}
+
+	private Note newNote() {
+		Note note = new Note();
+		note.id = mRandom.nextInt(2) + 1;
+		note.itemId = mRandom.nextInt(2) + 1;
+		note.content = (mRandom.nextBoolean() ? "Note" : "Another note");
+		note.postDate = new Date(1325376000000L);
+		return note;
+	}
+}
@@ -0,0 +1,147 @@
+package budo.budoist.services;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Round-trips tables through the binary snapshot format, and checks that truncated, corrupt or
+ * foreign files are rejected as a whole.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class BinarySnapshotTest extends TestCase {
+
+	private final static String[] COLUMNS = { "id", "name", "due_date" };
+	private final static byte[] COLUMN_TYPES = { BinarySnapshot.TYPE_LONG, BinarySnapshot.TYPE_STRING, BinarySnapshot.TYPE_LONG };
+
+	private final static Object[][] ROWS = {
+		{ 1L, "Buy milk", Long.MAX_VALUE },
+		{ -2L, "", null },
+		{ 3000000000L, null, 0L },
+		{ 4L, "\u05e2\u05d1\u05e8\u05d9\u05ea \u2713", -1L } // Non-ASCII (multi-byte UTF-8)
+	};
+
+	private File mFile;
+
+	protected void setUp() throws IOException {
+		mFile = File.createTempFile("snapshot", ".bin");
+	}
+
+	protected void tearDown() {
+		mFile.delete();
+	}
+
+
+	public void testRoundTrip() throws IOException {
+		writeSnapshot();
+
+		assertTrue(BinarySnapshot.isSnapshot(mFile));
+
+		ArrayList<BinarySnapshot.Table> tables = BinarySnapshot.read(mFile);
+		assertEquals(2, tables.size());
+
+		BinarySnapshot.Table table = tables.get(0);
+		assertEquals("items", table.name);
+		assertEquals(ROWS.length, table.rowCount);
+
+		for (int c = 0; c < COLUMNS.length; c++) {
+			assertEquals(COLUMNS[c], table.columns[c]);
+			assertEquals(COLUMN_TYPES[c], table.columnTypes[c]);
+
+			for (int r = 0; r < ROWS.length; r++) {
+				assertEquals(String.format("%s of row %d", COLUMNS[c], r), ROWS[r][c], table.getValue(r, c));
+			}
+		}
+
+		// An empty table
+		assertEquals("labels", tables.get(1).name);
+		assertEquals(0, tables.get(1).rowCount);
+	}
+
+	public void testCorruptSection() throws IOException {
+		writeSnapshot();
+
+		// Flip the last byte (part of the last column section of the last table with rows)
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+
+		try {
+			long offset = findLastSectionByte(file);
+			file.seek(offset);
+			int value = file.read();
+			file.seek(offset);
+			file.write(value ^ 0xff);
+		} finally {
+			file.close();
+		}
+
+		assertReadFails();
+	}
+
+	public void testTruncated() throws IOException {
+		writeSnapshot();
+
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+
+		try {
+			file.setLength(file.length() - 10);
+		} finally {
+			file.close();
+		}
+
+		assertTrue(BinarySnapshot.isSnapshot(mFile));
+		assertReadFails();
+	}
+
+	public void testNotASnapshot() throws IOException {
+		FileOutputStream output = new FileOutputStream(mFile);
+
+		try {
+			output.write("id,name\n1,work\n".getBytes("UTF-8"));
+		} finally {
+			output.close();
+		}
+
+		assertFalse(BinarySnapshot.isSnapshot(mFile));
+		assertReadFails();
+	}
+
+
+	private void writeSnapshot() throws IOException {
+		FileOutputStream output = new FileOutputStream(mFile);
+
+		try {
+			BinarySnapshot.Writer writer = new BinarySnapshot.Writer(output, 2);
+			writer.writeTable("items", COLUMNS, COLUMN_TYPES, FakeCursor.create(COLUMNS, ROWS));
+			writer.writeTable("labels", new String[] { "id" }, new byte[] { BinarySnapshot.TYPE_LONG },
+					FakeCursor.create(new String[] { "id" }, new Object[0][]));
+			writer.flush();
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Returns the offset of the last data byte of the first table (its last column section)
+	 */
+	private long findLastSectionByte(RandomAccessFile file) throws IOException {
+		// The second (empty) table is written after the first one: name, row count, column count,
+		// one column (name and type) and one empty section (length and CRC)
+		long secondTableLength = (4 + "labels".length()) + 4 + 4 + (4 + "id".length() + 1) + (4 + 8);
+		return file.length() - secondTableLength - 1;
+	}
+
+	private void assertReadFails() {
+		try {
+			BinarySnapshot.read(mFile);
+			fail("Invalid snapshot was read");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}
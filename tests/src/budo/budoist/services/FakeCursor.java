@@ -0,0 +1,80 @@
+package budo.budoist.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import junit.framework.Assert;
+import android.database.Cursor;
+
+/**
+ * An in-memory cursor over fixed rows, for plain JVM tests of code which reads cursors. Only the
+ * methods used by the storage readers are supported - reading a column which wasn't found by
+ * getColumnIndex fails the test. Usage:
+ *
+ * 		Cursor c = FakeCursor.create(new String[] { "id", "name" }, new Object[][] { { 1, "work" } });
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class FakeCursor implements InvocationHandler {
+
+	private String[] mColumns;
+	private Object[][] mRows;
+	private int mPosition = -1;
+
+	/**
+	 * @param columns
+	 * @param rows values per row, in the order of the columns (Numbers, Strings or nulls)
+	 * @return
+	 */
+	public static Cursor create(String[] columns, Object[][] rows) {
+		return (Cursor)Proxy.newProxyInstance(Cursor.class.getClassLoader(), new Class[] { Cursor.class },
+				new FakeCursor(columns, rows));
+	}
+
+	private FakeCursor(String[] columns, Object[][] rows) {
+		mColumns = columns;
+		mRows = rows;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+
+		if (name.equals("getColumnIndex")) {
+			for (int i = 0; i < mColumns.length; i++) {
+				if (mColumns[i].equals(args[0])) return i;
+			}
+			return -1;
+		} else if (name.equals("getCount")) {
+			return mRows.length;
+		} else if (name.equals("moveToFirst")) {
+			mPosition = 0;
+			return (mRows.length > 0);
+		} else if (name.equals("moveToNext")) {
+			mPosition++;
+			return (mPosition < mRows.length);
+		} else if (name.equals("isAfterLast")) {
+			return (mPosition >= mRows.length);
+		} else if (name.equals("close")) {
+			return null;
+		}
+
+		int column = (Integer)args[0];
+		Assert.assertTrue(String.format("Column %d wasn't found", column), (column >= 0) && (column < mColumns.length));
+
+		Object value = mRows[mPosition][column];
+
+		if (name.equals("isNull")) {
+			return (value == null);
+		} else if (name.equals("getString")) {
+			return (value != null ? value.toString() : null);
+		} else if (name.equals("getInt")) {
+			return (value != null ? ((Number)value).intValue() : 0);
+		} else if (name.equals("getLong")) {
+			return (value != null ? ((Number)value).longValue() : 0L);
+		}
+
+		throw new UnsupportedOperationException(name);
+	}
+}
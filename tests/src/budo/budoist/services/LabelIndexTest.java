@@ -0,0 +1,118 @@
+package budo.budoist.services;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+import budo.budoist.models.Label;
+import budo.budoist.models.SynchronizedModel.DirtyState;
+
+/**
+ * Tests the label index trie - prefix lookups, exact name lookups (including labels sharing a trie
+ * node), renames and removals.
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class LabelIndexTest extends TestCase {
+
+	private LabelIndex mIndex;
+
+	protected void setUp() {
+		ArrayList<Label> labels = new ArrayList<Label>();
+		labels.add(newLabel(1, "work", DirtyState.UNMODIFIED));
+		labels.add(newLabel(2, "workout", DirtyState.UNMODIFIED));
+		labels.add(newLabel(3, "home", DirtyState.UNMODIFIED));
+		labels.add(newLabel(4, "wo", DirtyState.DELETED));
+
+		mIndex = new LabelIndex(labels);
+	}
+
+
+	public void testGetByPrefix() {
+		assertEquals("[work, workout]", names(mIndex.getByPrefix("wo", false)));
+		assertEquals("[wo, work, workout]", names(mIndex.getByPrefix("wo", true)));
+		assertEquals("[work, workout]", names(mIndex.getByPrefix("WOR", false)));
+		assertEquals("[home, work, workout]", names(mIndex.getByPrefix("", false)));
+		assertEquals("[]", names(mIndex.getByPrefix("x", true)));
+		assertEquals("[]", names(mIndex.getByPrefix("workouts", true)));
+	}
+
+	public void testGetById() {
+		assertEquals("home", mIndex.getById(3).name);
+		assertNull(mIndex.getById(5));
+
+		// Returned labels are copies
+		mIndex.getById(3).name = "changed";
+		assertEquals("home", mIndex.getById(3).name);
+	}
+
+	public void testGetByName() {
+		assertEquals(1, mIndex.getByName("work").id);
+		assertNull(mIndex.getByName("wor"));
+		assertNull(mIndex.getByName("Work")); // Exact name only
+		assertEquals(4, mIndex.getByName("wo").id); // Only a DELETED one
+	}
+
+	public void testSharedNode() {
+		// Same node as "work" (the trie is case-insensitive), while both are kept
+		mIndex.put(newLabel(5, "Work", DirtyState.UNMODIFIED));
+
+		assertEquals(1, mIndex.getByName("work").id);
+		assertEquals(5, mIndex.getByName("Work").id);
+		assertEquals(3, mIndex.getByPrefix("work", false).size());
+
+		// A new label re-using the name of a DELETED one is preferred
+		mIndex.put(newLabel(6, "wo", DirtyState.ADDED));
+		assertEquals(6, mIndex.getByName("wo").id);
+
+		mIndex.remove(6);
+		assertEquals(4, mIndex.getByName("wo").id);
+	}
+
+	public void testRename() {
+		mIndex.put(newLabel(2, "gym", DirtyState.MODIFIED));
+
+		assertEquals("[work]", names(mIndex.getByPrefix("wo", false)));
+		assertEquals(2, mIndex.getByName("gym").id);
+		assertNull(mIndex.getByName("workout"));
+		assertEquals(4, mIndex.size());
+	}
+
+	public void testRemove() {
+		mIndex.remove(1);
+
+		assertNull(mIndex.getById(1));
+		assertNull(mIndex.getByName("work"));
+		assertEquals("[workout]", names(mIndex.getByPrefix("work", false)));
+
+		// Nodes left empty are removed, while nodes along the path of other labels are kept
+		mIndex.remove(2);
+		mIndex.remove(4);
+		assertEquals("[]", names(mIndex.getByPrefix("w", true)));
+		assertEquals("[home]", names(mIndex.getByPrefix("", true)));
+
+		mIndex.remove(100); // No such label
+		assertEquals(1, mIndex.size());
+	}
+
+	public void testGetNames() {
+		ArrayList<String> names = mIndex.getNames(new int[] { 3, 100, 1 });
+		assertEquals("[home, work]", names.toString());
+	}
+
+
+	private static Label newLabel(int id, String name, DirtyState dirtyState) {
+		Label label = new Label();
+		label.id = id;
+		label.name = name;
+		label.dirtyState = dirtyState;
+		return label;
+	}
+
+	private static String names(ArrayList<Label> labels) {
+		ArrayList<String> names = new ArrayList<String>();
+		for (int i = 0; i < labels.size(); i++) names.add(labels.get(i).name);
+
+		return names.toString();
+	}
+}
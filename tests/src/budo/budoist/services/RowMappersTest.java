@@ -0,0 +1,219 @@
+package budo.budoist.services;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import android.database.Cursor;
+import budo.budoist.models.Item;
+import budo.budoist.models.Label;
+import budo.budoist.models.Note;
+import budo.budoist.models.Project;
+import budo.budoist.models.Query;
+import budo.budoist.models.SynchronizedModel.DirtyState;
+
+/**
+ * Round-trips models through the row mappers - each model is written into a row the way the storage
+ * writes it, and should be mapped back into an equal model (a plain JVM test, using an in-memory cursor).
+ *
+ * @author Yaron Budowski
+ *
+ */
+public class RowMappersTest extends TestCase {
+
+	private static Cursor newCursor(String[] columns, Object[][] rows) {
+		return FakeCursor.create(columns, rows);
+	}
+
+
+	public void testItem() {
+		Item item = new Item();
+		item.id = -7;
+		item.projectId = 1234;
+		item.rawContent = "*Buy milk @errands";
+		item.dateString = "every day";
+		item.dueTime = 1325376000000L;
+		item.indentLevel = 2;
+		item.noteCount = 3;
+		item.itemOrder = 17;
+		item.priority = 4;
+		item.completed = true;
+		item.dirtyState = DirtyState.MODIFIED;
+		item.syncHash = item.computeSyncHash();
+
+		Item mapped = new RowMappers.ItemMapper(newCursor(ITEM_COLUMNS, new Object[][] { itemRow(item) })).mapAll().get(0);
+
+		item.labelIds = mapped.labelIds; // (Label IDs are mapped separately)
+		assertEquals(0, item.compareTo(mapped));
+		assertEquals(item.dirtyState, mapped.dirtyState);
+		assertEquals(item.syncHash, mapped.syncHash);
+	}
+
+	public void testItemWithoutDueDate() {
+		Item item = new Item();
+		item.id = 1;
+		item.rawContent = "No due date";
+
+		Item mapped = new RowMappers.ItemMapper(newCursor(ITEM_COLUMNS, new Object[][] { itemRow(item) })).mapAll().get(0);
+
+		assertFalse(mapped.hasDueDate());
+		assertEquals(0, mapped.dueTime);
+	}
+
+	public void testItemMapperReusesModel() {
+		Item first = new Item();
+		first.id = 1;
+		first.rawContent = "First";
+		first.completed = true;
+		first.dirtyState = DirtyState.DELETED;
+
+		Item second = new Item();
+		second.id = 2;
+		second.rawContent = "Second";
+
+		Cursor c = newCursor(ITEM_COLUMNS, new Object[][] { itemRow(first), itemRow(second) });
+		RowMappers.ItemMapper mapper = new RowMappers.ItemMapper(c);
+		Item model = new Item();
+
+		c.moveToFirst();
+		mapper.map(model);
+		c.moveToNext();
+		mapper.map(model);
+
+		// Every field of the previous row is overwritten
+		second.labelIds = model.labelIds;
+		assertEquals(0, second.compareTo(model));
+		assertEquals(DirtyState.UNMODIFIED, model.dirtyState);
+	}
+
+	public void testProject() {
+		Project project = new Project();
+		project.id = 42;
+		project.rawName = "*Work";
+		project.colorIndex = 5;
+		project.indentLevel = 2;
+		project.itemCount = 12;
+		project.itemOrder = 3;
+		project.dirtyState = DirtyState.ADDED;
+		project.syncHash = project.computeSyncHash();
+
+		Object[] row = { project.id, project.rawName, project.colorIndex, project.indentLevel, project.itemCount,
+				project.itemOrder, project.dirtyState.getCode(), project.syncHash };
+		Project mapped = new RowMappers.ProjectMapper(newCursor(PROJECT_COLUMNS, new Object[][] { row })).mapAll().get(0);
+
+		assertEquals(0, project.compareTo(mapped));
+		assertEquals(project.itemCount, mapped.itemCount);
+		assertEquals(project.dirtyState, mapped.dirtyState);
+		assertEquals(project.syncHash, mapped.syncHash);
+	}
+
+	public void testLabel() {
+		Label label = new Label();
+		label.id = 9;
+		label.name = "errands";
+		label.colorIndex = 4;
+		label.count = 6;
+		label.dirtyState = DirtyState.DELETED;
+		label.syncHash = label.computeSyncHash();
+
+		Object[] row = { label.id, label.name, label.colorIndex, label.count, label.dirtyState.getCode(), label.syncHash };
+		Label mapped = new RowMappers.LabelMapper(newCursor(LABEL_COLUMNS, new Object[][] { row })).mapAll().get(0);
+
+		assertEquals(0, label.compareTo(mapped));
+		assertEquals(label.count, mapped.count);
+		assertEquals(label.dirtyState, mapped.dirtyState);
+		assertEquals(label.syncHash, mapped.syncHash);
+	}
+
+	public void testNote() {
+		Note note = new Note();
+		note.id = 77;
+		note.itemId = -3;
+		note.content = "Call first";
+		note.postDate = new Date(1325376000000L);
+		note.dirtyState = DirtyState.MODIFIED;
+
+		Object[] row = { note.id, note.content, note.itemId, note.postDate.getTime(), note.dirtyState.getCode(), 0L };
+		Note mapped = new RowMappers.NoteMapper(newCursor(NOTE_COLUMNS, new Object[][] { row })).mapAll().get(0);
+
+		assertEquals(0, note.compareTo(mapped));
+		assertEquals(note.postDate, mapped.postDate);
+		assertEquals(note.dirtyState, mapped.dirtyState);
+		assertEquals(0, mapped.syncHash); // Unknown
+	}
+
+	public void testQuery() {
+		Object[] row = { 3, "Today", "today" };
+		Query mapped = new RowMappers.QueryMapper(newCursor(QUERY_COLUMNS, new Object[][] { row })).mapAll().get(0);
+
+		assertEquals(3, mapped.id);
+		assertEquals("Today", mapped.name);
+		assertEquals("today", mapped.query);
+	}
+
+	public void testUnknownDirtyState() {
+		Label label = new Label();
+		label.name = "a";
+
+		Object[] row = { 1, label.name, 0, 0, 99, 0L };
+		Label mapped = new RowMappers.LabelMapper(newCursor(LABEL_COLUMNS, new Object[][] { row })).mapAll().get(0);
+
+		assertEquals(DirtyState.UNMODIFIED, mapped.dirtyState);
+	}
+
+	public void testMapAllKeepsOrder() {
+		Object[][] rows = new Object[5][];
+
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new Object[] { i, "Query " + i, "p:" + i };
+		}
+
+		ArrayList<Query> queries = new RowMappers.QueryMapper(newCursor(QUERY_COLUMNS, rows)).mapAll();
+
+		assertEquals(rows.length, queries.size());
+
+		for (int i = 0; i < rows.length; i++) {
+			assertEquals(i, queries.get(i).id);
+		}
+
+		assertEquals(0, new RowMappers.QueryMapper(newCursor(QUERY_COLUMNS, new Object[0][])).mapAll().size());
+	}
+
+
+	// Columns are deliberately not in the mappers' order (the mappers look them up by name)
+	private static final String[] ITEM_COLUMNS = {
+		DBConsts.ITEMS_SYNC_HASH, DBConsts.ITEMS_ID, DBConsts.ITEMS_CONTENT, DBConsts.ITEMS_COMPLETED,
+		DBConsts.ITEMS_DATE_STRING, DBConsts.ITEMS_DUE_DATE, DBConsts.ITEMS_INDENT, DBConsts.ITEMS_NOTE_COUNT,
+		DBConsts.ITEMS_ORDER, DBConsts.ITEMS_PRIORITY, DBConsts.ITEMS_PROJECT_ID, DBConsts.ITEMS_DIRTY_STATE
+	};
+
+	private static final String[] PROJECT_COLUMNS = {
+		DBConsts.PROJECTS_ID, DBConsts.PROJECTS_NAME, DBConsts.PROJECTS_COLOR, DBConsts.PROJECTS_INDENT,
+		DBConsts.PROJECTS_ITEM_COUNT, DBConsts.PROJECTS_ORDER, DBConsts.PROJECTS_DIRTY_STATE, DBConsts.PROJECTS_SYNC_HASH
+	};
+
+	private static final String[] LABEL_COLUMNS = {
+		DBConsts.LABELS_ID, DBConsts.LABELS_NAME, DBConsts.LABELS_COLOR, DBConsts.LABELS_COUNT,
+		DBConsts.LABELS_DIRTY_STATE, DBConsts.LABELS_SYNC_HASH
+	};
+
+	private static final String[] NOTE_COLUMNS = {
+		DBConsts.NOTES_ID, DBConsts.NOTES_CONTENT, DBConsts.NOTES_ITEM_ID, DBConsts.NOTES_POST_DATE,
+		DBConsts.NOTES_DIRTY_STATE, DBConsts.NOTES_SYNC_HASH
+	};
+
+	private static final String[] QUERY_COLUMNS = {
+		DBConsts.QUERIES_ID, DBConsts.QUERIES_NAME, DBConsts.QUERIES_QUERY
+	};
+
+	/**
+	 * Returns an item row (in the order of ITEM_COLUMNS), encoded the way the storage writes it
+	 */
+	private static Object[] itemRow(Item item) {
+		return new Object[] {
+			item.syncHash, item.id, item.rawContent, (item.completed ? 1 : 0), item.dateString,
+			(item.dueTime > 0 ? item.dueTime : Long.MAX_VALUE), item.indentLevel, item.noteCount,
+			item.itemOrder, item.priority, item.projectId, item.dirtyState.getCode()
+		};
+	}
+}